@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.Predicate.Op;
@@ -21,6 +22,7 @@ import simpledb.Predicate.Op;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final PageFile io;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
@@ -35,6 +37,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.io = new PageFile(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -78,13 +81,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = read(0, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -97,13 +98,16 @@ public class BTreeFile implements DbFile {
 				return p;
 			}
 			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
+				if(id.pgcateg() == BTreePageId.LEAF) {
+					// decode leaves straight from the mapping, if any
+					ByteBuffer mapped = io.map(offsetOf(id), BufferPool.getPageSize());
+					if (mapped != null) {
+						Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+						return new BTreeLeafPage(id, mapped, keyField);
+					}
 				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				byte pageBuf[] = new byte[BufferPool.getPageSize()];
+				int retval = read(offsetOf(id), pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -127,17 +131,21 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * Read bytes of the file, from the mapping of the file if it is memory
+	 * mapped.
+	 */
+	private int read(long offset, byte[] buf) throws IOException {
+		ByteBuffer mapped = io.map(offset, buf.length);
+		if (mapped == null)
+			return io.read(offset, buf);
+		mapped.get(buf);
+		return buf.length;
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -145,21 +153,51 @@ public class BTreeFile implements DbFile {
 	 * @param page - the page to write to disk
 	 */
 	public void writePage(Page page) throws IOException {
-		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		io.write(offsetOf((BTreePageId) page.getId()), page.getPageData());
+	}
+
+	/**
+	 * Write several pages to disk, with one write for each run of pages that
+	 * are adjacent in the file.
+	 * 
+	 * @param pages - the pages to write to disk
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		ArrayList<Page> sorted = new ArrayList<Page>(pages);
+		Collections.sort(sorted, new Comparator<Page>() {
+			public int compare(Page a, Page b) {
+				return Long.compare(offsetOf((BTreePageId) a.getId()), offsetOf((BTreePageId) b.getId()));
+			}
+		});
+		long[] offsets = new long[sorted.size()];
+		byte[][] data = new byte[sorted.size()][];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = offsetOf((BTreePageId) sorted.get(i).getId());
+			data[i] = sorted.get(i).getPageData();
 		}
+		io.write(offsets, data);
+	}
+
+	/**
+	 * Returns the offset of a page in the file: the root pointer page comes
+	 * first, followed by the other pages, numbered from 1.
+	 */
+	private static long offsetOf(BTreePageId id) {
+		if(id.pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
 	}
 	
+	/**
+	 * Turns the memory mapped read path on or off.  While it is on, leaf pages
+	 * are decoded straight from a read-only mapping of the file, and other
+	 * pages are copied from it without a system call.  Writes are not
+	 * affected.
+	 */
+	public void setMemoryMapped(boolean on) {
+		io.setMemoryMapped(on);
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
@@ -175,6 +213,18 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Estimates the number of pages a lookup reads from the root down to a
+	 * leaf, assuming the internal pages are full
+	 */
+	public int estimateHeight() {
+		int fanout = BTreeInternalPage.getMaxEntries(td.getFieldType(keyField)) + 1;
+		int height = 1;
+		for (long pages = numPages(); pages > 1; pages = (pages + fanout - 1) / fanout)
+			height++;
+		return height;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -195,7 +245,20 @@ public class BTreeFile implements DbFile {
 			Field f) 
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		if(pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+			}
+		}
+		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
 	}
 	
 	/**
@@ -247,8 +310,39 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage rightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+		// move the upper half of the tuples to the new page
+		int toMove = page.getNumTuples() / 2;
+		Iterator<Tuple> it = page.reverseIterator();
+		Tuple t = null;
+		for(int i = 0; i < toMove && it.hasNext(); i++) {
+			t = it.next();
+			page.deleteTuple(t);
+			rightPage.insertTuple(t);
+		}
+		Field midKey = t.getField(keyField);
+
+		// link the new page in between page and its old right sibling
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(rightPage.getId());
+		}
+		rightPage.setRightSiblingId(oldRightId);
+		rightPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(rightPage.getId());
+
+		// copy the middle key up into the parent
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), midKey);
+		parent.insertEntry(new BTreeEntry(midKey, page.getId(), rightPage.getId()));
+		page.setParentId(parent.getId());
+		rightPage.setParentId(parent.getId());
+
+		if(field.compare(Op.GREATER_THAN, midKey)) {
+			return rightPage;
+		}
+		return page;
 	}
 	
 	/**
@@ -285,7 +379,32 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeInternalPage rightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+		// move the upper half of the entries to the new page
+		int toMove = page.getNumEntries() / 2;
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		for(int i = 0; i < toMove && it.hasNext(); i++) {
+			BTreeEntry e = it.next();
+			page.deleteKeyAndRightChild(e);
+			rightPage.insertEntry(e);
+		}
+
+		// push the middle key up into the parent
+		BTreeEntry mid = it.next();
+		page.deleteKeyAndRightChild(mid);
+		mid.setLeftChild(page.getId());
+		mid.setRightChild(rightPage.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), mid.getKey());
+		parent.insertEntry(mid);
+		page.setParentId(parent.getId());
+		rightPage.setParentId(parent.getId());
+		updateParentPointers(tid, dirtypages, rightPage);
+
+		if(field.compare(Op.GREATER_THAN, mid.getKey())) {
+			return rightPage;
+		}
+		return page;
 	}
 	
 	/**
@@ -848,13 +967,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				io.write(new long[] { 0, emptyRootPtrData.length },
+						new byte[][] { emptyRootPtrData, emptyLeafData });
 			}
 		}
 
@@ -910,11 +1026,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				io.write(f.length(), emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -945,10 +1058,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		io.write(offsetOf(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1066,7 +1176,26 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return new BTreeFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Get an iterator for the tuples in this B+ tree file that satisfy all of the
+	 * predicates, in sorted order.  A range predicate on the key field starts the
+	 * scan at the first leaf that can hold a matching tuple, and ends it after the
+	 * last one; the other predicates are tested as the leaves are read.
+	 * 
+	 * @param tid - the transaction id
+	 * @param predicates - the predicates the tuples satisfy
+	 * @return an iterator for the matching tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+		for (Predicate p : predicates) {
+			if (p.getField() == keyField && p.getOp() != Op.NOT_EQUALS && p.getOp() != Op.LIKE)
+				return new FilteredDbFileIterator(
+						indexIterator(tid, new IndexPredicate(p.getOp(), p.getOperand())), predicates);
+		}
+		return new BTreeFileIterator(this, tid, predicates);
 	}
 
 }
@@ -1081,15 +1210,19 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	TransactionId tid;
 	BTreeFile f;
+	Predicate[] predicates;
+	ReadAhead readAhead;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param predicates - the predicates the returned tuples satisfy, or null
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, Predicate[] predicates) {
 		this.f = f;
 		this.tid = tid;
+		this.predicates = predicates;
 	}
 
 	/**
@@ -1100,7 +1233,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		it = curp.iterator();
+		it = curp.iterator(predicates);
+		readAhead = new ReadAhead(Database.getBufferPool(), ReadAhead.RIGHT_SIBLINGS);
+		readAhead.accessed(curp);
 	}
 
 	/**
@@ -1122,7 +1257,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+				readAhead.accessed(curp);
+				it = curp.iterator(predicates);
 				if (!it.hasNext())
 					it = null;
 			}
@@ -1148,6 +1284,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		readAhead = null;
 	}
 }
 
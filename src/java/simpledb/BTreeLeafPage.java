@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -62,27 +63,38 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from the bytes of a page in a buffer, e.g. a
+	 * region of a memory mapped file.  The tuples are decoded straight from
+	 * the buffer, starting at its position; the buffer is not kept.
+	 * 
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = data.duplicate();
 
 		// Read the parent and sibling pointers
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.parent = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 		}
 
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.leftSibling = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 		}
 
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.rightSibling = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
@@ -90,20 +102,18 @@ public class BTreeLeafPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		buf.get(header);
 
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
 			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+				tuples[i] = readNextTuple(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
-		setBeforeImage();
+		// the before-image is copied when the page is first modified
 	}
 
 	/** 
@@ -132,12 +142,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -146,27 +151,16 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read tuples from the source file.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+	private Tuple readNextTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
 		// if associated bit is not set, read forward to the next tuple, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
+			if (buf.remaining() < td.getSize())
+				throw new NoSuchElementException("error reading empty tuple");
+			buf.position(buf.position() + td.getSize());
 			return null;
 		}
 
@@ -176,7 +170,7 @@ public class BTreeLeafPage extends BTreePage {
 		t.setRecordId(rid);
 		try {
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
+				Field f = td.getFieldType(j).parse(buf);
 				t.setField(j, f);
 			}
 		} catch (java.text.ParseException e) {
@@ -294,6 +288,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null tuple.");
+		preserveBeforeImage();
 		markSlotUsed(rid.getTupleNumber(), false);
 		t.setRecordId(null);
 	}
@@ -321,6 +316,7 @@ public class BTreeLeafPage extends BTreePage {
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
+		preserveBeforeImage();
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
@@ -401,6 +397,7 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
 		if(id == null) {
+			preserveBeforeImage();
 			leftSibling = 0;
 		}
 		else {
@@ -410,6 +407,7 @@ public class BTreeLeafPage extends BTreePage {
 			if(id.pgcateg() != BTreePageId.LEAF) {
 				throw new DbException("leftSibling must be a leaf node");
 			}
+			preserveBeforeImage();
 			leftSibling = id.getPageNumber();
 		}
 	}
@@ -421,6 +419,7 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
 		if(id == null) {
+			preserveBeforeImage();
 			rightSibling = 0;
 		}
 		else {
@@ -430,6 +429,7 @@ public class BTreeLeafPage extends BTreePage {
 			if(id.pgcateg() != BTreePageId.LEAF) {
 				throw new DbException("rightSibling must be a leaf node");
 			}
+			preserveBeforeImage();
 			rightSibling = id.getPageNumber();
 		}
 	}
@@ -483,6 +483,15 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page that satisfy all of the
+	 * predicates.  The tuples of a leaf page are decoded when it is read, so the
+	 * predicates are tested against the decoded tuples.
+	 */
+	public Iterator<Tuple> iterator(Predicate[] predicates) {
+		return new BTreeLeafPageIterator(this, predicates);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -524,9 +533,15 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 	int curTuple = 0;
 	Tuple nextToReturn = null;
 	BTreeLeafPage p;
+	Predicate[] predicates;
 
 	public BTreeLeafPageIterator(BTreeLeafPage p) {
+		this(p, null);
+	}
+
+	public BTreeLeafPageIterator(BTreeLeafPage p, Predicate[] predicates) {
 		this.p = p;
+		this.predicates = predicates;
 	}
 
 	public boolean hasNext() {
@@ -536,8 +551,9 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		try {
 			while (true) {
 				nextToReturn = p.getTuple(curTuple++);
-				if(nextToReturn != null)
+				if(nextToReturn != null && Predicate.filterAll(predicates, nextToReturn))
 					return true;
+				nextToReturn = null;
 			}
 		} catch(NoSuchElementException e) {
 			return false;
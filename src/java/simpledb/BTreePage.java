@@ -21,6 +21,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	// the before-image of the page, or null while it is the page itself
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
 
@@ -61,6 +62,41 @@ public abstract class BTreePage implements Page {
 		return pid;
 	}
 
+	/**
+	 * Makes the current contents of this page its before-image.  The
+	 * contents are only copied when the page is first modified afterwards,
+	 * so pages that are only read never copy themselves.
+	 */
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Copies the current contents of this page into its before-image if
+	 * they are the before-image.  Every method that modifies the page must
+	 * call this before it does.
+	 */
+	protected void preserveBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null)
+				oldData = getPageData();
+		}
+	}
+
+	/**
+	 * @return the bytes of the before-image of this page
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
 	/**
 	 * Static method to generate a byte array corresponding to an empty
 	 * BTreePage.
@@ -101,6 +137,7 @@ public abstract class BTreePage implements Page {
 		if(id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
 			throw new DbException("parent must be an internal node or root pointer");
 		}
+		preserveBeforeImage();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			parent = 0;
 		}
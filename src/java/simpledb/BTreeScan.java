@@ -17,6 +17,7 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private int keyField = -1;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -60,6 +61,14 @@ public class BTreeScan implements OpIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the field the tuples are ordered by, the key field of the
+	 *         B+ tree, or -1 if the table is not a B+ tree
+	 */
+	public int getKeyField() {
+		return this.keyField;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -76,6 +85,8 @@ public class BTreeScan implements OpIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
+		DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+		this.keyField = file instanceof BTreeFile ? ((BTreeFile) file).keyField() : -1;
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
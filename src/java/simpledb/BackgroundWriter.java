@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BackgroundWriter is a daemon thread that writes the dirty pages of
+ * committed transactions back to disk ahead of eviction, so that query
+ * threads rarely have to write a page before they can reuse its frame.
+ * <p>
+ * Every round writes at most pagesPerRound committed pages that no
+ * transaction holds an exclusive lock on, batched per DbFile and sorted by
+ * page number.  Between rounds the writer sleeps for the configured
+ * interval, unless fewer than lowWaterMark frames of the pool are free or
+ * clean, in which case it starts the next round right away.
+ *
+ * @see BufferPool#startBackgroundWriter
+ */
+public class BackgroundWriter extends Thread {
+
+    private final BufferPool pool;
+    private final long interval;
+    private final int pagesPerRound;
+    private final int lowWaterMark;
+
+    private volatile boolean running = true;
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong rounds = new AtomicLong();
+
+    /**
+     * @param pool the buffer pool to write pages of
+     * @param interval milliseconds between two rounds
+     * @param pagesPerRound the maximum number of pages written per round
+     * @param lowWaterMark the number of clean or free frames below which
+     *        rounds run back to back
+     */
+    public BackgroundWriter(BufferPool pool, long interval, int pagesPerRound, int lowWaterMark) {
+        super("BackgroundWriter");
+        if (interval <= 0 || pagesPerRound <= 0)
+            throw new IllegalArgumentException("interval and pagesPerRound must be positive");
+        this.pool = pool;
+        this.interval = interval;
+        this.pagesPerRound = pagesPerRound;
+        this.lowWaterMark = lowWaterMark;
+        setDaemon(true);
+    }
+
+    public void run() {
+        while (running) {
+            int written = 0;
+            try {
+                written = pool.writeBehind(pagesPerRound);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pagesWritten.addAndGet(written);
+            rounds.incrementAndGet();
+            if (written > 0 && pool.numCleanFrames() < lowWaterMark)
+                continue;
+            synchronized (this) {
+                if (!running)
+                    break;
+                try {
+                    wait(interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Stops the writer and waits for its current round to finish. */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the number of pages written by this writer so far */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /** @return the number of rounds this writer has run so far */
+    public long getRounds() {
+        return rounds.get();
+    }
+}
@@ -0,0 +1,295 @@
+package simpledb;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Batch holds up to a fixed number of rows of a TupleDesc column by column,
+ * for the batch-at-a-time operators that implement {@link BatchIterator}.
+ * Int columns are int arrays.  String columns are byte slices: for each row,
+ * the array holding the characters of the value, one byte per character as
+ * in a serialized StringField, with their offset and length in that array.
+ * Scans point the slices into the bytes of the pages they read, so strings
+ * are not copied, except from memory mapped pages, or decoded unless an
+ * operator needs them as Fields.
+ * <p>
+ * A batch may carry a selection vector, the rows of the batch that are part
+ * of the result in increasing order; a Filter only updates the selection
+ * vector instead of moving rows.  Operators read the rows of a batch with
+ * {@link #numSelected} and {@link #selected}.
+ * <p>
+ * The operator that returns a batch owns it and may reuse it for the next
+ * one; the operators above may update its selection vector, but must copy
+ * the rows they keep after they asked for the next batch, e.g. with
+ * {@link #copyRow}.  The arrays that string fields point into are never
+ * modified, so the copies may share them.
+ */
+public class Batch {
+
+    /** The number of rows operators put into a batch, unless told otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final byte[][][] bytes;
+    private final int[][] offsets;
+    private final int[][] lengths;
+    private int size;
+    private int[] selection;
+    private int numSelected;
+    private boolean hasSelection;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the largest number of rows the batch can hold
+     */
+    public Batch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        bytes = new byte[n][][];
+        offsets = new int[n][];
+        lengths = new int[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                bytes[i] = new byte[capacity][];
+                offsets[i] = new int[capacity];
+                lengths[i] = new int[capacity];
+            }
+        }
+        selection = new int[capacity];
+    }
+
+    /** A batch that shares the columns of another one; see {@link #project}. */
+    private Batch(TupleDesc td, Batch source, int[] columns) {
+        this.td = td;
+        this.capacity = source.capacity;
+        int n = columns.length;
+        ints = new int[n][];
+        bytes = new byte[n][][];
+        offsets = new int[n][];
+        lengths = new int[n][];
+        for (int i = 0; i < n; i++) {
+            ints[i] = source.ints[columns[i]];
+            bytes[i] = source.bytes[columns[i]];
+            offsets[i] = source.offsets[columns[i]];
+            lengths[i] = source.lengths[columns[i]];
+        }
+        size = source.size;
+        selection = source.selection;
+        numSelected = source.numSelected;
+        hasSelection = source.hasSelection;
+    }
+
+    /** @return the schema of the rows of this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the largest number of rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows in this batch, selected or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added to this batch */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Removes all rows and the selection vector. */
+    public void clear() {
+        size = 0;
+        numSelected = 0;
+        hasSelection = false;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return hasSelection ? numSelected : size;
+    }
+
+    /**
+     * @param i the index of a selected row, from 0 to numSelected() - 1
+     * @return the row of the ith selected row
+     */
+    public int selected(int i) {
+        return hasSelection ? selection[i] : i;
+    }
+
+    /**
+     * Returns an array to write a new selection vector into; it holds the
+     * current selection in its first numSelected() entries if there is one.
+     * Callers must then call {@link #setSelection}.
+     */
+    public int[] selectionVector() {
+        return selection;
+    }
+
+    /**
+     * Sets the selection vector to the first n entries of
+     * {@link #selectionVector}, which must be rows in increasing order.
+     */
+    public void setSelection(int n) {
+        numSelected = n;
+        hasSelection = true;
+    }
+
+    /**
+     * Adds an empty row, whose fields the caller then sets.  Batches with a
+     * selection vector can't grow.
+     *
+     * @return the index of the row
+     */
+    public int addRow() {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        if (hasSelection)
+            throw new IllegalStateException("batch has a selection vector");
+        return size++;
+    }
+
+    /** @return the values of an int column, indexed by row */
+    public int[] getInts(int col) {
+        return ints[col];
+    }
+
+    /** @return the value of an int field */
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    /** Sets the value of an int field. */
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    /** @return the array that holds the characters of a string field */
+    public byte[] getBytes(int col, int row) {
+        return bytes[col][row];
+    }
+
+    /** @return the offset of the characters of a string field in its array */
+    public int getOffset(int col, int row) {
+        return offsets[col][row];
+    }
+
+    /** @return the number of characters of a string field */
+    public int getLength(int col, int row) {
+        return lengths[col][row];
+    }
+
+    /**
+     * Sets the value of a string field to a slice of an array, which the
+     * batch does not copy.
+     */
+    public void setString(int col, int row, byte[] data, int offset, int length) {
+        bytes[col][row] = data;
+        offsets[col][row] = offset;
+        lengths[col][row] = length;
+    }
+
+    /** @return the value of a string field */
+    public String getString(int col, int row) {
+        byte[] data = bytes[col][row];
+        int off = offsets[col][row];
+        return new String(data, off, lengths[col][row], StandardCharsets.ISO_8859_1);
+    }
+
+    /** @return a field of a row as a Field */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return new StringField(getString(col, row), Type.STRING_LEN);
+    }
+
+    /** Sets a field of a row from a Field. */
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null) {
+            ints[col][row] = ((IntField) f).getValue();
+        } else {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            byte[] data = new byte[len];
+            for (int i = 0; i < len; i++)
+                data[i] = (byte) s.charAt(i);
+            setString(col, row, data, 0, len);
+        }
+    }
+
+    /**
+     * @return a field of a row as a key for hash tables, equal for equal
+     *         values: an Integer for int fields, a String for strings
+     */
+    public Object getKey(int col, int row) {
+        if (ints[col] != null)
+            return Integer.valueOf(ints[col][row]);
+        return getString(col, row);
+    }
+
+    /**
+     * Compares a string field to a string the way StringField.compare does,
+     * without creating a String for the field.
+     */
+    public boolean compareString(int col, int row, Predicate.Op op, String operand) {
+        return StringField.compare(bytes[col][row], offsets[col][row], lengths[col][row], op, operand);
+    }
+
+    /**
+     * Copies all fields of a row of another batch into a row of this one,
+     * starting at a column of this batch.  String fields keep pointing into
+     * the arrays of the other batch.
+     */
+    public void copyRow(int row, int firstCol, Batch src, int srcRow) {
+        for (int i = 0; i < src.ints.length; i++) {
+            int col = firstCol + i;
+            if (src.ints[i] != null) {
+                ints[col][row] = src.ints[i][srcRow];
+            } else {
+                bytes[col][row] = src.bytes[i][srcRow];
+                offsets[col][row] = src.offsets[i][srcRow];
+                lengths[col][row] = src.lengths[i][srcRow];
+            }
+        }
+    }
+
+    /**
+     * Returns a batch with only some of the columns of this one, and the
+     * same rows and selection.  The new batch shares the columns and the
+     * selection vector of this one, so it is only valid as long as this
+     * one is.
+     *
+     * @param columns the columns to keep, in order
+     * @param projected the schema of the new batch, see
+     *        {@link TupleDesc#project}
+     */
+    public Batch project(int[] columns, TupleDesc projected) {
+        return new Batch(projected, this, columns);
+    }
+
+    /**
+     * Adds a tuple as a new row.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++)
+            setField(i, row, t.getField(i));
+    }
+
+    /** @return a row of this batch as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * BatchAdapter reads the tuples of an OpIterator into batches, so that batch
+ * operators can run above operators and access methods that only produce
+ * tuples.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int capacity;
+    private transient Batch batch;
+
+    /**
+     * @param child the operator to read the tuples of
+     */
+    public BatchAdapter(OpIterator child) {
+        this(child, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param child the operator to read the tuples of
+     * @param capacity the number of tuples per batch
+     */
+    public BatchAdapter(OpIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new Batch(child.getTupleDesc(), capacity);
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("BatchAdapter not yet open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}: it computes
+ * MIN, MAX, SUM, AVG or COUNT of a field, over all rows of its child or per
+ * group of rows with the same value of another field.  Like
+ * IntegerAggregator, sums are ints and AVG is the integer quotient of the
+ * sum and the count.  Only COUNT is supported for string fields.
+ * <p>
+ * Without grouping, the aggregate is a loop over the int column of each
+ * batch into a local variable.  With grouping, the running count, sum,
+ * minimum and maximum of each group are kept in an int array per group.
+ * The whole child is read when the aggregate is opened; its result is one
+ * row per group, in the order the groups were first seen, holding the
+ * group and the aggregate, or just the aggregate without grouping.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient ArrayList<Batch> result;
+    private int nextResult;
+
+    /**
+     * @param child the operator to read batches from
+     * @param afield the field of the child to aggregate
+     * @param gfield the field of the child to group by, or
+     *        {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregate to compute: MIN, MAX, SUM, AVG or COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (aop != Aggregator.Op.COUNT && childtd.getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported for string fields");
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        String aname = Aggregate.nameOfAggregatorOp(aop) + "(" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        else
+            td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), aname });
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        result = new ArrayList<Batch>();
+        nextResult = 0;
+        if (gfield == Aggregator.NO_GROUPING)
+            aggregate();
+        else
+            aggregateGroups();
+    }
+
+    /** Aggregates all rows of the child into a single row. */
+    private void aggregate() throws DbException, TransactionAbortedException {
+        boolean ints = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        int count = 0, sum = 0;
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        Batch b;
+        while ((b = child.nextBatch()) != null) {
+            int n = b.numSelected();
+            count += n;
+            if (!ints)
+                continue;
+            int[] col = b.getInts(afield);
+            for (int i = 0; i < n; i++) {
+                int v = col[b.selected(i)];
+                sum += v;
+                if (v < min)
+                    min = v;
+                if (v > max)
+                    max = v;
+            }
+        }
+        if (count > 0)
+            emit(null, new int[] { count, sum, min, max });
+    }
+
+    /** Aggregates the rows of the child into a row per group. */
+    private void aggregateGroups() throws DbException, TransactionAbortedException {
+        boolean ints = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        LinkedHashMap<Object, int[]> groups = new LinkedHashMap<Object, int[]>();
+        Batch b;
+        while ((b = child.nextBatch()) != null) {
+            int n = b.numSelected();
+            int[] col = ints ? b.getInts(afield) : null;
+            for (int i = 0; i < n; i++) {
+                int row = b.selected(i);
+                Object key = b.getKey(gfield, row);
+                int[] acc = groups.get(key);
+                if (acc == null) {
+                    acc = new int[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+                    groups.put(key, acc);
+                }
+                acc[COUNT]++;
+                if (ints) {
+                    int v = col[row];
+                    acc[SUM] += v;
+                    if (v < acc[MIN])
+                        acc[MIN] = v;
+                    if (v > acc[MAX])
+                        acc[MAX] = v;
+                }
+            }
+        }
+        for (Map.Entry<Object, int[]> e : groups.entrySet())
+            emit(e.getKey(), e.getValue());
+    }
+
+    /** Appends the result row of a group, or of all rows if group is null. */
+    private void emit(Object group, int[] acc) {
+        Batch out = result.isEmpty() ? null : result.get(result.size() - 1);
+        if (out == null || out.isFull()) {
+            out = new Batch(td, Batch.DEFAULT_CAPACITY);
+            result.add(out);
+        }
+        int row = out.addRow();
+        int col = 0;
+        if (group != null) {
+            if (group instanceof Integer)
+                out.setField(col++, row, new IntField((Integer) group));
+            else
+                out.setField(col++, row, new StringField((String) group, Type.STRING_LEN));
+        }
+        int value;
+        switch (aop) {
+        case COUNT:
+            value = acc[COUNT];
+            break;
+        case SUM:
+            value = acc[SUM];
+            break;
+        case AVG:
+            value = acc[SUM] / acc[COUNT];
+            break;
+        case MIN:
+            value = acc[MIN];
+            break;
+        default:
+            value = acc[MAX];
+            break;
+        }
+        out.setInt(col, row, value);
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (result == null)
+            throw new IllegalStateException("BatchAggregate not yet open");
+        return nextResult < result.size() ? result.get(nextResult++) : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextResult = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        result = null;
+    }
+}
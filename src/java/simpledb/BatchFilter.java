@@ -0,0 +1,130 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}: it keeps the rows of
+ * each batch of its child that satisfy a conjunction of predicates.  It
+ * tests one predicate at a time over a whole column, narrowing the
+ * selection vector of the batch, so that for int columns the test is a
+ * loop over an int array with the comparison hoisted out of it.  The rows
+ * themselves are not moved.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final Predicate[] predicates;
+
+    /**
+     * @param child the operator to read batches from
+     * @param predicates the predicates, over the fields of the child, that
+     *        all returned rows satisfy
+     */
+    public BatchFilter(BatchIterator child, Predicate[] predicates) {
+        this.child = child;
+        this.predicates = predicates.clone();
+    }
+
+    /** @return the predicates this filter tests */
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch batch = child.nextBatch();
+        if (batch != null) {
+            for (Predicate p : predicates) {
+                if (batch.numSelected() == 0)
+                    break;
+                select(batch, p);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Narrows the selection of a batch to the rows that satisfy a predicate.
+     */
+    public static void select(Batch batch, Predicate p) {
+        int field = p.getField();
+        Predicate.Op op = p.getOp();
+        int n = batch.numSelected();
+        int[] sel = batch.selectionVector();
+        int k = 0;
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int[] col = batch.getInts(field);
+            int c = ((IntField) p.getOperand()).getValue();
+            // a loop per operator, so that the comparison is not a switch
+            // per row; batch.selected(i) is read before sel[k <= i] is written
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.selected(i);
+                    if (col[row] == c)
+                        sel[k++] = row;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.selected(i);
+                    if (col[row] != c)
+                        sel[k++] = row;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.selected(i);
+                    if (col[row] > c)
+                        sel[k++] = row;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.selected(i);
+                    if (col[row] >= c)
+                        sel[k++] = row;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.selected(i);
+                    if (col[row] < c)
+                        sel[k++] = row;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.selected(i);
+                    if (col[row] <= c)
+                        sel[k++] = row;
+                }
+                break;
+            }
+        } else {
+            String c = ((StringField) p.getOperand()).getValue();
+            for (int i = 0; i < n; i++) {
+                int row = batch.selected(i);
+                if (batch.compareString(field, row, op, c))
+                    sel[k++] = row;
+            }
+        }
+        batch.setSelection(k);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}.  It reads
+ * all of its left child into a hash table when it is opened, then probes
+ * it with the batches of its right child.  Like HashEquiJoin, it returns the
+ * fields of the left row followed by those of the right one.
+ * <p>
+ * The left rows are copied into batches of their own; the table maps each
+ * key to the last of its rows, and the rows with the same key are chained
+ * through an int array indexed by row, so the table holds one entry per
+ * distinct key instead of a list of tuples per key.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int capacity;
+
+    // the build side: row r of batch b is row b * capacity + r
+    private transient ArrayList<Batch> rows;
+    private transient HashMap<Object, Integer> heads;
+    private transient int[] next;
+
+    // the probe side
+    private transient Batch out;
+    private transient Batch probe;
+    private int probeIndex;
+    private int probeRow;
+    private int match = -1;
+    private boolean done;
+
+    /**
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left input, which is read into the hash table
+     * @param child2 the right input, which probes it
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this(p, child1, child2, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows per batch this returns
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2,
+            int capacity) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins only support EQUALS");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.capacity = capacity;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        rows = new ArrayList<Batch>();
+        heads = new HashMap<Object, Integer>();
+        next = new int[0];
+        int field = pred.getField1();
+        Batch b;
+        Batch last = null;
+        while ((b = child1.nextBatch()) != null) {
+            for (int i = 0; i < b.numSelected(); i++) {
+                if (last == null || last.isFull()) {
+                    last = new Batch(child1.getTupleDesc(), capacity);
+                    rows.add(last);
+                    next = Arrays.copyOf(next, rows.size() * capacity);
+                }
+                int r = last.addRow();
+                last.copyRow(r, 0, b, b.selected(i));
+                int row = (rows.size() - 1) * capacity + r;
+                Integer head = heads.put(last.getKey(field, r), row);
+                next[row] = head == null ? -1 : head;
+            }
+        }
+        out = new Batch(comboTD, capacity);
+        probe = null;
+        match = -1;
+        done = false;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("BatchHashEquiJoin not yet open");
+        out.clear();
+        int leftFields = child1.getTupleDesc().numFields();
+        while (!out.isFull()) {
+            if (match >= 0) {
+                int row = out.addRow();
+                out.copyRow(row, 0, rows.get(match / capacity), match % capacity);
+                out.copyRow(row, leftFields, probe, probeRow);
+                match = next[match];
+                continue;
+            }
+            if (probe == null || probeIndex >= probe.numSelected()) {
+                if (done)
+                    break;
+                probe = child2.nextBatch();
+                probeIndex = 0;
+                if (probe == null) {
+                    done = true;
+                    break;
+                }
+                continue;
+            }
+            probeRow = probe.selected(probeIndex++);
+            Integer head = heads.get(probe.getKey(pred.getField2(), probeRow));
+            match = head == null ? -1 : head;
+        }
+        if (out.size() == 0 && done)
+            return null;
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+        match = -1;
+        done = false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        rows = null;
+        heads = null;
+        next = null;
+        out = null;
+        probe = null;
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the interface of operators that produce their result a
+ * {@link Batch} of rows at a time instead of a Tuple at a time, so that the
+ * per-row work is a tight loop over arrays of primitive values instead of a
+ * chain of virtual calls and Field objects per tuple.  Batch operators are
+ * built into plans next to OpIterators: {@link BatchAdapter} reads the
+ * tuples of an OpIterator in batches, and {@link BatchOpIterator} returns
+ * the rows of a BatchIterator as tuples.
+ * <p>
+ * As with OpIterator, an iterator must be opened before any of the other
+ * methods are called, opens its children when it is opened, and closes them
+ * when it is closed.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows.  The batch may be empty, or have a
+     * selection vector that selects none of its rows, without the iteration
+     * being finished.  The iterator owns the batch and may reuse it once
+     * the caller asks for the next one.
+     *
+     * @return the next batch, or null if the iteration is finished
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public Batch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the schema of the rows of the batches of this iterator
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * BatchOpIterator returns the selected rows of the batches of a
+ * BatchIterator as tuples, so that a plan, or a part of one, that runs
+ * batch at a time can be used wherever an OpIterator is expected.
+ */
+public class BatchOpIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private transient Batch batch;
+    private int next;
+
+    /**
+     * @param child the batch operator to return the rows of
+     */
+    public BatchOpIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    /** @return the batch operator this returns the rows of */
+    public BatchIterator getBatchIterator() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || next >= batch.numSelected()) {
+            batch = child.nextBatch();
+            next = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.selected(next++));
+    }
+
+    /**
+     * A BatchOpIterator has no OpIterator children; its child is a
+     * BatchIterator.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * BatchProject is the batch version of {@link Project}.  It returns views of
+ * the batches of its child with only some of their columns, without copying
+ * any rows.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * @param fields the fields of the child to return, in order
+     * @param child the operator to read batches from
+     */
+    public BatchProject(int[] fields, BatchIterator child) {
+        this.child = child;
+        this.fields = fields.clone();
+        this.td = child.getTupleDesc().project(fields);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch batch = child.nextBatch();
+        return batch == null ? null : batch.project(fields, td);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+    }
+}
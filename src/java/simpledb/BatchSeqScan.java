@@ -0,0 +1,115 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is a sequential scan that returns the tuples of a table a
+ * batch at a time.  Heap files of fixed-size tuples are read page by page,
+ * copying the fields straight from the page bytes into the batch (see
+ * {@link HeapPage#readBatch}), without a Tuple or Field per row; other
+ * files are read through a {@link SeqScan}.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final int[] columns;
+    private final SeqScan scan;
+    private final int capacity;
+    private transient BatchIterator fallback;
+    private transient HeapFile.PageScan pages;
+    private transient HeapPage page;
+    private int slot;
+    private transient Batch batch;
+
+    /**
+     * Creates a scan of all fields of a table.
+     *
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a scan of some of the fields of a table.
+     *
+     * @param columns the fields of the table to return, in order; null for all
+     * @see SeqScan#SeqScan(TransactionId, int, String, Predicate[], int[])
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows per batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            int capacity) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.columns = columns;
+        this.scan = new SeqScan(tid, tableid, tableAlias, null, columns);
+        this.capacity = capacity;
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return scan.getAlias();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile
+                && ((HeapFile) file).getPageFormat() == HeapFile.PageFormat.FIXED) {
+            pages = ((HeapFile) file).new PageScan(tid, null);
+            page = null;
+            batch = new Batch(getTupleDesc(), capacity);
+        } else {
+            fallback = new BatchAdapter(scan, capacity);
+            fallback.open();
+        }
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (fallback != null)
+            return fallback.nextBatch();
+        if (pages == null)
+            throw new IllegalStateException("BatchSeqScan not yet open");
+        batch.clear();
+        while (!batch.isFull()) {
+            if (page == null) {
+                page = (HeapPage) pages.next();
+                slot = 0;
+                if (page == null)
+                    break;
+            }
+            slot = page.readBatch(slot, batch, columns);
+            if (slot >= page.getNumSlots())
+                page = null;
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            fallback.rewind();
+        } else {
+            pages.rewind();
+            page = null;
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void close() {
+        if (fallback != null)
+            fallback.close();
+        fallback = null;
+        pages = null;
+        page = null;
+        batch = null;
+    }
+}
@@ -3,12 +3,18 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.List;
-import java.util.Map.Entry;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentHashMap.KeySetView;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -32,20 +38,225 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 	
+    /** Minimum number of frames per partition chosen by default. */
+    static final int MIN_PARTITION_PAGES = 64;
+
+    /**
+     * Scans of tables with more pages than this fraction of the pool read
+     * through a {@link BufferRing} instead of the pool.
+     */
+    public static final double BULK_READ_FRACTION = 0.75;
+
+    /**
+     * Maximum number of frames of the ring of a bulk read; rings never
+     * get more than an eighth of the size of the pool.
+     */
+    public static final int RING_PAGES = 32;
+
+    /**
+     * System property that allows {@link #startBackgroundWriter} to switch
+     * commits to NO FORCE although the log cannot redo committed updates;
+     * only meant for tests, since a crash then loses committed transactions.
+     */
+    public static final String UNSAFE_NO_FORCE = "simpledb.unsafeNoForce";
+
 	private final int numPages;
-	private PageBufferPool bufferPool;
+	private final PageBufferPool[] partitions;
+	private final LockManager lockManager;
+	private final AtomicReference<BackgroundWriter> writer = new AtomicReference<BackgroundWriter>();
+
+	/**
+	 * Bumped after every page this pool writes to disk or discards; pages
+	 * read into a ring without a lock are only trusted while it is unchanged.
+	 */
+	private final AtomicLong diskVersion = new AtomicLong();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing
+     * pages with the scan-resistant {@link TwoQueueReplacementPolicy}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
         // some code goes here
-		this.numPages = numPages;
-		this.bufferPool = new PageBufferPool(numPages);
+        this(numPages, TwoQueueReplacementPolicy.FACTORY);
     }
-    
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given kind of policy to choose pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policies creates the page replacement policy of each partition
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Factory policies) {
+        this(numPages, policies, defaultPartitions(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numPartitions hash partitions keyed by PageId.  Each partition has its
+     * own frame table, replacement policy and lock, so threads working on
+     * pages of different partitions never contend.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policies creates the page replacement policy of each partition
+     * @param numPartitions the number of partitions, at most numPages
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Factory policies, int numPartitions) {
+        if (numPartitions < 1 || numPartitions > Math.max(1, numPages))
+            throw new IllegalArgumentException("bad number of partitions: " + numPartitions);
+        this.numPages = numPages;
+        this.lockManager = new LockManager();
+        this.partitions = new PageBufferPool[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            int capacity = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            partitions[i] = new PageBufferPool(capacity, policies.create(capacity));
+        }
+    }
+
+    /**
+     * One partition per core, as long as every partition keeps at least
+     * MIN_PARTITION_PAGES frames; small pools are not partitioned.
+     */
+    private static int defaultPartitions(int numPages) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores, numPages / MIN_PARTITION_PAGES));
+    }
+
+    /** @return the number of hash partitions of this pool */
+    public int numPartitions() {
+        return partitions.length;
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the lock manager guarding the pages of this pool */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * @return the number of nanoseconds the transaction has spent waiting
+     *         for page locks so far
+     */
+    public long getLockWaitTime(TransactionId tid) {
+        return lockManager.getLockWaitTime(tid);
+    }
+
+    /**
+     * Starts a background writer for this pool and switches commits from
+     * FORCE to NO FORCE: the pages a transaction dirtied are only logged
+     * when it commits, and written back later by the background writer or
+     * when they are evicted.
+     * <p>
+     * Committed pages then only live in the pool and in the log until they
+     * are written, so this needs {@link LogFile#recover} to redo them after
+     * a crash.  Recovery is not implemented yet; unless the
+     * {@link #UNSAFE_NO_FORCE} property is set, the writer is refused and
+     * commits keep forcing their pages.
+     *
+     * @param interval milliseconds between two rounds of the writer
+     * @param pagesPerRound the maximum number of pages written per round
+     * @param lowWaterMark the number of clean or free frames below which
+     *        the writer runs rounds back to back
+     * @throws UnsupportedOperationException if the log cannot recover
+     *         committed pages that were not written
+     * @see BackgroundWriter
+     */
+    public void startBackgroundWriter(long interval, int pagesPerRound, int lowWaterMark) {
+        if (!Database.getLogFile().canRecover() && !Boolean.getBoolean(UNSAFE_NO_FORCE))
+            throw new UnsupportedOperationException("NO FORCE commits need log recovery, which is not implemented");
+        BackgroundWriter w = new BackgroundWriter(this, interval, pagesPerRound, lowWaterMark);
+        if (!writer.compareAndSet(null, w))
+            throw new IllegalStateException("background writer already running");
+        w.start();
+    }
+
+    /**
+     * Stops the background writer, writes all committed pages that are
+     * still dirty, and switches commits back to FORCE.
+     */
+    public void stopBackgroundWriter() throws IOException {
+        BackgroundWriter w = writer.getAndSet(null);
+        if (w == null)
+            return;
+        w.shutdown();
+        while (writeBehind(Integer.MAX_VALUE) > 0)
+            ;
+    }
+
+    /** @return the running background writer, or null if commits force pages */
+    public BackgroundWriter getBackgroundWriter() {
+        return writer.get();
+    }
+
+    /**
+     * @return the number of frames of this pool that are free or hold a
+     *         clean page
+     */
+    public int numCleanFrames() {
+        int clean = 0;
+        for (PageBufferPool partition : partitions)
+            clean += partition.capacity - partition.numDirty();
+        return clean;
+    }
+
+    /**
+     * Writes committed but not yet written pages back to disk, unless they
+     * are locked exclusively.  Pages are written in batches per DbFile, in
+     * page number order.
+     *
+     * @param maxPages the maximum number of pages to write
+     * @return the number of pages written
+     */
+    int writeBehind(int maxPages) throws IOException {
+        TransactionId writerTid = new TransactionId();
+        HashMap<Integer, TreeMap<Integer, Page>> batches = new HashMap<Integer, TreeMap<Integer, Page>>();
+        int count = 0;
+        try {
+            for (PageBufferPool partition : partitions) {
+                for (Map.Entry<PageId, TransactionId> e : partition.committed.entrySet()) {
+                    if (count >= maxPages)
+                        break;
+                    PageId pid = e.getKey();
+                    Page page = partition.peek(pid);
+                    if (page == null || !e.getValue().equals(page.isDirty()))
+                        continue;
+                    // a shared lock keeps transactions from changing the page while it is written
+                    if (!lockManager.tryAcquire(writerTid, pid, Permissions.READ_ONLY))
+                        continue;
+                    TreeMap<Integer, Page> batch = batches.get(pid.getTableId());
+                    if (batch == null) {
+                        batch = new TreeMap<Integer, Page>();
+                        batches.put(pid.getTableId(), batch);
+                    }
+                    batch.put(pid.getPageNumber(), page);
+                    count++;
+                }
+            }
+            for (Map.Entry<Integer, TreeMap<Integer, Page>> e : batches.entrySet()) {
+                ArrayList<Page> pages = new ArrayList<Page>(e.getValue().values());
+                Database.getCatalog().getDatabaseFile(e.getKey()).writePages(pages);
+                for (Page page : pages)
+                    partitionOf(page.getId()).written(page);
+                diskVersion.incrementAndGet();
+            }
+        } finally {
+            lockManager.releaseAll(writerTid);
+        }
+        return count;
+    }
+
+    private PageBufferPool partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return partitions[(h & 0x7fffffff) % partitions.length];
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -78,21 +289,76 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (bufferPool.containsKey(pid)) {
-			return bufferPool.get(pid);
-		} else {
-			if (bufferPool.size() < numPages) {
-				Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-				bufferPool.put(pid, page);
-				return page;
-				} 
-			else {
-				Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-				if (bufferPool.size() == numPages) evictPage();
-				bufferPool.put(page.getId(), page);
-				return page;
-      }
+        lockManager.acquire(tid, pid, perm);
+        PageBufferPool partition = partitionOf(pid);
+        Page page = partition.get(pid);
+        if (page == null)
+            page = partition.load(pid, false);
+        return page;
     }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId,
+     * Permissions)}, but read it into the given ring rather than the pool
+     * if it is not resident.  A resident page is returned and counts as a
+     * hit; a page that is in the ring is returned without any I/O.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the bulk read, or null to use the pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY)
+            return getPage(tid, pid, perm);
+        lockManager.acquire(tid, pid, perm);
+        return partitionOf(pid).readThrough(pid, ring, true);
+    }
+
+    /**
+     * Decides whether a scan of a table should read through a ring.
+     *
+     * @param scanPages the number of pages the scan is going to read
+     * @return a new ring if the scan reads more than BULK_READ_FRACTION of
+     *         the pool, null otherwise or if the pool is too small for rings
+     */
+    public BufferRing newBulkReadRing(int scanPages) {
+        int ringPages = Math.min(RING_PAGES, numPages / 8);
+        if (ringPages == 0 || scanPages <= BULK_READ_FRACTION * numPages)
+            return null;
+        return new BufferRing(ringPages);
+    }
+
+    /**
+     * Brings a page into the buffer pool without locking it, e.g. because
+     * a scan is about to read it.  A page that is already resident is left
+     * alone and does not count as accessed.  Neither does the first hit on
+     * a prefetched page: to the replacement policy, that hit is the
+     * reference that brought the page in.
+     *
+     * @param pid the ID of the page to load
+     * @return the resident page
+     * @throws DbException if no page can be evicted to make room
+     */
+    public Page prefetchPage(PageId pid) throws DbException {
+        PageBufferPool partition = partitionOf(pid);
+        Page page = partition.peek(pid);
+        if (page == null)
+            page = partition.load(pid, true);
+        return page;
+    }
+
+    /**
+     * Reads a page into a ring without locking it, unless it is resident in
+     * the pool or already in the ring.
+     *
+     * @param pid the ID of the page to load
+     * @param ring the ring of the bulk read that is about to read the page
+     * @return the resident or ring copy of the page
+     */
+    public Page prefetchPage(PageId pid, BufferRing ring) {
+        return partitionOf(pid).readThrough(pid, ring, false);
     }
 
     /**
@@ -106,7 +372,7 @@ public class BufferPool {
      */
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -116,14 +382,13 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -136,7 +401,24 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                flushPages(tid);
+            } else {
+                // NO STEAL: the before image of every page the transaction
+                // dirtied is the last committed version
+                for (PageId pid : lockManager.lockedPages(tid)) {
+                    PageBufferPool partition = partitionOf(pid);
+                    synchronized (partition) {
+                        Page page = partition.peek(pid);
+                        if (page != null && tid.equals(page.isDirty()))
+                            partition.restore(page.getBeforeImage());
+                    }
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -158,7 +440,7 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
     	
     	ArrayList<Page> pageList = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
-    	bufferPool.putAll(pageList);
+    	cachePages(tid, pageList);
     	
     }
 
@@ -180,21 +462,28 @@ public class BufferPool {
     	
     	int tableId = t.getRecordId().getPageId().getTableId();
     	ArrayList<Page> pageList = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
-    	bufferPool.putAll(pageList);
+    	cachePages(tid, pageList);
     	
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, then the zone maps of the heap files.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-    	ArrayList<PageId> pids = bufferPool.pidList();
-    	
-    	for(int i=0; i<pids.size(); i++) {
-    		flushPage(pids.get(i));
-    	}
+    public void flushAllPages() throws IOException {
+        for (PageBufferPool partition : partitions) {
+            synchronized (partition) {
+                for (PageId pid : partition.pidList())
+                    partition.flushPage(pid);
+            }
+        }
+        Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+        while (tables.hasNext()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tables.next());
+            if (file instanceof HeapFile)
+                ((HeapFile) file).flushZoneMap();
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -205,123 +494,360 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-    	bufferPool.remove(pid);
+        partitionOf(pid).remove(pid);
+        diskVersion.incrementAndGet();
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-    	
-    	HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-    	HeapPage hp = (HeapPage) bufferPool.get(pid);
-    	
-    	if(hp.isDirty()==null) {
-    		hf.writePage(hp);
-    		hp.markDirty(false, null);
-    	}
+    private void flushPage(PageId pid) throws IOException {
+        PageBufferPool partition = partitionOf(pid);
+        synchronized (partition) {
+            partition.flushPage(pid);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
+        While a background writer is running the pages are only logged,
+        and the background writer writes them later.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        if (writer.get() != null) {
+            logPages(tid);
+            return;
+        }
+        for (PageId pid : lockManager.lockedPages(tid)) {
+            PageBufferPool partition = partitionOf(pid);
+            synchronized (partition) {
+                Page page = partition.peek(pid);
+                if (page != null && tid.equals(page.isDirty())) {
+                    partition.flushPage(pid);
+                    page.setBeforeImage();
+                }
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Appends update records for the pages dirtied by tid to the log, and
+     * marks the pages as committed so they can be written back.
      */
-    private synchronized  void evictPage() throws DbException {
-		Page pg = bufferPool.evictPage();
-		PageId pid = pg.getId();
-		try {
-			if (pg != null) {
-			flushPage(pid);
-			discardPage(pid);
-			}
-			} 
-		catch (IOException e) {
-			throw new DbException("error during page flush");
-		}
-  }
-
- private static class PageBufferPool {
-    private final int capacity;
-    private final ArrayList<Page> pageBuffer;
-    private final ConcurrentHashMap<PageId, Page> pageIdToPage;
-
-    public PageBufferPool(int size) {
-      this.capacity = size;
-      this.pageBuffer = new ArrayList<>(size);
-      this.pageIdToPage = new ConcurrentHashMap<>(size);
-    }
-
-	public boolean containsKey(PageId id) {
-      return pageIdToPage.containsKey(id);
-    }
-
-    public Page get(PageId id) {
-      return pageIdToPage.get(id);
-    }
-
-    public void put(PageId id, Page page) {
-      if (pageBuffer.size() < capacity) {
-        if (pageIdToPage.containsKey(id)) {
-          pageBuffer.remove(page);
-        } else {
-          pageIdToPage.put(id, page);
+    private void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        ArrayList<Page> logged = new ArrayList<Page>();
+        for (PageId pid : lockManager.lockedPages(tid)) {
+            PageBufferPool partition = partitionOf(pid);
+            Page page = partition.peek(pid);
+            // tid holds the exclusive lock on its dirty pages, so they can't change
+            if (page != null && tid.equals(page.isDirty()) && !partition.isCommitted(page)) {
+                log.logWrite(tid, page.getBeforeImage(), page);
+                logged.add(page);
+            }
+        }
+        log.force();
+        for (Page page : logged) {
+            PageBufferPool partition = partitionOf(page.getId());
+            synchronized (partition) {
+                page.setBeforeImage();
+                partition.committed.put(page.getId(), page.isDirty());
+            }
         }
-        pageBuffer.add(page);
-      }
     }
 
-    public Page remove(PageId pid) {
-      if (pageIdToPage.containsKey(pid)) {
-        Page pg = pageIdToPage.remove(pid);
-        pageBuffer.remove(pg);
-        return pg;
-      }
-      return null;
+    /**
+     * Adds a page to the cache, evicting another page of the same partition
+     * first if that partition is full. If a version of the page is already
+     * resident it is replaced.
+     */
+    private void cachePage(Page page) throws DbException {
+        partitionOf(page.getId()).put(page);
     }
 
-    public int size() {
-      return pageBuffer.size();
+    private void cachePages(TransactionId tid, ArrayList<Page> pageList) throws DbException {
+        for (Page p : pageList) {
+            p.markDirty(true, tid);
+            cachePage(p);
+        }
     }
 
-    public Page evictPage() {
-      int bufferSize = pageBuffer.size();
-      if (bufferSize > 0 && bufferSize == capacity) {
-        return pageBuffer.get(0);
-      }
-      return null;
-    }
-    
-    public void putAll(ArrayList<Page> pageList) {
-    	Page p;
-    	for(int i=0; i<pageList.size(); i++) {
-    		p = pageList.get(i); 
-    		put(p.getId(), p);
-    	}
-	}
-    
-    public ArrayList<PageId> pidList() {
-    	
-    	ArrayList<PageId> res = new ArrayList<PageId>();
+    /**
+     * One partition of the buffer pool: a frame table mapping page ids to
+     * resident pages, plus the replacement policy tracking those pages.
+     * <p>
+     * Lookups of resident pages only read the concurrent map; adding,
+     * evicting and flushing pages, as well as all calls into the policy,
+     * are serialized on the partition object itself.  Pages that missed
+     * are read from disk outside that lock, once per page no matter how
+     * many threads miss on it, and only installed under the lock.
+     * <p>
+     * Only clean pages and dirty pages of committed transactions are
+     * evicted (NO STEAL), so the disk never sees uncommitted data.
+     */
+    private class PageBufferPool {
+        private final int capacity;
+        private final ConcurrentHashMap<PageId, Page> pageIdToPage;
+        private final ReplacementPolicy policy;
 
-    	for(Entry<PageId, Page> i : pageIdToPage.entrySet()) {
-    		res.add(i.getKey());
-    	}
-    	
-    	return res;
-    }
+        /**
+         * Dirty pages whose changes are committed, mapped to the transaction
+         * that made them; only used while commits don't force pages.
+         */
+        private final ConcurrentHashMap<PageId, TransactionId> committed;
 
-  }
+        /** Prefetched pages that have not been accessed since. */
+        private final Set<PageId> prefetched;
 
-    
+        /** Reads of pages that missed and are not resident yet. */
+        private final ConcurrentHashMap<PageId, FutureTask<Page>> loading;
+
+        public PageBufferPool(int capacity, ReplacementPolicy policy) {
+            this.capacity = capacity;
+            this.pageIdToPage = new ConcurrentHashMap<>(capacity);
+            this.policy = policy;
+            this.committed = new ConcurrentHashMap<>();
+            this.prefetched = ConcurrentHashMap.newKeySet();
+            this.loading = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Accepts clean pages, and committed pages nobody is changing; the
+         * latter are share-locked by evictor until they have been written.
+         */
+        private class Evictable implements ReplacementPolicy.EvictionFilter {
+            final TransactionId evictor = new TransactionId();
+
+            public boolean canEvict(PageId pid) {
+                Page page = pageIdToPage.get(pid);
+                if (page == null || page.isDirty() == null)
+                    return true;
+                return isCommitted(page)
+                        && lockManager.tryAcquire(evictor, pid, Permissions.READ_ONLY);
+            }
+        }
+
+        /** @return true if all changes to the dirty page are committed */
+        boolean isCommitted(Page page) {
+            TransactionId dirtier = page.isDirty();
+            return dirtier != null && dirtier.equals(committed.get(page.getId()));
+        }
+
+        /** @return the number of dirty pages in this partition */
+        int numDirty() {
+            int dirty = 0;
+            for (Page page : pageIdToPage.values()) {
+                if (page.isDirty() != null)
+                    dirty++;
+            }
+            return dirty;
+        }
+
+        /** Looks up a page and records the hit with the replacement policy. */
+        public Page get(PageId id) {
+            Page page = pageIdToPage.get(id);
+            if (page != null) {
+                synchronized (this) {
+                    accessed(id);
+                }
+            }
+            return page;
+        }
+
+        /**
+         * Tells the policy about a hit, unless it is the first access to a
+         * prefetched page, which the policy already saw being added.
+         */
+        private void accessed(PageId id) {
+            if (!prefetched.remove(id))
+                policy.pageAccessed(id);
+        }
+
+        /**
+         * Returns the resident page, counting a hit, or else the copy in the
+         * ring, reading it from disk into the ring if necessary.
+         *
+         * @param locked whether the caller holds a lock on the page
+         */
+        public Page readThrough(PageId pid, BufferRing ring, boolean locked) {
+            Page page = locked ? get(pid) : peek(pid);
+            if (page != null)
+                return page;
+            long version = diskVersion.get();
+            page = ring.get(pid, version);
+            if (page != null)
+                return page;
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            Page resident = locked ? get(pid) : peek(pid);
+            if (resident != null)
+                return resident;
+            ring.put(page, locked ? BufferRing.LOCKED : version);
+            return page;
+        }
+
+        /** Looks up a page without counting it as an access. */
+        public Page peek(PageId id) {
+            return pageIdToPage.get(id);
+        }
+
+        /**
+         * Reads a page that missed in the pool from disk and caches it. If
+         * another thread loaded the page in the meantime, that copy is
+         * returned instead; if another thread is loading it, this waits for
+         * that read rather than reading the page again.
+         *
+         * @param prefetch whether nobody is going to use the page yet
+         */
+        public Page load(final PageId pid, boolean prefetch) throws DbException {
+            while (true) {
+                Page page = resident(pid, prefetch);
+                if (page != null)
+                    return page;
+                long version = diskVersion.get();
+                FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+                    public Page call() {
+                        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    }
+                });
+                FutureTask<Page> running = loading.putIfAbsent(pid, task);
+                if (running != null) {
+                    await(running);
+                    continue;
+                }
+                try {
+                    // a load that finished since the lookup above installed the page first
+                    page = resident(pid, prefetch);
+                    if (page != null)
+                        return page;
+                    task.run();
+                    page = await(task);
+                    synchronized (this) {
+                        Page resident = resident(pid, prefetch);
+                        if (resident != null)
+                            return resident;
+                        // the page may have been cached, written and evicted during the read
+                        if (diskVersion.get() != version)
+                            continue;
+                        put(page);
+                        if (prefetch)
+                            prefetched.add(pid);
+                        return page;
+                    }
+                } finally {
+                    loading.remove(pid, task);
+                    // threads waiting for a read that never started look again
+                    task.cancel(false);
+                }
+            }
+        }
+
+        /** Looks up a page, counting a hit unless it is being prefetched. */
+        private Page resident(PageId pid, boolean prefetch) {
+            return prefetch ? peek(pid) : get(pid);
+        }
+
+        /**
+         * Waits for a read started by load.
+         *
+         * @return the page read, or null if the read was not needed after all
+         */
+        private Page await(FutureTask<Page> task) throws DbException {
+            try {
+                return task.get();
+            } catch (CancellationException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while reading a page");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new DbException("error reading page: " + cause);
+            }
+        }
+
+        public synchronized void put(Page page) throws DbException {
+            PageId id = page.getId();
+            if (!pageIdToPage.containsKey(id) && pageIdToPage.size() >= capacity)
+                evictPage();
+            if (pageIdToPage.put(id, page) == null)
+                policy.pageAdded(id);
+            else
+                accessed(id);
+        }
+
+        public synchronized Page remove(PageId pid) {
+            Page pg = pageIdToPage.remove(pid);
+            committed.remove(pid);
+            prefetched.remove(pid);
+            if (pg != null)
+                policy.pageRemoved(pid);
+            return pg;
+        }
+
+        /**
+         * Replaces the resident version of a page with its last committed
+         * version.  That version is dirty if it has not been written yet.
+         */
+        public synchronized void restore(Page page) {
+            TransactionId committer = committed.get(page.getId());
+            if (committer != null)
+                page.markDirty(true, committer);
+            if (pageIdToPage.replace(page.getId(), page) != null)
+                policy.pageAccessed(page.getId());
+        }
+
+        /**
+         * Marks a page that was written back as clean, unless it was changed
+         * again in the meantime.
+         */
+        public synchronized void written(Page page) {
+            TransactionId committer = page.isDirty();
+            if (committer != null && committed.remove(page.getId(), committer)
+                    && pageIdToPage.get(page.getId()) == page)
+                page.markDirty(false, null);
+        }
+
+        /**
+         * Discards a page from this partition.  A committed dirty page is
+         * written to disk first.
+         */
+        private void evictPage() throws DbException {
+            Evictable filter = new Evictable();
+            PageId pid = policy.chooseVictim(filter);
+            if (pid == null)
+                throw new DbException("all pages in the buffer pool are dirty");
+            try {
+                flushPage(pid);
+            } catch (IOException e) {
+                throw new DbException("error during page flush");
+            } finally {
+                lockManager.releaseAll(filter.evictor);
+            }
+            pageIdToPage.remove(pid);
+            prefetched.remove(pid);
+        }
+
+        /** Writes the page to disk if it is resident and dirty. */
+        public void flushPage(PageId pid) throws IOException {
+            Page page = pageIdToPage.get(pid);
+            if (page != null && page.isDirty() != null) {
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                page.markDirty(false, null);
+                diskVersion.incrementAndGet();
+            }
+            committed.remove(pid);
+        }
+
+        public ArrayList<PageId> pidList() {
+            return new ArrayList<PageId>(pageIdToPage.keySet());
+        }
+    }
 
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BufferRing is a small set of private frames that a bulk read, such as a
+ * sequential scan of a table larger than most of the buffer pool, reads
+ * pages into instead of the pool itself.
+ * <p>
+ * Pages that are not resident in the buffer pool are read into the ring and
+ * never enter the pool's replacement policy; once the ring is full, the
+ * oldest frame is recycled for the next page.  A scan through a ring
+ * therefore cannot push the working set of other queries out of the pool.
+ * Pages that are already resident are still taken from the pool, see
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)}.
+ * <p>
+ * A ring belongs to a single scan, but read-ahead threads may fill it
+ * concurrently, so all methods are synchronized.
+ */
+public class BufferRing {
+
+    /** A page in the ring, with the pool's disk version it was read at. */
+    private static class Frame {
+        final Page page;
+        final long version;
+
+        Frame(Page page, long version) {
+            this.page = page;
+            this.version = version;
+        }
+    }
+
+    /** Version of frames read while the scan held a lock on the page. */
+    static final long LOCKED = -1;
+
+    private final int capacity;
+    private final LinkedHashMap<PageId, Frame> frames;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity the number of frames of the ring
+     */
+    public BufferRing(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("bad ring capacity: " + capacity);
+        this.capacity = capacity;
+        this.frames = new LinkedHashMap<PageId, Frame>(capacity * 2) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Frame> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** @return the number of frames of this ring */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of pages currently in the ring */
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * Looks up a page in the ring.
+     *
+     * @param pid the id of the page
+     * @param version the current disk version of the buffer pool; pages
+     *        read without a lock at an older version may be stale
+     * @return the page, or null if it is not in the ring or may be stale
+     */
+    synchronized Page get(PageId pid, long version) {
+        Frame frame = frames.get(pid);
+        if (frame == null)
+            return null;
+        if (frame.version != LOCKED && frame.version != version) {
+            frames.remove(pid);
+            return null;
+        }
+        return frame.page;
+    }
+
+    /**
+     * Puts a page into the ring, recycling the oldest frame if the ring is
+     * full.
+     *
+     * @param page the page read from disk
+     * @param version the disk version of the buffer pool before the page was
+     *        read, or LOCKED if the reader holds a lock on the page
+     */
+    synchronized void put(Page page, long version) {
+        frames.put(page.getId(), new Frame(page, version));
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * CLOCK-sweep replacement.  Every frame carries a small usage counter that
+ * is bumped on each hit (saturating at {@link #MAX_USAGE}).  To find a
+ * victim the clock hand sweeps over the frames, decrementing counters, and
+ * stops at the first evictable frame whose counter is already zero.
+ * <p>
+ * A hit only touches the counter of the frame, so hits, inserts and
+ * removals are O(1); a sweep decrements at most MAX_USAGE + 1 counters per
+ * frame before giving up, so eviction is O(1) amortized.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    /** Saturation value of the per-frame usage counter. */
+    public static final int MAX_USAGE = 5;
+
+    private final PageId[] frames;
+    private final int[] usage;
+    private final HashMap<PageId, Integer> frameOf;
+
+    /** Stack of free frame numbers. */
+    private final int[] freeFrames;
+    private int numFree;
+
+    private int hand;
+
+    /** Creates one ClockReplacementPolicy per buffer pool partition. */
+    public static final Factory FACTORY = new Factory() {
+        public ReplacementPolicy create(int capacity) {
+            return new ClockReplacementPolicy(capacity);
+        }
+    };
+
+    /**
+     * Creates a CLOCK policy able to track up to capacity pages.
+     *
+     * @param capacity the number of frames of the buffer pool
+     */
+    public ClockReplacementPolicy(int capacity) {
+        this.frames = new PageId[capacity];
+        this.usage = new int[capacity];
+        this.frameOf = new HashMap<PageId, Integer>(capacity * 2);
+        this.freeFrames = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeFrames[i] = capacity - 1 - i;
+        this.numFree = capacity;
+        this.hand = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (numFree == 0)
+            throw new IllegalStateException("no free frame for page " + pid);
+        int frame = freeFrames[--numFree];
+        frames[frame] = pid;
+        usage[frame] = 1;
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null && usage[frame] < MAX_USAGE)
+            usage[frame]++;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null)
+            release(frame);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        if (frameOf.isEmpty())
+            return null;
+        int limit = frames.length * (MAX_USAGE + 1);
+        for (int i = 0; i < limit; i++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null)
+                continue;
+            if (usage[frame] > 0) {
+                usage[frame]--;
+            } else if (filter.canEvict(pid)) {
+                frameOf.remove(pid);
+                release(frame);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return frameOf.size();
+    }
+
+    private void release(int frame) {
+        frames[frame] = null;
+        usage[frame] = 0;
+        freeFrames[numFree++] = frame;
+    }
+}
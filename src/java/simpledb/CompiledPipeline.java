@@ -0,0 +1,367 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * CompiledPipeline runs a chain of operators that pass their tuples on one
+ * at a time as a single generated class, instead of a tree of operators
+ * that call next() on each other: a SeqScan of a HeapFile, with any
+ * Filters and Projects above it, through the probe side of equi-joins, up
+ * to the root of the chain or to an aggregate over it.  For each page of
+ * the scan, the class loops over the records of the page, reads the fields
+ * the operators need into primitive locals and only creates a Tuple for the
+ * tuples the pipeline returns; an aggregate keeps its running values in
+ * ints.  The other child of each join is read into a hash table when the
+ * pipeline is opened, and is compiled into pipelines of its own.
+ * <p>
+ * Plans are compiled with {@link #compile} and {@link #aggregate}, which
+ * the planner calls when the Parser is run with -compile.  The classes are
+ * compiled by {@link PredicateCompiler} while the rest of the plan is
+ * built; if one does not compile, the pipeline runs its operators as they
+ * are.
+ *
+ * @see PipelineGenerator
+ */
+public class CompiledPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The base class of the generated classes.  consume() processes the
+     * records of a page or a tuple, and adds the tuples the pipeline returns
+     * to out; finish() adds the result of an aggregate.
+     */
+    public static abstract class Code {
+        /** the schema of the tuples the pipeline returns */
+        protected TupleDesc td;
+        /** the tuples the pipeline returned since out was last cleared */
+        protected ArrayList<Tuple> out;
+        private List<HashMap<Object, ArrayList<Tuple>>> tables;
+
+        void init(TupleDesc td, ArrayList<Tuple> out, List<HashMap<Object, ArrayList<Tuple>>> tables) {
+            this.td = td;
+            this.out = out;
+            this.tables = tables;
+        }
+
+        /** Processes the tuples of a page. */
+        public abstract void consume(HeapPage page);
+
+        /** Processes a tuple of the table the pipeline scans. */
+        public abstract void consume(Tuple t);
+
+        /** Called once the pipeline has processed all tuples. */
+        public void finish() {
+        }
+
+        /**
+         * @return the hash table of the other child of a join, by the
+         *         values of its join field, Integers or Strings
+         */
+        protected final HashMap<Object, ArrayList<Tuple>> table(int join) {
+            return tables.get(join);
+        }
+
+        /** @return the length of a serialized StringField */
+        protected static int stringLength(ByteBuffer data, int offset) {
+            return PredicateEvaluator.stringLength(data.getInt(offset));
+        }
+
+        /** @return the value of a serialized StringField */
+        protected static String string(ByteBuffer data, int offset) {
+            byte[] chars = new byte[stringLength(data, offset)];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = data.get(offset + 4 + i);
+            return new String(chars, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private OpIterator chain;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+    private transient Future<Class<?>> compiled;
+
+    private transient OpIterator fallback;
+    private transient Code code;
+    private transient HeapFile.PageScan pages;
+    private transient List<HashMap<Object, ArrayList<Tuple>>> tables;
+    private transient ArrayList<Tuple> out;
+    private transient int nextOut;
+    private transient boolean finished;
+
+    /**
+     * @param chain the root of the chain of operators
+     * @param source the class to run, see {@link PipelineGenerator}
+     * @param aop the aggregate over the chain, or null for none
+     */
+    private CompiledPipeline(OpIterator chain, String source, int afield, int gfield,
+            Aggregator.Op aop) {
+        this.chain = chain;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.compiled = PredicateCompiler.compile(source);
+        TupleDesc childtd = chain.getTupleDesc();
+        if (aop == null) {
+            td = childtd;
+        } else {
+            // the schema of BatchAggregate, which the pipeline falls back to
+            String aname = Aggregate.nameOfAggregatorOp(aop) + "(" + childtd.getFieldName(afield) + ")";
+            if (gfield == Aggregator.NO_GROUPING)
+                td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+            else
+                td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                        new String[] { childtd.getFieldName(gfield), aname });
+        }
+    }
+
+    /**
+     * Compiles the pipelines of a plan.  The plan is returned as it is if
+     * compilation is disabled, see {@link PredicateCompiler#isEnabled}.
+     *
+     * @return the plan, with its pipelines replaced by CompiledPipelines
+     */
+    public static OpIterator compile(OpIterator plan) {
+        if (!PredicateCompiler.isEnabled())
+            return plan;
+        return fuse(plan);
+    }
+
+    /**
+     * Returns an aggregate over a plan, compiled into the pipeline of the
+     * plan if it can be.  Unlike {@link Aggregate}, a compiled aggregate
+     * only reads its child when it is opened; it computes the aggregate the
+     * way {@link BatchAggregate} does.
+     *
+     * @param afield the field of the child to aggregate
+     * @param gfield the field of the child to group by, or
+     *        {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregate to compute
+     */
+    public static OpIterator aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        if (PredicateCompiler.isEnabled()) {
+            List<OpIterator> path = probePath(child);
+            String source = path == null ? null : PipelineGenerator.generate(path, afield, gfield, aop);
+            if (source != null) {
+                fuseBuildSides(path);
+                return new CompiledPipeline(child, source, afield, gfield, aop);
+            }
+            child = fuse(child);
+        }
+        return new Aggregate(child, afield, gfield, aop);
+    }
+
+    private static OpIterator fuse(OpIterator plan) {
+        if (plan instanceof CompiledPipeline || plan instanceof Aggregate)
+            return plan;
+        List<OpIterator> path = probePath(plan);
+        String source = path == null ? null
+                : PipelineGenerator.generate(path, 0, Aggregator.NO_GROUPING, null);
+        if (source != null) {
+            fuseBuildSides(path);
+            return new CompiledPipeline(plan, source, 0, Aggregator.NO_GROUPING, null);
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            for (int i = 0; i < children.length; i++)
+                children[i] = fuse(children[i]);
+            op.setChildren(children);
+        }
+        return plan;
+    }
+
+    /** Compiles the pipelines of the other children of the joins of a path. */
+    private static void fuseBuildSides(List<OpIterator> path) {
+        for (int i = 0; i < path.size() - 1; i++) {
+            if (path.get(i) instanceof Join || path.get(i) instanceof HashEquiJoin) {
+                Operator join = (Operator) path.get(i);
+                OpIterator[] children = join.getChildren();
+                int build = children[0] == path.get(i + 1) ? 1 : 0;
+                children[build] = fuse(children[build]);
+                join.setChildren(children);
+            }
+        }
+    }
+
+    /**
+     * Returns the operators of a plan that can run as a pipeline, from the
+     * root of the plan down to a scan of a HeapFile, through Filters,
+     * Projects and equi-joins.  The path goes through the right child of a
+     * join if it can, like the probe side of HashEquiJoin, else through its
+     * left child.
+     *
+     * @return the path, or null if the plan can't run as a pipeline
+     */
+    static List<OpIterator> probePath(OpIterator plan) {
+        ArrayList<OpIterator> path = new ArrayList<OpIterator>();
+        return addPath(plan, path) ? path : null;
+    }
+
+    private static boolean addPath(OpIterator plan, List<OpIterator> path) {
+        path.add(plan);
+        if (plan instanceof SeqScan) {
+            if (Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId()) instanceof HeapFile)
+                return true;
+        } else if (plan instanceof Filter || plan instanceof Project) {
+            if (addPath(((Operator) plan).getChildren()[0], path))
+                return true;
+        } else if (plan instanceof Join || plan instanceof HashEquiJoin) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            if (getJoinPredicate(plan).getOperator() == Predicate.Op.EQUALS) {
+                int size = path.size();
+                if (addPath(children[1], path))
+                    return true;
+                path.subList(size, path.size()).clear();
+                if (addPath(children[0], path))
+                    return true;
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /** @return the predicate of a Join or a HashEquiJoin */
+    static JoinPredicate getJoinPredicate(OpIterator join) {
+        if (join instanceof Join)
+            return ((Join) join).getJoinPredicate();
+        return ((HashEquiJoin) join).getJoinPredicate();
+    }
+
+    /** @return true if this runs a compiled class, which open() waits for */
+    public boolean isCompiled() {
+        return PredicateCompiler.newInstance(compiled, Code.class) != null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        code = PredicateCompiler.newInstance(compiled, Code.class);
+        if (code == null) {
+            // run the operators the pipeline was compiled from
+            fallback = aop == null ? chain
+                    : new BatchOpIterator(new BatchAggregate(new BatchAdapter(chain), afield, gfield, aop));
+            fallback.open();
+        } else {
+            List<OpIterator> path = probePath(chain);
+            tables = new ArrayList<HashMap<Object, ArrayList<Tuple>>>();
+            for (int i = path.size() - 2; i >= 0; i--) {
+                if (path.get(i) instanceof Join || path.get(i) instanceof HashEquiJoin)
+                    tables.add(buildTable(path.get(i), path.get(i + 1)));
+            }
+            SeqScan scan = (SeqScan) path.get(path.size() - 1);
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+            pages = file.new PageScan(scan.getTransactionId(), scan.getPredicates());
+            out = new ArrayList<Tuple>();
+            code.init(td, out, tables);
+            nextOut = 0;
+            finished = false;
+        }
+        super.open();
+    }
+
+    /**
+     * Reads the other child of a join into a hash table, by the values of
+     * its join field.
+     *
+     * @param probe the child of the join in the pipeline
+     */
+    private static HashMap<Object, ArrayList<Tuple>> buildTable(OpIterator join, OpIterator probe)
+            throws DbException, TransactionAbortedException {
+        JoinPredicate p = getJoinPredicate(join);
+        OpIterator[] children = ((Operator) join).getChildren();
+        boolean left = children[0] == probe;
+        OpIterator build = children[left ? 1 : 0];
+        int field = left ? p.getField2() : p.getField1();
+        HashMap<Object, ArrayList<Tuple>> table = new HashMap<Object, ArrayList<Tuple>>();
+        build.open();
+        while (build.hasNext()) {
+            Tuple t = build.next();
+            Field f = t.getField(field);
+            Object key = f instanceof IntField ? (Object) Integer.valueOf(((IntField) f).getValue())
+                    : ((StringField) f).getValue();
+            ArrayList<Tuple> list = table.get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                table.put(key, list);
+            }
+            list.add(t);
+        }
+        build.close();
+        return table;
+    }
+
+    public void close() {
+        super.close();
+        if (fallback != null)
+            fallback.close();
+        fallback = null;
+        code = null;
+        pages = null;
+        tables = null;
+        out = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            fallback.rewind();
+        } else if (aop != null && finished) {
+            // the aggregate is in out
+            nextOut = 0;
+        } else {
+            pages.rewind();
+            code = PredicateCompiler.newInstance(compiled, Code.class);
+            out.clear();
+            code.init(td, out, tables);
+            nextOut = 0;
+            finished = false;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (fallback != null)
+            return fallback.hasNext() ? fallback.next() : null;
+        while (nextOut == out.size()) {
+            if (finished)
+                return null;
+            out.clear();
+            nextOut = 0;
+            TuplePage page = pages.next();
+            if (page == null) {
+                code.finish();
+                finished = true;
+            } else if (page instanceof HeapPage) {
+                code.consume((HeapPage) page);
+            } else {
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext())
+                    code.consume(it.next());
+            }
+        }
+        return out.get(nextOut++);
+    }
+
+    /**
+     * @return the root of the chain of operators this was compiled from,
+     *         which it runs if the class did not compile
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { chain };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        chain = children[0];
+    }
+}
@@ -28,6 +28,18 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk, in the given order.
+     * Implementations may write the whole batch with a single open file.
+     *
+     * @param pages The pages to write, usually sorted by page number.
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +80,43 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * a conjunction of predicates.  Implementations should test the
+     * predicates as early as they can, e.g. on the page bytes before they
+     * build a Tuple, or skip pages that can't hold any matching tuple.  The
+     * default filters the tuples of {@link #iterator(TransactionId)}.
+     *
+     * @param predicates the predicates all returned tuples satisfy
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new FilteredDbFileIterator(iterator(tid), predicates);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * a conjunction of predicates, with only some of their fields.  The
+     * returned tuples have the schema
+     * <code>getTupleDesc().project(columns)</code>, and keep their
+     * RecordId.  Implementations should only decode the fields they return
+     * and those the predicates need.  The default projects the tuples of
+     * {@link #iterator(TransactionId, Predicate[])}.
+     *
+     * @param predicates the predicates all returned tuples satisfy, over
+     *        the fields of this file; null or empty for none
+     * @param columns the fields of this file to return, in order; null for
+     *        all of them
+     * @return an iterator over the matching tuples stored in this DbFile.
+     * @see TupleDesc#project
+     */
+    public default DbFileIterator iterator(TransactionId tid, Predicate[] predicates, int[] columns) {
+        DbFileIterator it = predicates == null ? iterator(tid) : iterator(tid, predicates);
+        if (columns == null)
+            return it;
+        return new FilteredDbFileIterator(it, null, columns, getTupleDesc().project(columns));
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
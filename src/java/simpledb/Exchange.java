@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange gathers the tuples of several children, each of which runs in a
+ * thread of a shared pool of workers, into one stream, in no particular
+ * order.  Its children are typically the scans {@link SeqScan#split}
+ * returns, possibly with operators on top of them, so that the pages of a
+ * table are read and filtered in parallel.
+ * <p>
+ * The children are all opened by the thread that opens the Exchange
+ * before any of them runs, and closed by it once all of them have stopped.
+ * The workers hand the tuples over in batches, through a bounded queue, so
+ * they wait for the consumer when it falls behind.  If a child fails, the
+ * Exchange throws its exception once it gets to it.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples the workers hand over at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** Number of batches per child the queue holds. */
+    private static final int BATCHES_PER_CHILD = 4;
+
+    /** How long a worker waits for room in the queue before it checks if the Exchange closed. */
+    private static final long OFFER_TIMEOUT_MS = 10;
+
+    /** Marks the end of the tuples of a child in the queue. */
+    private static final List<Tuple> DONE = new ArrayList<Tuple>(0);
+
+    /**
+     * The workers.  Workers wait for their consumer, which can itself be
+     * waiting for the workers of another Exchange, e.g. of the inner child of
+     * a join, so the pool starts a thread for every child rather than
+     * queueing them.
+     */
+    private static final ExecutorService workers = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Exchange-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private OpIterator[] children;
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient Future<?>[] running;
+    private transient volatile boolean stopped;
+    private transient volatile Throwable failure;
+    private transient List<Tuple> batch;
+    private transient int next;
+    private transient int done;
+
+    /**
+     * @param children the children whose tuples to gather; they must all
+     *        have the same TupleDesc
+     */
+    public Exchange(OpIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("an exchange needs at least one child");
+        this.children = children.clone();
+    }
+
+    /** @return the name of the operator, with the number of its children */
+    public String getName() {
+        return "exchange(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        stopped = false;
+        failure = null;
+        batch = null;
+        done = 0;
+        queue = new ArrayBlockingQueue<List<Tuple>>(BATCHES_PER_CHILD * children.length);
+        int opened = 0;
+        try {
+            for (; opened < children.length; opened++)
+                children[opened].open();
+        } catch (DbException e) {
+            closeChildren(opened);
+            throw e;
+        } catch (TransactionAbortedException e) {
+            closeChildren(opened);
+            throw e;
+        }
+        running = new Future<?>[children.length];
+        for (int i = 0; i < children.length; i++) {
+            final OpIterator child = children[i];
+            running[i] = workers.submit(new Runnable() {
+                public void run() {
+                    produce(child);
+                }
+            });
+        }
+        super.open();
+    }
+
+    /** Runs in a worker: hands the tuples of a child over to the consumer. */
+    private void produce(OpIterator child) {
+        try {
+            List<Tuple> tuples = new ArrayList<Tuple>(BATCH_SIZE);
+            while (!stopped && child.hasNext()) {
+                tuples.add(child.next());
+                if (tuples.size() == BATCH_SIZE) {
+                    if (!handOver(tuples))
+                        return;
+                    tuples = new ArrayList<Tuple>(BATCH_SIZE);
+                }
+            }
+            if (!tuples.isEmpty() && !handOver(tuples))
+                return;
+        } catch (Throwable t) {
+            if (failure == null)
+                failure = t;
+        }
+        handOver(DONE);
+    }
+
+    /**
+     * Puts a batch into the queue, waiting for room as long as the Exchange
+     * is open.
+     *
+     * @return false if the Exchange closed
+     */
+    private boolean handOver(List<Tuple> tuples) {
+        try {
+            while (!stopped) {
+                if (queue.offer(tuples, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || next >= batch.size()) {
+            if (done == children.length)
+                return null;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for tuples");
+            }
+            next = 0;
+            if (batch == DONE) {
+                done++;
+                rethrowFailure();
+            }
+        }
+        return batch.get(next++);
+    }
+
+    /** Throws the exception a child failed with, if any. */
+    private void rethrowFailure() throws DbException, TransactionAbortedException {
+        Throwable t = failure;
+        if (t == null)
+            return;
+        if (t instanceof DbException)
+            throw (DbException) t;
+        if (t instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) t;
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new DbException("exchange child failed: " + t);
+    }
+
+    /** Stops the workers, waits for them, and closes the children. */
+    public void close() {
+        super.close();
+        stopped = true;
+        if (running != null) {
+            for (Future<?> f : running) {
+                queue.clear();
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // produce() catches everything the children throw
+                }
+            }
+            running = null;
+            closeChildren(children.length);
+        }
+        queue = null;
+        batch = null;
+    }
+
+    private void closeChildren(int n) {
+        for (int i = 0; i < n; i++)
+            children[i].close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    public void setChildren(OpIterator[] children) {
+        this.children = children.clone();
+    }
+}
@@ -9,6 +9,7 @@ public class Filter extends Operator {
 	
 	Predicate pred;
 	OpIterator child;
+	private transient PredicateEvaluator evaluator;
 	
 
     private static final long serialVersionUID = 1L;
@@ -39,6 +40,7 @@ public class Filter extends Operator {
             TransactionAbortedException {
     	super.open();
         child.open();
+        evaluator = PredicateEvaluator.forPredicates(new Predicate[] { pred }, child.getTupleDesc());
     }
 
     public void close() {
@@ -65,7 +67,7 @@ public class Filter extends Operator {
     	
         while(child.hasNext() && !cond) {
         	res = child.next();
-        	if(pred.filter(res))
+        	if(evaluator.filter(res))
         		cond = true;
         }
         
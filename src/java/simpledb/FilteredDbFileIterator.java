@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * FilteredDbFileIterator returns the tuples of another DbFileIterator that
+ * satisfy a conjunction of predicates, optionally with only some of their
+ * fields.  DbFiles that can't test predicates or drop fields while they
+ * read their pages use it to implement
+ * {@link DbFile#iterator(TransactionId, Predicate[], int[])}.
+ */
+public class FilteredDbFileIterator extends AbstractDbFileIterator {
+
+    private final DbFileIterator child;
+    private final Predicate[] predicates;
+    private final int[] columns;
+    private final TupleDesc projected;
+    private PredicateEvaluator evaluator;
+
+    /**
+     * @param child the iterator to filter
+     * @param predicates the predicates the returned tuples satisfy
+     */
+    public FilteredDbFileIterator(DbFileIterator child, Predicate[] predicates) {
+        this(child, predicates, null, null);
+    }
+
+    /**
+     * @param child the iterator to filter
+     * @param predicates the predicates the returned tuples satisfy, over
+     *        the fields of the child's tuples, or null
+     * @param columns the fields of the child's tuples to return, or null
+     *        for all of them
+     * @param projected the schema of the returned tuples if columns is not
+     *        null, see {@link TupleDesc#project}
+     */
+    public FilteredDbFileIterator(DbFileIterator child, Predicate[] predicates,
+            int[] columns, TupleDesc projected) {
+        this.child = child;
+        this.predicates = predicates;
+        this.columns = columns;
+        this.projected = projected;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (evaluator == null && predicates != null)
+                evaluator = PredicateEvaluator.forPredicates(predicates, t.getTupleDesc());
+            if (evaluator == null || evaluator.filter(t))
+                return columns == null ? t : t.project(projected, columns);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have empty slots, so
+ * that an insert can go straight to such a page instead of reading every
+ * page of the file.
+ * <p>
+ * The map is only a hint and is kept in memory.  It starts out assuming
+ * that every page of the file has room; an insert that finds a page full
+ * marks it so, and deleting a tuple marks its page free again.  The map is
+ * thus rebuilt lazily, by the first inserts after the file is opened.  A
+ * page that regains room because an insert is rolled back is only noticed
+ * once a tuple is deleted from it.
+ * <p>
+ * The lowest page that may be free is cached, and only moves forward past
+ * pages that were marked full, so finding a page costs O(1) amortized.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Pages that may have an empty slot. */
+    private final BitSet free = new BitSet();
+    private int numPages;
+    /** No page below first is free. */
+    private int first;
+
+    /**
+     * Creates a map of a file, assuming all of its pages have room.
+     *
+     * @param numPages the number of pages of the file
+     */
+    public FreeSpaceMap(int numPages) {
+        this.numPages = numPages;
+        free.set(0, numPages);
+        first = 0;
+    }
+
+    /** @return the number of pages of the file, as known to this map */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @param from the lowest page number to consider
+     * @return the lowest page number at or above from that may have an
+     *         empty slot, or -1 if there is none
+     */
+    public synchronized int nextFree(int from) {
+        if (first >= 0)
+            first = free.nextSetBit(first);
+        if (first < 0)
+            return -1;
+        int pgNo = free.nextSetBit(Math.max(from, first));
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /** Records that a page has no empty slot. */
+    public synchronized void markFull(int pgNo) {
+        free.clear(pgNo);
+    }
+
+    /** Records that a page has at least one empty slot. */
+    public synchronized void markFree(int pgNo) {
+        if (pgNo >= numPages)
+            return;
+        free.set(pgNo);
+        if (first < 0 || pgNo < first)
+            first = pgNo;
+    }
+
+    /**
+     * Records that the file grew to numPages pages; the new pages are
+     * assumed to be empty.
+     */
+    public synchronized void grow(int numPages) {
+        if (numPages <= this.numPages)
+            return;
+        free.set(this.numPages, numPages);
+        if (first < 0 || this.numPages < first)
+            first = this.numPages;
+        this.numPages = numPages;
+    }
+}
@@ -3,32 +3,231 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join with a hybrid hash
+ * join.
+ * <p>
+ * It reads its left child into a hash table, and if the whole child fits
+ * in the memory budget of the join, simply probes the table with the
+ * tuples of its right child.  Otherwise the tuples of both children are
+ * split into FANOUT partitions by the hash of their join field: the join
+ * keeps as many partitions of the left child in memory as fit, largest
+ * last, and spills the others, with the tuples of the right child that
+ * belong to them, to temporary files.  Once the right child has probed
+ * the partitions in memory, the spilled partitions are joined one at a
+ * time the same way, so a partition that still doesn't fit is
+ * repartitioned with another hash function.  A partition that still
+ * doesn't fit after MAX_LEVEL rounds, e.g. because most of its tuples have
+ * the same key, is joined a budget's worth of left tuples at a time.
+ * <p>
+ * When the join fields are ints, the hash table is an {@link IntHashTable}
+ * whose ids index chains of rows kept in int arrays.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Memory a join uses for the tuples of its left child unless given a budget. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+
+    /** Number of partitions the inputs are split into when they don't fit. */
+    public static final int FANOUT = 16;
+
+    /** Number of times a partition is split before it is joined in chunks. */
+    public static final int MAX_LEVEL = 3;
+
+    /** Estimated bytes of a tuple in memory, besides those of its fields. */
+    private static final int TUPLE_OVERHEAD = 48;
+    /** Estimated bytes of a field in memory, besides its value. */
+    private static final int FIELD_OVERHEAD = 16;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final long memoryBudget;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /** A pair of spilled partitions waiting to be joined. */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+    }
+
+    /** The left tuples in memory, by the value of their join field. */
+    private static abstract class Table {
+        abstract void insert(Field key, Tuple t);
+
+        /** @return the tuples with the key, or null if there are none */
+        abstract Iterator<Tuple> get(Field key);
+
+        /** @return all of the tuples */
+        abstract ArrayList<Tuple> tuples();
+
+        abstract boolean isEmpty();
+
+        abstract void clear();
+    }
+
+    /** A table with a list of tuples per key. */
+    private static class ObjectTable extends Table {
+        private final HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+
+        void insert(Field key, Tuple t) {
+            ArrayList<Tuple> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                map.put(key, list);
+            }
+            list.add(t);
+        }
+
+        Iterator<Tuple> get(Field key) {
+            ArrayList<Tuple> list = map.get(key);
+            return list == null ? null : list.iterator();
+        }
+
+        ArrayList<Tuple> tuples() {
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (ArrayList<Tuple> list : map.values())
+                tuples.addAll(list);
+            return tuples;
+        }
+
+        boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        void clear() {
+            map.clear();
+        }
+    }
+
+    /**
+     * A table of int keys, whose rows with the same key are chained, in the
+     * order they were inserted, through an int array indexed by row.
+     */
+    private static class IntTable extends Table {
+        private final IntHashTable ids = new IntHashTable();
+        private final ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        // the first and last row of each key id, and the row after each row
+        private int[] first = new int[16];
+        private int[] last = new int[16];
+        private int[] next = new int[16];
+
+        void insert(Field key, Tuple t) {
+            int keys = ids.size();
+            int id = ids.add(((IntField) key).getValue());
+            int row = rows.size();
+            rows.add(t);
+            if (row == next.length)
+                next = Arrays.copyOf(next, row * 2);
+            next[row] = -1;
+            if (id == keys) {
+                if (id == first.length) {
+                    first = Arrays.copyOf(first, id * 2);
+                    last = Arrays.copyOf(last, id * 2);
+                }
+                first[id] = row;
+            } else {
+                next[last[id]] = row;
+            }
+            last[id] = row;
+        }
+
+        Iterator<Tuple> get(Field key) {
+            int id = ids.find(((IntField) key).getValue());
+            if (id < 0)
+                return null;
+            final int head = first[id];
+            return new Iterator<Tuple>() {
+                private int row = head;
+
+                public boolean hasNext() {
+                    return row >= 0;
+                }
+
+                public Tuple next() {
+                    if (row < 0)
+                        throw new NoSuchElementException();
+                    Tuple t = rows.get(row);
+                    row = next[row];
+                    return t;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        ArrayList<Tuple> tuples() {
+            return new ArrayList<Tuple>(rows);
+        }
+
+        boolean isEmpty() {
+            return rows.isEmpty();
+        }
+
+        void clear() {
+            ids.clear();
+            rows.clear();
+        }
+    }
+
+    // the left tuples in memory, and the partitions of the current pass
+    transient private Table table;
+    transient private long tupleSize;
+    transient private long residentBytes;
+    transient private int level;
+    transient private boolean[] resident;
+    transient private long[] partitionBytes;
+    transient private SpillFile[] buildSpills, probeSpills;
+    transient private Deque<Partition> pending;
+    transient private long spilledTuples;
+
+    // the inputs of the current pass
+    transient private DbFileIterator probe;
+    transient private SpillFile buildFile, probeFile;
+    transient private DbFileIterator chunks;
+
+    transient Iterator<Tuple> listIt = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
-     *            The predicate to use to join the children
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
      * @param child1
      *            Iterator for the left(outer) relation to join
      * @param child2
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor for a join with a memory budget.
+     *
+     * @param memoryBudget
+     *            the estimated number of bytes the tuples of the left child
+     *            held in memory at a time may take
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins only support EQUALS");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBudget = memoryBudget;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +238,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,53 +248,285 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+    /** @return the memory budget of the join, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of tuples the join has written to temporary files
+     *         since it was opened
+     */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /** @return the estimated number of bytes a tuple of td takes in memory */
+    static long estimateTupleSize(TupleDesc td) {
+        return TUPLE_OVERHEAD + td.numFields() * FIELD_OVERHEAD + td.getSize();
+    }
+
+    /** @return the partition of a key in the pass at the given level */
+    private static int partition(Field key, int level) {
+        // a different function at each level, so a partition splits again
+        int h = key.hashCode() ^ (level * 0x9e3779b9);
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    /** @return the tuples of a child as a DbFileIterator, for the first pass */
+    static DbFileIterator tuplesOf(final OpIterator child) {
+        return new AbstractDbFileIterator() {
+            public void open() {
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
 
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                return child.hasNext() ? child.next() : null;
+            }
+        };
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE)
+            table = new IntTable();
+        else
+            table = new ObjectTable();
+        pending = new ArrayDeque<Partition>();
+        tupleSize = estimateTupleSize(child1.getTupleDesc());
+        spilledTuples = 0;
+        start();
         super.open();
     }
 
+    /** Starts the join over with the first pass over the children. */
+    private void start() throws DbException, TransactionAbortedException {
+        build(tuplesOf(child1), 0);
+        probe = tuplesOf(child2);
+    }
+
+    /** Adds a tuple of the left child to the hash table. */
+    private void insert(Tuple t) {
+        table.insert(t.getField(pred.getField1()), t);
+    }
+
+    /**
+     * Reads the left tuples of a pass into the hash table, splitting them
+     * into partitions and spilling partitions once they don't fit.  In the
+     * last pass a partition can get, reads only a chunk of tuples as large
+     * as the budget, and leaves the others to {@link #loadChunk}.
+     *
+     * @param in the left tuples of the pass
+     * @param level the number of passes the tuples went through
+     */
+    private void build(DbFileIterator in, int level)
+            throws DbException, TransactionAbortedException {
+        table.clear();
+        this.level = level;
+        residentBytes = 0;
+        resident = null;
+        buildSpills = probeSpills = null;
+        while (in.hasNext()) {
+            Tuple t = in.next();
+            if (resident == null) {
+                insert(t);
+                residentBytes += tupleSize;
+                if (residentBytes > memoryBudget) {
+                    if (level >= MAX_LEVEL) {
+                        chunks = in;
+                        return;
+                    }
+                    split();
+                }
+            } else {
+                int p = partition(t.getField(pred.getField1()), level);
+                if (resident[p]) {
+                    insert(t);
+                    partitionBytes[p] += tupleSize;
+                    residentBytes += tupleSize;
+                    if (residentBytes > memoryBudget)
+                        evict();
+                } else {
+                    buildSpills[p].add(t);
+                    spilledTuples++;
+                }
+            }
+        }
+    }
+
+    /** Splits the tuples in the hash table into partitions, and spills some. */
+    private void split() throws DbException {
+        resident = new boolean[FANOUT];
+        Arrays.fill(resident, true);
+        partitionBytes = new long[FANOUT];
+        for (Tuple t : table.tuples())
+            partitionBytes[partition(t.getField(pred.getField1()), level)] += tupleSize;
+        buildSpills = new SpillFile[FANOUT];
+        probeSpills = new SpillFile[FANOUT];
+        evict();
+    }
+
+    /** Spills the largest partitions in memory until the others fit. */
+    private void evict() throws DbException {
+        while (residentBytes > memoryBudget) {
+            int victim = -1;
+            for (int p = 0; p < FANOUT; p++) {
+                if (resident[p] && (victim < 0 || partitionBytes[p] > partitionBytes[victim]))
+                    victim = p;
+            }
+            if (victim < 0)
+                return;
+            resident[victim] = false;
+            residentBytes -= partitionBytes[victim];
+            buildSpills[victim] = new SpillFile(child1.getTupleDesc());
+            probeSpills[victim] = new SpillFile(child2.getTupleDesc());
+            // the tables can't remove keys, so the others are inserted again
+            ArrayList<Tuple> tuples = table.tuples();
+            table.clear();
+            for (Tuple t : tuples) {
+                if (partition(t.getField(pred.getField1()), level) == victim) {
+                    buildSpills[victim].add(t);
+                    spilledTuples++;
+                } else {
+                    insert(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next chunk of the left tuples of a partition that is joined
+     * in chunks.
+     *
+     * @return false if there are no more
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        table.clear();
+        residentBytes = 0;
+        while (residentBytes <= memoryBudget && chunks.hasNext()) {
+            insert(chunks.next());
+            residentBytes += tupleSize;
+        }
+        return !table.isEmpty();
+    }
+
+    /**
+     * Moves on to the next chunk of the current partition, or to the next
+     * spilled partition.
+     *
+     * @return false if the join is done
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        if (chunks != null) {
+            if (loadChunk()) {
+                probe.rewind();
+                return true;
+            }
+            chunks.close();
+            chunks = null;
+        }
+        if (buildFile != null) {
+            buildFile.delete();
+            buildFile = null;
+        }
+        if (probeFile != null) {
+            probe.close();
+            probeFile.delete();
+            probeFile = null;
+        }
+        if (resident != null) {
+            for (int p = 0; p < FANOUT; p++) {
+                if (resident[p])
+                    continue;
+                if (buildSpills[p].size() > 0 && probeSpills[p].size() > 0) {
+                    pending.push(new Partition(buildSpills[p], probeSpills[p], level + 1));
+                } else {
+                    buildSpills[p].delete();
+                    probeSpills[p].delete();
+                }
+            }
+            resident = null;
+            buildSpills = probeSpills = null;
+        }
+        if (pending.isEmpty())
+            return false;
+
+        Partition next = pending.pop();
+        buildFile = next.build;
+        DbFileIterator in = buildFile.iterator();
+        in.open();
+        build(in, next.level);
+        if (chunks == null)
+            in.close();
+        probeFile = next.probe;
+        probe = probeFile.iterator();
+        probe.open();
+        return true;
+    }
+
+    /** Deletes the spill files of the join. */
+    private void cleanup() {
+        if (chunks != null) {
+            chunks.close();
+            chunks = null;
+        }
+        if (probeFile != null && probe != null)
+            probe.close();
+        probe = null;
+        for (SpillFile f : new SpillFile[] { buildFile, probeFile }) {
+            if (f != null)
+                f.delete();
+        }
+        buildFile = probeFile = null;
+        if (buildSpills != null) {
+            for (int p = 0; p < FANOUT; p++) {
+                if (buildSpills[p] != null) {
+                    buildSpills[p].delete();
+                    probeSpills[p].delete();
+                }
+            }
+        }
+        buildSpills = probeSpills = null;
+        resident = null;
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.build.delete();
+                p.probe.delete();
+            }
+            pending.clear();
+        }
+        if (table != null)
+            table.clear();
+        this.t1 = null;
+        this.t2 = null;
+        this.listIt = null;
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        cleanup();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        cleanup();
         child1.rewind();
         child2.rewind();
+        start();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -110,7 +541,7 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
@@ -131,32 +562,36 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (listIt != null && listIt.hasNext())
+                return processList();
+            listIt = null;
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            // loop around the right tuples of the pass
+            while (probe.hasNext()) {
+                t2 = probe.next();
+                Field key = t2.getField(pred.getField2());
+                if (resident != null) {
+                    int p = partition(key, level);
+                    if (!resident[p]) {
+                        probeSpills[p].add(t2);
+                        spilledTuples++;
+                        continue;
+                    }
+                }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                listIt = table.get(key);
+                if (listIt == null)
+                    continue;
+                return processList();
+            }
 
+            // the pass is done: move on to the spilled partitions
+            if (!nextPass())
+                return null;
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
     }
 
     @Override
@@ -169,5 +604,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -1,11 +1,13 @@
 package simpledb;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -14,13 +16,30 @@ import java.util.NoSuchElementException;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A heap file stores its tuples either in fixed-size slots, in HeapPages,
+ * or as variable-length records, in SlottedHeapPages; see {@link PageFormat}.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see simpledb.SlottedHeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+
+    /** The ways a HeapFile can lay out its pages. */
+    public enum PageFormat {
+        /** Fixed-size slots, see {@link HeapPage}. */
+        FIXED,
+        /** Variable-length records and a slot directory, see {@link SlottedHeapPage}. */
+        SLOTTED
+    }
+
 	 private final File dbFile;
 	 private final TupleDesc tupleDesc;
+	 private final PageFormat format;
+	 private final PageFile io;
+	 private FreeSpaceMap freeSpace;
+	 private ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,8 +50,29 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+		this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages have
+     * the given format.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the format of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
 		this.dbFile = f;
 		this.tupleDesc = td;
+		this.format = format;
+		this.io = new PageFile(f);
+    }
+
+    /** @return the format of the pages of this file */
+    public PageFormat getPageFormat() {
+        return format;
     }
 
     /**
@@ -76,25 +116,62 @@ public class HeapFile implements DbFile {
     int pgNo = pid.getPageNumber();
     byte[] rawPgData = HeapPage.createEmptyPageData();
 
-    // random access read from disk
+    // random access read from disk; past the end of the file the page is empty
     try {
-      FileInputStream in = new FileInputStream(dbFile);
-      in.skip(pgNo * BufferPool.getPageSize());
-      in.read(rawPgData);
-      return new HeapPage(new HeapPageId(tableId, pgNo), rawPgData);
+      long offset = (long) pgNo * BufferPool.getPageSize();
+      ByteBuffer mapped = io.map(offset, rawPgData.length);
+      if (mapped != null)
+        return newPage(new HeapPageId(tableId, pgNo), mapped);
+      io.read(offset, rawPgData);
+      return newPage(new HeapPageId(tableId, pgNo), ByteBuffer.wrap(rawPgData));
     } catch (IOException e) {
       throw new IllegalArgumentException("Heap file I/O error");
     }
     }
 
+    /** Decodes a page of this file in the format of the file. */
+    private TuplePage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        if (format == PageFormat.SLOTTED)
+            return new SlottedHeapPage(pid, data, tupleDesc);
+        return new HeapPage(pid, data, tupleDesc);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
     	
-    	RandomAccessFile raf = new RandomAccessFile(dbFile, "rw");
+    	// the sidecar must not look up to date while the page is newer
+    	getZoneMap().writing();
+    	io.write((long) page.getId().getPageNumber() * BufferPool.getPageSize(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
     	
-    	raf.seek(raf.length());
-    	raf.write(page.getPageData());
-    	raf.close();
+    	// in page number order, so that runs of adjacent pages are written at once
+    	ArrayList<Page> sorted = new ArrayList<Page>(pages);
+    	Collections.sort(sorted, new Comparator<Page>() {
+    		public int compare(Page a, Page b) {
+    			return Integer.compare(a.getId().getPageNumber(), b.getId().getPageNumber());
+    		}
+    	});
+    	long[] offsets = new long[sorted.size()];
+    	byte[][] data = new byte[sorted.size()][];
+    	for (int i = 0; i < offsets.length; i++) {
+    		offsets[i] = (long) sorted.get(i).getId().getPageNumber() * BufferPool.getPageSize();
+    		data[i] = sorted.get(i).getPageData();
+    	}
+    	getZoneMap().writing();
+    	io.write(offsets, data);
+    }
+
+    /**
+     * Turns the memory mapped read path on or off.  While it is on, pages are
+     * decoded straight from a read-only mapping of the file instead of being
+     * read into a byte array first; this pays off for tables that are mostly
+     * read.  Writes are not affected.
+     */
+    public void setMemoryMapped(boolean on) {
+        io.setMemoryMapped(on);
     }
 
     /**
@@ -111,23 +188,48 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
     	
     	ArrayList<Page> res = new ArrayList<>();
-    	HeapPage hp = null;
+    	BufferPool bp = Database.getBufferPool();
+    	TuplePage hp = null;
     	boolean cond = false;
         
-    	for(int i = 0; i < this.numPages() && !cond; i++) {
-    		hp = getHP(tid, new HeapPageId(getId(), i));
-    		if(hp.getNumEmptySlots() > 0)
-    			cond = true;
+    	// only visit pages the free space map considers to have room
+    	FreeSpaceMap fsm = getFreeSpaceMap();
+    	for(int i = fsm.nextFree(0); i >= 0 && !cond; i = fsm.nextFree(i + 1)) {
+    		HeapPageId pid = new HeapPageId(getId(), i);
+    		boolean locked = bp.holdsLock(tid, pid);
+    		hp = getHP(tid, pid, Permissions.READ_ONLY);
+    		if(hp.getNumEmptySlots() > 0) {
+    			// upgrade, then check again: the page may have filled up meanwhile
+    			hp = getHP(tid, pid, Permissions.READ_WRITE);
+    			cond = hp.getNumEmptySlots() > 0;
+    		} else if(!locked) {
+    			// we only looked at a full page, nobody can depend on what we read
+    			bp.releasePage(tid, pid);
+    		}
+    		if(!cond)
+    			fsm.markFull(i);
     	}
     	
     	if(!cond) {
-    		hp = getHP(tid, new HeapPageId(getId(), this.numPages()));
-			writePage(hp);
+    		// append an empty page to the file, then fetch it through the buffer pool
+    		HeapPageId pid;
+    		synchronized(this) {
+    			pid = new HeapPageId(getId(), numPages());
+    			getZoneMap().appended(pid.getPageNumber());
+    			getZoneMap().writing();
+    			// both formats have all-zero empty pages
+    			io.write((long) pid.getPageNumber() * BufferPool.getPageSize(), HeapPage.createEmptyPageData());
+    			fsm.grow(pid.getPageNumber() + 1);
+    		}
+    		hp = getHP(tid, pid, Permissions.READ_WRITE);
 		}
     	
     	hp.insertTuple(t);
 		hp.markDirty(true, tid);
+		getZoneMap().inserted(hp.getId().getPageNumber(), t);
 		res.add(hp);
+		if(hp.getNumEmptySlots() == 0)
+			fsm.markFull(hp.getId().getPageNumber());
 		
         return res;
     }
@@ -137,59 +239,341 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
     	
     	ArrayList<Page> res = new ArrayList<>();
-    	HeapPage hp = getHP(tid, t.getRecordId().getPageId());
+    	TuplePage hp = getHP(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
     	
     	hp.deleteTuple(t);
+    	hp.markDirty(true, tid);
     	res.add(hp);
+    	getFreeSpaceMap().markFree(hp.getId().getPageNumber());
+    	getZoneMap().deleted(hp.getId().getPageNumber());
     	
         return res;
 
     }
     
-    private HeapPage getHP(TransactionId tid, PageId pid) throws TransactionAbortedException, DbException {
-    	return (HeapPage) Database.getBufferPool().getPage(tid, pid, null);
+    /**
+     * Returns the free space map of this file, creating it on first use.
+     */
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+    	if(freeSpace == null)
+    		freeSpace = new FreeSpaceMap(numPages());
+    	return freeSpace;
     }
 
-    // see DbFile.java for javadocs
- private class HeapFileIterator implements DbFileIterator {
+    /**
+     * Returns the zone map of this file, reading it from its sidecar file on
+     * first use.
+     */
+    public synchronized ZoneMap getZoneMap() {
+    	if(zoneMap == null)
+    		zoneMap = new ZoneMap(dbFile, tupleDesc);
+    	return zoneMap;
+    }
+
+    /**
+     * Writes the zones that changed to the sidecar, if the zone map was
+     * opened, see {@link ZoneMap#flush}.
+     */
+    public void flushZoneMap() throws IOException {
+    	ZoneMap zones;
+    	synchronized(this) {
+    		zones = zoneMap;
+    	}
+    	if(zones != null)
+    		zones.flush();
+    }
+
+    private TuplePage getHP(TransactionId tid, PageId pid, Permissions perm)
+    		throws TransactionAbortedException, DbException {
+    	return (TuplePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+  /**
+   * PageScan reads the pages of this file in order through the buffer pool,
+   * with a bulk-read ring and read-ahead, as a sequential scan does.  Given
+   * predicates, it skips the pages whose zone shows that none of their
+   * tuples can satisfy them, and computes the zones of the pages it reads
+   * if they are unknown.  The tuple iterators of this file and batch scans
+   * read their pages through it.
+   * <p>
+   * A PageScan given {@link Morsels} only reads the ranges of pages it
+   * claims from them, one range after the other.
+   *
+   * @see ZoneMap
+   * @see BatchSeqScan
+   */
+  public class PageScan {
 
     private Integer pageCursor;
-    private Iterator<Tuple> tupleIterator;
     private final TransactionId transactionId;
     private final int tableId;
     private final int numPages;
+    private final Predicate[] predicates;
+    private final ZoneMap zones;
+    private final BufferRing ring;
+    private final ReadAhead readAhead;
+    private final Morsels morsels;
+    /** End of the range of pages the scan is reading. */
+    private volatile int rangeEnd;
 
-    public HeapFileIterator(TransactionId tid) {
+    /**
+     * @param tid the transaction that reads the pages
+     * @param preds predicates that allow the scan to skip pages, or null
+     */
+    public PageScan(TransactionId tid, Predicate[] preds) {
+      this(tid, preds, null);
+    }
+
+    /**
+     * @param tid the transaction that reads the pages
+     * @param preds predicates that allow the scan to skip pages, or null
+     * @param morsels the ranges of pages the scan shares with others, or
+     *        null to read all of the pages
+     */
+    public PageScan(TransactionId tid, Predicate[] preds, Morsels morsels) {
       this.pageCursor = null;
-      this.tupleIterator = null;
       this.transactionId = tid;
       this.tableId = getId();
       this.numPages = numPages();
+      this.predicates = preds != null && preds.length > 0 ? preds : null;
+      this.zones = predicates == null ? null : getZoneMap();
+      this.morsels = morsels;
+      this.rangeEnd = morsels == null ? numPages : 0;
+      this.ring = Database.getBufferPool().newBulkReadRing(numPages);
+      // read ahead the pages the scan will read, skipping the others too
+      this.readAhead = new ReadAhead(Database.getBufferPool(), ring, new ReadAhead.Successor() {
+        public PageId next(Page page) {
+          int next = nextPage(page.getId().getPageNumber() + 1);
+          return next < rangeEnd ? new HeapPageId(tableId, next) : null;
+        }
+      });
+    }
+
+    /** @return the predicates the scan skips pages with, or null */
+    public Predicate[] getPredicates() {
+      return predicates;
+    }
+
+    /**
+     * @return the first page from pgNo on the scan has to read, or the end
+     *         of its range of pages
+     */
+    private int nextPage(int pgNo) {
+      int end = rangeEnd;
+      if (zones != null) {
+        while (pgNo < end && !zones.mayMatch(pgNo, predicates))
+          pgNo++;
+      }
+      return pgNo;
     }
 
-    private Iterator<Tuple> getTupleIterator(int pageNumber) throws TransactionAbortedException, DbException {
+    private TuplePage getPage(int pageNumber) throws TransactionAbortedException, DbException {
       PageId pid = new HeapPageId(tableId, pageNumber);
-      return ((HeapPage) Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY)).iterator();
+      TuplePage page = (TuplePage) Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY, ring);
+      readAhead.accessed(page);
+      if (zones != null) {
+        try {
+          zones.build(page);
+        } catch (IOException e) {
+          // the zone stays unknown, the page is read again by the next scan
+        }
+      }
+      return page;
+    }
+
+    /** Moves on to the first page from pgNo on the scan has to read. */
+    private int skipTo(int pgNo) {
+      int next = nextPage(pgNo);
+      if (next > pgNo)
+        zones.skipped(Math.min(next, rangeEnd) - pgNo);
+      return next;
+    }
+
+    /**
+     * @return the next page of the scan, or null if there are no more.  A
+     *         scan without predicates of an empty file returns one empty
+     *         page.
+     */
+    public TuplePage next() throws DbException, TransactionAbortedException {
+      if (morsels != null)
+        return nextInMorsels();
+      if (pageCursor == null) {
+        pageCursor = skipTo(0);
+        if (pageCursor < numPages || predicates == null)
+          return getPage(pageCursor);
+        return done();
+      }
+      if (pageCursor >= numPages)
+        return null;
+      pageCursor = skipTo(pageCursor + 1);
+      if (pageCursor >= numPages)
+        return done();
+      return getPage(pageCursor);
+    }
+
+    /** Writes the zones the scan computed; returns null, for the end of the scan. */
+    private TuplePage done() {
+      if (zones != null) {
+        try {
+          zones.flush();
+        } catch (IOException e) {
+          // the zones stay unsaved, and are written with the next batch
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return the next page of the range the scan is reading, claiming the
+     *         next range once it is done with one, or null if all of them
+     *         have been claimed
+     */
+    private TuplePage nextInMorsels() throws DbException, TransactionAbortedException {
+      int pgNo = pageCursor == null ? rangeEnd : pageCursor + 1;
+      while (true) {
+        if (pgNo >= rangeEnd) {
+          pgNo = morsels.claim();
+          if (pgNo < 0)
+            return done();
+          rangeEnd = Math.min(pgNo + morsels.getPagesPerMorsel(), numPages);
+        }
+        pgNo = skipTo(pgNo);
+        if (pgNo < rangeEnd) {
+          pageCursor = pgNo;
+          return getPage(pgNo);
+        }
+      }
+    }
+
+    /**
+     * Starts the scan over from the first page; a scan of morsels goes on
+     * with the next range it claims.
+     */
+    public void rewind() {
+      pageCursor = null;
+      if (morsels != null)
+        rangeEnd = 0;
+    }
+  }
+
+  /**
+   * Morsels hands the pages of this file out in ranges of consecutive
+   * pages to the scans that share it, so that scans running in different
+   * threads read each page once between them, and scans that run faster
+   * read more of the pages.  A scan claims a range whenever it is done with
+   * the previous one.
+   * <p>
+   * The ranges are handed out again from the first page when the first of
+   * the scans opens, so all of them have to be opened before any of them
+   * reads a page, and closed once all of them are done, as
+   * {@link Exchange} does.
+   *
+   * @see SeqScan#split
+   */
+  public class Morsels {
+
+    private final int pagesPerMorsel;
+    private int next;
+    private int end;
+    private int openScans;
+
+    /**
+     * @param pagesPerMorsel the number of pages of each range
+     */
+    public Morsels(int pagesPerMorsel) {
+      if (pagesPerMorsel < 1)
+        throw new IllegalArgumentException("morsels need at least one page");
+      this.pagesPerMorsel = pagesPerMorsel;
+    }
+
+    /** @return the number of pages of each range */
+    public int getPagesPerMorsel() {
+      return pagesPerMorsel;
+    }
+
+    /** Called when a scan of the morsels opens; the first one starts over. */
+    synchronized void opened() {
+      if (openScans++ == 0) {
+        next = 0;
+        end = numPages();
+      }
+    }
+
+    /** Called when a scan of the morsels closes. */
+    synchronized void closed() {
+      if (openScans > 0)
+        openScans--;
+    }
+
+    /**
+     * @return the first page of the next range, that ends pagesPerMorsel
+     *         pages later or at the end of the file, or -1 if all of the
+     *         ranges have been claimed
+     */
+    synchronized int claim() {
+      if (next >= end)
+        return -1;
+      int first = next;
+      next += pagesPerMorsel;
+      return first;
+    }
+  }
+
+    // see DbFile.java for javadocs
+ private class HeapFileIterator implements DbFileIterator {
+
+    private final TransactionId transactionId;
+    private final Predicate[] predicates;
+    private final int[] columns;
+    private final Morsels morsels;
+    private PredicateEvaluator evaluator;
+    private PageScan pages;
+    private Iterator<Tuple> tupleIterator;
+
+    public HeapFileIterator(TransactionId tid, Predicate[] preds, int[] columns, Morsels morsels) {
+      this.transactionId = tid;
+      this.predicates = preds != null && preds.length > 0 ? preds : null;
+      this.columns = columns;
+      this.morsels = morsels;
+    }
+
+    private Iterator<Tuple> getTupleIterator(TuplePage page) {
+      if (predicates == null && columns == null)
+        return page.iterator();
+      if (page instanceof HeapPage)
+        return ((HeapPage) page).iterator(evaluator, columns);
+      return page.iterator(predicates, columns);
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-      pageCursor = 0;
-      tupleIterator = getTupleIterator(pageCursor);
+      if (predicates != null)
+        evaluator = PredicateEvaluator.forPredicates(predicates, getTupleDesc());
+      if (morsels != null) {
+        // the scans of the morsels are all opened before any of them reads
+        morsels.opened();
+        pages = new PageScan(transactionId, predicates, morsels);
+        tupleIterator = Collections.<Tuple>emptyList().iterator();
+        return;
+      }
+      pages = new PageScan(transactionId, predicates);
+      TuplePage page = pages.next();
+      if (page != null)
+        tupleIterator = getTupleIterator(page);
+      else
+        tupleIterator = Collections.<Tuple>emptyList().iterator();
     }
 
     @Override
     public boolean hasNext() throws DbException, TransactionAbortedException {
-      if (pageCursor != null) {
-        while (pageCursor < numPages - 1) {
-          if (tupleIterator.hasNext()) {
-            return true;
-          } else {
-            pageCursor += 1;
-            tupleIterator = getTupleIterator(pageCursor);
-          }
+      if (pages != null) {
+        while (!tupleIterator.hasNext()) {
+          TuplePage page = pages.next();
+          if (page == null)
+            return false;
+          tupleIterator = getTupleIterator(page);
         }
-        return tupleIterator.hasNext();
+        return true;
       } else {
         return false;
       }
@@ -211,7 +595,9 @@ public class HeapFile implements DbFile {
 
     @Override
     public void close() {
-      pageCursor = null;
+      if (morsels != null && pages != null)
+        morsels.closed();
+      pages = null;
       tupleIterator = null;
     }
 
@@ -220,7 +606,45 @@ public class HeapFile implements DbFile {
   // see DbFile.java for javadocs
   public DbFileIterator iterator(TransactionId tid) {
     // some code goes here
-    return new HeapFileIterator(tid);
+    return new HeapFileIterator(tid, null, null, null);
+  }
+
+  /**
+   * Returns an iterator over the tuples of this file that satisfy all of the
+   * predicates.  Pages whose zone shows that none of their tuples can
+   * satisfy them are skipped without being read, and the pages that are read
+   * test the predicates before they build the tuples.  The zones of the
+   * pages the iterator reads are computed if they are unknown.
+   *
+   * @see ZoneMap
+   * @see TuplePage#iterator(Predicate[])
+   */
+  public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+    return new HeapFileIterator(tid, predicates, null, null);
+  }
+
+  /**
+   * Returns an iterator over the given fields of the tuples of this file
+   * that satisfy all of the predicates; see
+   * {@link #iterator(TransactionId, Predicate[])}.  The pages decode only
+   * the fields the iterator returns.
+   *
+   * @see TuplePage#iterator(Predicate[], int[])
+   */
+  public DbFileIterator iterator(TransactionId tid, Predicate[] predicates, int[] columns) {
+    return new HeapFileIterator(tid, predicates, columns, null);
+  }
+
+  /**
+   * Returns an iterator like {@link #iterator(TransactionId, Predicate[],
+   * int[])} that only reads the ranges of pages it claims from morsels it
+   * shares with other iterators.
+   *
+   * @param morsels the ranges of pages of this file the iterator shares
+   */
+  public DbFileIterator iterator(TransactionId tid, Predicate[] predicates, int[] columns,
+      Morsels morsels) {
+    return new HeapFileIterator(tid, predicates, columns, morsels);
   }
 
 }
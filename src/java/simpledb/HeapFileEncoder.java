@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -106,6 +108,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    ZoneMap.deleteSidecar(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -223,4 +226,58 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert a heap file of fixed-size HeapPages into a heap file of
+   * SlottedHeapPages with the same tuples, in the same order.  Pages of the
+   * output file are filled as far as the tuples fit, so a table with short
+   * strings takes fewer pages.
+   *
+   * @see HeapPage
+   * @see SlottedHeapPage
+   * @param inFile The heap file to read tuples from
+   * @param outFile The output file to write data to
+   * @param td the schema of the tuples of the file
+   * @throws IOException if the input/output file can't be opened or the
+   *   input file is not a valid heap file
+   */
+  public static void convertToSlotted(File inFile, File outFile, TupleDesc td)
+      throws IOException {
+      int npagebytes = BufferPool.getPageSize();
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      ZoneMap.deleteSidecar(outFile);
+      long inPages = inFile.length() / npagebytes;
+      byte[] data = new byte[npagebytes];
+      int outPages = 0;
+      SlottedHeapPage out = new SlottedHeapPage(new HeapPageId(0, outPages),
+              ByteBuffer.wrap(SlottedHeapPage.createEmptyPageData()), td);
+      try {
+          for (int pgNo = 0; pgNo < inPages; pgNo++) {
+              is.readFully(data);
+              HeapPage in = new HeapPage(new HeapPageId(0, pgNo), ByteBuffer.wrap(data), td);
+              Iterator<Tuple> it = in.iterator();
+              while (it.hasNext()) {
+                  Tuple t = it.next();
+                  try {
+                      out.insertTuple(t);
+                  } catch (DbException e) {
+                      // the page is full, start the next one
+                      os.write(out.getPageData());
+                      out = new SlottedHeapPage(new HeapPageId(0, ++outPages),
+                              ByteBuffer.wrap(SlottedHeapPage.createEmptyPageData()), td);
+                      try {
+                          out.insertTuple(t);
+                      } catch (DbException e2) {
+                          throw new IOException("tuple does not fit on an empty page: " + t);
+                      }
+                  }
+              }
+          }
+          // like convert, an empty file still gets one empty page
+          os.write(out.getPageData());
+      } finally {
+          is.close();
+          os.close();
+      }
+  }
 }
@@ -2,25 +2,36 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the bytes it was read from, and only decodes a tuple
+ * when the iterator returns it, or a single field when it is asked for
+ * with {@link #getField}.  Tuples inserted since the page was read are kept
+ * as objects until the page is serialized again.  A page read from a memory
+ * mapped file keeps a view of the mapping rather than a copy of it.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    /** The page as read from disk; never modified, only read by index. */
+    final ByteBuffer data;
+    /** Tuples inserted into this page; null for slots whose tuple is in data. */
     final Tuple tuples[];
     final int numSlots;
 	private boolean dirty;
 	private TransactionId dirtyby;
 
+    // the before-image of the page, or null while it is the page itself
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -41,27 +52,53 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes of a page in a buffer, e.g. a region
+     * of a memory mapped file.  The page keeps a view of the buffer, starting
+     * at its position, and decodes tuples from it when they are needed; the
+     * bytes must not change while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a table that is not (yet) in the catalog, e.g.
+     * while converting its file.
+     *
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int len = BufferPool.getPageSize();
+        ByteBuffer buf = data.slice();
+        if (buf.remaining() < len) {
+            // a short buffer is copied, leaving the rest of the page zero
+            byte[] padded = new byte[len];
+            buf.get(padded, 0, buf.remaining());
+            buf = ByteBuffer.wrap(padded);
+        }
+        buf.limit(len);
+        this.data = buf;
 
-        // allocate and read the header slots of this page
+        // the header slots are modified in place, so they get their own copy
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        buf.duplicate().get(header);
+
+        // tuples are decoded when they are needed
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // data is never modified, so an array holding just the page can be
+        // the before-image as it is; other pages copy theirs when modified
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == len)
+            oldData = buf.array();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -91,7 +128,7 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : getPageData();
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -102,10 +139,26 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of this page its before-image.  The
+     * contents are only copied when the page is first modified afterwards.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Copies the current contents of this page into its before-image if
+     * they are the before-image; called before the page is modified.
+     */
+    private void preserveBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
         }
     }
 
@@ -117,30 +170,42 @@ public class HeapPage implements Page {
     return this.pid;
     }
 
+    /** @return the offset in data of the record in the given slot */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, decoding it from the page data if it
+     * was not inserted since the page was read.  Tuples decoded from the
+     * page data are not kept, so every call returns a new Tuple.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple readTuple(Tuple[] tuples, int slotId) throws NoSuchElementException {
+        return readTuple(tuples, slotId, null, td);
+    }
+
+    /**
+     * Returns the given fields of the tuple in a used slot, decoding only
+     * those fields from the page data.
+     *
+     * @param columns the fields to return, or null for all of them
+     * @param projected the schema of the returned tuple, see
+     *        {@link TupleDesc#project}
+     */
+    private Tuple readTuple(Tuple[] tuples, int slotId, int[] columns, TupleDesc projected)
+            throws NoSuchElementException {
+        if (tuples[slotId] != null)
+            return columns == null ? tuples[slotId] : tuples[slotId].project(projected, columns);
 
         // read fields in the tuple
-        Tuple t = new Tuple(td);
+        Tuple t = new Tuple(projected);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        int base = slotOffset(slotId);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+            for (int j=0; j<projected.numFields(); j++) {
+                int col = columns == null ? j : columns[j];
+                Field f = td.getFieldType(col).parse(data, base + td.getFieldOffset(col));
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -151,6 +216,112 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Reads one field of the tuple in a slot, without decoding the rest of
+     * the tuple.
+     *
+     * @param slotId the slot of the tuple
+     * @param fieldNo the index of the field in the tuple
+     * @return the field, or null if the slot is empty
+     * @throws NoSuchElementException if the field can't be parsed
+     */
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            return null;
+        if (tuples[slotId] != null)
+            return tuples[slotId].getField(fieldNo);
+        try {
+            return td.getFieldType(fieldNo).parse(data, slotOffset(slotId) + td.getFieldOffset(fieldNo));
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Appends the given fields of the tuples in the used slots from a slot
+     * on to a batch, until the batch is full.  Fields are copied straight
+     * from the page bytes: ints into the int columns, strings as slices of
+     * the array the page was read into, which is never modified, so the
+     * batch may keep them.  Strings of a page of a memory mapped file are
+     * copied one at a time, since the page has no array.
+     * The caller must hold a lock on the page.
+     *
+     * @param fromSlot the first slot to read
+     * @param batch the batch to append to, whose schema are the fields
+     * @param columns the fields to read, or null for all of them
+     * @return the slot to read the next batch from, or getNumSlots() if
+     *         there are no more tuples on the page
+     */
+    public int readBatch(int fromSlot, Batch batch, int[] columns) {
+        int n = batch.getTupleDesc().numFields();
+        byte[] array = data.hasArray() ? data.array() : null;
+        ByteBuffer strings = array == null ? data.duplicate() : null;
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot))
+                continue;
+            int row = batch.addRow();
+            if (tuples[slot] != null) {
+                for (int j = 0; j < n; j++)
+                    batch.setField(j, row, tuples[slot].getField(columns == null ? j : columns[j]));
+                continue;
+            }
+            int base = slotOffset(slot);
+            for (int j = 0; j < n; j++) {
+                int col = columns == null ? j : columns[j];
+                int off = base + td.getFieldOffset(col);
+                int v = data.getInt(off);
+                if (td.getFieldType(col) == Type.INT_TYPE) {
+                    batch.setInt(j, row, v);
+                } else {
+                    if (v < 0 || v > Type.STRING_LEN)
+                        throw new NoSuchElementException("parsing error!");
+                    if (array != null) {
+                        batch.setString(j, row, array, data.arrayOffset() + off + 4, v);
+                    } else {
+                        byte[] chars = new byte[v];
+                        strings.position(off + 4);
+                        strings.get(chars);
+                        batch.setString(j, row, chars, 0, v);
+                    }
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Returns a view of the bytes the page was read from, for code that
+     * reads the fields of its records itself at absolute offsets, like a
+     * {@link CompiledPipeline}.  The record in a used slot starts at
+     * {@link #getRecordOffset}, unless it was inserted since the page was
+     * read, see {@link #getInsertedTuple}.  The bytes are never modified,
+     * and must not be modified by the caller, who must hold a lock on the
+     * page.  For a page of a memory mapped file the view is of the mapping,
+     * so nothing is copied.
+     */
+    public ByteBuffer getRecordBuffer() {
+        return data.duplicate();
+    }
+
+    /** @return the offset in {@link #getRecordBuffer} of the record in a slot */
+    public int getRecordOffset(int slotId) {
+        return slotOffset(slotId);
+    }
+
+    /**
+     * @return the tuple inserted into a slot since the page was read, or
+     *         null if the slot's tuple is in {@link #getRecordBuffer}
+     */
+    public Tuple getInsertedTuple(int slotId) {
+        return tuples[slotId];
+    }
+
+    /** @return the number of slots of this page, used or not */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -164,63 +335,52 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] page = new byte[len]; // empty slots and padding stay zero
+        int tupleSize = td.getSize();
+        ByteArrayOutputStream baos = null;
+        DataOutputStream dos = null;
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        System.arraycopy(header, 0, page, 0, header.length);
 
         // create the tuples
+        ByteBuffer read = data.duplicate();
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            if (!isSlotUsed(i))
+                continue;
 
-                }
+            // a slot that still holds the tuple that was read
+            if (tuples[i] == null) {
+                read.position(slotOffset(i));
+                read.get(page, slotOffset(i), tupleSize);
                 continue;
             }
 
-            // non-empty slot
+            // an inserted tuple
+            if (baos == null) {
+                baos = new ByteArrayOutputStream(tupleSize);
+                dos = new DataOutputStream(baos);
+            }
+            baos.reset();
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
                     f.serialize(dos);
-                
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            try {
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, page, slotOffset(i), tupleSize);
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return page;
     }
 
     /**
@@ -246,7 +406,9 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple t) throws DbException {
     	if(isSlotUsed(t.getRecordId().getTupleNumber()) && pid.equals(t.getRecordId().getPageId()) ) {
+    		preserveBeforeImage();
     		markSlotUsed(t.getRecordId().getTupleNumber(), false);
+    		tuples[t.getRecordId().getTupleNumber()] = null;
     	} else {
     		throw new DbException("Tuple not found");
     	}
@@ -266,6 +428,7 @@ public class HeapPage implements Page {
     	if(getNumEmptySlots() == 0 || !td.equals(t.getTupleDesc()))
     		throw new DbException("no empty slots");
     	else {
+	    	preserveBeforeImage();
 	    	for (int i = 0 ; i<numSlots && !cond ; i++) {
 	    		if(!isSlotUsed(i)) {
 	    			tuples[i] = t;
@@ -311,6 +474,21 @@ public class HeapPage implements Page {
     return emptySlots;
     }
 
+    /**
+     * Tests whether the tuple in a used slot satisfies a conjunction of
+     * predicates.  Tuples that were not inserted since the page was read are
+     * tested against the page bytes, without decoding them, or copying them
+     * out of a memory mapped file.
+     */
+    private boolean matches(Tuple[] tuples, int slotId, PredicateEvaluator predicates)
+            throws NoSuchElementException {
+        if (tuples[slotId] != null)
+            return predicates.filter(tuples[slotId]);
+        if (data.hasArray())
+            return predicates.matches(data.array(), data.arrayOffset() + slotOffset(slotId));
+        return predicates.matches(data, slotOffset(slotId));
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -343,17 +521,40 @@ public class HeapPage implements Page {
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
-    protected class HeapPageTupleIterator implements Iterator {
-    private final Iterator<Tuple> iter;
+    protected class HeapPageTupleIterator implements Iterator<Tuple> {
+    // the slots as they were when the iterator was created, so that tuples
+    // inserted or deleted while iterating don't show up or go missing
+    private final byte[] used = header.clone();
+    private final Tuple[] inserted = tuples.clone();
+    private final PredicateEvaluator predicates;
+    private final int[] columns;
+    private final TupleDesc projected;
+    private int next;
 
     public HeapPageTupleIterator() {
-      ArrayList<Tuple> tupleArrayList = new ArrayList<>(tuples.length);
-      for (int i = 0; i < tuples.length; i++) {
-        if (isSlotUsed(i)) {
-          tupleArrayList.add(i, tuples[i]);
-        }
+      this(null, null);
+    }
+
+    /**
+     * Iterates over the given fields of the tuples that satisfy all of the
+     * predicates.
+     *
+     * @param predicates the predicates, or null for none
+     */
+    public HeapPageTupleIterator(PredicateEvaluator predicates, int[] columns) {
+      this.predicates = predicates;
+      this.columns = columns;
+      this.projected = columns == null ? td : td.project(columns);
+      this.next = nextUsed(0);
+    }
+
+    private int nextUsed(int from) {
+      for (int i = from; i < numSlots; i++) {
+        if ((used[i / 8] & (1 << (i % 8))) != 0
+            && (predicates == null || matches(inserted, i, predicates)))
+          return i;
       }
-      iter = tupleArrayList.iterator();
+      return numSlots;
     }
 
     @Override
@@ -363,12 +564,16 @@ public class HeapPage implements Page {
 
     @Override
     public boolean hasNext() {
-      return iter.hasNext();
+      return next < numSlots;
     }
 
     @Override
-    public Object next() {
-      return iter.next();
+    public Tuple next() {
+      if (next >= numSlots)
+        throw new NoSuchElementException();
+      Tuple t = readTuple(inserted, next, columns, projected);
+      next = nextUsed(next + 1);
+      return t;
     }
   }
 
@@ -381,6 +586,27 @@ public class HeapPage implements Page {
     return new HeapPageTupleIterator();
   }
 
+  // see TuplePage.java for javadocs
+  public Iterator<Tuple> iterator(Predicate[] predicates, int[] columns) {
+    if (predicates == null || predicates.length == 0)
+      return new HeapPageTupleIterator(null, columns);
+    return new HeapPageTupleIterator(PredicateEvaluator.interpret(predicates, td), columns);
+  }
+
+  /**
+   * Returns an iterator over the given fields of the tuples on this page
+   * that satisfy an evaluator's predicates; a scan passes the same
+   * evaluator to every page, so that it compiles them once it has tested
+   * enough tuples.
+   *
+   * @param predicates the predicates, over the fields of this page's
+   *        tuples, or null for none
+   * @param columns the fields to return, or null for all of them
+   */
+  public Iterator<Tuple> iterator(PredicateEvaluator predicates, int[] columns) {
+    return new HeapPageTupleIterator(predicates, columns);
+  }
+
 }
 
 
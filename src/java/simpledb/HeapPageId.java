@@ -41,7 +41,7 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-          return (String.valueOf(tableId) + pgNo).hashCode();
+        return 31 * tableId + pgNo;
     }
 
     /**
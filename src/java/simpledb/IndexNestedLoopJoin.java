@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements a join whose right child is
+ * a scan of a B+ tree keyed on the join field: rather than scanning the
+ * right child for each left tuple, it looks the matching right tuples up
+ * with {@link BTreeFile#indexIterator}.
+ * <p>
+ * The left child is read in batches of BATCH_SIZE tuples, sorted on the
+ * join field, so that left tuples with the same key share one lookup, and
+ * consecutive lookups go down the same root-to-leaf path, whose pages are
+ * still in the buffer pool.  The right tuples a lookup returns are read
+ * one at a time, each merged with every left tuple of the key, so a lookup
+ * that matches much of the right table holds no more than the batch in
+ * memory.  The tuples of a batch come out in the order of their keys.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of left tuples sorted and looked up together. */
+    public static final int BATCH_SIZE = 1024;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private final Predicate.Op indexOp;
+
+    private transient ArrayList<Tuple> batch;
+    // the lookup of the current key, and the right tuple it last returned
+    private transient DbFileIterator lookup;
+    private transient Tuple right;
+    // the tuples of the batch with the current key are [outer, groupEnd);
+    // right is merged with those from inner on
+    private transient int outer, groupEnd, inner;
+    private transient int probes;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            can't be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            A SeqScan of a BTreeFile keyed on the join field, which is
+     *            not read but looked up
+     * @throws IllegalArgumentException
+     *            if child2 can't be looked up on the join field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this.indexOp = indexOp(p.getOperator());
+        if (indexOp == null)
+            throw new IllegalArgumentException("index joins don't support " + p.getOperator());
+        if (!canProbe(child2, p.getField2()))
+            throw new IllegalArgumentException("not a scan of a B+ tree keyed on the join field");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the operator that the key of a right tuple satisfies against
+     *         the key of a left tuple it joins with, or null if a B+ tree
+     *         can't look such tuples up
+     */
+    static Predicate.Op indexOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return true if an operator is a SeqScan of a BTreeFile keyed on the
+     *         given field of its tuples
+     */
+    public static boolean canProbe(OpIterator it, int field) {
+        if (!(it instanceof SeqScan))
+            return false;
+        SeqScan scan = (SeqScan) it;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof BTreeFile))
+            return false;
+        int key = ((BTreeFile) file).keyField();
+        int[] columns = scan.getColumns();
+        if (columns == null)
+            return field == key;
+        return field < columns.length && columns[field] == key;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name()
+    {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name()
+    {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /** @return the number of lookups the join has done since it was opened */
+    public int getProbes() {
+        return probes;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        batch = new ArrayList<Tuple>();
+        probes = 0;
+        start();
+        super.open();
+    }
+
+    private void start() {
+        endLookup();
+        batch.clear();
+        outer = groupEnd = inner = 0;
+    }
+
+    private void endLookup() {
+        if (lookup != null)
+            lookup.close();
+        lookup = null;
+        right = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        endLookup();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        start();
+    }
+
+    /**
+     * Reads the next batch of left tuples, sorted on the join field.
+     *
+     * @return false if there are no more
+     */
+    private boolean loadBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (batch.size() < BATCH_SIZE && child1.hasNext())
+            batch.add(child1.next());
+        Collections.sort(batch, new TupleComparator(pred.getField1(), true));
+        outer = groupEnd = 0;
+        return !batch.isEmpty();
+    }
+
+    /** Starts the lookup of the right tuples that join with a left key. */
+    private void probe(Field key) throws DbException, TransactionAbortedException {
+        SeqScan scan = (SeqScan) child2;
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        int[] columns = scan.getColumns();
+        lookup = new FilteredDbFileIterator(
+                file.indexIterator(scan.getTransactionId(), new IndexPredicate(indexOp, key)),
+                scan.getPredicates(), columns,
+                columns == null ? null : file.getTupleDesc().project(columns));
+        lookup.open();
+        probes++;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  For each key of the current batch, in order, the join
+     * returns each of the right tuples the key looks up merged with each of
+     * the left tuples with the key.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (right != null && inner < groupEnd)
+                return merge(batch.get(inner++), right);
+            if (lookup != null && lookup.hasNext()) {
+                right = lookup.next();
+                inner = outer;
+                continue;
+            }
+            endLookup();
+            outer = groupEnd;
+            if (groupEnd == batch.size() && !loadBatch())
+                return null;
+            // the next group of left tuples with the same key
+            int field = pred.getField1();
+            Field key = batch.get(outer).getField(field);
+            groupEnd = outer + 1;
+            while (groupEnd < batch.size()
+                    && batch.get(groupEnd).getField(field).compare(Predicate.Op.EQUALS, key))
+                groupEnd++;
+            probe(key);
+        }
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(comboTD);
+        int size1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < size1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            t.setField(size1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntHashTable maps int keys to dense ids, 0 for the first key added, 1
+ * for the next one and so on, so that operators can keep whatever they
+ * store per key, e.g. the head of a chain of rows or the running value of
+ * an aggregate, in primitive arrays indexed by id instead of in boxed
+ * values.
+ * <p>
+ * It is an open-addressing table with linear probing, that keeps the keys
+ * next to their ids in primitive arrays, so a lookup neither boxes the key
+ * nor follows pointers.  Keys can't be removed, only cleared all at once.
+ */
+public class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = -1;
+
+    // slot s holds key slotKeys[s] with id slotIds[s], or EMPTY
+    private int[] slotKeys;
+    private int[] slotIds;
+    private int mask;
+    // the key of each id
+    private int[] keys;
+    private int size;
+
+    /** Creates an empty table. */
+    public IntHashTable() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty table that holds the expected number of keys without
+     * growing.
+     */
+    public IntHashTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(8, expected * 2 - 1)) << 1;
+        slotKeys = new int[capacity];
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, EMPTY);
+        mask = capacity - 1;
+        keys = new int[Math.max(4, expected)];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the id of a key, or -1 if it is not in the table */
+    public int find(int key) {
+        for (int s = hash(key) & mask; ; s = (s + 1) & mask) {
+            int id = slotIds[s];
+            if (id == EMPTY)
+                return -1;
+            if (slotKeys[s] == key)
+                return id;
+        }
+    }
+
+    /**
+     * Adds a key if it is not in the table yet.
+     *
+     * @return the id of the key, which is {@link #size} before the call if
+     *         the key is new
+     */
+    public int add(int key) {
+        int s = hash(key) & mask;
+        for (; slotIds[s] != EMPTY; s = (s + 1) & mask) {
+            if (slotKeys[s] == key)
+                return slotIds[s];
+        }
+        if (size == keys.length)
+            keys = Arrays.copyOf(keys, size * 2);
+        int id = size++;
+        keys[id] = key;
+        slotKeys[s] = key;
+        slotIds[s] = id;
+        // keep the table at most half full
+        if (size * 2 > slotIds.length)
+            grow();
+        return id;
+    }
+
+    private void grow() {
+        int capacity = slotIds.length * 2;
+        slotKeys = new int[capacity];
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, EMPTY);
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int s = hash(keys[id]) & mask;
+            while (slotIds[s] != EMPTY)
+                s = (s + 1) & mask;
+            slotKeys[s] = keys[id];
+            slotIds[s] = id;
+        }
+    }
+
+    /** @return the number of keys in the table */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key with the given id */
+    public int key(int id) {
+        if (id < 0 || id >= size)
+            throw new IndexOutOfBoundsException("no key with id " + id);
+        return keys[id];
+    }
+
+    /** Removes all of the keys; ids start over from 0. */
+    public void clear() {
+        Arrays.fill(slotIds, EMPTY);
+        size = 0;
+    }
+}
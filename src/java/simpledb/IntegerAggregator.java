@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -9,6 +10,10 @@ import java.util.Map.Entry;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * 
+ * Groups whose key is an int, and the single group without grouping, are
+ * kept in an IntHashTable, with their values in int arrays indexed by
+ * group id; other groups are kept in HashMaps.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -24,6 +29,10 @@ public class IntegerAggregator implements Aggregator {
 	private HashMap<Field, Integer> values;
 	private HashMap<Field, Integer> avgCount;
 
+	private IntHashTable groups;
+	private int[] groupValues;
+	private int[] groupCounts;
+
 	/**
 	 * Aggregate constructor
 	 * 
@@ -40,8 +49,42 @@ public class IntegerAggregator implements Aggregator {
 		this.gbfieldtype = gbfieldtype;
 		this.afield = afield;
 		this.what = what;
-		values = new HashMap<>();
-		avgCount = new HashMap<>();
+		if (gbfield == Aggregator.NO_GROUPING || gbfieldtype == Type.INT_TYPE) {
+			groups = new IntHashTable();
+			groupValues = new int[16];
+			groupCounts = new int[16];
+		} else {
+			values = new HashMap<>();
+			avgCount = new HashMap<>();
+		}
+	}
+
+	/**
+	 * Merges the aggregate value of a tuple into the group with the given
+	 * int key.
+	 */
+	private void mergeIntoGroup(int key, int value) {
+		int size = groups.size();
+		int id = groups.add(key);
+		if (id == size) {
+			if (id == groupValues.length) {
+				groupValues = Arrays.copyOf(groupValues, id * 2);
+				groupCounts = Arrays.copyOf(groupCounts, id * 2);
+			}
+			groupValues[id] = what == Op.MIN || what == Op.MAX ? value : 0;
+			groupCounts[id] = 0;
+		}
+
+		if (what == Op.COUNT) {
+			groupValues[id]++;
+		} else if (what == Op.SUM || what == Op.AVG) {
+			groupValues[id] += value;
+		} else if (what == Op.MAX) {
+			groupValues[id] = Math.max(groupValues[id], value);
+		} else if (what == Op.MIN) {
+			groupValues[id] = Math.min(groupValues[id], value);
+		}
+		groupCounts[id]++;
 	}
 
 	/**
@@ -64,6 +107,12 @@ public class IntegerAggregator implements Aggregator {
 		agg = (IntField) tup.getField(afield);
 		afieldname = tup.getTupleDesc().getFieldName(afield);
 
+		if (groups != null) {
+			int key = gbfield == Aggregator.NO_GROUPING ? Aggregator.NO_GROUPING : ((IntField) gb).getValue();
+			mergeIntoGroup(key, agg.getValue());
+			return;
+		}
+
 		if (what == Op.COUNT) {
 			values.put(gb, values.getOrDefault(gb, 0) + 1);
 		}
@@ -112,7 +161,19 @@ public class IntegerAggregator implements Aggregator {
 		TupleDesc td = new TupleDesc(types, names);
 		List<Tuple> res = new ArrayList<>();
 
-		if (what == Op.AVG) {
+		if (groups != null) {
+			for (int id = 0; id < groups.size(); id++) {
+				int value = what == Op.AVG ? groupValues[id] / groupCounts[id] : groupValues[id];
+				Tuple t = new Tuple(td);
+				if (gbfield == Aggregator.NO_GROUPING || what == Op.COUNT) {
+					t.setField(0, new IntField(value));
+				} else {
+					t.setField(0, new IntField(groups.key(id)));
+					t.setField(1, new IntField(value));
+				}
+				res.add(t);
+			}
+		} else if (what == Op.AVG) {
 			Iterator<Entry<Field, Integer>> itval = values.entrySet().iterator();
 			Iterator<Entry<Field, Integer>> itcount = avgCount.entrySet().iterator();
 			
@@ -3,17 +3,30 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, with a block
+ * nested loops join: it reads a block of tuples of its left child, as many
+ * as fit in its memory budget, then scans its right child once for the
+ * whole block, and so on, so the right child is scanned once per block
+ * rather than once per left tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
-    
+
+    /** Memory a join uses for a block of left tuples unless given a budget. */
+    public static final long DEFAULT_BLOCK_BUDGET = 1L << 20;
+
     JoinPredicate pred;
     OpIterator child1;
     OpIterator child2;
     Tuple next1;
     Tuple next2;
+    private final long blockBudget;
+    private transient JoinPredicateEvaluator evaluator;
+    private transient ArrayList<Tuple> block;
+    private transient int blockPos;
+    private transient int blocks;
+    private transient boolean needBlock;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -27,11 +40,37 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_BUDGET);
+    }
+
+    /**
+     * Constructor for a join with a memory budget for its blocks.
+     *
+     * @param blockBudget
+     *            the estimated number of bytes the tuples of a block of the
+     *            left child may take; a block has at least one tuple, so 0
+     *            scans the right child once per left tuple
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, long blockBudget) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
         this.next1 = null;
         this.next2 = null;
+        this.blockBudget = blockBudget;
+    }
+
+    /** @return the memory budget of a block of left tuples, in bytes */
+    public long getBlockBudget() {
+        return blockBudget;
+    }
+
+    /**
+     * @return the number of tuples of td in a block of the given budget
+     */
+    public static int tuplesPerBlock(TupleDesc td, long blockBudget) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                blockBudget / HashEquiJoin.estimateTupleSize(td)));
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -69,23 +108,55 @@ public class Join extends Operator {
     	super.open();
         child1.open();
         child2.open();
+        evaluator = JoinPredicateEvaluator.forPredicate(pred, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        block = new ArrayList<Tuple>();
+        start();
+    }
+
+    private void start() {
+        block.clear();
+        blocks = 0;
+        needBlock = true;
+        next1 = null;
+        next2 = null;
     }
 
     public void close() {
+    	super.close();
     	child1.close();
         child2.close();
+        if (block != null)
+            block.clear();
+        next1 = null;
+        next2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
     	child1.rewind();
         child2.rewind();
+        start();
+    }
+
+    /**
+     * Reads the next block of left tuples.
+     *
+     * @return false if there are no more
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int size = tuplesPerBlock(child1.getTupleDesc(), blockBudget);
+        while (block.size() < size && child1.hasNext())
+            block.add(child1.next());
+        return !block.isEmpty();
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
      * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * the simplest is a nested loops join.  This one returns, for each tuple
+     * of the right child, the left tuples of the current block it matches.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -100,28 +171,30 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	
-    	Tuple res = null;
-    	
-        while(child1.hasNext() || next1 != null) {
-            if(next1 == null)
-                next1 = child1.next();
-
-            while(child2.hasNext()) {
+        while (true) {
+            // the rest of the block against the current right tuple
+            while (next2 != null && blockPos < block.size()) {
+                next1 = block.get(blockPos++);
+                if (evaluator.filter(next1, next2))
+                    return merge(next1, next2);
+            }
+            next2 = null;
+
+            if (needBlock) {
+                if (!loadBlock())
+                    return null;
+                // the right child is scanned again for every block but the first
+                if (blocks++ > 0)
+                    child2.rewind();
+                needBlock = false;
+            }
+            if (child2.hasNext()) {
                 next2 = child2.next();
-                
-                if (pred.filter(next1, next2)) {
-                    res = merge(next1, next2);
-                    break;
-                }
+                blockPos = 0;
+            } else {
+                needBlock = true;
             }
-
-            if (res != null) break;
-            
-            next1 = null;
-            child2.rewind();
         }
-        return res;
     }
     
     private Tuple merge(Tuple tp1, Tuple tp2) {
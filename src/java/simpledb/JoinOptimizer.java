@@ -68,7 +68,20 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // children already in order of the join fields are merged as they
+        // are, and a right child with an index on the join field is looked
+        // up; otherwise HashEquiJoin only handles equality, and anything
+        // else is a block nested loops join
+        if (SortMergeJoin.supports(lj.p) && SortMergeJoin.isOrderedOn(plan1, t1id)
+                && SortMergeJoin.isOrderedOn(plan2, t2id))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (IndexNestedLoopJoin.indexOp(lj.p) != null
+                && IndexNestedLoopJoin.canProbe(plan2, t2id))
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else
+            j = new Join(p, plan1, plan2);
 
         return j;
 
@@ -107,14 +120,73 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            BTreeFile index = indexOn(j);
+            if (index != null && IndexNestedLoopJoin.indexOp(j.p) != null) {
+                // an index join reads the left side once, and for each of
+                // its tuples reads the pages from the root of the tree down
+                // to a leaf, and the right tuples that match
+                double pageCost = cost2 / Math.max(1, index.numPages());
+                double matches = indexSelectivity(j, index, card2) * card2;
+                return cost1 + card1 * (index.estimateHeight() * pageCost + matches);
+            }
+            if (j.p == Predicate.Op.EQUALS) {
+                // a hash join reads both sides once, and builds and probes
+                // once per tuple
+                return cost1 + cost2 + card1 + card2;
+            }
+            // a block nested loops join scans the right side once per block
+            // of the left one, and applies the predicate to every pair
+            double blocks = (double) card1 / blockTuples(j);
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return the BTreeFile of the right table of a join if it is keyed on
+     *         the join field, else null
+     */
+    private BTreeFile indexOn(LogicalJoinNode j) {
+        Integer tableId = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return null;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof BTreeFile))
+            return null;
+        try {
+            int field = file.getTupleDesc().fieldNameToIndex(j.f2PureName);
+            return field == ((BTreeFile) file).keyField() ? (BTreeFile) file : null;
+        } catch (NoSuchElementException e) {
+            return null;
         }
     }
 
+    /**
+     * Estimate the fraction of the right table of an index join that a
+     * lookup returns: one tuple for an equality on its primary key, else
+     * the fixed estimates System R used for an equality or a range on a
+     * column it knew nothing about.  (TableStats.avgSelectivity would be
+     * the place to do better, but it does not estimate anything yet.)
+     */
+    private double indexSelectivity(LogicalJoinNode j, BTreeFile index, int card2) {
+        if (j.p == Predicate.Op.EQUALS
+                && j.f2PureName.equals(Database.getCatalog().getPrimaryKey(index.getId())))
+            return 1.0 / Math.max(1, card2);
+        return j.p == Predicate.Op.EQUALS ? 1.0 / 10 : 1.0 / 3;
+    }
+
+    /**
+     * Estimate the number of left tuples of a join in a block of a block
+     * nested loops {@link Join}, from the size of the tuples of its left
+     * table.  (The left side of a join may be an earlier join, with wider
+     * tuples, so this is an upper bound.)
+     */
+    private int blockTuples(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        TupleDesc td = tableId != null ? Database.getCatalog().getTupleDesc(tableId)
+                : new TupleDesc(new Type[] { Type.INT_TYPE });
+        return Join.tuplesPerBlock(td, Join.DEFAULT_BLOCK_BUDGET);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.util.concurrent.Future;
+
+/**
+ * JoinPredicateEvaluator tests pairs of tuples against a JoinPredicate.
+ * Like {@link PredicateEvaluator}, the evaluator {@link #forPredicate}
+ * returns interprets the predicate until it has tested
+ * {@link PredicateCompiler#THRESHOLD} pairs, then switches to a class
+ * compiled for the predicate and the types of its fields once it is ready.
+ */
+public abstract class JoinPredicateEvaluator {
+
+    /**
+     * @return true if the tuples satisfy the predicate
+     */
+    public abstract boolean filter(Tuple t1, Tuple t2);
+
+    /** @return true if this evaluates compiled code */
+    public boolean isCompiled() {
+        return false;
+    }
+
+    /**
+     * Returns an evaluator of a join predicate, that compiles it once it has
+     * tested enough pairs if compilation is enabled.
+     *
+     * @param td1 the schema of the left tuples
+     * @param td2 the schema of the right tuples
+     */
+    public static JoinPredicateEvaluator forPredicate(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        JoinPredicateEvaluator interpreter = new Interpreter(p);
+        if (!PredicateCompiler.isEnabled())
+            return interpreter;
+        String source = source(p, td1, td2);
+        return source == null ? interpreter : new Adaptive(interpreter, source);
+    }
+
+    /**
+     * Compiles a join predicate and waits for it.
+     *
+     * @return the compiled evaluator, or null if the predicate can't be
+     *         compiled
+     */
+    static JoinPredicateEvaluator compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        String source = PredicateCompiler.isEnabled() ? source(p, td1, td2) : null;
+        if (source == null)
+            return null;
+        return PredicateCompiler.newInstance(PredicateCompiler.compile(source),
+                JoinPredicateEvaluator.class, new Interpreter(p));
+    }
+
+    /** Tests the predicate through Field.compare. */
+    private static class Interpreter extends JoinPredicateEvaluator {
+        private final JoinPredicate p;
+
+        Interpreter(JoinPredicate p) {
+            this.p = p;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return p.filter(t1, t2);
+        }
+    }
+
+    /**
+     * Interprets the predicate until it has tested THRESHOLD pairs, then
+     * until its compiled class is ready.
+     */
+    private static class Adaptive extends JoinPredicateEvaluator {
+        private final JoinPredicateEvaluator interpreter;
+        private final String source;
+        private JoinPredicateEvaluator current;
+        private Future<Class<?>> pending;
+        private int count;
+        private boolean done;
+
+        Adaptive(JoinPredicateEvaluator interpreter, String source) {
+            this.interpreter = interpreter;
+            this.source = source;
+            this.current = interpreter;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            if (!done) {
+                if (pending == null) {
+                    if (++count == PredicateCompiler.THRESHOLD)
+                        pending = PredicateCompiler.compile(source);
+                } else if (pending.isDone()) {
+                    // if compilation failed, keep interpreting for good
+                    JoinPredicateEvaluator compiled = PredicateCompiler.newInstance(pending,
+                            JoinPredicateEvaluator.class, interpreter);
+                    if (compiled != null)
+                        current = compiled;
+                    done = true;
+                }
+            }
+            return current.filter(t1, t2);
+        }
+
+        public boolean isCompiled() {
+            return current.isCompiled();
+        }
+    }
+
+    /**
+     * Generates the source of a class that tests a join predicate, and
+     * falls back to an interpreter for tuples whose fields are not of the
+     * types of td1 and td2.
+     *
+     * @return the source, or null if the fields are of different types or
+     *         not in the schemas
+     */
+    private static String source(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        if (p.getField1() < 0 || p.getField1() >= td1.numFields()
+                || p.getField2() < 0 || p.getField2() >= td2.numFields())
+            return null;
+        Type type = td1.getFieldType(p.getField1());
+        if (type != td2.getFieldType(p.getField2()))
+            return null;
+        String expr;
+        if (type == Type.INT_TYPE) {
+            expr = "((simpledb.IntField) a.getField(" + p.getField1() + ")).getValue() "
+                    + PredicateCompiler.operator(p.getOperator())
+                    + " ((simpledb.IntField) b.getField(" + p.getField2() + ")).getValue()";
+        } else {
+            String v1 = "((simpledb.StringField) a.getField(" + p.getField1() + ")).getValue()";
+            String v2 = "((simpledb.StringField) b.getField(" + p.getField2() + ")).getValue()";
+            expr = PredicateCompiler.compareStrings(v1, p.getOperator(), v2);
+        }
+        return "public final class CLASS_NAME extends simpledb.JoinPredicateEvaluator {\n"
+                + "    private final simpledb.JoinPredicateEvaluator interpreter;\n"
+                + "    public CLASS_NAME(simpledb.JoinPredicateEvaluator interpreter) {\n"
+                + "        this.interpreter = interpreter;\n"
+                + "    }\n"
+                + "    public boolean filter(simpledb.Tuple a, simpledb.Tuple b) {\n"
+                + "        try {\n"
+                + "            return " + expr + ";\n"
+                + "        } catch (ClassCastException e) {\n"
+                + "            return interpreter.filter(a, b);\n"
+                + "        }\n"
+                + "    }\n"
+                + "    public boolean isCompiled() {\n"
+                + "        return true;\n"
+                + "    }\n"
+                + "}\n";
+    }
+}
@@ -0,0 +1,543 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager keeps track of the page-level locks held by transactions.
+ * <p>
+ * A page can be locked in shared mode by any number of transactions, or in
+ * exclusive mode by a single transaction.  A transaction holding the only
+ * shared lock on a page can upgrade it to an exclusive lock.  Requests that
+ * cannot be granted right away wait in a FIFO queue per page, so a stream of
+ * readers cannot starve a writer; upgrade requests go to the front of the
+ * queue since the upgrading transaction already holds the page.
+ * <p>
+ * The lock table is a concurrent map from page ids to per-page lock
+ * objects.  Each of those is its own monitor, so requests on different
+ * pages never contend.
+ * <p>
+ * Deadlocks are detected with a wait-for graph.  Whenever a request has to
+ * wait, edges from the requesting transaction to the transactions it waits
+ * for are added, and the graph is searched for a cycle through the
+ * requester.  If there is one, a victim on the cycle is chosen by the
+ * {@link VictimPolicy} and aborted right away.
+ */
+public class LockManager {
+
+    /** How to choose the transaction to abort when a deadlock is found. */
+    public enum VictimPolicy {
+        /** Abort the transaction that started last. */
+        YOUNGEST,
+        /**
+         * Abort the transaction holding the fewest exclusive locks, which
+         * has dirtied the fewest pages; ties go to the youngest.
+         */
+        FEWEST_WRITES
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> lockTable;
+    private final ConcurrentHashMap<TransactionId, TransactionLocks> transactions;
+    private final VictimPolicy victimPolicy;
+
+    /**
+     * The wait-for graph: the pending requests of every waiting
+     * transaction.  Protected by its own monitor, which may be acquired
+     * while holding the monitor of a PageLock but not the other way round.
+     */
+    private final HashMap<TransactionId, ArrayList<Request>> waitsFor;
+
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong detections = new AtomicLong();
+    private final AtomicLong detectionTime = new AtomicLong();
+
+    /** Creates a LockManager that aborts the youngest deadlocked transaction. */
+    public LockManager() {
+        this(VictimPolicy.YOUNGEST);
+    }
+
+    /**
+     * Creates a LockManager.
+     *
+     * @param victimPolicy decides which transaction of a deadlock is aborted
+     */
+    public LockManager(VictimPolicy victimPolicy) {
+        this.lockTable = new ConcurrentHashMap<PageId, PageLock>();
+        this.transactions = new ConcurrentHashMap<TransactionId, TransactionLocks>();
+        this.waitsFor = new HashMap<TransactionId, ArrayList<Request>>();
+        this.victimPolicy = victimPolicy;
+    }
+
+    /**
+     * Acquires a lock on a page on behalf of a transaction, blocking until
+     * the lock is granted.  Returns immediately if the transaction already
+     * holds a sufficient lock.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *         the victim of a deadlock, or was interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        TransactionLocks txn = transactionLocks(tid);
+        while (true) {
+            PageLock lock = lockFor(pid);
+            Request req;
+            synchronized (lock) {
+                if (lock.retired)
+                    continue;
+                if (lock.holds(tid, exclusive))
+                    return;
+                req = lock.enqueue(tid, exclusive);
+                grantWaiters(lock);
+                if (req.granted) {
+                    txn.pages.add(pid);
+                    return;
+                }
+            }
+            try {
+                await(req, txn);
+            } catch (DeadlockException e) {
+                throw new TransactionAbortedException();
+            }
+            txn.pages.add(pid);
+            return;
+        }
+    }
+
+    /**
+     * Acquires a lock on a page only if that is possible without waiting,
+     * i.e. if the lock is compatible with the current holders and no other
+     * request is queued for the page.
+     *
+     * @return true if the transaction now holds a sufficient lock
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageLock lock = lockFor(pid);
+            synchronized (lock) {
+                if (lock.retired)
+                    continue;
+                if (lock.holds(tid, exclusive))
+                    return true;
+                if (!lock.waiters.isEmpty() || !lock.compatible(tid, exclusive)) {
+                    retireIfUnused(lock);
+                    return false;
+                }
+                TransactionLocks txn = transactionLocks(tid);
+                if (exclusive && !lock.exclusive)
+                    txn.writes.incrementAndGet();
+                lock.holders.add(tid);
+                lock.exclusive |= exclusive;
+                txn.pages.add(pid);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Blocks until req is granted.  The request is entered into the
+     * wait-for graph first; if that closes a cycle, the victim is aborted.
+     *
+     * @throws DeadlockException if this request was aborted
+     */
+    private void await(Request req, TransactionLocks txn)
+            throws DeadlockException, TransactionAbortedException {
+        PageLock lock = req.lock;
+        long start = System.nanoTime();
+        try {
+            Request victim;
+            synchronized (lock) {
+                if (req.granted)
+                    return;
+                victim = block(req);
+            }
+            if (victim != null && victim != req)
+                abort(victim);
+
+            synchronized (lock) {
+                while (!req.granted) {
+                    if (req.aborted)
+                        throw new DeadlockException();
+                    lock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            txn.waitTime.addAndGet(System.nanoTime() - start);
+            synchronized (lock) {
+                if (!req.granted) {
+                    lock.waiters.remove(req);
+                    synchronized (waitsFor) {
+                        removeEdges(req);
+                    }
+                    grantWaiters(lock);
+                    retireIfUnused(lock);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the edges of a request that has to wait to the wait-for graph,
+     * and looks for a deadlock involving the requesting transaction.  Must
+     * be called while holding the monitor of the request's lock.
+     *
+     * @return the request of the victim of the deadlock, marked as aborted,
+     *         or null if there is no deadlock
+     */
+    private Request block(Request req) {
+        synchronized (waitsFor) {
+            req.blockers = blockersOf(req);
+            ArrayList<Request> pending = waitsFor.get(req.tid);
+            if (pending == null) {
+                pending = new ArrayList<Request>(1);
+                waitsFor.put(req.tid, pending);
+            }
+            pending.add(req);
+
+            long start = System.nanoTime();
+            ArrayList<TransactionId> cycle = findCycle(req.tid);
+            Request victim = null;
+            if (cycle != null) {
+                TransactionId loser = chooseVictim(cycle);
+                for (Request r : waitsFor.get(loser)) {
+                    r.aborted = true;
+                    if (victim == null || r == req)
+                        victim = r;
+                }
+                deadlocks.incrementAndGet();
+            }
+            detectionTime.addAndGet(System.nanoTime() - start);
+            detections.incrementAndGet();
+            return victim;
+        }
+    }
+
+    /** Wakes up the thread waiting for the request of a deadlock victim. */
+    private void abort(Request victim) {
+        synchronized (victim.lock) {
+            victim.lock.notifyAll();
+        }
+    }
+
+    /**
+     * The transactions a waiting request has to wait for: the holders of
+     * the lock it conflicts with, and the transactions queued before it.
+     * Must be called while holding the monitors of the request's lock and
+     * of the graph.
+     */
+    private HashSet<TransactionId> blockersOf(Request req) {
+        PageLock lock = req.lock;
+        HashSet<TransactionId> blockers = new HashSet<TransactionId>();
+        if (req.exclusive || lock.exclusive)
+            blockers.addAll(lock.holders);
+        for (Request r : lock.waiters) {
+            if (r == req)
+                break;
+            blockers.add(r.tid);
+        }
+        blockers.remove(req.tid);
+        return blockers;
+    }
+
+    /**
+     * Depth-first search of the wait-for graph for a cycle through start,
+     * ignoring requests that were already aborted.
+     *
+     * @return the transactions on the cycle, or null if there is none
+     */
+    private ArrayList<TransactionId> findCycle(TransactionId start) {
+        HashMap<TransactionId, TransactionId> parent = new HashMap<TransactionId, TransactionId>();
+        LinkedList<TransactionId> stack = new LinkedList<TransactionId>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId tid = stack.pop();
+            ArrayList<Request> pending = waitsFor.get(tid);
+            if (pending == null)
+                continue;
+            for (Request r : pending) {
+                if (r.aborted)
+                    continue;
+                for (TransactionId next : r.blockers) {
+                    if (next.equals(start)) {
+                        ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+                        for (TransactionId t = tid; t != null; t = parent.get(t))
+                            cycle.add(t);
+                        return cycle;
+                    }
+                    if (!parent.containsKey(next)) {
+                        parent.put(next, tid);
+                        stack.push(next);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private TransactionId chooseVictim(ArrayList<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimWrites = 0;
+        for (TransactionId tid : cycle) {
+            int writes = 0;
+            if (victimPolicy == VictimPolicy.FEWEST_WRITES) {
+                TransactionLocks txn = transactions.get(tid);
+                writes = txn == null ? 0 : txn.writes.get();
+            }
+            if (victim == null || writes < victimWrites
+                    || (writes == victimWrites && tid.getId() > victim.getId())) {
+                victim = tid;
+                victimWrites = writes;
+            }
+        }
+        return victim;
+    }
+
+    /** Must be called while holding the monitor of the graph. */
+    private void removeEdges(Request req) {
+        ArrayList<Request> pending = waitsFor.get(req.tid);
+        if (pending != null && pending.remove(req) && pending.isEmpty())
+            waitsFor.remove(req.tid);
+    }
+
+    /**
+     * Grants waiting requests of a lock in FIFO order, as far as possible,
+     * and brings the edges of the remaining waiters up to date.  Must be
+     * called while holding the monitor of lock, after every change to its
+     * holders or its queue.
+     */
+    private void grantWaiters(PageLock lock) {
+        boolean granted = false;
+        Iterator<Request> it = lock.waiters.iterator();
+        while (it.hasNext()) {
+            Request req = it.next();
+            if (req.aborted)
+                continue;
+            if (!lock.compatible(req.tid, req.exclusive))
+                break;
+            it.remove();
+            if (req.exclusive && !lock.exclusive)
+                transactionLocks(req.tid).writes.incrementAndGet();
+            lock.holders.add(req.tid);
+            lock.exclusive |= req.exclusive;
+            req.granted = true;
+            granted = true;
+            if (req.blockers != null) {
+                synchronized (waitsFor) {
+                    removeEdges(req);
+                }
+            }
+        }
+        // the holders or the queue changed even if nothing was granted (a
+        // release that leaves the head blocked, a waiter that gave up), and
+        // a stale edge to a departed transaction could close a false cycle
+        synchronized (waitsFor) {
+            for (Request req : lock.waiters) {
+                if (req.blockers != null)
+                    req.blockers = blockersOf(req);
+            }
+        }
+        if (granted)
+            lock.notifyAll();
+    }
+
+    /**
+     * Releases the lock a transaction holds on a page, if any.
+     *
+     * @param tid the transaction releasing the lock
+     * @param pid the page to unlock
+     */
+    public void release(TransactionId tid, PageId pid) {
+        TransactionLocks txn = transactions.get(tid);
+        PageLock lock = lockTable.get(pid);
+        if (lock != null) {
+            synchronized (lock) {
+                if (lock.holders.remove(tid)) {
+                    if (lock.exclusive && txn != null)
+                        txn.writes.decrementAndGet();
+                    if (lock.holders.isEmpty())
+                        lock.exclusive = false;
+                    grantWaiters(lock);
+                    retireIfUnused(lock);
+                }
+            }
+        }
+        if (txn != null)
+            txn.pages.remove(pid);
+    }
+
+    /**
+     * Releases all locks held by a transaction and forgets about it.
+     *
+     * @param tid the completed transaction
+     */
+    public void releaseAll(TransactionId tid) {
+        TransactionLocks txn = transactions.remove(tid);
+        if (txn == null)
+            return;
+        for (PageId pid : txn.pages)
+            release(tid, pid);
+    }
+
+    /** @return true if the transaction holds a lock of any mode on the page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = lockTable.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.holders.contains(tid);
+        }
+    }
+
+    /** @return the ids of the pages the transaction holds locks on */
+    public ArrayList<PageId> lockedPages(TransactionId tid) {
+        TransactionLocks txn = transactions.get(tid);
+        if (txn == null)
+            return new ArrayList<PageId>();
+        return new ArrayList<PageId>(txn.pages);
+    }
+
+    /**
+     * @return the total number of nanoseconds the transaction has spent
+     *         waiting for locks so far, or 0 if it holds no locks
+     */
+    public long getLockWaitTime(TransactionId tid) {
+        TransactionLocks txn = transactions.get(tid);
+        return txn == null ? 0 : txn.waitTime.get();
+    }
+
+    /** @return the number of deadlocks found, each of which aborted a transaction */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** @return the number of times the wait-for graph was searched for a cycle */
+    public long getDetectionCount() {
+        return detections.get();
+    }
+
+    /**
+     * @return the total number of nanoseconds spent searching the wait-for
+     *         graph, i.e. the added latency of blocking on a lock
+     */
+    public long getDetectionTime() {
+        return detectionTime.get();
+    }
+
+    private PageLock lockFor(PageId pid) {
+        PageLock lock = lockTable.get(pid);
+        if (lock == null) {
+            PageLock fresh = new PageLock(pid);
+            lock = lockTable.putIfAbsent(pid, fresh);
+            if (lock == null)
+                lock = fresh;
+        }
+        return lock;
+    }
+
+    private TransactionLocks transactionLocks(TransactionId tid) {
+        TransactionLocks txn = transactions.get(tid);
+        if (txn == null) {
+            TransactionLocks fresh = new TransactionLocks();
+            txn = transactions.putIfAbsent(tid, fresh);
+            if (txn == null)
+                txn = fresh;
+        }
+        return txn;
+    }
+
+    /**
+     * Drops a lock nobody holds or waits for from the lock table.  Must be
+     * called while holding the monitor of lock.
+     */
+    private void retireIfUnused(PageLock lock) {
+        if (lock.holders.isEmpty() && lock.waiters.isEmpty()) {
+            lock.retired = true;
+            lockTable.remove(lock.pid, lock);
+        }
+    }
+
+    /**
+     * The locks held by a transaction, the number of them that are
+     * exclusive, and the time it spent waiting.
+     */
+    private static class TransactionLocks {
+        final Set<PageId> pages =
+                Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicLong waitTime = new AtomicLong();
+    }
+
+    /** A lock request waiting in the queue of a page. */
+    private static class Request {
+        final TransactionId tid;
+        final PageLock lock;
+        final boolean exclusive;
+        /** Protected by the monitor of lock. */
+        boolean granted;
+        /** Set, while holding the graph monitor, when chosen as a deadlock victim. */
+        volatile boolean aborted;
+        /** The outgoing edges of this request in the wait-for graph. */
+        HashSet<TransactionId> blockers;
+
+        Request(TransactionId tid, PageLock lock, boolean exclusive) {
+            this.tid = tid;
+            this.lock = lock;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * The lock on one page: the set of transactions holding it, the mode it
+     * is held in, and the queue of waiting requests.  All fields are
+     * protected by the monitor of the PageLock.
+     */
+    private static class PageLock {
+        final PageId pid;
+        final HashSet<TransactionId> holders = new HashSet<TransactionId>();
+        final LinkedList<Request> waiters = new LinkedList<Request>();
+        boolean exclusive;
+        /** Set once the lock has been removed from the lock table. */
+        boolean retired;
+
+        PageLock(PageId pid) {
+            this.pid = pid;
+        }
+
+        boolean holds(TransactionId tid, boolean exclusive) {
+            return holders.contains(tid) && (this.exclusive || !exclusive);
+        }
+
+        Request enqueue(TransactionId tid, boolean exclusive) {
+            Request req = new Request(tid, this, exclusive);
+            if (holders.contains(tid))
+                waiters.addFirst(req);
+            else
+                waiters.addLast(req);
+            return req;
+        }
+
+        boolean compatible(TransactionId tid, boolean exclusive) {
+            if (holders.isEmpty())
+                return true;
+            if (exclusive)
+                return holders.size() == 1 && holders.contains(tid);
+            return !this.exclusive;
+        }
+    }
+}
@@ -498,6 +498,15 @@ public class LogFile {
          }
     }
 
+    /**
+     * @return true if recover() redoes the updates of committed transactions
+     *         whose pages were not written before a crash.  It does not yet,
+     *         so commits have to force their pages.
+     */
+    public boolean canRecover() {
+        return false;
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
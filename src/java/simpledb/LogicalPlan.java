@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -36,6 +37,8 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private boolean compilePipelines = false;
+    private int parallelism = 1;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -50,6 +53,30 @@ public class LogicalPlan {
         this.query = "";
     }
 
+    /** Set whether {@link #physicalPlan} compiles the pipelines of the plan
+        into generated classes, see {@link CompiledPipeline}.
+
+        @param compile true to compile pipelines
+    */
+    public void setCompilePipelines(boolean compile) {
+        this.compilePipelines = compile;
+    }
+
+    /** Number of pages of the ranges the scans of a parallel scan claim at
+        a time, see {@link HeapFile.Morsels}. */
+    public static final int MORSEL_PAGES = 16;
+
+    /** Set the number of threads {@link #physicalPlan} scans each table
+        with.  A heap file with at least two ranges of MORSEL_PAGES pages
+        is scanned by up to that many scans under an {@link Exchange}.
+
+        @param parallelism the degree of parallelism; 1 to scan the tables
+        in the thread that runs the query
+    */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -306,6 +333,8 @@ public class LogicalPlan {
 
         }
 
+        // filters on a base table are tested by its scan, see pushDownIntoScans
+        HashMap<String,ArrayList<Predicate>> scanPredicates = new HashMap<String,ArrayList<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,7 +363,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan) {
+                if (!scanPredicates.containsKey(lf.tableAlias))
+                    scanPredicates.put(lf.tableAlias, new ArrayList<Predicate>());
+                scanPredicates.get(lf.tableAlias).add(p);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +378,9 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        pushDownIntoScans(t, scanPredicates);
+        if (parallelism > 1)
+            parallelizeScans();
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -460,12 +498,14 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int afield = td.fieldNameToIndex(aggField);
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (compilePipelines)
+                    aggNode = CompiledPipeline.aggregate(node, afield, gfield, getAggOp(aggOp));
+                else
+                    aggNode = new Aggregate(node, afield, gfield, getAggOp(aggOp));
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -478,7 +518,91 @@ public class LogicalPlan {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        OpIterator plan = new Project(outFields, outTypes, node);
+        return compilePipelines ? CompiledPipeline.compile(plan) : plan;
+    }
+
+    /**
+     * Replaces the scans of the base tables with scans that test the
+     * predicates of the filters on them themselves, so that tuples that
+     * don't satisfy them are never built, and that only return the fields
+     * the rest of the plan refers to.  Operators above the scans look their
+     * fields up by name, so they find them at their new positions.
+     *
+     * @param scanPredicates the predicates of the filters, by table alias
+     */
+    private void pushDownIntoScans(TransactionId t, HashMap<String,ArrayList<Predicate>> scanPredicates) {
+        for (LogicalScanNode table : tables) {
+            if (!(subplanMap.get(table.alias) instanceof SeqScan))
+                continue;
+            ArrayList<Predicate> preds = scanPredicates.get(table.alias);
+            int[] columns = referencedColumns(table.alias);
+            if (preds == null && columns == null)
+                continue;
+            subplanMap.put(table.alias, new SeqScan(t, table.t, table.alias,
+                    preds == null ? null : preds.toArray(new Predicate[0]), columns));
+        }
+    }
+
+    /**
+     * Replaces the scans of the heap files that are large enough with an
+     * Exchange over scans that read the ranges of their pages in parallel.
+     * The scans test the predicates pushed down into the original scan
+     * themselves.
+     */
+    private void parallelizeScans() {
+        for (LogicalScanNode table : tables) {
+            OpIterator subplan = subplanMap.get(table.alias);
+            if (!(subplan instanceof SeqScan))
+                continue;
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            if (!(file instanceof HeapFile))
+                continue;
+            int workers = Math.min(parallelism, ((HeapFile) file).numPages() / MORSEL_PAGES);
+            if (workers < 2)
+                continue;
+            OpIterator[] scans = ((SeqScan) subplan).split(workers, MORSEL_PAGES);
+            subplanMap.put(table.alias, new Exchange(scans));
+        }
+    }
+
+    /**
+     * Returns the fields of a base table that the plan refers to above its
+     * scan: in the select list, in joins, and in the aggregate, GROUP BY
+     * and ORDER BY clauses.  Filters pushed down into the scan test their
+     * fields before the tuple is built, so they need none.
+     *
+     * @param alias the alias of the table
+     * @return the indices of the fields in the table, in increasing order,
+     *    or null if the plan refers to all of them
+     */
+    private int[] referencedColumns(String alias) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(getTableId(alias));
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.isEmpty() || columns.size() == td.numFields())
+            return null;
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,376 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * PageFile does the disk I/O of a DbFile.  It keeps a FileChannel open for
+ * the file and reads and writes at explicit offsets (pread/pwrite), so
+ * concurrent readers and writers neither reopen the file nor share a file
+ * position.  Data goes through a direct ByteBuffer that each thread reuses.
+ * <p>
+ * At most {@link #MAX_OPEN_FILES} channels are open at a time; when more
+ * files are in use, the channels opened first are closed (once no thread is
+ * using them) and transparently reopened by their next I/O.  A channel that
+ * gets closed because a thread was interrupted during I/O is reopened as
+ * well.
+ * <p>
+ * Optionally, a PageFile also maps the file into memory, in read-only
+ * segments of {@link #SEGMENT_SIZE} bytes, so that pages can be decoded
+ * straight from the mapping (see {@link #map}).  Segments are mapped, or
+ * remapped to a larger size, as the file grows.  Writes still go through
+ * the channel; the mappings see them as they share the OS page cache.
+ *
+ * @Threadsafe
+ */
+public class PageFile {
+
+    /** Maximum number of files whose channels are kept open. */
+    public static final int MAX_OPEN_FILES = 256;
+
+    /** Size of the segments a memory mapped file is mapped in. */
+    public static final int SEGMENT_SIZE = 1 << 26;
+
+    private static final MappedByteBuffer[] NO_SEGMENTS = new MappedByteBuffer[0];
+
+    /** Files with an open channel, in the order they were opened. */
+    private static final LinkedHashSet<PageFile> openFiles = new LinkedHashSet<PageFile>();
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private final File file;
+
+    // guarded by this
+    private FileChannel channel;
+    private int users;
+    private boolean closing;
+
+    private volatile boolean memoryMapped;
+    /** Mappings of consecutive segments of the file; the last may be short. */
+    private volatile MappedByteBuffer[] segments = NO_SEGMENTS;
+    /** Serializes changes to segments. */
+    private final Object mapLock = new Object();
+
+    /** An I/O operation on the channel of this file. */
+    private interface Op {
+        public int run(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Creates a PageFile for the given file; the file is opened by the first
+     * I/O, and created by the first write if it does not exist.
+     *
+     * @param file the file to read and write
+     */
+    public PageFile(File file) {
+        this.file = file;
+    }
+
+    /** @return the file this PageFile reads and writes */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads bytes at the given offset of the file into dst.  Reading stops
+     * early at the end of the file, leaving the rest of dst untouched.
+     *
+     * @param offset the offset of the first byte to read
+     * @param dst the array to fill
+     * @return the number of bytes read, or -1 if offset is past the end of
+     *         the file
+     */
+    public int read(final long offset, final byte[] dst) throws IOException {
+        return perform(false, new Op() {
+            public int run(FileChannel channel) throws IOException {
+                ByteBuffer buf = buffer(dst.length);
+                int n = 0;
+                while (buf.hasRemaining()) {
+                    int r = channel.read(buf, offset + n);
+                    if (r < 0)
+                        break;
+                    n += r;
+                }
+                buf.flip();
+                buf.get(dst, 0, n);
+                return n == 0 && dst.length > 0 ? -1 : n;
+            }
+        });
+    }
+
+    /**
+     * Writes src at the given offset of the file, extending the file if
+     * necessary.
+     *
+     * @param offset the offset of the first byte to write
+     * @param src the bytes to write
+     */
+    public void write(final long offset, final byte[] src) throws IOException {
+        perform(true, new Op() {
+            public int run(FileChannel channel) throws IOException {
+                ByteBuffer buf = buffer(src.length);
+                buf.put(src);
+                buf.flip();
+                int n = 0;
+                while (buf.hasRemaining())
+                    n += channel.write(buf, offset + n);
+                return n;
+            }
+        });
+    }
+
+    /**
+     * Writes several blocks of bytes.  Runs of blocks that are adjacent in
+     * the file, in the given order, are written with a single gathering
+     * write, so callers should pass blocks sorted by offset.
+     *
+     * @param offsets the offset of each block
+     * @param blocks the blocks to write
+     */
+    public void write(long[] offsets, byte[][] blocks) throws IOException {
+        if (offsets.length != blocks.length)
+            throw new IllegalArgumentException("one offset per block expected");
+        int start = 0;
+        while (start < blocks.length) {
+            int end = start + 1;
+            while (end < blocks.length && offsets[end] == offsets[end - 1] + blocks[end - 1].length)
+                end++;
+            if (end - start == 1)
+                write(offsets[start], blocks[start]);
+            else
+                writeRun(offsets[start], blocks, start, end);
+            start = end;
+        }
+    }
+
+    private void writeRun(final long offset, byte[][] blocks, int start, int end) throws IOException {
+        final ByteBuffer[] srcs = new ByteBuffer[end - start];
+        for (int i = start; i < end; i++)
+            srcs[i - start] = ByteBuffer.wrap(blocks[i]);
+        perform(true, new Op() {
+            public int run(FileChannel channel) throws IOException {
+                for (ByteBuffer src : srcs)
+                    src.rewind();
+                long n = 0;
+                // gathering writes use the channel position, which only runs use
+                synchronized (channel) {
+                    channel.position(offset);
+                    while (srcs[srcs.length - 1].hasRemaining())
+                        n += channel.write(srcs);
+                }
+                return (int) n;
+            }
+        });
+    }
+
+    /**
+     * Turns the memory mapped read path on or off.  When it is turned off
+     * the mappings are dropped; they are unmapped once garbage collected.
+     */
+    public void setMemoryMapped(boolean on) {
+        synchronized (mapLock) {
+            memoryMapped = on;
+            if (!on)
+                segments = NO_SEGMENTS;
+        }
+    }
+
+    /** @return whether reads may be served from a mapping of the file */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns a read-only view of len bytes at the given offset of the
+     * mapped file, without copying them.
+     *
+     * @param offset the offset of the first byte
+     * @param len the number of bytes
+     * @return the bytes, or null if the file is not memory mapped, the bytes
+     *         are not all in the file, or they span two segments; the caller
+     *         then has to {@link #read} them
+     */
+    public ByteBuffer map(long offset, int len) throws IOException {
+        if (!memoryMapped)
+            return null;
+        int seg = (int) (offset / SEGMENT_SIZE);
+        int start = (int) (offset % SEGMENT_SIZE);
+        if (start + len > SEGMENT_SIZE)
+            return null;
+        MappedByteBuffer[] segs = segments;
+        if (seg >= segs.length || segs[seg].capacity() < start + len) {
+            segs = grow((long) seg * SEGMENT_SIZE + start + len);
+            if (segs == null)
+                return null;
+        }
+        ByteBuffer view = segs[seg].duplicate();
+        view.limit(start + len);
+        view.position(start);
+        return view.slice();
+    }
+
+    /**
+     * Maps the file up to its current size, if that covers the first end
+     * bytes; segments that are already mapped in full are kept.
+     *
+     * @return the new segments, or null if the file is shorter than end
+     */
+    private MappedByteBuffer[] grow(final long end) throws IOException {
+        synchronized (mapLock) {
+            if (!memoryMapped)
+                return null;
+            final long size = file.length();
+            if (size < end)
+                return null;
+            final MappedByteBuffer[] old = segments;
+            final MappedByteBuffer[] grown = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            perform(false, new Op() {
+                public int run(FileChannel channel) throws IOException {
+                    for (int i = 0; i < grown.length; i++) {
+                        long start = (long) i * SEGMENT_SIZE;
+                        long len = Math.min(SEGMENT_SIZE, size - start);
+                        if (i < old.length && old[i].capacity() == len)
+                            grown[i] = old[i];
+                        else
+                            grown[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+                    }
+                    return grown.length;
+                }
+            });
+            segments = grown;
+            return grown;
+        }
+    }
+
+    /** @return the current size of the file in bytes */
+    public long size() throws IOException {
+        return file.length();
+    }
+
+    /**
+     * Runs op on an open channel.  If the channel was closed under op, e.g.
+     * because another thread was interrupted, op is retried on a new one.
+     *
+     * @param create whether to create the file if it does not exist
+     */
+    private int perform(boolean create, Op op) throws IOException {
+        while (true) {
+            FileChannel ch = acquire(create);
+            try {
+                return op.run(ch);
+            } catch (ClosedByInterruptException e) {
+                reopen(ch);
+                throw e;
+            } catch (ClosedChannelException e) {
+                reopen(ch);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    private FileChannel acquire(boolean create) throws IOException {
+        FileChannel ch;
+        boolean opened = false;
+        synchronized (this) {
+            if (channel == null) {
+                channel = open(create);
+                closing = false;
+                opened = true;
+            }
+            users++;
+            ch = channel;
+        }
+        if (opened)
+            opened(this);
+        return ch;
+    }
+
+    private FileChannel open(boolean create) throws IOException {
+        try {
+            if (create)
+                return FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } catch (AccessDeniedException e) {
+            // a read-only file can still be scanned
+            if (create)
+                throw e;
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    private synchronized void release() {
+        users--;
+        if (users == 0 && closing)
+            closeChannel();
+    }
+
+    /** Forgets a channel that was closed, unless it was replaced already. */
+    private synchronized void reopen(FileChannel closed) {
+        if (channel == closed)
+            channel = null;
+    }
+
+    /** Closes the channel now, or after the last thread using it is done. */
+    private synchronized void evict() {
+        if (users == 0)
+            closeChannel();
+        else
+            closing = true;
+    }
+
+    private void closeChannel() {
+        closing = false;
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the channel is gone either way
+        }
+        channel = null;
+    }
+
+    /** Registers a newly opened file, evicting the oldest ones if necessary. */
+    private static void opened(PageFile pf) {
+        ArrayList<PageFile> victims = new ArrayList<PageFile>();
+        synchronized (openFiles) {
+            openFiles.add(pf);
+            Iterator<PageFile> it = openFiles.iterator();
+            while (openFiles.size() > MAX_OPEN_FILES && it.hasNext()) {
+                PageFile victim = it.next();
+                if (victim != pf) {
+                    it.remove();
+                    victims.add(victim);
+                }
+            }
+        }
+        // not under openFiles, so that no thread holds both monitors
+        for (PageFile victim : victims)
+            victim.evict();
+    }
+
+    /** @return a cleared direct buffer of this thread with limit n */
+    private static ByteBuffer buffer(int n) {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() < n) {
+            buf = ByteBuffer.allocateDirect(Math.max(n, BufferPool.getPageSize()));
+            buffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(n);
+        return buf;
+    }
+}
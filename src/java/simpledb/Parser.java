@@ -11,6 +11,8 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static boolean compilePipelines = false;
+    static int parallelism = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -279,6 +281,8 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setCompilePipelines(compilePipelines);
+        lp.setParallelism(parallelism);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -585,7 +589,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 7) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +599,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-compile] [-parallel threads] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -616,6 +620,23 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-compile")) {
+                    compilePipelines = true;
+                    System.out.println("Compiled pipelines enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of threads after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        parallelism = Integer.parseInt(argv[i]);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid number of threads " + argv[i] + "\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Parallel scans with " + parallelism + " threads enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PipelineGenerator generates the source of the class a
+ * {@link CompiledPipeline} runs, in the produce/consume style: a loop over
+ * the slots of a HeapPage that does the work of every operator of the
+ * pipeline for one record before it moves on to the next.  The scan reads
+ * the fields of a record into int and String locals the first time an
+ * operator above it needs them; a Filter becomes an if that skips the
+ * record; a Project only renames locals; an equi-join looks the record up in
+ * the hash table of its other child and loops over the matches; and the
+ * innermost statement either adds a tuple to the output or updates the
+ * running aggregate.
+ * <p>
+ * The same code is generated a second time over the fields of a Tuple, for
+ * tuples inserted into a page since it was read and for pages that are not
+ * HeapPages.
+ */
+final class PipelineGenerator {
+
+    /** A field of the rows an operator consumes, as a Java local. */
+    private static final class Column {
+        final Type type;
+        final String name;
+        /** the statement that declares the local, or null once it is declared */
+        String declaration;
+        /** an expression of the field as a Field, or null to create one */
+        final String field;
+        /** for strings read from the page, the offset of the field in d */
+        final String offset;
+
+        Column(Type type, String name, String declaration, String field, String offset) {
+            this.type = type;
+            this.name = name;
+            this.declaration = declaration;
+            this.field = field;
+            this.offset = offset;
+        }
+    }
+
+    private final List<OpIterator> path;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+
+    private StringBuilder code;
+    private String indent;
+    private int loops;
+
+    private PipelineGenerator(List<OpIterator> path, int afield, int gfield, Aggregator.Op aop) {
+        this.path = path;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+    }
+
+    /**
+     * Generates the class of a pipeline.
+     *
+     * @param path the operators of the pipeline, from its root down to its
+     *        scan, see {@link CompiledPipeline#probePath}
+     * @param afield the field of the root's tuples to aggregate, if aop is
+     *        not null
+     * @param gfield the field to group by, or
+     *        {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregate the pipeline ends in, or null to return the
+     *        tuples of the root
+     * @return the source, or null if an operator, predicate or aggregate of
+     *         the pipeline can't be compiled
+     */
+    static String generate(List<OpIterator> path, int afield, int gfield, Aggregator.Op aop) {
+        try {
+            return new PipelineGenerator(path, afield, gfield, aop).source();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private String source() {
+        StringBuilder src = new StringBuilder();
+        src.append("public final class CLASS_NAME extends simpledb.CompiledPipeline.Code {\n");
+        if (aop != null && gfield == Aggregator.NO_GROUPING)
+            src.append("    private int count, sum, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;\n");
+        else if (aop != null)
+            src.append("    private final java.util.LinkedHashMap<Object, int[]> groups =\n"
+                    + "            new java.util.LinkedHashMap<Object, int[]>();\n");
+
+        src.append("    public void consume(simpledb.HeapPage page) {\n");
+        src.append("        java.nio.ByteBuffer d = page.getRecordBuffer();\n");
+        src.append(tables());
+        src.append("        int n = page.getNumSlots();\n"
+                + "        for (int slot = 0; slot < n; slot++) {\n"
+                + "            if (!page.isSlotUsed(slot))\n"
+                + "                continue;\n"
+                + "            simpledb.Tuple t = page.getInsertedTuple(slot);\n"
+                + "            if (t != null) {\n"
+                + "                consume(t);\n"
+                + "                continue;\n"
+                + "            }\n"
+                + "            int b = page.getRecordOffset(slot);\n");
+        src.append(body(true, "            ", 1));
+        src.append("        }\n"
+                + "    }\n");
+
+        src.append("    public void consume(simpledb.Tuple t) {\n");
+        src.append(tables());
+        src.append(body(false, "        ", 0));
+        src.append("    }\n");
+
+        if (aop != null)
+            src.append(finish());
+        return src.append("}\n").toString();
+    }
+
+    /** @return the statements that copy the hash tables of the joins into locals */
+    private String tables() {
+        StringBuilder src = new StringBuilder();
+        int join = 0;
+        for (OpIterator op : path) {
+            if (op instanceof Join || op instanceof HashEquiJoin) {
+                src.append("        java.util.HashMap<Object, java.util.ArrayList<simpledb.Tuple>> h"
+                        + join + " = table(" + join + ");\n");
+                join++;
+            }
+        }
+        return src.toString();
+    }
+
+    /**
+     * @param raw true to read the record at offset b of d, false to read
+     *        the tuple t
+     * @return the statements that process one record
+     */
+    private String body(boolean raw, String indent, int loops) {
+        this.code = new StringBuilder();
+        this.indent = indent;
+        this.loops = loops;
+        List<Column> columns = null;
+        int join = 0;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            OpIterator op = path.get(i);
+            if (op instanceof SeqScan) {
+                columns = scan((SeqScan) op, raw);
+            } else if (op instanceof Filter) {
+                test(columns, ((Filter) op).getPredicate());
+            } else if (op instanceof Project) {
+                ArrayList<Column> projected = new ArrayList<Column>();
+                for (int field : ((Project) op).getFieldList())
+                    projected.add(column(columns, field));
+                columns = projected;
+            } else {
+                columns = probe((Operator) op, path.get(i + 1), columns, join++);
+            }
+        }
+        if (aop == null)
+            output(columns);
+        else
+            aggregate(columns);
+        while (this.loops > loops) {
+            this.loops--;
+            this.indent = this.indent.substring(4);
+            line("}");
+        }
+        return code.toString();
+    }
+
+    private void line(String s) {
+        code.append(indent).append(s).append('\n');
+    }
+
+    /** @return the statement that skips the current row */
+    private String skip() {
+        return loops == 0 ? "return;" : "continue;";
+    }
+
+    /** @return the local of a column, declaring it the first time */
+    private String use(Column c) {
+        if (c.declaration != null) {
+            line(c.declaration);
+            c.declaration = null;
+        }
+        return c.name;
+    }
+
+    /** @return an expression of a column as a Field */
+    private String field(Column c) {
+        if (c.field != null)
+            return c.field;
+        if (c.type == Type.INT_TYPE)
+            return "new simpledb.IntField(" + use(c) + ")";
+        return "new simpledb.StringField(" + use(c) + ", " + Type.STRING_LEN + ")";
+    }
+
+    private static Column column(List<Column> columns, int i) {
+        if (i < 0 || i >= columns.size())
+            throw new UnsupportedOperationException("no field " + i);
+        return columns.get(i);
+    }
+
+    /** @return an expression of field k of a tuple as an int or a String */
+    private static String value(String tuple, int k, Type type) {
+        if (type == Type.INT_TYPE)
+            return "((simpledb.IntField) " + tuple + ".getField(" + k + ")).getValue()";
+        return "((simpledb.StringField) " + tuple + ".getField(" + k + ")).getValue()";
+    }
+
+    private static String javaType(Type type) {
+        return type == Type.INT_TYPE ? "int" : "String";
+    }
+
+    /**
+     * Reads the fields of the table, tests the scan's predicates and
+     * returns the fields the scan returns.
+     */
+    private List<Column> scan(SeqScan scan, boolean raw) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(scan.getTableId());
+        ArrayList<Column> table = new ArrayList<Column>();
+        for (int k = 0; k < td.numFields(); k++) {
+            Type type = td.getFieldType(k);
+            String name = "s" + k;
+            if (raw) {
+                String offset = "b + " + td.getFieldOffset(k);
+                String read = type == Type.INT_TYPE
+                        ? "d.getInt(" + offset + ")"
+                        : "string(d, " + offset + ")";
+                table.add(new Column(type, name, javaType(type) + " " + name + " = " + read + ";",
+                        null, type == Type.INT_TYPE ? null : offset));
+            } else {
+                table.add(new Column(type, name,
+                        javaType(type) + " " + name + " = " + value("t", k, type) + ";",
+                        "t.getField(" + k + ")", null));
+            }
+        }
+        for (Predicate p : scan.getPredicates())
+            test(table, p);
+        int[] columns = scan.getColumns();
+        if (columns == null)
+            return table;
+        ArrayList<Column> projected = new ArrayList<Column>();
+        for (int c : columns)
+            projected.add(column(table, c));
+        return projected;
+    }
+
+    /** Skips the rows that don't satisfy a predicate. */
+    private void test(List<Column> columns, Predicate p) {
+        Column c = column(columns, p.getField());
+        if (p.getOperand().getType() != c.type)
+            throw new UnsupportedOperationException("operand of the wrong type");
+        String test;
+        if (c.type == Type.INT_TYPE) {
+            test = use(c) + " " + PredicateCompiler.operator(p.getOp()) + " "
+                    + ((IntField) p.getOperand()).getValue();
+        } else {
+            String operand = PredicateCompiler.literal(((StringField) p.getOperand()).getValue());
+            if (c.offset != null && c.declaration != null) {
+                // compare the bytes of the page, without creating a String
+                test = "simpledb.StringField.compare(d, " + c.offset + " + 4, stringLength(d, "
+                        + c.offset + "), simpledb.Predicate.Op." + p.getOp().name() + ", "
+                        + operand + ")";
+            } else {
+                test = PredicateCompiler.compareStrings(use(c), p.getOp(), operand);
+            }
+        }
+        line("if (!(" + test + "))");
+        line("    " + skip());
+    }
+
+    /**
+     * Looks the row up in the hash table of the join's other child, and
+     * opens a loop over the matching tuples.
+     *
+     * @param probe the child of the join the rows come from
+     * @param join the number of the join in the pipeline, from the scan up
+     * @return the fields of the joined rows
+     */
+    private List<Column> probe(Operator op, OpIterator probe, List<Column> columns, int join) {
+        JoinPredicate p = CompiledPipeline.getJoinPredicate(op);
+        boolean left = op.getChildren()[0] == probe;
+        OpIterator build = op.getChildren()[left ? 1 : 0];
+        TupleDesc td = build.getTupleDesc();
+        Column key = column(columns, left ? p.getField1() : p.getField2());
+        if (td.getFieldType(left ? p.getField2() : p.getField1()) != key.type)
+            throw new UnsupportedOperationException("join of fields of different types");
+
+        String m = "m" + join, i = "i" + join, j = "j" + join;
+        String k = key.type == Type.INT_TYPE ? "Integer.valueOf(" + use(key) + ")" : use(key);
+        line("java.util.ArrayList<simpledb.Tuple> " + m + " = h" + join + ".get(" + k + ");");
+        line("if (" + m + " == null)");
+        line("    " + skip());
+        line("for (int " + i + " = 0; " + i + " < " + m + ".size(); " + i + "++) {");
+        indent += "    ";
+        loops++;
+        line("simpledb.Tuple " + j + " = " + m + ".get(" + i + ");");
+
+        ArrayList<Column> joined = new ArrayList<Column>();
+        if (left)
+            joined.addAll(columns);
+        for (int f = 0; f < td.numFields(); f++) {
+            Type type = td.getFieldType(f);
+            String name = j + "_" + f;
+            joined.add(new Column(type, name,
+                    javaType(type) + " " + name + " = " + value(j, f, type) + ";",
+                    j + ".getField(" + f + ")", null));
+        }
+        if (!left)
+            joined.addAll(columns);
+        return joined;
+    }
+
+    /** Adds the row to the output. */
+    private void output(List<Column> columns) {
+        TupleDesc td = path.get(0).getTupleDesc();
+        if (td.numFields() != columns.size())
+            throw new UnsupportedOperationException("rows don't match the pipeline's schema");
+        line("simpledb.Tuple o = new simpledb.Tuple(td);");
+        for (int i = 0; i < columns.size(); i++)
+            line("o.setField(" + i + ", " + field(columns.get(i)) + ");");
+        line("out.add(o);");
+    }
+
+    /** Adds the row to the running aggregate, of its group if there is one. */
+    private void aggregate(List<Column> columns) {
+        Column a = column(columns, afield);
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new UnsupportedOperationException("unsupported aggregate " + aop);
+        if (a.type != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new UnsupportedOperationException("only COUNT is supported for strings");
+        String v = aop == Aggregator.Op.COUNT ? null : use(a);
+        String count = "count", sum = "sum", min = "min", max = "max";
+        if (gfield != Aggregator.NO_GROUPING) {
+            Column g = column(columns, gfield);
+            line("Object k = " + (g.type == Type.INT_TYPE ? "Integer.valueOf(" + use(g) + ")" : use(g)) + ";");
+            line("int[] a = groups.get(k);");
+            line("if (a == null) {");
+            line("    a = new int[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };");
+            line("    groups.put(k, a);");
+            line("}");
+            count = "a[0]";
+            sum = "a[1]";
+            min = "a[2]";
+            max = "a[3]";
+        }
+        line(count + "++;");
+        switch (aop) {
+        case SUM:
+        case AVG:
+            line(sum + " += " + v + ";");
+            break;
+        case MIN:
+            line("if (" + v + " < " + min + ")");
+            line("    " + min + " = " + v + ";");
+            break;
+        case MAX:
+            line("if (" + v + " > " + max + ")");
+            line("    " + max + " = " + v + ";");
+            break;
+        default:
+            break;
+        }
+    }
+
+    /** @return the method that adds the aggregate of each group to the output */
+    private String finish() {
+        TupleDesc childtd = path.get(0).getTupleDesc();
+        if (gfield == Aggregator.NO_GROUPING) {
+            return "    public void finish() {\n"
+                    + "        if (count > 0) {\n"
+                    + "            simpledb.Tuple o = new simpledb.Tuple(td);\n"
+                    + "            o.setField(0, new simpledb.IntField("
+                    + result("count", "sum", "min", "max") + "));\n"
+                    + "            out.add(o);\n"
+                    + "        }\n"
+                    + "    }\n";
+        }
+        String group = childtd.getFieldType(gfield) == Type.INT_TYPE
+                ? "new simpledb.IntField((Integer) e.getKey())"
+                : "new simpledb.StringField((String) e.getKey(), " + Type.STRING_LEN + ")";
+        return "    public void finish() {\n"
+                + "        for (java.util.Map.Entry<Object, int[]> e : groups.entrySet()) {\n"
+                + "            int[] a = e.getValue();\n"
+                + "            simpledb.Tuple o = new simpledb.Tuple(td);\n"
+                + "            o.setField(0, " + group + ");\n"
+                + "            o.setField(1, new simpledb.IntField("
+                + result("a[0]", "a[1]", "a[2]", "a[3]") + "));\n"
+                + "            out.add(o);\n"
+                + "        }\n"
+                + "    }\n";
+    }
+
+    /** @return an expression of the aggregate of a group */
+    private String result(String count, String sum, String min, String max) {
+        switch (aop) {
+        case COUNT:
+            return count;
+        case SUM:
+            return sum;
+        case AVG:
+            return sum + " / " + count;
+        case MIN:
+            return min;
+        default:
+            return max;
+        }
+    }
+}
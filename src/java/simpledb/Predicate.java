@@ -103,6 +103,20 @@ public class Predicate implements Serializable {
         return tupleField.compare(op, operand);
     }
 
+    /**
+     * @param predicates a conjunction of predicates, or null for none
+     * @return true if t satisfies every one of the predicates
+     */
+    public static boolean filterAll(Predicate[] predicates, Tuple t) {
+        if (predicates != null) {
+            for (Predicate p : predicates) {
+                if (!p.filter(t))
+                    return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * PredicateCompiler turns predicates into classes specialized for them, with
+ * their operands inlined as constants and their fields compared as ints or
+ * Strings, without the switch on the operator and the Field objects of
+ * {@link Field#compare}.  It generates Java source and compiles it in
+ * memory with the system Java compiler, on a background thread so that
+ * queries go on interpreting their predicates meanwhile.  Classes are
+ * cached by their source, so the same predicates over the same schema are
+ * compiled once.
+ * <p>
+ * Only a JDK has a system compiler; without one, or if compilation is
+ * disabled with {@link #setEnabled} or the simpledb.compile system
+ * property, predicates are always interpreted.
+ *
+ * @see PredicateEvaluator
+ * @see JoinPredicateEvaluator
+ * @see CompiledPipeline
+ */
+public final class PredicateCompiler {
+
+    /**
+     * The number of tuples an evaluator interprets before it compiles its
+     * predicates; short scans are not worth the cost of compiling.
+     */
+    public static final int THRESHOLD = Integer.getInteger("simpledb.compile.threshold", 10000);
+
+    private static final int MAX_CLASSES = 1000;
+
+    private static final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    private static volatile boolean enabled = !"false".equals(System.getProperty("simpledb.compile"));
+    private static final AtomicInteger classNumber = new AtomicInteger();
+    private static final ConcurrentHashMap<String, Future<Class<?>>> classes =
+            new ConcurrentHashMap<String, Future<Class<?>>>();
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-predicate-compiler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private PredicateCompiler() {
+    }
+
+    /** @return true if predicates are compiled */
+    public static boolean isEnabled() {
+        return enabled && javac != null;
+    }
+
+    /**
+     * Turns compilation on or off for evaluators created from now on.
+     */
+    public static void setEnabled(boolean enabled) {
+        PredicateCompiler.enabled = enabled;
+    }
+
+    /**
+     * Starts compiling a class, unless a class with the same source was
+     * compiled before.  The source names the class CLASS_NAME, which is
+     * replaced by a unique name, and must be in the default package; it
+     * can only use the public parts of simpledb, since it is loaded by
+     * another class loader.
+     *
+     * @return the compiled class, or a future that fails if the source
+     *         does not compile
+     */
+    static Future<Class<?>> compile(final String source) {
+        Future<Class<?>> f = classes.get(source);
+        if (f != null)
+            return f;
+        if (classes.size() >= MAX_CLASSES)
+            classes.clear();
+        f = executor.submit(new Callable<Class<?>>() {
+            public Class<?> call() throws Exception {
+                String name = "Compiled" + classNumber.incrementAndGet();
+                return define(name, source.replace("CLASS_NAME", name));
+            }
+        });
+        Future<Class<?>> previous = classes.putIfAbsent(source, f);
+        return previous != null ? previous : f;
+    }
+
+    /**
+     * Creates an instance of a compiled class, whose constructor takes the
+     * interpreter it falls back to.
+     *
+     * @return the instance, or null if the class did not compile
+     */
+    static <T> T newInstance(Future<Class<?>> compiled, Class<T> type, T interpreter) {
+        try {
+            return type.cast(compiled.get().getConstructor(type).newInstance(interpreter));
+        } catch (ExecutionException e) {
+            Debug.log("predicate compilation failed: %s", e.getCause());
+        } catch (Exception e) {
+            Debug.log("can't instantiate compiled predicate: %s", e);
+        }
+        return null;
+    }
+
+    /**
+     * Creates an instance of a compiled class with a constructor without
+     * arguments.
+     *
+     * @return the instance, or null if the class did not compile
+     */
+    static <T> T newInstance(Future<Class<?>> compiled, Class<T> type) {
+        try {
+            return type.cast(compiled.get().getConstructor().newInstance());
+        } catch (ExecutionException e) {
+            Debug.log("compilation failed: %s", e.getCause());
+        } catch (Exception e) {
+            Debug.log("can't instantiate compiled class: %s", e);
+        }
+        return null;
+    }
+
+    /** Compiles a class in memory and loads it. */
+    private static Class<?> define(String name, final String source)
+            throws IOException, ClassNotFoundException {
+        final Map<String, ByteArrayOutputStream> output = new HashMap<String, ByteArrayOutputStream>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standard = javac.getStandardFileManager(diagnostics, null, null);
+        ForwardingJavaFileManager<StandardJavaFileManager> files =
+                new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String className,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className + ".class"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        output.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        try {
+            boolean ok = javac.getTask(null, files, diagnostics,
+                    Arrays.asList("-classpath", classPath(), "-proc:none", "-g:none"), null,
+                    Arrays.asList(unit)).call();
+            if (!ok)
+                throw new ClassNotFoundException(name + ": " + diagnostics.getDiagnostics());
+        } finally {
+            files.close();
+        }
+        final Map<String, byte[]> bytecode = new HashMap<String, byte[]>();
+        for (Map.Entry<String, ByteArrayOutputStream> e : output.entrySet())
+            bytecode.put(e.getKey(), e.getValue().toByteArray());
+        ClassLoader loader = new ClassLoader(PredicateCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                byte[] b = bytecode.get(className);
+                if (b == null)
+                    throw new ClassNotFoundException(className);
+                return defineClass(className, b, 0, b.length);
+            }
+        };
+        return loader.loadClass(name);
+    }
+
+    /** @return the class path of the JVM, and where the simpledb classes are */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path");
+        try {
+            File simpledb = new File(PredicateCompiler.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+            path = simpledb.getPath() + File.pathSeparator + path;
+        } catch (Exception e) {
+            // compile against the class path alone
+        }
+        return path;
+    }
+
+    /** @return s as a Java string literal */
+    static String literal(String s) {
+        StringBuilder b = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            // octal escapes, since the compiler replaces unicode escapes,
+            // e.g. of a quote, before it reads the literal
+            if (Character.isLetterOrDigit(c) && c < 128 || c == ' ')
+                b.append(c);
+            else if (c < 256)
+                b.append(String.format("\\%03o", (int) c));
+            else
+                b.append(String.format("\\u%04x", (int) c));
+        }
+        return b.append('"').toString();
+    }
+
+    /**
+     * @return a Java expression that compares two String expressions the
+     *         way {@link StringField#compare} does
+     */
+    static String compareStrings(String left, Predicate.Op op, String right) {
+        switch (op) {
+        case EQUALS:
+            return left + ".equals(" + right + ")";
+        case LIKE:
+            return left + ".indexOf(" + right + ") >= 0";
+        default:
+            return left + ".compareTo(" + right + ") " + operator(op) + " 0";
+        }
+    }
+
+    /** @return the Java operator of a comparison other than LIKE */
+    static String operator(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return "==";
+        case NOT_EQUALS:
+            return "!=";
+        case LIKE:
+            return "==";
+        default:
+            return op.toString();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
+
+/**
+ * PredicateEvaluator tests tuples against a conjunction of predicates over
+ * the fields of a TupleDesc, either as Tuples or as records serialized in
+ * the layout of the TupleDesc, e.g. in a HeapPage.
+ * <p>
+ * {@link #forPredicates} returns an evaluator that interprets the
+ * predicates, like {@link Predicate#filterAll}, until it has tested
+ * {@link PredicateCompiler#THRESHOLD} tuples, then has them compiled in the
+ * background and switches to the compiled class when it is ready.  An
+ * evaluator is meant to be used by one operator or scan at a time.
+ */
+public abstract class PredicateEvaluator {
+
+    /**
+     * @return true if the tuple satisfies all of the predicates
+     */
+    public abstract boolean filter(Tuple t);
+
+    /**
+     * @param data bytes that hold a record laid out as described by
+     *        {@link TupleDesc#getFieldOffset}
+     * @param offset the offset of the record in data
+     * @return true if the record satisfies all of the predicates
+     * @throws NoSuchElementException if a field of the record can't be parsed
+     */
+    public abstract boolean matches(byte[] data, int offset);
+
+    /**
+     * Like {@link #matches(byte[], int)}, for records in a buffer, e.g. a
+     * page of a memory mapped file, read at absolute offsets.
+     *
+     * @param data the buffer that holds the record
+     * @param offset the offset of the record in data
+     * @return true if the record satisfies all of the predicates
+     * @throws NoSuchElementException if a field of the record can't be parsed
+     */
+    public abstract boolean matches(ByteBuffer data, int offset);
+
+    /** @return true if this evaluates compiled code */
+    public boolean isCompiled() {
+        return false;
+    }
+
+    /**
+     * Returns an evaluator of a conjunction of predicates, that compiles
+     * them once it has tested enough tuples if compilation is enabled.
+     *
+     * @param predicates the predicates; null or empty for none
+     * @param td the schema of the tuples and records
+     */
+    public static PredicateEvaluator forPredicates(Predicate[] predicates, TupleDesc td) {
+        PredicateEvaluator interpreter = interpret(predicates, td);
+        if (!PredicateCompiler.isEnabled())
+            return interpreter;
+        String source = source(predicates, td);
+        return source == null ? interpreter : new Adaptive(interpreter, source);
+    }
+
+    /**
+     * Returns an evaluator of a conjunction of predicates that never
+     * compiles them, e.g. for a single page.
+     */
+    public static PredicateEvaluator interpret(Predicate[] predicates, TupleDesc td) {
+        return new Interpreter(predicates != null ? predicates : new Predicate[0], td);
+    }
+
+    /**
+     * Compiles a conjunction of predicates and waits for it.
+     *
+     * @return the compiled evaluator, or null if the predicates can't be
+     *         compiled
+     */
+    static PredicateEvaluator compile(Predicate[] predicates, TupleDesc td) {
+        String source = PredicateCompiler.isEnabled() ? source(predicates, td) : null;
+        if (source == null)
+            return null;
+        return PredicateCompiler.newInstance(PredicateCompiler.compile(source),
+                PredicateEvaluator.class, interpret(predicates, td));
+    }
+
+    /** Tests the predicates one at a time through Field.compare. */
+    private static class Interpreter extends PredicateEvaluator {
+        private final Predicate[] predicates;
+        private final TupleDesc td;
+
+        Interpreter(Predicate[] predicates, TupleDesc td) {
+            this.predicates = predicates;
+            this.td = td;
+        }
+
+        public boolean filter(Tuple t) {
+            return Predicate.filterAll(predicates, t);
+        }
+
+        /**
+         * Int fields are compared without creating a Field, other fields
+         * are parsed one at a time, and the tests stop at the first
+         * predicate that fails.
+         */
+        public boolean matches(byte[] data, int base) {
+            try {
+                for (Predicate p : predicates) {
+                    int off = base + td.getFieldOffset(p.getField());
+                    Type type = td.getFieldType(p.getField());
+                    if (type == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                        if (!IntField.compare(readInt(data, off), p.getOp(),
+                                ((IntField) p.getOperand()).getValue()))
+                            return false;
+                    } else if (!type.parse(data, off).compare(p.getOp(), p.getOperand())) {
+                        return false;
+                    }
+                }
+            } catch (java.text.ParseException e) {
+                throw new NoSuchElementException("parsing error!");
+            }
+            return true;
+        }
+
+        public boolean matches(ByteBuffer data, int base) {
+            try {
+                for (Predicate p : predicates) {
+                    int off = base + td.getFieldOffset(p.getField());
+                    Type type = td.getFieldType(p.getField());
+                    if (type == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                        if (!IntField.compare(data.getInt(off), p.getOp(),
+                                ((IntField) p.getOperand()).getValue()))
+                            return false;
+                    } else if (!type.parse(data, off).compare(p.getOp(), p.getOperand())) {
+                        return false;
+                    }
+                }
+            } catch (java.text.ParseException e) {
+                throw new NoSuchElementException("parsing error!");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Interprets the predicates until it has tested THRESHOLD tuples, then
+     * until their compiled class is ready.
+     */
+    private static class Adaptive extends PredicateEvaluator {
+        private final PredicateEvaluator interpreter;
+        private final String source;
+        private PredicateEvaluator current;
+        private Future<Class<?>> pending;
+        private int count;
+        private boolean done;
+
+        Adaptive(PredicateEvaluator interpreter, String source) {
+            this.interpreter = interpreter;
+            this.source = source;
+            this.current = interpreter;
+        }
+
+        private PredicateEvaluator current() {
+            if (done)
+                return current;
+            if (pending == null) {
+                if (++count == PredicateCompiler.THRESHOLD)
+                    pending = PredicateCompiler.compile(source);
+            } else if (pending.isDone()) {
+                // if compilation failed, keep interpreting for good
+                PredicateEvaluator compiled = PredicateCompiler.newInstance(pending,
+                        PredicateEvaluator.class, interpreter);
+                if (compiled != null)
+                    current = compiled;
+                done = true;
+            }
+            return current;
+        }
+
+        public boolean filter(Tuple t) {
+            return current().filter(t);
+        }
+
+        public boolean matches(byte[] data, int offset) {
+            return current().matches(data, offset);
+        }
+
+        public boolean matches(ByteBuffer data, int offset) {
+            return current().matches(data, offset);
+        }
+
+        public boolean isCompiled() {
+            return current.isCompiled();
+        }
+    }
+
+    /** @return the big-endian int at an offset of data */
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * @return the length of a serialized StringField, given the int it
+     *         starts with
+     * @throws NoSuchElementException if it is not a valid length
+     */
+    public static int stringLength(int len) {
+        if (len < 0 || len > Type.STRING_LEN)
+            throw new NoSuchElementException("parsing error!");
+        return len;
+    }
+
+    /**
+     * Generates the source of a class that tests a conjunction of
+     * predicates, and falls back to an interpreter for tuples whose fields
+     * are not of the types of td.
+     *
+     * @return the source, or null if a field is not in td, or an operand is
+     *         not of the type of its field
+     */
+    private static String source(Predicate[] predicates, TupleDesc td) {
+        StringBuilder tuple = new StringBuilder();
+        StringBuilder record = new StringBuilder();
+        StringBuilder buffer = new StringBuilder();
+        if (predicates != null) {
+            for (Predicate p : predicates) {
+                int field = p.getField();
+                if (field < 0 || field >= td.numFields())
+                    return null;
+                Type type = td.getFieldType(field);
+                if (type != p.getOperand().getType())
+                    return null;
+                String and = tuple.length() == 0 ? "" : "\n                && ";
+                tuple.append(and);
+                record.append(and);
+                buffer.append(and);
+                int off = td.getFieldOffset(field);
+                if (type == Type.INT_TYPE) {
+                    String c = Integer.toString(((IntField) p.getOperand()).getValue());
+                    String op = PredicateCompiler.operator(p.getOp());
+                    tuple.append("((simpledb.IntField) t.getField(" + field + ")).getValue() "
+                            + op + " " + c);
+                    record.append("simpledb.PredicateEvaluator.readInt(d, b + " + off + ") "
+                            + op + " " + c);
+                    buffer.append("d.getInt(b + " + off + ") " + op + " " + c);
+                } else {
+                    String c = PredicateCompiler.literal(((StringField) p.getOperand()).getValue());
+                    String value = "((simpledb.StringField) t.getField(" + field + ")).getValue()";
+                    tuple.append(PredicateCompiler.compareStrings(value, p.getOp(), c));
+                    String compare = "simpledb.StringField.compare(d, b + " + (off + 4)
+                            + ", stringLength(d, b + " + off + "), simpledb.Predicate.Op."
+                            + p.getOp().name() + ", " + c + ")";
+                    record.append(compare);
+                    buffer.append(compare);
+                }
+            }
+        }
+        if (tuple.length() == 0) {
+            tuple.append("true");
+            record.append("true");
+            buffer.append("true");
+        }
+        return "public final class CLASS_NAME extends simpledb.PredicateEvaluator {\n"
+                + "    private final simpledb.PredicateEvaluator interpreter;\n"
+                + "    public CLASS_NAME(simpledb.PredicateEvaluator interpreter) {\n"
+                + "        this.interpreter = interpreter;\n"
+                + "    }\n"
+                + "    public boolean filter(simpledb.Tuple t) {\n"
+                + "        try {\n"
+                + "            return " + tuple + ";\n"
+                + "        } catch (ClassCastException e) {\n"
+                + "            return interpreter.filter(t);\n"
+                + "        }\n"
+                + "    }\n"
+                + "    public boolean matches(byte[] d, int b) {\n"
+                + "        return " + record + ";\n"
+                + "    }\n"
+                + "    public boolean matches(java.nio.ByteBuffer d, int b) {\n"
+                + "        return " + buffer + ";\n"
+                + "    }\n"
+                + "    private static int stringLength(byte[] d, int off) {\n"
+                + "        return simpledb.PredicateEvaluator.stringLength(\n"
+                + "                simpledb.PredicateEvaluator.readInt(d, off));\n"
+                + "    }\n"
+                + "    private static int stringLength(java.nio.ByteBuffer d, int off) {\n"
+                + "        return simpledb.PredicateEvaluator.stringLength(d.getInt(off));\n"
+                + "    }\n"
+                + "    public boolean isCompiled() {\n"
+                + "        return true;\n"
+                + "    }\n"
+                + "}\n";
+    }
+}
@@ -41,6 +41,11 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /** @return the ids of the child's fields this projects out, in order */
+    public ArrayList<Integer> getFieldList() {
+        return new ArrayList<Integer>(outFieldIds);
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead prefetches the pages a scan is going to read next into the
+ * buffer pool, on a shared pool of I/O threads.
+ * <p>
+ * A scan reports every page it reads with {@link #accessed}.  As long as
+ * each page is the successor of the previous one, the access is considered
+ * sequential and the read-ahead window doubles, up to {@link #MAX_WINDOW}
+ * pages or a quarter of the buffer pool (half of the ring, for a scan that
+ * reads through a {@link BufferRing}); any other access resets it.
+ * Whenever fewer than half a window of pages are left ahead of the scan,
+ * an I/O task fetches the following pages.  Prefetched pages are read
+ * without locks: the scan still locks every page through
+ * {@link BufferPool#getPage} before it uses it, which is then a hit.
+ * <p>
+ * A ReadAhead belongs to a single iterator and must only be called by the
+ * thread running that iterator.
+ */
+public class ReadAhead {
+
+    /** Finds the page following a page in scan order. */
+    public interface Successor {
+        /**
+         * @param page a page of the scan
+         * @return the id of the next page of the scan, or null at the end
+         */
+        public PageId next(Page page);
+    }
+
+    /** Successor of the leaf pages of a B+ tree. */
+    public static final Successor RIGHT_SIBLINGS = new Successor() {
+        public PageId next(Page page) {
+            return ((BTreeLeafPage) page).getRightSiblingId();
+        }
+    };
+
+    /** Initial read-ahead window, once a scan turned out to be sequential. */
+    public static final int MIN_WINDOW = 4;
+    /** Largest read-ahead window. */
+    public static final int MAX_WINDOW = 64;
+    /** Number of I/O threads shared by all scans. */
+    public static final int IO_THREADS = 4;
+
+    private static volatile boolean enabled = true;
+
+    private static final ExecutorService io = Executors.newFixedThreadPool(IO_THREADS,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ReadAhead-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private static final AtomicLong totalPrefetched = new AtomicLong();
+
+    private final BufferPool pool;
+    private final BufferRing ring;
+    private final Successor successor;
+    private final int maxWindow;
+
+    private PageId expected;
+    private int window;
+
+    /** Prefetched pages the scan has not reached yet. */
+    private final AtomicInteger ahead = new AtomicInteger();
+    /** Successor of the last prefetched page. */
+    private volatile PageId frontier;
+    /** Bumped when the scan stops being sequential, to stop stale tasks. */
+    private volatile int generation;
+    private volatile boolean busy;
+
+    /**
+     * Creates a ReadAhead for a scan of the given kind of pages.
+     *
+     * @param pool the buffer pool to prefetch pages into
+     * @param successor determines the page following a page
+     */
+    public ReadAhead(BufferPool pool, Successor successor) {
+        this(pool, null, successor);
+    }
+
+    /**
+     * Creates a ReadAhead for a scan that reads through a ring.
+     *
+     * @param pool the buffer pool the scan reads from
+     * @param ring the ring to prefetch pages into, or null for the pool
+     * @param successor determines the page following a page
+     */
+    public ReadAhead(BufferPool pool, BufferRing ring, Successor successor) {
+        this.pool = pool;
+        this.ring = ring;
+        this.successor = successor;
+        if (ring == null)
+            this.maxWindow = Math.min(MAX_WINDOW, pool.getNumPages() / 4);
+        else
+            this.maxWindow = Math.min(MAX_WINDOW, ring.capacity() / 2);
+    }
+
+    /**
+     * Creates a ReadAhead for a scan of a heap file in page number order.
+     *
+     * @param pool the buffer pool the scan reads from
+     * @param ring the ring of the scan, or null if it reads into the pool
+     * @param numPages the number of pages of the file
+     */
+    public static ReadAhead forHeapFile(BufferPool pool, BufferRing ring, final int numPages) {
+        return new ReadAhead(pool, ring, new Successor() {
+            public PageId next(Page page) {
+                PageId pid = page.getId();
+                if (pid.getPageNumber() + 1 >= numPages)
+                    return null;
+                return new HeapPageId(pid.getTableId(), pid.getPageNumber() + 1);
+            }
+        });
+    }
+
+    /** Turns read-ahead on or off for all scans started afterwards. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** @return the number of pages prefetched by all scans so far */
+    public static long getTotalPrefetched() {
+        return totalPrefetched.get();
+    }
+
+    /**
+     * Tells the read-ahead which page the scan just read, possibly
+     * scheduling prefetches.
+     *
+     * @param page the page just returned by the buffer pool
+     */
+    public void accessed(Page page) {
+        if (!enabled || maxWindow == 0)
+            return;
+        PageId pid = page.getId();
+        if (pid.equals(expected)) {
+            window = window == 0 ? Math.min(MIN_WINDOW, maxWindow) : Math.min(2 * window, maxWindow);
+            if (ahead.get() > 0)
+                ahead.decrementAndGet();
+        } else {
+            window = 0;
+            generation++;
+            ahead.set(0);
+            frontier = null;
+        }
+        expected = successor.next(page);
+        if (expected == null || window == 0 || busy)
+            return;
+
+        int left = ahead.get();
+        if (left >= window / 2)
+            return;
+        PageId start = left > 0 && frontier != null ? frontier : expected;
+        schedule(start, window - left);
+    }
+
+    private void schedule(final PageId start, final int count) {
+        final int gen = generation;
+        busy = true;
+        try {
+            io.execute(new Runnable() {
+                public void run() {
+                    try {
+                        PageId next = start;
+                        for (int i = 0; i < count && next != null && gen == generation; i++) {
+                            Page page = ring == null ? pool.prefetchPage(next)
+                                    : pool.prefetchPage(next, ring);
+                            totalPrefetched.incrementAndGet();
+                            next = successor.next(page);
+                            if (gen != generation)
+                                break;
+                            ahead.incrementAndGet();
+                            frontier = next;
+                        }
+                    } catch (DbException e) {
+                        // no clean frame to prefetch into; the scan reads the page itself
+                    } catch (RuntimeException e) {
+                        // e.g. the file was dropped; prefetching is only a hint
+                    } finally {
+                        busy = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            busy = false;
+        }
+    }
+}
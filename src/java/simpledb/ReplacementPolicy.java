@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs a free frame.
+ * <p>
+ * The BufferPool tells the policy about every page that enters the pool,
+ * every hit on a resident page, and every page that leaves the pool for a
+ * reason other than eviction (e.g. {@link BufferPool#discardPage}).  All
+ * of these calls, as well as {@link #chooseVictim}, must run in O(1)
+ * (amortized) time.
+ * <p>
+ * Implementations are not thread-safe; the BufferPool serializes calls
+ * into a policy instance.
+ *
+ * @see ClockReplacementPolicy
+ * @see TwoQueueReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Lets the BufferPool veto victims, e.g. pages that are dirty or
+     * pinned by a running transaction.
+     */
+    public interface EvictionFilter {
+        /** @return true if the page with id pid may be evicted right now */
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Creates policy instances; a partitioned BufferPool needs one policy
+     * per partition.
+     */
+    public interface Factory {
+        /**
+         * @param capacity the number of frames the policy has to manage
+         * @return a new, empty policy
+         */
+        public ReplacementPolicy create(int capacity);
+    }
+
+    /**
+     * Called when a page is brought into the buffer pool.
+     *
+     * @param pid the id of the page that became resident
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called on every buffer pool hit of a resident page.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool without being chosen as a
+     * victim by this policy.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict and stop tracking it.
+     *
+     * @param filter decides whether a candidate page may be evicted
+     * @return the id of the victim, or null if no resident page passes the
+     *         filter
+     */
+    public PageId chooseVictim(EvictionFilter filter);
+
+    /** @return the number of resident pages tracked by this policy */
+    public int size();
+}
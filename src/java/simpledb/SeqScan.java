@@ -17,6 +17,9 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private TupleDesc tupleDesc;
+    private Predicate[] predicates;
+    private int[] columns;
+    private HeapFile.Morsels morsels;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -43,6 +46,43 @@ public class SeqScan implements OpIterator {
 
     }
 
+    /**
+     * Creates a sequential scan that only returns the tuples that satisfy a
+     * conjunction of predicates.  The predicates are handed to the table's
+     * DbFile, which can test them before it builds the tuples, and skip
+     * pages that can't hold a matching tuple; it is the same as a Filter
+     * per predicate above a plain scan, but cheaper.
+     *
+     * @param predicates
+     *            the predicates, over the fields of the table, that all
+     *            returned tuples satisfy
+     * @see DbFile#iterator(TransactionId, Predicate[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates) {
+        this(tid, tableid, tableAlias, predicates, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples that satisfy a
+     * conjunction of predicates, with only some of the fields of the table.
+     * The tuples, and the TupleDesc of the scan, have field i of the table
+     * as their field j where columns[j] == i; operators above the scan must
+     * look their fields up by name in {@link #getTupleDesc}.
+     *
+     * @param predicates
+     *            the predicates, over the fields of the table, that all
+     *            returned tuples satisfy; null for none
+     * @param columns
+     *            the fields of the table to return, in order; null for all
+     * @see DbFile#iterator(TransactionId, Predicate[], int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates,
+            int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.predicates = predicates != null && predicates.length > 0 ? predicates : null;
+        this.columns = columns;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -61,6 +101,58 @@ public class SeqScan implements OpIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the predicates this scan tests, or an empty array if it returns
+     *         every tuple
+     */
+    public Predicate[] getPredicates() {
+        return predicates == null ? new Predicate[0] : predicates.clone();
+    }
+
+    /**
+     * @return the fields of the table this scan returns, or null if it
+     *         returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /** @return the id of the table this scan reads */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * Splits this scan into scans that read the pages of its table between
+     * them, in ranges of pagesPerMorsel pages that each one claims when it
+     * is done with the previous one, so that they can run in different
+     * threads under an {@link Exchange}.  They test the predicates and
+     * return the fields of this scan.
+     *
+     * @param n the number of scans
+     * @param pagesPerMorsel the number of pages of each range
+     * @return the scans, that return the tuples of this scan between them
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     * @see HeapFile.Morsels
+     */
+    public SeqScan[] split(int n, int pagesPerMorsel) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new IllegalArgumentException("only scans of heap files can be split");
+        HeapFile.Morsels shared = ((HeapFile) file).new Morsels(pagesPerMorsel);
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            scans[i] = new SeqScan(tid, tableid, tableAlias, predicates, columns);
+            scans[i].morsels = shared;
+        }
+        return scans;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -85,7 +177,15 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.iter = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (morsels != null)
+            this.iter = ((HeapFile) file).iterator(tid, predicates, columns, morsels);
+        else if (columns != null)
+            this.iter = file.iterator(tid, predicates, columns);
+        else if (predicates != null)
+            this.iter = file.iterator(tid, predicates);
+        else
+            this.iter = file.iterator(tid);
 	this.iter.open();
     }
 
@@ -94,7 +194,8 @@ public class SeqScan implements OpIterator {
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.  The alias and name should be separated with a "." character
-     * (e.g., "alias.fieldName").
+     * (e.g., "alias.fieldName").  A scan of some of the columns of the
+     * table only has their fields.
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
@@ -102,6 +203,8 @@ public class SeqScan implements OpIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null)
+            tupleDesc = tupleDesc.project(columns);
         Type[] tpltype = new Type[tupleDesc.numFields()];
         String[] tplname = new String[tupleDesc.numFields()];
 
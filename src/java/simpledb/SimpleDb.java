@@ -49,6 +49,32 @@ public class SimpleDb {
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("slotted")) {
+            // rewrite a heap file with variable-length records
+            if (args.length < 4 || args.length > 5) {
+                System.err.println("Unexpected number of arguments to slotted ");
+                return;
+            }
+            int numOfAttributes = Integer.parseInt(args[3]);
+            Type[] ts = new Type[numOfAttributes];
+            for (int i = 0; i < numOfAttributes; i++)
+                ts[i] = Type.INT_TYPE;
+            if (args.length == 5) {
+                String[] typeStringAr = args[4].split(",");
+                if (typeStringAr.length != numOfAttributes) {
+                    System.err.println("The number of types does not agree with the number of columns");
+                    return;
+                }
+                for (int i = 0; i < numOfAttributes; i++) {
+                    if (typeStringAr[i].toLowerCase().equals("string"))
+                        ts[i] = Type.STRING_TYPE;
+                    else if (!typeStringAr[i].toLowerCase().equals("int")) {
+                        System.err.println("Unknown type " + typeStringAr[i]);
+                        return;
+                    }
+                }
+            }
+            HeapFileEncoder.convertToSlotted(new File(args[1]), new File(args[2]), new TupleDesc(ts));
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
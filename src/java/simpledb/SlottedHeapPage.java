@@ -0,0 +1,369 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a page of a HeapFile that stores variable-length
+ * records, so that strings only take the space of their characters instead
+ * of Type.STRING_LEN bytes.
+ * <p>
+ * A page starts with a 4 byte header: the number of entries of the slot
+ * directory, and the number of bytes used by records, both unsigned shorts.
+ * The slot directory follows, with one entry of 4 bytes per slot: the offset
+ * of the slot's record in the page and its length, or two zeros for an empty
+ * slot.  Records are packed at the end of the page, growing towards the
+ * directory.  In a record, int fields take 4 bytes and string fields one
+ * length byte plus one byte per character.  A page of zeros is an empty page.
+ * <p>
+ * Slot numbers are part of RecordIds, so a deleted tuple leaves an empty
+ * slot that a later insert reuses.  Records are packed again whenever the
+ * page is written, so a page never has to be compacted explicitly.  Page
+ * sizes up to 64KB are supported.
+ *
+ * @see HeapPage
+ * @see HeapFile.PageFormat
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Bytes of the page header. */
+    static final int HEADER_SIZE = 4;
+    /** Bytes of a slot directory entry. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** The tuple in each slot, null for empty slots; the last one is used. */
+    private final ArrayList<Tuple> slots;
+    /** Bytes taken by the records of the tuples in slots. */
+    private int recordBytes;
+    private boolean dirty;
+    private TransactionId dirtyby;
+
+    /** The before-image of the page, or null while it is the page itself. */
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @see #SlottedHeapPage(HeapPageId, ByteBuffer, TupleDesc)
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page in a buffer, e.g. a
+     * region of a memory mapped file.
+     *
+     * @see #SlottedHeapPage(HeapPageId, ByteBuffer, TupleDesc)
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedHeapPage of a table with the given schema.  The tuples
+     * are decoded straight from the buffer, starting at its position; the
+     * buffer is not kept.
+     *
+     * @param id the id of this page
+     * @param data the bytes of the page
+     * @param td the schema of the tuples on the page
+     * @throws IOException if the data is not a valid page
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        ByteBuffer buf = data.duplicate();
+        int base = buf.position();
+        try {
+            int numSlots = buf.getShort() & 0xffff;
+            buf.getShort(); // bytes used, recomputed from the records
+            slots = new ArrayList<Tuple>(numSlots);
+            ByteBuffer rec = data.duplicate();
+            for (int i = 0; i < numSlots; i++) {
+                int offset = buf.getShort() & 0xffff;
+                int length = buf.getShort() & 0xffff;
+                if (offset == 0) {
+                    slots.add(null);
+                    continue;
+                }
+                rec.position(base + offset);
+                Tuple t = readTuple(rec, i);
+                if (recordSize(t) != length)
+                    throw new IOException("bad record length in slot " + i + " of " + id);
+                slots.add(t);
+                recordBytes += length;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated page " + id);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("bad slot directory of " + id);
+        }
+        trimSlots();
+        // the before-image is copied when the page is first modified
+    }
+
+    private Tuple readTuple(ByteBuffer rec, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(rec.getInt()));
+            } else {
+                byte[] bs = new byte[rec.get() & 0xff];
+                rec.get(bs);
+                t.setField(j, new StringField(new String(bs, StandardCharsets.ISO_8859_1), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /** @return the number of bytes the record of t takes */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                size += Type.INT_TYPE.getLen();
+            else
+                size += 1 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    /** @return the number of bytes the largest possible record takes */
+    private int maxRecordSize() {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 1 + Type.STRING_LEN;
+        return size;
+    }
+
+    /** Drops the empty slots at the end of the directory. */
+    private void trimSlots() {
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null)
+            slots.remove(slots.size() - 1);
+    }
+
+    /** @return the number of unused bytes of this page */
+    private int freeBytes() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE * slots.size() - recordBytes;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData != null ? oldData : getPageData();
+            }
+            return new SlottedHeapPage(pid, ByteBuffer.wrap(oldDataRef), td);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Makes the current contents of this page its before-image.  The
+     * contents are only copied when the page is first modified afterwards.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Copies the current contents of this page into its before-image if
+     * they are the before-image; called before the page is modified.
+     */
+    private void preserveBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records of all used slots packed at the end of the page.
+     *
+     * @see #SlottedHeapPage(HeapPageId, byte[])
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer dir = ByteBuffer.wrap(data);
+        ByteBuffer rec = ByteBuffer.wrap(data);
+        dir.putShort((short) slots.size());
+        dir.putShort((short) recordBytes);
+        int end = data.length;
+        for (Tuple t : slots) {
+            if (t == null) {
+                dir.putInt(0);
+                continue;
+            }
+            int length = recordSize(t);
+            end -= length;
+            dir.putShort((short) end);
+            dir.putShort((short) length);
+            rec.position(end);
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    rec.putInt(((IntField) f).getValue());
+                } else {
+                    String s = ((StringField) f).getValue();
+                    int len = Math.min(s.length(), Type.STRING_LEN);
+                    rec.put((byte) len);
+                    // one byte per character, like StringField.serialize
+                    for (int k = 0; k < len; k++)
+                        rec.put((byte) s.charAt(k));
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not found");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= slots.size() || slots.get(slot) == null)
+            throw new DbException("Tuple not found");
+        preserveBeforeImage();
+        recordBytes -= recordSize(slots.get(slot));
+        slots.set(slot, null);
+        trimSlots();
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        int slot = slots.indexOf(null);
+        int needed = recordSize(t) + (slot < 0 ? SLOT_SIZE : 0);
+        if (needed > freeBytes())
+            throw new DbException("no room for the tuple");
+        preserveBeforeImage();
+        if (slot < 0) {
+            slot = slots.size();
+            slots.add(t);
+        } else {
+            slots.set(slot, t);
+        }
+        recordBytes += recordSize(t);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyby = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtyby : null;
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page; smaller tuples may fit even if this is 0.
+     */
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int max = maxRecordSize();
+        // tuples that go into empty slots need no new directory entry
+        int reused = Math.min(countEmpty(), free / max);
+        free -= reused * max;
+        return reused + free / (max + SLOT_SIZE);
+    }
+
+    private int countEmpty() {
+        int empty = 0;
+        for (Tuple t : slots) {
+            if (t == null)
+                empty++;
+        }
+        return empty;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        return slots.size() - countEmpty();
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * Returns an iterator over the given fields of the tuples on this page
+     * that satisfy all of the predicates.  Tuples of a slotted page are
+     * decoded when the page is read, so the predicates are tested against
+     * the decoded tuples.
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, int[] columns) {
+        TupleDesc projected = columns == null ? null : td.project(columns);
+        final ArrayList<Tuple> used = new ArrayList<Tuple>(slots.size());
+        for (Tuple t : slots) {
+            if (t != null && Predicate.filterAll(predicates, t))
+                used.add(columns == null ? t : t.project(projected, columns));
+        }
+        return new Iterator<Tuple>() {
+            private final Iterator<Tuple> it = used.iterator();
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Tuple next() {
+                if (!it.hasNext())
+                    throw new NoSuchElementException();
+                return it.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Remove not supported");
+            }
+        };
+    }
+}
@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements an equality or range join by
+ * merging its children in ascending order of their join fields.
+ * <p>
+ * A child that is already in that order, e.g. a {@link BTreeScan} of a B+
+ * tree keyed on the join field, is read as it is; any other child is
+ * sorted externally: it is read in runs as large as half of the memory
+ * budget of the join, and if it doesn't fit in one run, the sorted runs are
+ * spilled to temporary files and merged, FAN_IN runs at a time.
+ * <p>
+ * The merge reads one child, the driving one, a tuple at a time, and keeps
+ * the tuples of the other child that the current driving tuple matches in
+ * memory.  For EQUALS those are the group of tuples with the same key; for
+ * a range predicate they are a prefix of the other child that only grows
+ * as the driving key does, e.g. the right tuples less than the current left
+ * tuple for GREATER_THAN, so each tuple is read once.  The left child
+ * drives EQUALS, GREATER_THAN and GREATER_THAN_OR_EQ joins, the right one
+ * LESS_THAN and LESS_THAN_OR_EQ joins, and the join returns its tuples in
+ * the order of the join field of the driving child.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Memory a join uses to sort its children unless given a budget. */
+    public static final long DEFAULT_MEMORY_BUDGET = HashEquiJoin.DEFAULT_MEMORY_BUDGET;
+
+    /** Number of sorted runs merged at a time. */
+    public static final int FAN_IN = 64;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private final long memoryBudget;
+    private final boolean driveLeft;
+
+    private transient JoinPredicateEvaluator evaluator;
+    private transient ArrayList<SpillFile> runs;
+    private transient DbFileIterator drivingTuples, otherTuples;
+    private transient Tuple driving, pending;
+    private transient ArrayList<Tuple> matches;
+    private transient int matchPos;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            can't be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor for a join with a memory budget.
+     *
+     * @param memoryBudget
+     *            the estimated number of bytes the tuples sorted in memory
+     *            at a time may take
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBudget) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge joins don't support " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBudget = memoryBudget;
+        this.driveLeft = p.getOperator() != Predicate.Op.LESS_THAN
+                && p.getOperator() != Predicate.Op.LESS_THAN_OR_EQ;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a sort-merge join can join on the given operator */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Returns true if an operator returns its tuples in ascending order of
+     * the given field: a BTreeScan or a SeqScan of a B+ tree, by its key
+     * field, an ascending OrderBy, a SortMergeJoin, or a Filter of one of
+     * them.
+     */
+    public static boolean isOrderedOn(OpIterator it, int field) {
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).getKeyField() == field;
+        if (it instanceof SeqScan) {
+            SeqScan scan = (SeqScan) it;
+            DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            if (!(file instanceof BTreeFile))
+                return false;
+            int key = ((BTreeFile) file).keyField();
+            int[] columns = scan.getColumns();
+            if (columns == null)
+                return field == key;
+            return field < columns.length && columns[field] == key;
+        }
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isASC() && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof Filter)
+            return isOrderedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin) it).isOrderedOn(field);
+        return false;
+    }
+
+    /** @return true if the join returns its tuples in order of the given field */
+    private boolean isOrderedOn(int field) {
+        int left = child1.getTupleDesc().numFields();
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return field == pred.getField1() || field == left + pred.getField2();
+        return driveLeft ? field == pred.getField1() : field == left + pred.getField2();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name()
+    {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name()
+    {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /** @return the memory budget of the join, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of sorted runs the join has spilled to temporary
+     *         files since it was opened
+     */
+    public int getSpilledRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        evaluator = JoinPredicateEvaluator.forPredicate(pred, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        runs = new ArrayList<SpillFile>();
+        DbFileIterator left = sorted(child1, pred.getField1());
+        DbFileIterator right = sorted(child2, pred.getField2());
+        drivingTuples = driveLeft ? left : right;
+        otherTuples = driveLeft ? right : left;
+        matches = new ArrayList<Tuple>();
+        drivingTuples.open();
+        otherTuples.open();
+        start();
+        super.open();
+    }
+
+    /** Starts the merge over from the first tuples of the children. */
+    private void start() throws DbException, TransactionAbortedException {
+        matches.clear();
+        matchPos = 0;
+        driving = null;
+        pending = otherTuples.hasNext() ? otherTuples.next() : null;
+    }
+
+    /**
+     * Returns the tuples of a child in ascending order of a field, sorting
+     * them unless the child already returns them in that order.
+     */
+    private DbFileIterator sorted(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        if (isOrderedOn(child, field))
+            return HashEquiJoin.tuplesOf(child);
+        TupleComparator order = new TupleComparator(field, true);
+        // both children are sorted before the merge starts, so each gets half
+        long runTuples = Math.max(1, memoryBudget / 2
+                / HashEquiJoin.estimateTupleSize(child.getTupleDesc()));
+        ArrayList<SpillFile> childRuns = new ArrayList<SpillFile>();
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            run.add(child.next());
+            if (run.size() == runTuples) {
+                childRuns.add(spill(run, order, child.getTupleDesc()));
+                run.clear();
+            }
+        }
+        if (childRuns.isEmpty()) {
+            Collections.sort(run, order);
+            return tuplesOf(run);
+        }
+        if (!run.isEmpty())
+            childRuns.add(spill(run, order, child.getTupleDesc()));
+        while (childRuns.size() > FAN_IN) {
+            List<SpillFile> merged = childRuns.subList(0, FAN_IN);
+            DbFileIterator it = merge(new ArrayList<SpillFile>(merged), order);
+            SpillFile out = new SpillFile(child.getTupleDesc());
+            runs.add(out);
+            it.open();
+            while (it.hasNext())
+                out.add(it.next());
+            it.close();
+            merged.clear();
+            childRuns.add(out);
+        }
+        return merge(childRuns, order);
+    }
+
+    /** Sorts a run and writes it to a temporary file. */
+    private SpillFile spill(ArrayList<Tuple> run, TupleComparator order, TupleDesc td)
+            throws DbException {
+        Collections.sort(run, order);
+        SpillFile file = new SpillFile(td);
+        runs.add(file);
+        for (Tuple t : run)
+            file.add(t);
+        return file;
+    }
+
+    /** @return the tuples of a list as a DbFileIterator */
+    private static DbFileIterator tuplesOf(final ArrayList<Tuple> tuples) {
+        return new AbstractDbFileIterator() {
+            private int pos;
+
+            public void open() {
+                close();
+                pos = 0;
+            }
+
+            public void rewind() {
+                open();
+            }
+
+            protected Tuple readNext() {
+                return pos < tuples.size() ? tuples.get(pos++) : null;
+            }
+        };
+    }
+
+    /** The current tuple of a sorted run being merged. */
+    private static class Head {
+        final DbFileIterator run;
+        Tuple tuple;
+
+        Head(DbFileIterator run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /** @return the tuples of sorted runs, merged into one sorted sequence */
+    private static DbFileIterator merge(final List<SpillFile> files, final TupleComparator order)
+            throws DbException {
+        final ArrayList<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        for (SpillFile file : files)
+            its.add(file.iterator());
+        return new AbstractDbFileIterator() {
+            private PriorityQueue<Head> heads;
+
+            public void open() throws DbException, TransactionAbortedException {
+                close();
+                heads = new PriorityQueue<Head>(its.size(), new Comparator<Head>() {
+                    public int compare(Head h1, Head h2) {
+                        return order.compare(h1.tuple, h2.tuple);
+                    }
+                });
+                for (DbFileIterator it : its) {
+                    it.open();
+                    if (it.hasNext())
+                        heads.add(new Head(it, it.next()));
+                }
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                open();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (heads == null || heads.isEmpty())
+                    return null;
+                Head head = heads.poll();
+                Tuple t = head.tuple;
+                if (head.run.hasNext()) {
+                    head.tuple = head.run.next();
+                    heads.add(head);
+                }
+                return t;
+            }
+
+            public void close() {
+                super.close();
+                for (DbFileIterator it : its)
+                    it.close();
+                heads = null;
+            }
+        };
+    }
+
+    public void close() {
+        super.close();
+        if (drivingTuples != null) {
+            drivingTuples.close();
+            otherTuples.close();
+            drivingTuples = otherTuples = null;
+        }
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.delete();
+            runs.clear();
+        }
+        matches = null;
+        driving = pending = null;
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // drop the tuples the iterators have read ahead
+        drivingTuples.close();
+        otherTuples.close();
+        drivingTuples.rewind();
+        otherTuples.rewind();
+        start();
+    }
+
+    /** @return true if the current driving tuple joins with a tuple of the other child */
+    private boolean matches(Tuple other) {
+        return driveLeft ? evaluator.filter(driving, other) : evaluator.filter(other, driving);
+    }
+
+    /** Moves on to the next tuple of the other child. */
+    private void advance() throws DbException, TransactionAbortedException {
+        pending = otherTuples.hasNext() ? otherTuples.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  For each tuple of the driving child, the join returns
+     * it merged with each of the tuples of the other child it matches.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (driving != null && matchPos < matches.size()) {
+                Tuple other = matches.get(matchPos++);
+                return driveLeft ? merge(driving, other) : merge(other, driving);
+            }
+            if (!drivingTuples.hasNext())
+                return null;
+            driving = drivingTuples.next();
+            matchPos = 0;
+            if (pred.getOperator() == Predicate.Op.EQUALS) {
+                Field key = driving.getField(pred.getField1());
+                int otherField = pred.getField2();
+                // the same key as the last tuple matches the same group
+                if (!matches.isEmpty() && !matches(matches.get(0)))
+                    matches.clear();
+                if (!matches.isEmpty())
+                    continue;
+                while (pending != null
+                        && pending.getField(otherField).compare(Predicate.Op.LESS_THAN, key))
+                    advance();
+            }
+            while (pending != null && matches(pending)) {
+                matches.add(pending);
+                advance();
+            }
+        }
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(comboTD);
+        int size1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < size1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            t.setField(size1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * SpillFile is a temporary file that an operator writes tuples to when they
+ * don't fit in its memory budget, and reads back once it is done writing,
+ * as many times as it needs to.  The tuples are stored one after the other,
+ * serialized as in a page, so they come back in the order they were added,
+ * without their RecordIds.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples of the given TupleDesc.
+     *
+     * @throws DbException if the file can't be created
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".dat");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("can't create spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has been read
+     */
+    void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file already read");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("can't write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file; no more tuples can
+     * be added afterwards.  The iterator has to be opened, and closed once
+     * it is no longer needed.
+     */
+    DbFileIterator iterator() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("can't write spill file: " + e.getMessage());
+            }
+            out = null;
+        }
+        return new AbstractDbFileIterator() {
+            private DataInputStream in;
+            private int read;
+
+            public void open() throws DbException {
+                close();
+                try {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                            BUFFER_SIZE));
+                } catch (IOException e) {
+                    throw new DbException("can't read spill file: " + e.getMessage());
+                }
+                read = 0;
+            }
+
+            public void rewind() throws DbException {
+                open();
+            }
+
+            protected Tuple readNext() throws DbException {
+                if (in == null || read == size)
+                    return null;
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++)
+                        t.setField(i, td.getFieldType(i).parse(in));
+                } catch (java.text.ParseException e) {
+                    throw new DbException("can't read spill file: " + e.getMessage());
+                }
+                read++;
+                return t;
+            }
+
+            public void close() {
+                super.close();
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // nothing was written through it
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+
+    /** Deletes the file; it can't be used afterwards. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+}
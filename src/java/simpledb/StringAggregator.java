@@ -1,12 +1,17 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ *
+ * Groups whose key is an int, and the single group without grouping, are
+ * counted in an int array indexed by their id in an IntHashTable; other
+ * groups are counted in a HashMap.
  */
 public class StringAggregator implements Aggregator {
 
@@ -21,6 +26,9 @@ public class StringAggregator implements Aggregator {
 
 	private HashMap<Field, Integer> values;
 
+	private IntHashTable groups;
+	private int[] groupCounts;
+
 	/**
 	 * Aggregate constructor
 	 * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -35,7 +43,12 @@ public class StringAggregator implements Aggregator {
 		this.gbfieldtype = gbfieldtype;
 		this.afield = afield;
 		this.what = what;
-		values = new HashMap<>();
+		if (gbfield == Aggregator.NO_GROUPING || gbfieldtype == Type.INT_TYPE) {
+			groups = new IntHashTable();
+			groupCounts = new int[16];
+		} else {
+			values = new HashMap<>();
+		}
 	}
 
 	/**
@@ -54,6 +67,18 @@ public class StringAggregator implements Aggregator {
 			gbfieldname = tup.getTupleDesc().getFieldName(gbfield);
 		}
 
+		if (groups != null) {
+			int size = groups.size();
+			int id = groups.add(((IntField) gb).getValue());
+			if (id == size) {
+				if (id == groupCounts.length)
+					groupCounts = Arrays.copyOf(groupCounts, id * 2);
+				groupCounts[id] = 0;
+			}
+			groupCounts[id]++;
+			return;
+		}
+
 		values.put(gb, values.getOrDefault(gb, 0) + 1);
 	}
 
@@ -84,6 +109,20 @@ public class StringAggregator implements Aggregator {
 		TupleDesc td = new TupleDesc(types, names);
 		List<Tuple> res = new ArrayList<>();
 
+		if (groups != null) {
+			for (int id = 0; id < groups.size(); id++) {
+				Tuple t = new Tuple(td);
+				if (gbfield == Aggregator.NO_GROUPING) {
+					t.setField(0, new IntField(groupCounts[id]));
+				} else {
+					t.setField(0, new IntField(groups.key(id)));
+					t.setField(1, new IntField(groupCounts[id]));
+				}
+				res.add(t);
+			}
+			return new TupleIterator(td, res);
+		}
+
 		for (Map.Entry<Field, Integer> temp : values.entrySet()) {
 			Tuple t = new Tuple(td);
 			if (gbfield == Aggregator.NO_GROUPING) {
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -105,6 +106,92 @@ public class StringField implements Field {
 		return false;
 	}
 
+	/**
+	 * Compares a string serialized one byte per character, e.g. in a page,
+	 * to a value the way {@link #compare} does, without creating a String.
+	 * 
+	 * @param chars
+	 *            the array that holds the characters of the string
+	 * @param offset
+	 *            the offset of the first character in chars
+	 * @param length
+	 *            the number of characters
+	 */
+	public static boolean compare(byte[] chars, int offset, int length, Predicate.Op op,
+			String operand) {
+		if (op == Predicate.Op.LIKE) {
+			// the operand occurs somewhere in the string
+			int n = operand.length();
+			for (int start = 0; start + n <= length; start++) {
+				int i = 0;
+				while (i < n && (char) (chars[offset + start + i] & 0xff) == operand.charAt(i))
+					i++;
+				if (i == n)
+					return true;
+			}
+			return false;
+		}
+		int cmpVal = 0;
+		int n = Math.min(length, operand.length());
+		for (int i = 0; i < n && cmpVal == 0; i++)
+			cmpVal = (char) (chars[offset + i] & 0xff) - operand.charAt(i);
+		if (cmpVal == 0)
+			cmpVal = length - operand.length();
+		return compare(cmpVal, op);
+	}
+
+	/**
+	 * Like {@link #compare(byte[], int, int, Predicate.Op, String)}, for a
+	 * string in a buffer, e.g. a page of a memory mapped file, read at
+	 * absolute offsets.
+	 */
+	public static boolean compare(ByteBuffer chars, int offset, int length, Predicate.Op op,
+			String operand) {
+		if (op == Predicate.Op.LIKE) {
+			int n = operand.length();
+			for (int start = 0; start + n <= length; start++) {
+				int i = 0;
+				while (i < n && (char) (chars.get(offset + start + i) & 0xff) == operand.charAt(i))
+					i++;
+				if (i == n)
+					return true;
+			}
+			return false;
+		}
+		int cmpVal = 0;
+		int n = Math.min(length, operand.length());
+		for (int i = 0; i < n && cmpVal == 0; i++)
+			cmpVal = (char) (chars.get(offset + i) & 0xff) - operand.charAt(i);
+		if (cmpVal == 0)
+			cmpVal = length - operand.length();
+		return compare(cmpVal, op);
+	}
+
+	/** @return whether the result of a comparison satisfies op */
+	private static boolean compare(int cmpVal, Predicate.Op op) {
+		switch (op) {
+		case EQUALS:
+			return cmpVal == 0;
+
+		case NOT_EQUALS:
+			return cmpVal != 0;
+
+		case GREATER_THAN:
+			return cmpVal > 0;
+
+		case GREATER_THAN_OR_EQ:
+			return cmpVal >= 0;
+
+		case LESS_THAN:
+			return cmpVal < 0;
+
+		case LESS_THAN_OR_EQ:
+			return cmpVal <= 0;
+		}
+
+		return false;
+	}
+
 	/**
 	 * @return the Type for this Field
 	 */
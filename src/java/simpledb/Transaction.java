@@ -10,6 +10,7 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    private volatile long lockWaitTime = 0;
 
     public Transaction() {
         tid = new TransactionId();
@@ -29,6 +30,14 @@ public class Transaction {
         return tid;
     }
 
+    /**
+     * @return the number of nanoseconds this transaction has spent waiting
+     *         for page locks
+     */
+    public long getLockWaitTime() {
+        return started ? Database.getBufferPool().getLockWaitTime(tid) : lockWaitTime;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -52,6 +61,7 @@ public class Transaction {
                 Database.getLogFile().logCommit(tid);
             }
 
+            lockWaitTime = Database.getBufferPool().getLockWaitTime(tid);
             try {
                 Database.getBufferPool().transactionComplete(tid, !abort); // release locks
             } catch (IOException e) {
@@ -118,6 +118,25 @@ public class Tuple implements Serializable {
         return fields.iterator();
     }
 
+    /**
+     * Returns a tuple with only some of the fields of this one, and the same
+     * RecordId.
+     *
+     * @param td
+     *            the schema of the new tuple, see {@link TupleDesc#project}
+     * @param columns
+     *            the fields of this tuple that become the fields of the new
+     *            one, in order
+     * @return the new tuple
+     */
+    public Tuple project(TupleDesc td, int[] columns) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++)
+            t.fields.set(i, fields.get(columns[i]));
+        t.recordId = recordId;
+        return t;
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
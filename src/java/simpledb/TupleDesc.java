@@ -57,6 +57,8 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private ArrayList<TDItem> items;
+    /** The offset of each field in a serialized tuple, computed on first use. */
+    private transient volatile int[] offsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -160,6 +162,29 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * Gets the offset of the ith field in a tuple of this TupleDesc as it is
+     * stored on a HeapPage, where fields follow each other with
+     * Type.getLen() bytes each.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the number of bytes before the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= items.size()) throw new NoSuchElementException();
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[items.size()];
+            for (int j = 1; j < o.length; j++)
+                o[j] = o[j - 1] + items.get(j - 1).fieldType.getLen();
+            offsets = o;
+        }
+        return o[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -192,6 +217,31 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(typeAr, fieldAr);
     }
 
+    /**
+     * Returns the TupleDesc of tuples that carry only some of the fields of
+     * this one, e.g. the tuples of a scan that reads only the columns a
+     * query refers to.  Field i of the new TupleDesc is field columns[i] of
+     * this one, so operators above such a scan must look up fields by name,
+     * or through the same columns array, rather than by their index in the
+     * table.
+     * 
+     * @param columns
+     *            the indices of the fields to keep, in the order they have
+     *            in the new TupleDesc. It must contain at least one entry.
+     * @return the new TupleDesc
+     * @throws NoSuchElementException
+     *             if a column is not a valid field reference.
+     */
+    public TupleDesc project(int[] columns) throws NoSuchElementException {
+        Type[] typeAr = new Type[columns.length];
+        String[] fieldAr = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            typeAr[i] = getFieldType(columns[i]);
+            fieldAr[i] = items.get(columns[i]).fieldName;
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
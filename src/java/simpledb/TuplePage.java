@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile: it stores tuples in slots, and tuples
+ * are inserted into and deleted from it by the HeapFile.  The slot number
+ * of a tuple, which is part of its RecordId, does not change while the
+ * tuple is on the page.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return the number of tuples that can still be added to this page;
+     *         each of them is guaranteed to fit, whatever its size
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page; the corresponding header bit should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy a
+     * conjunction of predicates.  Pages should test the predicates before
+     * they build the tuples, so that the tuples that don't satisfy them
+     * cost as little as possible.
+     *
+     * @param predicates the predicates, all of which the tuples satisfy;
+     *        null or empty for all tuples
+     */
+    public default Iterator<Tuple> iterator(Predicate[] predicates) {
+        return iterator(predicates, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy a
+     * conjunction of predicates, with only some of their fields.  Pages
+     * should only decode the fields they return and those the predicates
+     * need.
+     *
+     * @param predicates the predicates, over all fields of the tuples, that
+     *        the returned tuples satisfy; null or empty for all tuples
+     * @param columns the fields to return, in order, see
+     *        {@link TupleDesc#project}; null for all of them
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, int[] columns);
+}
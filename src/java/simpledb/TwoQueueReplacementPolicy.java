@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha).
+ * <p>
+ * Pages referenced once live in a FIFO probation queue (A1in).  A page that
+ * is referenced again while on probation, or that is read back in shortly
+ * after being evicted from probation (it is still remembered in the ghost
+ * queue A1out), is promoted to the main LRU queue (Am).  Victims are taken
+ * from the head of A1in while it holds more than its share of the pool, and
+ * from the LRU end of Am otherwise.
+ * <p>
+ * A large sequential scan therefore only cycles pages through A1in, and
+ * hot pages such as B+ tree internal pages stay resident in Am.  All queues
+ * are linked hash sets, so hits, inserts and evictions are O(1).
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    /** Target size of the probation queue. */
+    private final int kin;
+    /** Maximum number of ghost entries remembered. */
+    private final int kout;
+
+    /** Creates one TwoQueueReplacementPolicy per buffer pool partition. */
+    public static final Factory FACTORY = new Factory() {
+        public ReplacementPolicy create(int capacity) {
+            return new TwoQueueReplacementPolicy(capacity);
+        }
+    };
+
+    /**
+     * Creates a 2Q policy for a pool of the given capacity, with the
+     * customary sizing of 25% of the frames for probation and ghost entries
+     * for 50% of the frames.
+     *
+     * @param capacity the number of frames of the buffer pool
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        this(capacity, Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * Creates a 2Q policy with explicit queue sizes.
+     *
+     * @param capacity the number of frames of the buffer pool
+     * @param kin the target size of the probation queue
+     * @param kout the number of evicted probation pages to remember
+     */
+    public TwoQueueReplacementPolicy(int capacity, int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+        this.a1in = new LinkedHashSet<PageId>(capacity * 2);
+        this.am = new LinkedHashSet<PageId>(capacity * 2);
+        this.a1out = new LinkedHashSet<PageId>(kout * 2);
+    }
+
+    public void pageAdded(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            pageAccessed(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (am.remove(pid) || a1in.remove(pid))
+            am.add(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        PageId victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = evictFrom(a1in, filter);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+            return evictFrom(am, filter);
+        }
+        victim = evictFrom(am, filter);
+        if (victim != null)
+            return victim;
+        victim = evictFrom(a1in, filter);
+        if (victim != null)
+            remember(victim);
+        return victim;
+    }
+
+    public int size() {
+        return a1in.size() + am.size();
+    }
+
+    /** @return true if pid currently sits in the main (hot) queue */
+    boolean isHot(PageId pid) {
+        return am.contains(pid);
+    }
+
+    private static PageId evictFrom(LinkedHashSet<PageId> queue, EvictionFilter filter) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
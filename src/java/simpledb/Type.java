@@ -2,6 +2,9 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +27,30 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            if (offset < 0 || offset + 4 > data.length)
+                throw new ParseException("couldn't parse", offset);
+            return new IntField(((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            if (offset < 0 || offset + 4 > buf.limit())
+                throw new ParseException("couldn't parse", offset);
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -37,11 +64,47 @@ public enum Type implements Serializable {
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return new StringField(new String(bs, StandardCharsets.ISO_8859_1), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int strLen = buf.getInt();
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                buf.position(buf.position() + STRING_LEN - strLen);
+                return new StringField(new String(bs, StandardCharsets.ISO_8859_1), STRING_LEN);
+            } catch (RuntimeException e) {
+                // underflow, or a length that does not fit the field
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            Field len = INT_TYPE.parse(data, offset);
+            int strLen = ((IntField) len).getValue();
+            if (strLen < 0 || strLen > STRING_LEN || offset + 4 + STRING_LEN > data.length)
+                throw new ParseException("couldn't parse", offset);
+            return new StringField(new String(data, offset + 4, strLen, StandardCharsets.ISO_8859_1),
+                    STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            Field len = INT_TYPE.parse(buf, offset);
+            int strLen = ((IntField) len).getValue();
+            if (strLen < 0 || strLen > STRING_LEN || offset + 4 + STRING_LEN > buf.limit())
+                throw new ParseException("couldn't parse", offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(offset + 4 + i);
+            return new StringField(new String(bs, StandardCharsets.ISO_8859_1), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +123,38 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at its position.  The
+   *   position is advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified array, starting at offset.  Unlike the other
+   *   parse methods this one keeps no state, so many threads may decode
+   *   fields of the same array at once.
+   * @param data The array to read from
+   * @param offset The index of the first byte of the field
+   * @throws ParseException if the data read from the array is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(byte[] data, int offset) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at offset.  Like
+   *   {@link #parse(byte[], int)}, this leaves the position of the buffer
+   *   alone, so many threads may decode fields of the same buffer at once.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
@@ -0,0 +1,453 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZoneMap records, for each page of a HeapFile, the smallest and largest
+ * value of every column, so that a scan for tuples matching a predicate can
+ * skip pages that can't hold any without reading them.  For string columns
+ * only the first PREFIX_LEN characters of the smallest and largest value are
+ * kept.
+ * <p>
+ * The zone of a page is either unknown, empty, or a range per column that
+ * holds every tuple on the page; a page with an unknown zone is never
+ * skipped.  Inserts widen the zone of their page.  Deletes make it unknown,
+ * since an aborted delete brings its tuple back without telling the map;
+ * the next scan that finds the page unmodified computes it again.  Zones
+ * are thus never narrower than the page, whether transactions commit or
+ * abort.
+ * <p>
+ * The map is kept in a sidecar file next to the heap file, named like it
+ * with a ".zm" suffix.  The sidecar starts with a header, followed by one
+ * fixed-size record per page: a state byte, then per column the minimum and
+ * maximum, as ints or as a length byte and PREFIX_LEN characters.  Zones
+ * that changed are written in batches, see {@link #flush}: by scans, every
+ * SAVE_BATCH pages whose zones they computed and when they end, and by
+ * {@link BufferPool#flushAllPages}, e.g. at a checkpoint.  Zones change in
+ * memory before the pages they cover are written, so a flush covers every
+ * page on disk.  A sidecar whose header does not match the schema is
+ * ignored.  Tools that rewrite a heap file must delete its sidecar, see
+ * {@link #deleteSidecar}.
+ * <p>
+ * The header also says whether the sidecar is open or closed.  Before
+ * HeapFile first writes to the heap file after a flush, the sidecar is
+ * marked open, see {@link #writing}, and a flush closes it again with a
+ * stamp of the heap file: its length, its modification and change times
+ * to the nanosecond, and its inode.  A sidecar that is still open, e.g.
+ * because the process stopped before the zones of its last writes were
+ * flushed, or whose stamp does not match the heap file, e.g. because the
+ * file was replaced or rewritten by other means, is deleted rather than
+ * trusted; scans compute the zones again.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    /** Characters of string values kept in the zones. */
+    public static final int PREFIX_LEN = 8;
+
+    /** Number of zones computed by scans that are written at once. */
+    public static final int SAVE_BATCH = 64;
+
+    private static final int MAGIC = 0x5a4d5032; // "ZMP2"
+    private static final int STAMP_LEN = 4;
+    private static final int HEADER_SIZE = 16 + 8 * STAMP_LEN;
+
+    /** States of the sidecar in its header. */
+    private static final int OPEN = 0;
+    private static final int CLOSED = 1;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte EMPTY = 1;
+    private static final byte RANGE = 2;
+
+    /** The zone of one page. */
+    private static class Zone {
+        byte state = UNKNOWN;
+        final int[] minInt;
+        final int[] maxInt;
+        final String[] minStr;
+        final String[] maxStr;
+
+        Zone(int numFields) {
+            minInt = new int[numFields];
+            maxInt = new int[numFields];
+            minStr = new String[numFields];
+            maxStr = new String[numFields];
+        }
+    }
+
+    private final File dataFile;
+    private final PageFile io;
+    private final TupleDesc td;
+    private final int recordSize;
+    private final ArrayList<Zone> zones = new ArrayList<Zone>();
+    /** Pages whose zone changed since it was last written. */
+    private final BitSet unsaved = new BitSet();
+    private boolean headerSaved;
+    /** Whether the header on disk says the sidecar is open. */
+    private boolean open;
+    /** Zones computed by build since the last flush. */
+    private int built;
+    private final AtomicLong pagesSkipped = new AtomicLong();
+
+    /**
+     * Opens the zone map of a heap file, reading its sidecar if there is a
+     * valid one.
+     *
+     * @param dataFile the heap file
+     * @param td the schema of the heap file
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.dataFile = dataFile;
+        this.io = new PageFile(sidecarFor(dataFile));
+        this.td = td;
+        int size = 1;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.INT_TYPE ? 8 : 2 * (1 + PREFIX_LEN);
+        this.recordSize = size;
+        try {
+            load();
+        } catch (IOException e) {
+            // the sidecar is only a hint; start over with unknown zones
+            zones.clear();
+            headerSaved = false;
+        }
+    }
+
+    /** @return the sidecar file of a heap file */
+    public static File sidecarFor(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    /** Deletes the sidecar of a heap file, e.g. because the file was rewritten. */
+    public static void deleteSidecar(File dataFile) {
+        sidecarFor(dataFile).delete();
+    }
+
+    private void load() throws IOException {
+        File f = io.getFile();
+        if (!f.exists() || f.length() < HEADER_SIZE)
+            return;
+        byte[] data = new byte[(int) f.length()];
+        io.read(0, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.getInt() != MAGIC || buf.getInt() != recordSize || buf.getInt() != td.numFields())
+            return;
+        boolean closed = buf.getInt() == CLOSED;
+        long[] stamp = stamp(dataFile);
+        for (int i = 0; i < STAMP_LEN; i++)
+            closed &= buf.getLong() == stamp[i];
+        if (!closed) {
+            // the heap file may have changed without its zones; they are unknown
+            f.delete();
+            return;
+        }
+        headerSaved = true;
+        while (buf.remaining() >= recordSize)
+            zones.add(readZone(buf));
+    }
+
+    private Zone readZone(ByteBuffer buf) {
+        Zone z = new Zone(td.numFields());
+        z.state = buf.get();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                z.minInt[i] = buf.getInt();
+                z.maxInt[i] = buf.getInt();
+            } else {
+                z.minStr[i] = readPrefix(buf);
+                z.maxStr[i] = readPrefix(buf);
+            }
+        }
+        if (z.state != EMPTY && z.state != RANGE)
+            z.state = UNKNOWN;
+        return z;
+    }
+
+    private static String readPrefix(ByteBuffer buf) {
+        int len = Math.min(buf.get() & 0xff, PREFIX_LEN);
+        char[] cs = new char[len];
+        for (int i = 0; i < len; i++)
+            cs[i] = (char) (buf.get() & 0xff);
+        buf.position(buf.position() + PREFIX_LEN - len);
+        return new String(cs);
+    }
+
+    private static void writePrefix(ByteBuffer buf, String s) {
+        int len = s == null ? 0 : s.length();
+        buf.put((byte) len);
+        for (int i = 0; i < len; i++)
+            buf.put((byte) s.charAt(i));
+        buf.position(buf.position() + PREFIX_LEN - len);
+    }
+
+    private static String prefix(Field f) {
+        String s = ((StringField) f).getValue();
+        return s.length() > PREFIX_LEN ? s.substring(0, PREFIX_LEN) : s;
+    }
+
+    /** @return the zone of a page, creating unknown zones up to it */
+    private Zone zone(int pgNo) {
+        while (zones.size() <= pgNo)
+            zones.add(new Zone(td.numFields()));
+        return zones.get(pgNo);
+    }
+
+    /** Widens z to hold t. */
+    private void widen(Zone z, Tuple t) {
+        boolean first = z.state == EMPTY;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((IntField) f).getValue();
+                if (first || v < z.minInt[i])
+                    z.minInt[i] = v;
+                if (first || v > z.maxInt[i])
+                    z.maxInt[i] = v;
+            } else {
+                String p = prefix(f);
+                if (first || p.compareTo(z.minStr[i]) < 0)
+                    z.minStr[i] = p;
+                if (first || p.compareTo(z.maxStr[i]) > 0)
+                    z.maxStr[i] = p;
+            }
+        }
+        z.state = RANGE;
+    }
+
+    /**
+     * Records that an empty page was appended to the file.
+     */
+    public synchronized void appended(int pgNo) {
+        Zone z = zone(pgNo);
+        z.state = EMPTY;
+        unsaved.set(pgNo);
+    }
+
+    /**
+     * Records that t was inserted into a page.
+     */
+    public synchronized void inserted(int pgNo, Tuple t) {
+        Zone z = zone(pgNo);
+        if (z.state != UNKNOWN)
+            widen(z, t);
+        unsaved.set(pgNo);
+    }
+
+    /**
+     * Records that a tuple was deleted from a page.
+     */
+    public synchronized void deleted(int pgNo) {
+        zone(pgNo).state = UNKNOWN;
+        unsaved.set(pgNo);
+    }
+
+    /**
+     * Computes the zone of a page whose zone is unknown from its tuples; it
+     * is written to the sidecar with the next batch of them, see
+     * {@link #flush}.  The page must be the one on disk, i.e. not
+     * dirty, and locked so that it does not change meanwhile.
+     *
+     * @return true if the zone was computed
+     */
+    public boolean build(TuplePage page) throws IOException {
+        int pgNo = page.getId().getPageNumber();
+        synchronized (this) {
+            if (zone(pgNo).state != UNKNOWN || page.isDirty() != null)
+                return false;
+        }
+        Zone z = new Zone(td.numFields());
+        z.state = EMPTY;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            widen(z, it.next());
+        synchronized (this) {
+            if (zones.get(pgNo).state != UNKNOWN)
+                return false;
+            zones.set(pgNo, z);
+            unsaved.set(pgNo);
+            if (++built >= SAVE_BATCH)
+                flush();
+        }
+        return true;
+    }
+
+    /**
+     * Marks the sidecar open, if it is closed.  HeapFile calls this before
+     * it writes pages, once the zones of the pages have changed.
+     */
+    public synchronized void writing() throws IOException {
+        if (!headerSaved || open)
+            return;
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(OPEN);
+        io.write(12, buf.array());
+        open = true;
+    }
+
+    /**
+     * Writes all zones that changed since they were last written, with one
+     * write per run of adjacent pages, then closes the sidecar with a stamp
+     * of the heap file.  A zone is never narrower than its page, on disk or
+     * in the buffer pool, so this is safe at any time.
+     */
+    public synchronized void flush() throws IOException {
+        built = 0;
+        int n = unsaved.cardinality();
+        if (n == 0) {
+            if (open)
+                saveHeader(CLOSED);
+            return;
+        }
+        if (!headerSaved)
+            saveHeader(OPEN);
+        long[] offsets = new long[n];
+        byte[][] records = new byte[n][];
+        int i = 0;
+        for (int pgNo = unsaved.nextSetBit(0); pgNo >= 0; pgNo = unsaved.nextSetBit(pgNo + 1)) {
+            offsets[i] = HEADER_SIZE + (long) pgNo * recordSize;
+            records[i++] = record(zone(pgNo));
+        }
+        io.write(offsets, records);
+        unsaved.clear();
+        saveHeader(CLOSED);
+    }
+
+    private void saveHeader(int state) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(recordSize).putInt(td.numFields()).putInt(state);
+        for (long l : stamp(dataFile))
+            header.putLong(l);
+        io.write(0, header.array());
+        headerSaved = true;
+        open = state == OPEN;
+    }
+
+    /**
+     * @return the length, the modification and change times in nanoseconds,
+     *         and the inode of a file, or what of them the platform has;
+     *         zeros if the file can't be read
+     */
+    private static long[] stamp(File f) {
+        long[] stamp = new long[STAMP_LEN];
+        try {
+            Map<String, Object> attrs;
+            try {
+                attrs = Files.readAttributes(f.toPath(), "unix:size,lastModifiedTime,ctime,ino");
+            } catch (UnsupportedOperationException e) {
+                attrs = Files.readAttributes(f.toPath(), "size,lastModifiedTime,fileKey");
+            }
+            stamp[0] = (Long) attrs.get("size");
+            stamp[1] = ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS);
+            if (attrs.get("ctime") != null)
+                stamp[2] = ((FileTime) attrs.get("ctime")).to(TimeUnit.NANOSECONDS);
+            if (attrs.get("ino") != null)
+                stamp[3] = (Long) attrs.get("ino");
+            else if (attrs.get("fileKey") != null)
+                stamp[3] = attrs.get("fileKey").hashCode();
+        } catch (IOException e) {
+            // a missing file gets a stamp that no file has
+        }
+        return stamp;
+    }
+
+    /** @return the sidecar record of a zone */
+    private byte[] record(Zone z) {
+        ByteBuffer buf = ByteBuffer.allocate(recordSize);
+        buf.put(z.state);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                buf.putInt(z.minInt[i]);
+                buf.putInt(z.maxInt[i]);
+            } else {
+                writePrefix(buf, z.minStr[i]);
+                writePrefix(buf, z.maxStr[i]);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy p, true if some
+     *         may
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        Zone z = pgNo < zones.size() ? zones.get(pgNo) : null;
+        if (z == null || z.state == UNKNOWN)
+            return true;
+        return z.state == RANGE && inRange(z, p);
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy all of the
+     *         predicates, true if some may
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate[] predicates) {
+        Zone z = pgNo < zones.size() ? zones.get(pgNo) : null;
+        if (z == null || z.state == UNKNOWN)
+            return true;
+        if (z.state != RANGE)
+            return false;
+        for (Predicate p : predicates) {
+            if (!inRange(z, p))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean inRange(Zone z, Predicate p) {
+        int i = p.getField();
+        Predicate.Op op = p.getOp();
+        int lo, hi; // how the smallest and largest value compare to the operand
+        if (td.getFieldType(i) == Type.INT_TYPE) {
+            int c = ((IntField) p.getOperand()).getValue();
+            lo = Integer.compare(z.minInt[i], c);
+            hi = Integer.compare(z.maxInt[i], c);
+        } else {
+            // a prefix that is larger (smaller) than the operand's means the
+            // value is larger (smaller) too; equal prefixes decide nothing
+            String c = prefix(p.getOperand());
+            lo = z.minStr[i].compareTo(c) > 0 ? 1 : -1;
+            hi = z.maxStr[i].compareTo(c) < 0 ? -1 : 1;
+            if (op == Predicate.Op.EQUALS)
+                return z.minStr[i].compareTo(c) <= 0 && z.maxStr[i].compareTo(c) >= 0;
+        }
+        switch (op) {
+        case EQUALS:
+            return lo <= 0 && hi >= 0;
+        case NOT_EQUALS:
+            return !(lo == 0 && hi == 0);
+        case LESS_THAN:
+            return lo < 0;
+        case LESS_THAN_OR_EQ:
+            return lo <= 0;
+        case GREATER_THAN:
+            return hi > 0;
+        case GREATER_THAN_OR_EQ:
+            return hi >= 0;
+        default:
+            return true;
+        }
+    }
+
+    /** Counts pages a scan skipped because of this map. */
+    public void skipped(int pages) {
+        pagesSkipped.addAndGet(pages);
+    }
+
+    /** @return the number of pages scans skipped because of this map */
+    public long getPagesSkipped() {
+        return pagesSkipped.get();
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BatchTest extends SimpleDbTestBase {
+
+  private static final TupleDesc INT_STRING = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+  private static Batch batch(int capacity, int rows) {
+    Batch b = new Batch(INT_STRING, capacity);
+    for (int i = 0; i < rows; i++) {
+      Tuple t = new Tuple(INT_STRING);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+      b.addTuple(t);
+    }
+    return b;
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    for (it.rewind(); it.hasNext(); it.next())
+      n++;
+    return n;
+  }
+
+  /**
+   * Unit test for Batch.addTuple() and Batch.getTuple()
+   */
+  @Test public void addGetTuple() {
+    Batch b = batch(4, 3);
+    assertEquals(3, b.size());
+    assertFalse(b.isFull());
+    assertEquals(2, b.getInt(0, 2));
+    assertEquals("name1", b.getString(1, 1));
+    Tuple t = b.getTuple(1);
+    assertEquals(new IntField(1), t.getField(0));
+    assertEquals(new StringField("name1", Type.STRING_LEN), t.getField(1));
+
+    b.addTuple(t);
+    assertTrue(b.isFull());
+    try {
+      b.addRow();
+      fail("expected an exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    b.clear();
+    assertEquals(0, b.numSelected());
+  }
+
+  /**
+   * Unit test for the selection vector of Batch
+   */
+  @Test public void selection() {
+    Batch b = batch(8, 6);
+    assertEquals(6, b.numSelected());
+    assertEquals(3, b.selected(3));
+    int[] sel = b.selectionVector();
+    sel[0] = 1;
+    sel[1] = 4;
+    b.setSelection(2);
+    assertEquals(2, b.numSelected());
+    assertEquals(4, b.selected(1));
+
+    // a projection shares the rows and the selection
+    Batch p = b.project(new int[] { 1 }, INT_STRING.project(new int[] { 1 }));
+    assertEquals(2, p.numSelected());
+    assertEquals("name4", p.getString(0, p.selected(1)));
+  }
+
+  /**
+   * Unit test for Batch.compareString()
+   */
+  @Test public void compareString() {
+    Batch b = batch(4, 2);
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LIKE }) {
+      for (String s : new String[] { "name1", "name", "name10", "ame", "nb", "" }) {
+        StringField operand = new StringField(s, Type.STRING_LEN);
+        assertEquals(op + " " + s, b.getField(1, 1).compare(op, operand),
+            b.compareString(1, 1, op, s));
+      }
+    }
+  }
+
+  /**
+   * Unit test for BatchFilter.select() over int and string columns
+   */
+  @Test public void filter() {
+    Batch b = batch(16, 10);
+    BatchFilter.select(b, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(3)));
+    assertEquals(7, b.numSelected());
+    BatchFilter.select(b, new Predicate(1, Predicate.Op.LIKE,
+        new StringField("e5", Type.STRING_LEN)));
+    assertEquals(1, b.numSelected());
+    assertEquals(5, b.getInt(0, b.selected(0)));
+    BatchFilter.select(b, new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(5)));
+    assertEquals(0, b.numSelected());
+  }
+
+  /**
+   * Unit test for BatchAdapter and BatchOpIterator, which together return
+   * the tuples of their child in batches of 3
+   */
+  @Test public void adapters() throws Exception {
+    OpIterator expected = new TestUtil.MockScan(-5, 5, 2);
+    BatchOpIterator op = new BatchOpIterator(
+        new BatchAdapter(new TestUtil.MockScan(-5, 5, 2), 3));
+    assertEquals(expected.getTupleDesc(), op.getTupleDesc());
+    op.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchFilter, BatchProject, BatchHashEquiJoin and
+   * BatchAggregate over small inputs
+   */
+  @Test public void operators() throws Exception {
+    OpIterator left = TestUtil.createTupleList(2, new int[] { 1, 10, 2, 20, 2, 21, 3, 30 });
+    OpIterator right = TestUtil.createTupleList(2, new int[] { 2, 200, 3, 300, 4, 400, 2, 201 });
+    BatchIterator join = new BatchHashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new BatchAdapter(left, 2), new BatchAdapter(right, 2), 2);
+    BatchIterator filter = new BatchFilter(join,
+        new Predicate[] { new Predicate(3, Predicate.Op.LESS_THAN, new IntField(300)) });
+    BatchIterator project = new BatchProject(new int[] { 1, 3 }, filter);
+    OpIterator expected = TestUtil.createTupleList(2,
+        new int[] { 20, 200, 21, 200, 20, 201, 21, 201 });
+    OpIterator actual = new BatchOpIterator(project);
+    actual.open();
+    assertEquals(4, count(actual));
+    TestUtil.matchAllTuples(expected, actual);
+    actual.close();
+
+    OpIterator rows = TestUtil.createTupleList(2, new int[] { 1, 10, 2, 20, 2, 21, 3, 30 });
+    BatchOpIterator sum = new BatchOpIterator(new BatchAggregate(new BatchAdapter(rows, 3),
+        1, 0, Aggregator.Op.SUM));
+    sum.open();
+    assertEquals(3, count(sum));
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 10, 2, 41, 3, 30 }), sum);
+    sum.close();
+    assertEquals("sum(null)", sum.getTupleDesc().getFieldName(1));
+
+    rows = TestUtil.createTupleList(2, new int[] { 1, 10, 2, 20, 2, 21, 3, 30 });
+    BatchOpIterator avg = new BatchOpIterator(new BatchAggregate(new BatchAdapter(rows, 3),
+        1, Aggregator.NO_GROUPING, Aggregator.Op.AVG));
+    avg.open();
+    assertEquals(1, count(avg));
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 20 }), avg);
+    avg.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchTest.class);
+  }
+}
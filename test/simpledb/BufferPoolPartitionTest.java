@@ -0,0 +1,231 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+    }
+
+    /**
+     * Unit test for BufferPool partitioning: the pool is split into the
+     * requested number of partitions, and small pools are not split by
+     * default.
+     */
+    @Test public void partitionCount() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).numPartitions());
+        assertEquals(4, new BufferPool(10, TwoQueueReplacementPolicy.FACTORY, 4).numPartitions());
+    }
+
+    /**
+     * Unit test for BufferPool partitioning: concurrent readers of the same
+     * pages all get the single cached copy of each page, and the partitions
+     * together never hold more pages than the pool capacity.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final int numPages = table.numPages();
+        final BufferPool bp = new BufferPool(numPages, ClockReplacementPolicy.FACTORY, 4);
+        final Page[] first = new Page[numPages];
+        final TransactionId tid = new TransactionId();
+        for (int i = 0; i < numPages; i++)
+            first[i] = bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicInteger mismatches = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = 0; i < numPages; i++) {
+                                int pgNo = (i + offset) % numPages;
+                                Page p = bp.getPage(tid, new HeapPageId(table.getId(), pgNo),
+                                        Permissions.READ_ONLY);
+                                if (p != first[pgNo])
+                                    mismatches.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        assertEquals(0, mismatches.get());
+    }
+
+    /**
+     * Unit test for BufferPool partitioning: threads scanning a table much
+     * larger than the pool keep evicting pages; every page read is complete
+     * and the pool does not grow beyond its capacity.
+     */
+    @Test public void concurrentEviction() throws Exception {
+        final int numPages = table.numPages();
+        final BufferPool bp = new BufferPool(8, TwoQueueReplacementPolicy.FACTORY, 4);
+        final TransactionId tid = new TransactionId();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicInteger tuples = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < numPages; i++) {
+                            HeapPage p = (HeapPage) bp.getPage(tid,
+                                    new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+                            Iterator<Tuple> it = p.iterator();
+                            while (it.hasNext()) {
+                                it.next();
+                                tuples.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        assertEquals(THREADS * 20000, tuples.get());
+
+        // a page that stays resident is returned as is
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(p, bp.getPage(tid, pid, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for BufferPool partitioning: threads that keep missing on
+     * the same pages, which other threads load and evict in the meantime,
+     * never wait for a read that nobody is going to do.
+     */
+    @Test(timeout = 20000) public void concurrentMisses() throws Exception {
+        final int numPages = table.numPages();
+        final BufferPool bp = new BufferPool(numPages / 2, TwoQueueReplacementPolicy.FACTORY, 4);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t * numPages / THREADS;
+            Thread thread = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int round = 0; round < 50; round++) {
+                            for (int i = 0; i < numPages; i++) {
+                                bp.getPage(tid, new HeapPageId(table.getId(), (i + offset) % numPages),
+                                        Permissions.READ_ONLY);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+    }
+
+    /**
+     * Unit test for BufferPool partitioning: a page that missed is read
+     * outside the partition lock, so hits in the same partition don't wait
+     * for it, and threads missing on the same page share a single read.
+     */
+    @Test(timeout = 10000) public void hitsDontWaitForMisses() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+        final HeapPageId slow = new HeapPageId(table.getId(), 1);
+        HeapFile blocking = new HeapFile(table.getFile(), table.getTupleDesc()) {
+            @Override
+            public Page readPage(PageId pid) {
+                if (pid.equals(slow)) {
+                    reads.incrementAndGet();
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+        final BufferPool bp = new BufferPool(8, TwoQueueReplacementPolicy.FACTORY, 1);
+        final TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        Page resident = bp.getPage(tid, pid, Permissions.READ_ONLY);
+
+        final Page[] loaded = new Page[2];
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < loaded.length; t++) {
+            final int slot = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        loaded[slot] = bp.getPage(tid, slow, Permissions.READ_ONLY);
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        reading.await();
+        assertSame(resident, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        assertEquals(1, reads.get());
+        assertSame(loaded[0], loaded[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
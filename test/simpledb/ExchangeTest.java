@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private static final int WIDTH = 2;
+
+  /** A child that fails after some tuples. */
+  private static class FailingScan extends TestUtil.MockScan {
+    private int left;
+
+    FailingScan(int tuples) {
+      super(0, Integer.MAX_VALUE, WIDTH);
+      this.left = tuples;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+      if (left-- == 0)
+        throw new DbException("child failed");
+      return super.next();
+    }
+  }
+
+  private static Exchange gather() {
+    return new Exchange(new OpIterator[] {
+        new TestUtil.MockScan(0, 1000, WIDTH),
+        new TestUtil.MockScan(1000, 3000, WIDTH),
+        new TestUtil.MockScan(3000, 3500, WIDTH) });
+  }
+
+  /** @return the first field of the tuples an operator returns, sorted */
+  private static ArrayList<Integer> values(OpIterator op) throws Exception {
+    ArrayList<Integer> values = new ArrayList<Integer>();
+    while (op.hasNext())
+      values.add(((IntField) op.next().getField(0)).getValue());
+    Collections.sort(values);
+    return values;
+  }
+
+  /**
+   * Unit test for Exchange.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    assertEquals(Utility.getTupleDesc(WIDTH), gather().getTupleDesc());
+  }
+
+  /**
+   * Unit test for Exchange.getNext(): every tuple of every child, once
+   */
+  @Test public void gatherChildren() throws Exception {
+    Exchange op = gather();
+    op.open();
+    ArrayList<Integer> values = values(op);
+    assertEquals(3500, values.size());
+    for (int i = 0; i < values.size(); i++)
+      assertEquals(i, values.get(i).intValue());
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Exchange.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    Exchange op = gather();
+    op.open();
+    for (int i = 0; i < 100; i++)
+      op.next();
+    op.rewind();
+    assertEquals(3500, values(op).size());
+    op.close();
+  }
+
+  /**
+   * The exception of a child is thrown by the Exchange
+   */
+  @Test public void childFails() throws Exception {
+    Exchange op = new Exchange(new OpIterator[] {
+        new TestUtil.MockScan(0, 1000, WIDTH), new FailingScan(500) });
+    op.open();
+    try {
+      values(op);
+      fail("expected the failure of the child");
+    } catch (DbException e) {
+      // expected
+    }
+    op.close();
+  }
+
+  /**
+   * Closing an Exchange stops children that are not done
+   */
+  @Test(timeout = 10000) public void closeEarly() throws Exception {
+    Exchange op = new Exchange(new OpIterator[] {
+        new TestUtil.MockScan(0, Integer.MAX_VALUE, WIDTH),
+        new TestUtil.MockScan(0, Integer.MAX_VALUE, WIDTH) });
+    op.open();
+    for (int i = 0; i < 10 * Exchange.BATCH_SIZE; i++)
+      op.next();
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
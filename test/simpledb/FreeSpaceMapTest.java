@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    @Test public void nextFree() {
+        FreeSpaceMap fsm = new FreeSpaceMap(4);
+        assertEquals(0, fsm.nextFree(0));
+        fsm.markFull(0);
+        fsm.markFull(1);
+        assertEquals(2, fsm.nextFree(0));
+        assertEquals(3, fsm.nextFree(3));
+        fsm.markFull(2);
+        fsm.markFull(3);
+        assertEquals(-1, fsm.nextFree(0));
+
+        fsm.markFree(1);
+        assertEquals(1, fsm.nextFree(0));
+        assertEquals(-1, fsm.nextFree(2));
+
+        // pages beyond the end of the file are never free
+        fsm.markFree(7);
+        fsm.markFull(1);
+        assertEquals(-1, fsm.nextFree(0));
+
+        fsm.grow(6);
+        assertEquals(6, fsm.numPages());
+        assertEquals(4, fsm.nextFree(0));
+        fsm.markFull(4);
+        assertEquals(5, fsm.nextFree(0));
+    }
+
+    @Test public void insertsSkipFullPages() throws Exception {
+        // 10 full pages of 504 tuples each
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 10, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        assertEquals(10, table.numPages());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // the first insert finds out that all pages are full
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(11, table.numPages());
+        assertEquals(11, table.readCount);
+        bp.transactionComplete(tid);
+
+        // later inserts go straight to the new page
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid, table.getId(), t);
+        assertEquals(10, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, table.readCount);
+
+        // a delete makes room on its page again
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), 3), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        t = Utility.getHeapTuple(3, 2);
+        bp.insertTuple(tid, table.getId(), t);
+        assertEquals(3, t.getRecordId().getPageId().getPageNumber());
+        bp.transactionComplete(tid);
+        assertEquals(11, table.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
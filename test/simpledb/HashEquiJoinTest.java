@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * @return a list of tuples of the given width, whose first field is
+   *         drawn from keys, or is skewKey for the first skewed tuples
+   */
+  private static OpIterator randomTuples(int width, int count, int keys, int skewed, int skewKey) {
+    Random random = new Random(count * 31 + width);
+    int[] data = new int[count * width];
+    for (int i = 0; i < count; i++) {
+      data[i * width] = i < skewed ? skewKey : random.nextInt(keys);
+      for (int j = 1; j < width; j++)
+        data[i * width + j] = i;
+    }
+    return TestUtil.createTupleList(width, data);
+  }
+
+  /** @return the tuples of an operator as sorted strings */
+  private static ArrayList<String> run(OpIterator op) throws Exception {
+    ArrayList<String> result = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /** @return the budget of a join that holds the given number of left tuples */
+  private long budget(int tuples) {
+    return tuples * HashEquiJoin.estimateTupleSize(Utility.getTupleDesc(width1));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with a left child that fits in memory
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpilledTuples());
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with children that are spilled,
+   * and partitions that are split again
+   */
+  @Test public void spilledJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = run(new Join(pred,
+        randomTuples(width1, 3000, 1000, 0, 0), randomTuples(width2, 2000, 1000, 0, 0)));
+    HashEquiJoin op = new HashEquiJoin(pred, randomTuples(width1, 3000, 1000, 0, 0),
+        randomTuples(width2, 2000, 1000, 0, 0), budget(20));
+    assertEquals(expected, run(op));
+    assertTrue(op.getSpilledTuples() > 0);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with a key too frequent for its
+   * partition to fit in memory
+   */
+  @Test public void skewedJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = run(new Join(pred,
+        randomTuples(width1, 1000, 100, 300, 7), randomTuples(width2, 500, 100, 50, 7)));
+    HashEquiJoin op = new HashEquiJoin(pred, randomTuples(width1, 1000, 100, 300, 7),
+        randomTuples(width2, 500, 100, 50, 7), budget(50));
+    assertEquals(expected, run(op));
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind() after spilling
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, randomTuples(width1, 1000, 300, 0, 0),
+        randomTuples(width2, 1000, 300, 0, 0), budget(30));
+    ArrayList<String> expected = run(op);
+    op.open();
+    for (int i = 0; i < 10 && op.hasNext(); i++)
+      op.next();
+    op.rewind();
+    ArrayList<String> actual = new ArrayList<String>();
+    while (op.hasNext())
+      actual.add(op.next().toString());
+    op.close();
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * HashEquiJoin only supports equality
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    new HashEquiJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
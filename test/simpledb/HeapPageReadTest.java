@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -57,6 +58,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         try {
             File temp = File.createTempFile("table", ".dat");
             temp.deleteOnExit();
+            ZoneMap.sidecarFor(temp).deleteOnExit();
             HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
             EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
         } catch (IOException e) {
@@ -120,6 +122,114 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertEquals(504, page.getNumSlots());
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), page.getField(i, 0));
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+        }
+        assertEquals(null, page.getField(20, 0));
+    }
+
+    /**
+     * Unit test for HeapPage(HeapPageId, ByteBuffer): the page decodes its
+     * tuples from the buffer, e.g. a memory mapped file, without a copy
+     */
+    @Test public void directBuffer() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocateDirect(EXAMPLE_DATA.length);
+        buf.put(EXAMPLE_DATA);
+        buf.flip();
+        HeapPage page = new HeapPage(pid, buf);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i)
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        // the record of slot 0 starts right after the header
+        int header = (page.getNumSlots() + 7) / 8;
+        buf.putInt(header, 42);
+        assertEquals(new IntField(42), page.getField(0, 0));
+        assertEquals(new IntField(42), page.iterator().next().getField(0));
+
+        // pushed down predicates and getRecordBuffer read the buffer too
+        Iterator<Tuple> it = page.iterator(new Predicate[] {
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(42)) });
+        assertTrue(it.hasNext());
+        assertEquals(new IntField(EXAMPLE_VALUES[0][1]), it.next().getField(1));
+        assertFalse(it.hasNext());
+        assertEquals(42, page.getRecordBuffer().getInt(page.getRecordOffset(0)));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[]), on tuples read from the
+     * page and on an inserted one
+     */
+    @Test public void iteratorPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] preds = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(43771)) };
+        page.insertTuple(Utility.getHeapTuple(new int[] { 20001, 0 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 20000, 0 }));
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000 && tuple[1] <= 43771)
+                expected.add(tuple[0]);
+        }
+        expected.add(20001);
+
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        Iterator<Tuple> it = page.iterator(preds);
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(Predicate.filterAll(preds, t));
+            actual.add(((IntField) t.getField(0)).getValue());
+        }
+        assertEquals(expected, actual);
+
+        // no predicates return every tuple
+        it = page.iterator(new Predicate[0]);
+        int count = 0;
+        for (; it.hasNext(); it.next())
+            count++;
+        assertEquals(EXAMPLE_VALUES.length + 2, count);
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[], int[])
+     */
+    @Test public void iteratorColumns() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        Predicate[] preds = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0)) };
+
+        Iterator<Tuple> it = page.iterator(preds, new int[] { 1 });
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            Tuple t = it.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), t.getField(0));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        Tuple inserted = it.next();
+        assertEquals(1, inserted.getTupleDesc().numFields());
+        assertEquals(new IntField(2), inserted.getField(0));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() of a page that was only read
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
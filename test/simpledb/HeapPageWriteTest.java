@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,30 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+
+        // the before-image is the page as it was read until setBeforeImage
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        page.setBeforeImage();
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+
+        // and then the page as it was when setBeforeImage was called
+        byte[] committed = page.getPageData();
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.insertTuple(Utility.getHeapTuple(3, 2));
+        page.insertTuple(Utility.getHeapTuple(4, 2));
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
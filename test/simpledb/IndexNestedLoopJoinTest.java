@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  BTreeFile index;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() throws Exception {
+    index = BTreeUtility.createRandomBTreeFile(width2, 5000, 200, null, null, 0);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return a list of tuples of the given width, whose first field is
+   *         drawn from keys
+   */
+  private static OpIterator randomTuples(int width, int count, int keys) {
+    Random random = new Random(count * 31 + width);
+    int[] data = new int[count * width];
+    for (int i = 0; i < count; i++) {
+      data[i * width] = random.nextInt(keys);
+      for (int j = 1; j < width; j++)
+        data[i * width + j] = i;
+    }
+    return TestUtil.createTupleList(width, data);
+  }
+
+  /** @return the tuples of an operator as sorted strings */
+  private static ArrayList<String> run(OpIterator op) throws Exception {
+    ArrayList<String> result = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, randomTuples(width1, 10, 10),
+        new SeqScan(tid, index.getId(), "t"));
+    assertEquals(width1 + width2, op.getTupleDesc().numFields());
+  }
+
+  /**
+   * IndexNestedLoopJoin returns the same tuples as Join for every predicate
+   * it supports
+   */
+  @Test public void allPredicates() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = run(new Join(pred, randomTuples(width1, 30, 250),
+          new SeqScan(tid, index.getId(), "t")));
+      assertEquals(op.toString(), expected, run(new IndexNestedLoopJoin(pred,
+          randomTuples(width1, 30, 250), new SeqScan(tid, index.getId(), "t"))));
+    }
+  }
+
+  /**
+   * IndexNestedLoopJoin looks each distinct key of a batch up once
+   */
+  @Test public void batchedProbes() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OpIterator outer = randomTuples(width1, 1000, 50);
+    HashSet<Integer> keys = new HashSet<Integer>();
+    outer.open();
+    while (outer.hasNext())
+      keys.add(((IntField) outer.next().getField(0)).getValue());
+    outer.close();
+
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, outer,
+        new SeqScan(tid, index.getId(), "t"));
+    ArrayList<String> expected = run(new Join(pred, randomTuples(width1, 1000, 50),
+        new SeqScan(tid, index.getId(), "t")));
+    op.open();
+    ArrayList<String> actual = new ArrayList<String>();
+    while (op.hasNext())
+      actual.add(op.next().toString());
+    assertEquals(keys.size(), op.getProbes());
+    op.close();
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() with predicates and
+   * columns pushed down into the scan of the index
+   */
+  @Test public void filteredScan() throws Exception {
+    Predicate[] preds = { new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)) };
+    int[] columns = { 2, 0 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    ArrayList<String> expected = run(new Join(pred, randomTuples(width1, 300, 200),
+        new SeqScan(tid, index.getId(), "t", preds, columns)));
+    assertEquals(expected, run(new IndexNestedLoopJoin(pred, randomTuples(width1, 300, 200),
+        new SeqScan(tid, index.getId(), "t", preds, columns))));
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, randomTuples(width1, 2000, 200),
+        new SeqScan(tid, index.getId(), "t"));
+    ArrayList<String> expected = run(op);
+    op.open();
+    for (int i = 0; i < 10 && op.hasNext(); i++)
+      op.next();
+    op.rewind();
+    ArrayList<String> actual = new ArrayList<String>();
+    while (op.hasNext())
+      actual.add(op.next().toString());
+    op.close();
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.canProbe() and BTreeFile.estimateHeight()
+   */
+  @Test public void canProbe() throws Exception {
+    assertTrue(IndexNestedLoopJoin.canProbe(new SeqScan(tid, index.getId(), "t"), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, index.getId(), "t"), 1));
+    assertTrue(IndexNestedLoopJoin.canProbe(
+        new SeqScan(tid, index.getId(), "t", null, new int[] { 1, 0 }), 1));
+    HeapFile heap = SystemTestUtil.createRandomHeapFile(width2, 10, null, null);
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, heap.getId(), "h"), 0));
+    assertTrue(index.estimateHeight() >= 2);
+  }
+
+  /**
+   * IndexNestedLoopJoin needs a scan of an index on the join field
+   */
+  @Test(expected = IllegalArgumentException.class) public void notIndexed() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    new IndexNestedLoopJoin(pred, randomTuples(width1, 10, 10),
+        new SeqScan(tid, index.getId(), "t"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
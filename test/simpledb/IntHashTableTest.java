@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for IntHashTable.add() and IntHashTable.find()
+   */
+  @Test public void addAndFind() {
+    IntHashTable table = new IntHashTable();
+    assertEquals(-1, table.find(5));
+    assertEquals(0, table.add(5));
+    assertEquals(1, table.add(-3));
+    assertEquals(0, table.add(5));
+    assertEquals(2, table.add(0));
+    assertEquals(3, table.size());
+    assertEquals(0, table.find(5));
+    assertEquals(1, table.find(-3));
+    assertEquals(2, table.find(0));
+    assertEquals(-1, table.find(4));
+    assertEquals(-3, table.key(1));
+  }
+
+  /**
+   * Unit test for IntHashTable growing past its initial capacity, with
+   * keys that have the same low bits
+   */
+  @Test public void grow() {
+    IntHashTable table = new IntHashTable(4);
+    for (int i = 0; i < 10000; i++)
+      assertEquals(i, table.add(i << 16));
+    assertEquals(10000, table.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, table.find(i << 16));
+      assertEquals(i << 16, table.key(i));
+    }
+    assertEquals(-1, table.find(1));
+  }
+
+  /**
+   * IntHashTable assigns ids like a HashMap from key to its first position
+   */
+  @Test public void randomKeys() {
+    Random random = new Random(42);
+    IntHashTable table = new IntHashTable();
+    HashMap<Integer, Integer> ids = new HashMap<Integer, Integer>();
+    for (int i = 0; i < 50000; i++) {
+      int key = random.nextInt();
+      if (random.nextBoolean())
+        key %= 1000;
+      Integer id = ids.get(key);
+      if (id == null) {
+        id = ids.size();
+        ids.put(key, id);
+      }
+      assertEquals(id.intValue(), table.add(key));
+    }
+    assertEquals(ids.size(), table.size());
+    for (Integer key : ids.keySet())
+      assertEquals(ids.get(key).intValue(), table.find(key));
+  }
+
+  /**
+   * Unit test for IntHashTable.clear()
+   */
+  @Test public void clear() {
+    IntHashTable table = new IntHashTable();
+    for (int i = 0; i < 100; i++)
+      table.add(i);
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.find(7));
+    assertEquals(0, table.add(7));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHashTableTest.class);
+  }
+}
@@ -5,6 +5,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -105,6 +107,44 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with blocks of two left tuples, which
+   * scans the right child once per block
+   */
+  @Test public void blockJoin() throws Exception {
+    final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    scan2.open();
+    while (scan2.hasNext())
+      tuples.add(scan2.next());
+    scan2.close();
+    final int[] rewinds = new int[1];
+    OpIterator inner = new TupleIterator(Utility.getTupleDesc(width2), tuples) {
+      private static final long serialVersionUID = 1L;
+
+      public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    long budget = 2 * HashEquiJoin.estimateTupleSize(Utility.getTupleDesc(width1));
+    Join op = new Join(pred, scan1, inner, budget);
+    assertEquals(2, Join.tuplesPerBlock(Utility.getTupleDesc(width1), budget));
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    // four left tuples make two blocks
+    assertEquals(11, count);
+    assertEquals(1, rewinds[0]);
+    op.rewind();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(-1, 0);
+    }
+
+    /** Acquires a lock in a background thread. */
+    private class Acquirer extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+
+        Acquirer(TransactionId tid, Permissions perm) {
+            this(tid, p0, perm);
+        }
+
+        Acquirer(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                // what aborting the transaction would do
+                lm.releaseAll(tid);
+            }
+        }
+    }
+
+    /**
+     * Unit test for LockManager: a reader that arrives after a waiting
+     * writer queues up behind it instead of overtaking it.
+     */
+    @Test public void fifoQueue() throws Exception {
+        TransactionId reader1 = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId reader2 = new TransactionId();
+
+        lm.acquire(reader1, p0, Permissions.READ_ONLY);
+        Acquirer w = new Acquirer(writer, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Acquirer r = new Acquirer(reader2, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(w.acquired);
+        assertFalse(r.acquired);
+
+        lm.releaseAll(reader1);
+        w.join(TIMEOUT);
+        assertTrue(w.acquired);
+        assertFalse(r.acquired);
+        assertTrue(lm.getLockWaitTime(writer) > 0);
+
+        lm.releaseAll(writer);
+        r.join(TIMEOUT);
+        assertTrue(r.acquired);
+        assertTrue(lm.holdsLock(reader2, p0));
+        assertFalse(lm.holdsLock(writer, p0));
+    }
+
+    /**
+     * Unit test for LockManager: a pending upgrade is granted before
+     * writers that queued up earlier.
+     */
+    @Test public void upgradeFirst() throws Exception {
+        TransactionId reader1 = new TransactionId();
+        TransactionId reader2 = new TransactionId();
+        TransactionId writer = new TransactionId();
+
+        lm.acquire(reader1, p0, Permissions.READ_ONLY);
+        lm.acquire(reader2, p0, Permissions.READ_ONLY);
+        Acquirer w = new Acquirer(writer, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Acquirer u = new Acquirer(reader1, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(u.acquired);
+
+        lm.release(reader2, p0);
+        u.join(TIMEOUT);
+        assertTrue(u.acquired);
+        assertFalse(w.acquired);
+        assertEquals(1, lm.lockedPages(reader1).size());
+
+        lm.releaseAll(reader1);
+        w.join(TIMEOUT);
+        assertTrue(w.acquired);
+    }
+
+    /**
+     * Unit test for LockManager: two upgrades of the same page deadlock;
+     * the deadlock is found as soon as the second transaction blocks, and
+     * the younger transaction is aborted.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, Permissions.READ_ONLY);
+        lm.acquire(younger, p0, Permissions.READ_ONLY);
+
+        Acquirer o = new Acquirer(older, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Acquirer y = new Acquirer(younger, Permissions.READ_WRITE);
+        y.join(TIMEOUT);
+        assertFalse(y.isAlive());
+        assertFalse(y.acquired);
+        assertEquals(1, lm.getDeadlockCount());
+        assertEquals(2, lm.getDetectionCount());
+
+        lm.releaseAll(younger);
+        o.join(TIMEOUT);
+        assertTrue(o.acquired);
+    }
+
+    /**
+     * Unit test for LockManager: with the FEWEST_WRITES policy the victim
+     * is the transaction holding fewer exclusive locks, even if it is the
+     * older one; it is aborted while it is already waiting.
+     */
+    @Test public void fewestWritesVictim() throws Exception {
+        lm = new LockManager(LockManager.VictimPolicy.FEWEST_WRITES);
+        PageId p1 = new HeapPageId(-1, 1);
+        PageId p2 = new HeapPageId(-1, 2);
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquire(reader, p1, Permissions.READ_ONLY);
+        lm.acquire(writer, p0, Permissions.READ_WRITE);
+        lm.acquire(writer, p2, Permissions.READ_WRITE);
+
+        Acquirer r = new Acquirer(reader, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(r.acquired);
+
+        // closes the cycle; the reader is aborted
+        lm.acquire(writer, p1, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(writer, p1));
+        r.join(TIMEOUT);
+        assertFalse(r.isAlive());
+        assertFalse(r.acquired);
+        assertEquals(1, lm.getDeadlockCount());
+    }
+
+    /**
+     * Unit test for LockManager: a holder that releases the page a writer
+     * waits for, while another holder keeps the writer blocked, is no
+     * longer part of the writer's waits; waiting on the writer afterwards
+     * is not a deadlock.
+     */
+    @Test public void releaseWithoutGrant() throws Exception {
+        PageId p1 = new HeapPageId(-1, 1);
+        TransactionId reader1 = new TransactionId();
+        TransactionId reader2 = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquire(reader1, p0, Permissions.READ_ONLY);
+        lm.acquire(reader2, p0, Permissions.READ_ONLY);
+        lm.acquire(writer, p1, Permissions.READ_WRITE);
+
+        Acquirer w = new Acquirer(writer, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        lm.release(reader1, p0);
+        assertFalse(w.acquired);
+
+        // reader1 -> writer -> reader2 is no cycle
+        Acquirer r = new Acquirer(reader1, p1, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertTrue(r.isAlive());
+        assertFalse(w.acquired);
+        assertEquals(0, lm.getDeadlockCount());
+
+        lm.releaseAll(reader2);
+        w.join(TIMEOUT);
+        assertTrue(w.acquired);
+        lm.releaseAll(writer);
+        r.join(TIMEOUT);
+        assertTrue(r.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("pagefile", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static byte[] block(int size, int value) {
+        byte[] b = new byte[size];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    @Test public void readWrite() throws IOException {
+        PageFile pf = new PageFile(tempFile());
+        pf.write(100, block(50, 7));
+        assertEquals(150, pf.size());
+
+        byte[] dst = new byte[50];
+        assertEquals(50, pf.read(100, dst));
+        assertArrayEquals(block(50, 7), dst);
+
+        // a short read at the end of the file leaves the rest alone
+        dst = block(80, 1);
+        assertEquals(30, pf.read(120, dst));
+        assertEquals(7, dst[29]);
+        assertEquals(1, dst[30]);
+
+        assertEquals(-1, pf.read(150, new byte[10]));
+    }
+
+    @Test public void readMissingFile() throws IOException {
+        File f = tempFile();
+        assertTrue(f.delete());
+        PageFile pf = new PageFile(f);
+        try {
+            pf.read(0, new byte[10]);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(f.exists());
+    }
+
+    @Test public void vectoredWrite() throws IOException {
+        PageFile pf = new PageFile(tempFile());
+        // two runs: blocks 0-2 and block 4
+        long[] offsets = { 0, 10, 20, 40 };
+        byte[][] blocks = { block(10, 1), block(10, 2), block(10, 3), block(10, 4) };
+        pf.write(offsets, blocks);
+        assertEquals(50, pf.size());
+
+        byte[] dst = new byte[50];
+        assertEquals(50, pf.read(0, dst));
+        for (int i = 0; i < 5; i++) {
+            byte expected = (byte) (i < 3 ? i + 1 : i == 3 ? 0 : 4);
+            assertArrayEquals(block(10, expected), Arrays.copyOfRange(dst, 10 * i, 10 * i + 10));
+        }
+    }
+
+    @Test public void moreFilesThanOpenChannels() throws IOException {
+        int n = PageFile.MAX_OPEN_FILES + 10;
+        PageFile[] files = new PageFile[n];
+        for (int i = 0; i < n; i++) {
+            files[i] = new PageFile(tempFile());
+            files[i].write(0, block(8, i));
+        }
+        // the first files were closed meanwhile and get reopened
+        for (int i = 0; i < n; i++) {
+            byte[] dst = new byte[8];
+            assertEquals(8, files[i].read(0, dst));
+            assertArrayEquals(block(8, i), dst);
+        }
+    }
+
+    @Test public void interruptedReaderDoesNotCloseFile() throws Exception {
+        final PageFile pf = new PageFile(tempFile());
+        pf.write(0, block(8, 5));
+        Thread t = new Thread() {
+            public void run() {
+                interrupt();
+                try {
+                    pf.read(0, new byte[8]);
+                } catch (IOException e) {
+                    // expected, this thread is interrupted
+                }
+            }
+        };
+        t.start();
+        t.join();
+
+        byte[] dst = new byte[8];
+        assertEquals(8, pf.read(0, dst));
+        assertArrayEquals(block(8, 5), dst);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFileTest.class);
+    }
+}
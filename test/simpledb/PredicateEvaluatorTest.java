@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PredicateEvaluatorTest extends SimpleDbTestBase {
+
+    private static final int[] INTS = { Integer.MIN_VALUE, -1, 0, 1, 2, Integer.MAX_VALUE };
+    private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "ba", "q\"u\\o\nte" };
+
+    private TupleDesc td;
+    private boolean enabled;
+
+    @Before public void setUp() {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        enabled = PredicateCompiler.isEnabled();
+        PredicateCompiler.setEnabled(true);
+    }
+
+    @After public void tearDown() {
+        PredicateCompiler.setEnabled(enabled);
+    }
+
+    private Tuple tuple(int i, String s, int j) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(j));
+        return t;
+    }
+
+    /** @return t serialized as in a HeapPage, after a few bytes of padding */
+    private static byte[] serialize(Tuple t) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[3]);
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+            t.getField(i).serialize(out);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Checks that the compiled and interpreted evaluators of some predicates
+     * agree on a tuple and on its serialized form, in an array and in a
+     * direct buffer like a page of a memory mapped file.
+     */
+    private void assertSame(Predicate[] preds, Tuple t) throws IOException {
+        PredicateEvaluator interpreted = PredicateEvaluator.interpret(preds, td);
+        PredicateEvaluator compiled = PredicateEvaluator.compile(preds, td);
+        assertNotNull(compiled);
+        assertTrue(compiled.isCompiled());
+        boolean expected = Predicate.filterAll(preds, t);
+        assertEquals(expected, interpreted.filter(t));
+        assertEquals(expected, compiled.filter(t));
+        byte[] data = serialize(t);
+        assertEquals(expected, interpreted.matches(data, 3));
+        assertEquals(expected, compiled.matches(data, 3));
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+        buf.put(data);
+        assertEquals(expected, interpreted.matches(buf, 3));
+        assertEquals(expected, compiled.matches(buf, 3));
+    }
+
+    /**
+     * Unit test for compiled int predicates
+     */
+    @Test public void intPredicates() throws IOException {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int c : new int[] { -1, 0, 1 }) {
+                Predicate[] preds = { new Predicate(2, op, new IntField(c)) };
+                for (int v : INTS)
+                    assertSame(preds, tuple(0, "", v));
+            }
+        }
+    }
+
+    /**
+     * Unit test for compiled string predicates, including operands that
+     * need escaping in Java source
+     */
+    @Test public void stringPredicates() throws IOException {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String c : STRINGS) {
+                Predicate[] preds = { new Predicate(1, op, new StringField(c, Type.STRING_LEN)) };
+                for (String v : STRINGS)
+                    assertSame(preds, tuple(0, v, 0));
+            }
+        }
+    }
+
+    /**
+     * Unit test for a compiled conjunction of predicates
+     */
+    @Test public void conjunction() throws IOException {
+        Predicate[] preds = {
+            new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+            new Predicate(1, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN)),
+            new Predicate(2, Predicate.Op.LESS_THAN, new IntField(10)) };
+        assertSame(preds, tuple(0, "ab", 9));
+        assertSame(preds, tuple(-1, "ab", 9));
+        assertSame(preds, tuple(0, "aa", 9));
+        assertSame(preds, tuple(0, "ab", 10));
+        assertSame(new Predicate[0], tuple(0, "", 0));
+    }
+
+    /**
+     * Predicates that don't fit the schema are not compiled
+     */
+    @Test public void notCompiled() {
+        assertNull(PredicateEvaluator.compile(new Predicate[] {
+            new Predicate(1, Predicate.Op.EQUALS, new IntField(1)) }, td));
+        assertNull(PredicateEvaluator.compile(new Predicate[] {
+            new Predicate(3, Predicate.Op.EQUALS, new IntField(1)) }, td));
+        assertNull(JoinPredicateEvaluator.compile(
+            new JoinPredicate(0, Predicate.Op.EQUALS, 1), td, td));
+
+        PredicateCompiler.setEnabled(false);
+        Predicate[] preds = { new Predicate(0, Predicate.Op.EQUALS, new IntField(1)) };
+        assertNull(PredicateEvaluator.compile(preds, td));
+        assertFalse(PredicateEvaluator.forPredicates(preds, td).isCompiled());
+    }
+
+    /**
+     * Unit test for compiled join predicates
+     */
+    @Test public void joinPredicates() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate ints = new JoinPredicate(0, op, 2);
+            JoinPredicateEvaluator compiled = JoinPredicateEvaluator.compile(ints, td, td);
+            assertNotNull(compiled);
+            assertTrue(compiled.isCompiled());
+            for (int a : INTS) {
+                for (int b : INTS) {
+                    Tuple t1 = tuple(a, "", 0);
+                    Tuple t2 = tuple(0, "", b);
+                    assertEquals(ints.filter(t1, t2), compiled.filter(t1, t2));
+                }
+            }
+
+            JoinPredicate strings = new JoinPredicate(1, op, 1);
+            compiled = JoinPredicateEvaluator.compile(strings, td, td);
+            assertNotNull(compiled);
+            for (String a : STRINGS) {
+                for (String b : STRINGS) {
+                    Tuple t1 = tuple(0, a, 0);
+                    Tuple t2 = tuple(0, b, 0);
+                    assertEquals(strings.filter(t1, t2), compiled.filter(t1, t2));
+                }
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateEvaluatorTest.class);
+    }
+}
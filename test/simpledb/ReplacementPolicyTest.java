@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.EvictionFilter ANY =
+            new ReplacementPolicy.EvictionFilter() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static final ReplacementPolicy.EvictionFilter NONE =
+            new ReplacementPolicy.EvictionFilter() {
+        public boolean canEvict(PageId pid) {
+            return false;
+        }
+    };
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: pages with a recent hit get a
+     * second chance over pages that were never touched again.
+     */
+    @Test public void clockSecondChance() {
+        ClockReplacementPolicy clock = new ClockReplacementPolicy(3);
+        clock.pageAdded(pid(0));
+        clock.pageAdded(pid(1));
+        clock.pageAdded(pid(2));
+        clock.pageAccessed(pid(0));
+        clock.pageAccessed(pid(2));
+
+        assertEquals(pid(1), clock.chooseVictim(ANY));
+        assertEquals(2, clock.size());
+
+        // the freed frame is reused
+        clock.pageAdded(pid(3));
+        assertEquals(3, clock.size());
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: the filter can veto victims.
+     */
+    @Test public void clockFilter() {
+        ClockReplacementPolicy clock = new ClockReplacementPolicy(2);
+        clock.pageAdded(pid(0));
+        clock.pageAdded(pid(1));
+        assertNull(clock.chooseVictim(NONE));
+
+        ReplacementPolicy.EvictionFilter notZero = new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(PageId pid) {
+                return pid.getPageNumber() != 0;
+            }
+        };
+        assertEquals(pid(1), clock.chooseVictim(notZero));
+        clock.pageRemoved(pid(0));
+        assertEquals(0, clock.size());
+        assertNull(clock.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: a page referenced twice
+     * survives a stream of pages that are referenced once.
+     */
+    @Test public void twoQueueScanResistance() {
+        TwoQueueReplacementPolicy twoQ = new TwoQueueReplacementPolicy(4);
+        twoQ.pageAdded(pid(0));
+        twoQ.pageAccessed(pid(0));
+        assertEquals(true, twoQ.isHot(pid(0)));
+
+        int resident = 1;
+        for (int i = 1; i < 100; i++) {
+            if (resident == 4) {
+                PageId victim = twoQ.chooseVictim(ANY);
+                assertEquals(false, victim.equals(pid(0)));
+                resident--;
+            }
+            twoQ.pageAdded(pid(i));
+            resident++;
+        }
+        assertEquals(true, twoQ.isHot(pid(0)));
+        assertEquals(4, twoQ.size());
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: a page that is read back in
+     * soon after leaving probation is admitted to the hot queue.
+     */
+    @Test public void twoQueueGhostHit() {
+        TwoQueueReplacementPolicy twoQ = new TwoQueueReplacementPolicy(4);
+        twoQ.pageAdded(pid(0));
+        twoQ.pageAdded(pid(1));
+        assertEquals(pid(0), twoQ.chooseVictim(ANY));
+        twoQ.pageAdded(pid(0));
+        assertEquals(true, twoQ.isHot(pid(0)));
+        assertEquals(false, twoQ.isHot(pid(1)));
+        assertNull(twoQ.chooseVictim(NONE));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
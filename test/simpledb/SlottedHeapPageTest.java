@@ -0,0 +1,153 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before public void setUp() {
+        pid = new HeapPageId(-1, 0);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return new SlottedHeapPage(pid, ByteBuffer.wrap(SlottedHeapPage.createEmptyPageData()), td);
+    }
+
+    private ArrayList<String> names(TuplePage page) {
+        ArrayList<String> names = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            names.add(((StringField) it.next().getField(1)).getValue());
+        return names;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.getPageData() and the constructor
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        assertEquals(0, page.getNumTuples());
+        page.insertTuple(tuple(1, "a"));
+        page.insertTuple(tuple(2, ""));
+        page.insertTuple(tuple(3, "a somewhat longer name"));
+        page.insertTuple(tuple(4, "caf\u00e9"));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, ByteBuffer.wrap(page.getPageData()), td);
+        assertEquals(4, copy.getNumTuples());
+        assertEquals(names(page), names(copy));
+        assertEquals("caf\u00e9", names(copy).get(3));
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i + 1), t.getField(0));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+    }
+
+    /**
+     * Short strings take less room than in a HeapPage
+     */
+    @Test public void fitsMoreShortTuples() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int count = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(count, "abc"));
+                count++;
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(count > 4 * fixed);
+        assertEquals(count, page.getNumTuples());
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * getNumEmptySlots() promises room for tuples of the largest size
+     */
+    @Test public void emptySlotsAreConservative() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        String longest = "";
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            longest += "x";
+        int free = page.getNumEmptySlots();
+        assertTrue(free > 0);
+        for (int i = 0; i < free; i++)
+            page.insertTuple(tuple(i, longest));
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * Deleted slots are reused, and other tuples keep their slots
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        Tuple a = tuple(1, "a");
+        Tuple b = tuple(2, "b");
+        Tuple c = tuple(3, "c");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+
+        page.deleteTuple(b);
+        assertEquals(2, page.getNumTuples());
+        try {
+            page.deleteTuple(b);
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the slot of b survives a round trip as an empty slot
+        page = new SlottedHeapPage(pid, ByteBuffer.wrap(page.getPageData()), td);
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(a.getRecordId(), it.next().getRecordId());
+        assertEquals(c.getRecordId(), it.next().getRecordId());
+
+        Tuple d = tuple(4, "a longer name than b");
+        page.insertTuple(d);
+        assertEquals(new RecordId(pid, 1), d.getRecordId());
+        Tuple e = tuple(5, "e");
+        page.insertTuple(e);
+        assertEquals(new RecordId(pid, 3), e.getRecordId());
+    }
+
+    /**
+     * An insert of a tuple of another schema fails
+     */
+    @Test(expected=DbException.class)
+    public void wrongSchema() throws Exception {
+        emptyPage().insertTuple(Utility.getHeapTuple(1, 2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
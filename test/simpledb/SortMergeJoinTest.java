@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 7, 8,
+                    3, 4,
+                    5, 6,
+                    1, 2 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 5, 6, 7,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    1, 2, 3 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * @return a list of tuples of the given width, whose first field is
+   *         drawn from keys
+   */
+  private static OpIterator randomTuples(int width, int count, int keys) {
+    Random random = new Random(count * 31 + width);
+    int[] data = new int[count * width];
+    for (int i = 0; i < count; i++) {
+      data[i * width] = random.nextInt(keys);
+      for (int j = 1; j < width; j++)
+        data[i * width + j] = i;
+    }
+    return TestUtil.createTupleList(width, data);
+  }
+
+  /** @return the tuples of an operator as sorted strings */
+  private static ArrayList<String> run(OpIterator op) throws Exception {
+    ArrayList<String> result = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /** @return the budget of a join that sorts the given number of tuples at a time */
+  private long budget(int tuples) {
+    return 2 * tuples * HashEquiJoin.estimateTupleSize(Utility.getTupleDesc(width2));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate, with
+   * children that are sorted in memory
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpilledRuns());
+  }
+
+  /**
+   * SortMergeJoin returns the same tuples as Join for every predicate it
+   * supports, with duplicate keys on both sides
+   */
+  @Test public void allPredicates() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = run(new Join(pred,
+          randomTuples(width1, 200, 50), randomTuples(width2, 150, 50)));
+      assertEquals(op.toString(), expected, run(new SortMergeJoin(pred,
+          randomTuples(width1, 200, 50), randomTuples(width2, 150, 50))));
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() with children sorted in runs
+   * that are spilled, and merged in more than one pass
+   */
+  @Test public void spilledJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = run(new Join(pred,
+        randomTuples(width1, 3000, 1000), randomTuples(width2, 2000, 1000)));
+    SortMergeJoin op = new SortMergeJoin(pred, randomTuples(width1, 3000, 1000),
+        randomTuples(width2, 2000, 1000), budget(20));
+    op.open();
+    ArrayList<String> actual = new ArrayList<String>();
+    while (op.hasNext())
+      actual.add(op.next().toString());
+    assertTrue(op.getSpilledRuns() > SortMergeJoin.FAN_IN);
+    op.close();
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind() using a &lt;= predicate
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, randomTuples(width1, 300, 100),
+        randomTuples(width2, 300, 100), budget(50));
+    ArrayList<String> expected = run(op);
+    op.open();
+    for (int i = 0; i < 10 && op.hasNext(); i++)
+      op.next();
+    op.rewind();
+    ArrayList<String> actual = new ArrayList<String>();
+    while (op.hasNext())
+      actual.add(op.next().toString());
+    op.close();
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.isOrderedOn(), and the order of the tuples
+   * of a join
+   */
+  @Test public void isOrderedOn() throws Exception {
+    OrderBy sorted1 = new OrderBy(0, true, scan1);
+    OrderBy sorted2 = new OrderBy(0, true, scan2);
+    assertTrue(SortMergeJoin.isOrderedOn(sorted1, 0));
+    assertFalse(SortMergeJoin.isOrderedOn(sorted1, 1));
+    assertFalse(SortMergeJoin.isOrderedOn(new OrderBy(0, false, scan1), 0));
+    assertFalse(SortMergeJoin.isOrderedOn(scan1, 0));
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted1, sorted2);
+    assertTrue(SortMergeJoin.isOrderedOn(op, width1));
+    assertFalse(SortMergeJoin.isOrderedOn(op, 0));
+    op.open();
+    int last = Integer.MIN_VALUE;
+    while (op.hasNext()) {
+      int key = ((IntField) op.next().getField(width1)).getValue();
+      assertTrue(key >= last);
+      last = key;
+    }
+    op.close();
+  }
+
+  /**
+   * JoinOptimizer.instantiateJoin() merges children that are already in
+   * order of the join fields
+   */
+  @Test public void instantiateJoin() throws Exception {
+    OpIterator named1 = named(scan1, "t1.f");
+    OpIterator sorted1 = new OrderBy(0, true, named1);
+    OpIterator sorted2 = new OrderBy(0, true, named(scan2, "t2.f"));
+    LogicalJoinNode lj = new LogicalJoinNode("t1", "t2", "f0", "f0",
+        Predicate.Op.GREATER_THAN);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, sorted1, sorted2) instanceof SortMergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, named1, sorted2) instanceof Join);
+  }
+
+  /** @return the tuples of a list, with fields named prefix0, prefix1... */
+  private static OpIterator named(OpIterator list, String prefix) throws Exception {
+    TupleDesc td = Utility.getTupleDesc(list.getTupleDesc().numFields(), prefix);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    list.open();
+    while (list.hasNext()) {
+      Tuple t = list.next();
+      Tuple named = new Tuple(td);
+      for (int i = 0; i < td.numFields(); i++)
+        named.setField(i, t.getField(i));
+      tuples.add(named);
+    }
+    list.close();
+    return new TupleIterator(td, tuples);
+  }
+
+  /**
+   * SortMergeJoin doesn't support !=
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    new SortMergeJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
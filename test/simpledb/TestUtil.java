@@ -381,6 +381,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            ZoneMap.sidecarFor(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -67,6 +67,31 @@ public class TupleDescTest extends SimpleDbTestBase {
         return true;
     }
 
+    /**
+     * Unit test for TupleDesc.project()
+     */
+    @Test public void project() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "c" });
+
+        TupleDesc projected = td.project(new int[] { 2, 0 });
+        assertEquals(2, projected.numFields());
+        assertEquals(2 * Type.INT_TYPE.getLen(), projected.getSize());
+        assertEquals("c", projected.getFieldName(0));
+        assertEquals("a", projected.getFieldName(1));
+        assertEquals(0, projected.fieldNameToIndex("c"));
+
+        projected = td.project(new int[] { 1 });
+        assertEquals(Type.STRING_TYPE, projected.getFieldType(0));
+
+        try {
+            td.project(new int[] { 3 });
+            Assert.fail("invalid column should throw NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
     /**
      * Unit test for TupleDesc.getType()
      */
@@ -29,6 +29,23 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.project()
+     */
+    @Test public void project() {
+        Tuple tup = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+        RecordId rid = new RecordId(new HeapPageId(0, 0), 4);
+        tup.setRecordId(rid);
+
+        int[] columns = new int[] { 2, 1 };
+        TupleDesc td = tup.getTupleDesc().project(columns);
+        Tuple projected = tup.project(td, columns);
+        assertEquals(td, projected.getTupleDesc());
+        assertEquals(new IntField(3), projected.getField(0));
+        assertEquals(new IntField(2), projected.getField(1));
+        assertEquals(rid, projected.getRecordId());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,48 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TypeTest extends SimpleDbTestBase {
+
+    /**
+     * Every decoder reads back what StringField.serialize wrote, including
+     * characters outside ASCII.
+     */
+    @Test public void stringDecodersAgree() throws Exception {
+        StringField f = new StringField("na\u00efve caf\u00e9 \u00ff", Type.STRING_LEN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[3]);
+        f.serialize(new DataOutputStream(out));
+        byte[] data = out.toByteArray();
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3));
+        assertEquals(f, Type.STRING_TYPE.parse(dis));
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.position(3);
+        assertEquals(f, Type.STRING_TYPE.parse(buf));
+        assertEquals(f, Type.STRING_TYPE.parse(data, 3));
+        assertEquals(f, Type.STRING_TYPE.parse(ByteBuffer.wrap(data), 3));
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        assertEquals(f, Type.STRING_TYPE.parse(direct, 3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TypeTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private File dataFile;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        dataFile = File.createTempFile("zones", ".dat");
+        dataFile.deleteOnExit();
+        ZoneMap.sidecarFor(dataFile).deleteOnExit();
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int v) {
+        return new Predicate(field, op, new IntField(v));
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, String v) {
+        return new Predicate(field, op, new StringField(v, Type.STRING_LEN));
+    }
+
+    /**
+     * Unknown pages always match, empty pages never do
+     */
+    @Test public void unknownAndEmpty() {
+        ZoneMap zones = new ZoneMap(dataFile, td);
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 1)));
+        zones.appended(1);
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 1)));
+        assertFalse(zones.mayMatch(1, pred(0, Predicate.Op.NOT_EQUALS, 1)));
+
+        // inserts into unknown pages leave them unknown
+        zones.inserted(0, tuple(5, "e"));
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 1)));
+    }
+
+    /**
+     * Int ranges
+     */
+    @Test public void intRanges() {
+        ZoneMap zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(10, "a"));
+        zones.inserted(0, tuple(20, "a"));
+
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 15)));
+        assertFalse(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 21)));
+        assertFalse(zones.mayMatch(0, pred(0, Predicate.Op.LESS_THAN, 10)));
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.LESS_THAN_OR_EQ, 10)));
+        assertFalse(zones.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 20)));
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 20)));
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.NOT_EQUALS, 10)));
+
+        // deletes make the zone unknown
+        zones.deleted(0);
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 21)));
+    }
+
+    /**
+     * String prefixes
+     */
+    @Test public void stringPrefixes() {
+        ZoneMap zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(1, "banana split"));
+        zones.inserted(0, tuple(1, "cherry"));
+
+        assertFalse(zones.mayMatch(0, pred(1, Predicate.Op.EQUALS, "banana")));
+        assertTrue(zones.mayMatch(0, pred(1, Predicate.Op.EQUALS, "banana sundae")));
+        assertTrue(zones.mayMatch(0, pred(1, Predicate.Op.EQUALS, "blueberry")));
+        assertFalse(zones.mayMatch(0, pred(1, Predicate.Op.EQUALS, "apple")));
+        assertFalse(zones.mayMatch(0, pred(1, Predicate.Op.LESS_THAN, "b")));
+        assertTrue(zones.mayMatch(0, pred(1, Predicate.Op.LESS_THAN, "bananas")));
+        assertFalse(zones.mayMatch(0, pred(1, Predicate.Op.GREATER_THAN, "date")));
+        assertTrue(zones.mayMatch(0, pred(1, Predicate.Op.GREATER_THAN, "cherry")));
+        assertTrue(zones.mayMatch(0, pred(1, Predicate.Op.LIKE, "zzz")));
+    }
+
+    /**
+     * Zones are read back from the sidecar
+     */
+    @Test public void saveAndLoad() throws Exception {
+        ZoneMap zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(10, "kiwi"));
+        zones.appended(1);
+        zones.inserted(1, tuple(30, "lime"));
+
+        // a page built from its tuples is saved with the next batch
+        HeapPage page = new HeapPage(new HeapPageId(-1, 2),
+                ByteBuffer.wrap(HeapPage.createEmptyPageData()), td);
+        page.insertTuple(tuple(50, "mango"));
+        page.markDirty(false, null);
+        assertTrue(zones.build(page));
+        assertFalse(zones.build(page));
+        assertTrue(new ZoneMap(dataFile, td).mayMatch(2, pred(0, Predicate.Op.LESS_THAN, 50)));
+        zones.flush();
+
+        ZoneMap loaded = new ZoneMap(dataFile, td);
+        assertFalse(loaded.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        assertTrue(loaded.mayMatch(1, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        assertFalse(loaded.mayMatch(1, pred(1, Predicate.Op.EQUALS, "kiwi")));
+        assertFalse(loaded.mayMatch(2, pred(0, Predicate.Op.LESS_THAN, 50)));
+        assertTrue(loaded.mayMatch(3, pred(0, Predicate.Op.LESS_THAN, 50)));
+
+        // a sidecar of another schema is ignored
+        ZoneMap other = new ZoneMap(dataFile, Utility.getTupleDesc(2));
+        assertTrue(other.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+    }
+
+    /**
+     * A sidecar is dropped once the heap file changed without it
+     */
+    @Test public void staleSidecar() throws Exception {
+        ZoneMap zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(10, "kiwi"));
+        zones.flush();
+        assertFalse(new ZoneMap(dataFile, td).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+
+        // the heap file is replaced by other means
+        FileOutputStream out = new FileOutputStream(dataFile);
+        out.write(HeapPage.createEmptyPageData());
+        out.close();
+        assertTrue(new ZoneMap(dataFile, td).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        assertFalse(ZoneMap.sidecarFor(dataFile).exists());
+
+        // rewritten in place with the same length and modification time
+        zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(10, "kiwi"));
+        zones.flush();
+        FileTime modified = Files.getLastModifiedTime(dataFile.toPath());
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+        raf.write(1);
+        raf.close();
+        Files.setLastModifiedTime(dataFile.toPath(), modified);
+        assertEquals(modified, Files.getLastModifiedTime(dataFile.toPath()));
+        assertEquals(BufferPool.getPageSize(), dataFile.length());
+        assertTrue(new ZoneMap(dataFile, td).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        assertFalse(ZoneMap.sidecarFor(dataFile).exists());
+    }
+
+    /**
+     * A sidecar is dropped if the heap file was written to after the last
+     * flush, e.g. because the process stopped before the next one
+     */
+    @Test public void openSidecar() throws Exception {
+        ZoneMap zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(10, "kiwi"));
+        zones.flush();
+        zones.inserted(0, tuple(20, "lime"));
+        zones.writing();
+        assertTrue(new ZoneMap(dataFile, td).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        assertFalse(ZoneMap.sidecarFor(dataFile).exists());
+
+        // a flush after the write closes it again
+        zones = new ZoneMap(dataFile, td);
+        zones.appended(0);
+        zones.inserted(0, tuple(10, "kiwi"));
+        zones.flush();
+        zones.inserted(0, tuple(20, "lime"));
+        zones.writing();
+        zones.flush();
+        assertFalse(new ZoneMap(dataFile, td).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 20)));
+        assertTrue(new ZoneMap(dataFile, td).mayMatch(0, pred(0, Predicate.Op.EQUALS, 20)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
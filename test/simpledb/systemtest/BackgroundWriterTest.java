@@ -0,0 +1,131 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs transactions against a buffer pool with a background writer, so
+ * commits only log the dirty pages, and checks that committed changes
+ * reach the disk through the writer or through eviction.
+ */
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    @Before public void allowNoForce() {
+        System.setProperty(BufferPool.UNSAFE_NO_FORCE, "true");
+    }
+
+    @After public void stopWriter() throws IOException {
+        Database.getBufferPool().stopBackgroundWriter();
+        System.clearProperty(BufferPool.UNSAFE_NO_FORCE);
+    }
+
+    /** @return true if the magic tuple is on disk, bypassing the buffer pool */
+    private static boolean onDisk(HeapFile f) {
+        for (int i = 0; i < f.numPages(); i++) {
+            HeapPage p = (HeapPage) f.readPage(new HeapPageId(f.getId(), i));
+            Iterator<Tuple> it = p.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() == -42)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Test public void testWriterFlushesCommittedPages()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.startBackgroundWriter(10, 4, BufferPool.DEFAULT_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.numCleanFrames() < BufferPool.DEFAULT_PAGES && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(BufferPool.DEFAULT_PAGES, bp.numCleanFrames());
+        assertTrue(bp.getBackgroundWriter().getPagesWritten() > 0);
+        assertTrue(onDisk(f));
+    }
+
+    @Test public void testEvictionWritesCommittedPages()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        // the writer only runs once before the pages are committed
+        bp.startBackgroundWriter(60 * 60 * 1000, 1, 0);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+        assertEquals(1, bp.numCleanFrames());
+        assertFalse(onDisk(f));
+
+        // scanning the table evicts the committed page
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+        assertTrue(onDisk(f));
+    }
+
+    @Test public void testAbortKeepsCommittedVersion()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.startBackgroundWriter(60 * 60 * 1000, 1, 0);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        // delete the committed tuple, then abort
+        t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        Delete delete = new Delete(t.getId(), new Filter(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(-42)), ss));
+        delete.open();
+        assertEquals(1, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        t.transactionComplete(true);
+
+        bp.stopBackgroundWriter();
+        assertTrue(onDisk(f));
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    @Test public void testRefusedWithoutRecovery() {
+        System.clearProperty(BufferPool.UNSAFE_NO_FORCE);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        try {
+            bp.startBackgroundWriter(10, 4, BufferPool.DEFAULT_PAGES);
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // commits keep forcing their pages
+        }
+        assertNull(bp.getBackgroundWriter());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,269 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs scans, filters, projections, joins and aggregates batch at a time and
+ * checks that they return what the tuple at a time operators return, also
+ * for the scan-filter-aggregate query that {@link Benchmarks} times.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    static final int GROUPS = 1000;
+    private static final int MAX_VALUE = 1 << 16;
+
+    private static ArrayList<ArrayList<Integer>> toLists(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    @Test public void testScanFilterProject()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, MAX_VALUE, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        // a scan of all columns returns every tuple
+        SystemTestUtil.matchTuples(new BatchOpIterator(new BatchSeqScan(tid, f.getId(), "t")), tuples);
+
+        // a filter and a projection over a scan of some of the columns
+        Predicate[] preds = new Predicate[] {
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(MAX_VALUE / 4)) };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(2) < MAX_VALUE / 2
+                    && t.get(1) >= MAX_VALUE / 4) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(t.get(1));
+                expected.add(row);
+            }
+        }
+        BatchIterator scan = new BatchSeqScan(tid, f.getId(), "t", new int[] { 2, 1 }, 100);
+        BatchIterator project = new BatchProject(new int[] { 1 }, new BatchFilter(scan, preds));
+        assertEquals(scan.getTupleDesc().getFieldName(1), project.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(new BatchOpIterator(project), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testStrings()
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        File text = File.createTempFile("batch", ".txt");
+        text.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < 2000; i++)
+            w.write(i + ",name" + (i % 97) + "\n");
+        w.close();
+        File data = File.createTempFile("batch", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile f = new HeapFile(data, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        // the string slices point into the pages, and are compared there
+        Predicate like = new Predicate(1, Predicate.Op.LIKE, new StringField("name9", Type.STRING_LEN));
+        OpIterator batch = new BatchOpIterator(new BatchFilter(
+                new BatchSeqScan(tid, f.getId(), "t"), new Predicate[] { like }));
+        OpIterator tuples = new Filter(like, new SeqScan(tid, f.getId(), "t"));
+        batch.open();
+        tuples.open();
+        int count = 0;
+        while (tuples.hasNext()) {
+            assertTrue(batch.hasNext());
+            Tuple expected = tuples.next();
+            Tuple actual = batch.next();
+            assertEquals(expected.getField(0), actual.getField(0));
+            assertEquals(expected.getField(1), actual.getField(1));
+            count++;
+        }
+        assertFalse(batch.hasNext());
+        assertTrue(count > 0);
+        batch.close();
+        tuples.close();
+
+        // a count per name
+        OpIterator counts = new BatchOpIterator(new BatchAggregate(
+                new BatchSeqScan(tid, f.getId(), "t"), 0, 1, Aggregator.Op.COUNT));
+        counts.open();
+        int groups = 0;
+        while (counts.hasNext()) {
+            Tuple t = counts.next();
+            String name = ((StringField) t.getField(0)).getValue();
+            int n = Integer.parseInt(name.substring(4));
+            assertEquals(2000 / 97 + (n < 2000 % 97 ? 1 : 0), ((IntField) t.getField(1)).getValue());
+            groups++;
+        }
+        counts.close();
+        assertEquals(97, groups);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, left);
+        ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 1500, 500, null, right);
+        TransactionId tid = new TransactionId();
+
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        OpIterator batch = new BatchOpIterator(new BatchHashEquiJoin(p,
+                new BatchSeqScan(tid, f1.getId(), "a"), new BatchSeqScan(tid, f2.getId(), "b")));
+        OpIterator tuples = new HashEquiJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                new SeqScan(tid, f2.getId(), "b"));
+        assertEquals(tuples.getTupleDesc(), batch.getTupleDesc());
+        ArrayList<ArrayList<Integer>> expected = toLists(tuples);
+        assertTrue(expected.size() > 0);
+        SystemTestUtil.matchTuples(batch, expected);
+
+        // and through the adapters, over a filtered probe side
+        Predicate small = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+        batch = new BatchOpIterator(new BatchHashEquiJoin(p,
+                new BatchAdapter(new SeqScan(tid, f1.getId(), "a")),
+                new BatchFilter(new BatchSeqScan(tid, f2.getId(), "b"), new Predicate[] { small })));
+        tuples = new HashEquiJoin(p, new SeqScan(tid, f1.getId(), "a"),
+                new Filter(small, new SeqScan(tid, f2.getId(), "b")));
+        SystemTestUtil.matchTuples(batch, toLists(tuples));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 50, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        HashMap<Integer, int[]> groups = new HashMap<Integer, int[]>();
+        int min = Integer.MAX_VALUE, sum = 0;
+        for (ArrayList<Integer> t : tuples) {
+            int[] acc = groups.get(t.get(0));
+            if (acc == null) {
+                acc = new int[] { 0, 0, Integer.MIN_VALUE };
+                groups.put(t.get(0), acc);
+            }
+            acc[0]++;
+            acc[1] += t.get(1);
+            acc[2] = Math.max(acc[2], t.get(1));
+            min = Math.min(min, t.get(1));
+            sum += t.get(1);
+        }
+        ArrayList<ArrayList<Integer>> counts = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> avgs = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> maxes = new ArrayList<ArrayList<Integer>>();
+        for (Integer g : groups.keySet()) {
+            int[] acc = groups.get(g);
+            counts.add(row(g, acc[0]));
+            avgs.add(row(g, acc[1] / acc[0]));
+            maxes.add(row(g, acc[2]));
+        }
+
+        SystemTestUtil.matchTuples(aggregate(tid, f, 0, Aggregator.Op.COUNT), counts);
+        SystemTestUtil.matchTuples(aggregate(tid, f, 0, Aggregator.Op.AVG), avgs);
+        SystemTestUtil.matchTuples(aggregate(tid, f, 0, Aggregator.Op.MAX), maxes);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(row(min));
+        SystemTestUtil.matchTuples(aggregate(tid, f, Aggregator.NO_GROUPING, Aggregator.Op.MIN), expected);
+        expected.clear();
+        expected.add(row(sum / tuples.size()));
+        SystemTestUtil.matchTuples(aggregate(tid, f, Aggregator.NO_GROUPING, Aggregator.Op.AVG), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static OpIterator aggregate(TransactionId tid, HeapFile f, int gfield, Aggregator.Op op) {
+        return new BatchOpIterator(new BatchAggregate(new BatchSeqScan(tid, f.getId(), "t"),
+                1, gfield, op));
+    }
+
+    private static ArrayList<Integer> row(int... values) {
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        for (int v : values)
+            row.add(v);
+        return row;
+    }
+
+    /** SELECT c0, SUM(c1) FROM t WHERE c1 < 50000 GROUP BY c0, a tuple at a time. */
+    static HashMap<Integer, Integer> tupleQuery(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        OpIterator query = new Aggregate(new Filter(
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000)),
+                new SeqScan(tid, f.getId(), "t")), 1, 0, Aggregator.Op.SUM);
+        HashMap<Integer, Integer> result = collect(query);
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    /** The same query, a batch at a time. */
+    static HashMap<Integer, Integer> batchQuery(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        OpIterator query = new BatchOpIterator(new BatchAggregate(new BatchFilter(
+                new BatchSeqScan(tid, f.getId(), "t"), new Predicate[] {
+                        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000)) }),
+                1, 0, Aggregator.Op.SUM));
+        HashMap<Integer, Integer> result = collect(query);
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    private static HashMap<Integer, Integer> collect(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        HashMap<Integer, Integer> result = new HashMap<Integer, Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            result.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        }
+        it.close();
+        return result;
+    }
+
+    /** Creates the table of the benchmark query, with GROUPS groups. */
+    static HeapFile createQueryTable(int rows) throws IOException {
+        File text = File.createTempFile("batchbench", ".txt");
+        text.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++)
+            w.write((i % GROUPS) + "," + ((int) ((i * 7919L) % 100000)) + "\n");
+        w.close();
+        File data = File.createTempFile("batchbench", ".dat");
+        data.deleteOnExit();
+        ZoneMap.sidecarFor(data).deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2);
+        text.delete();
+        return Utility.openHeapFile(2, data);
+    }
+
+    @Test public void testQuery()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = createQueryTable(20000);
+        HashMap<Integer, Integer> expected = tupleQuery(f);
+        assertEquals(GROUPS, expected.size());
+        assertEquals(expected, batchQuery(f));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,531 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import simpledb.*;
+
+/**
+ * Times the optimizations whose system tests only check their results.
+ * Nothing here runs as part of the test targets; run all benchmarks with
+ * <code>ant benchmark</code>, or some of them with
+ * <code>ant benchmark -Dbenchmark="readahead mmap"</code>.  Each benchmark
+ * prints a line per measurement, usually the best of ROUNDS runs after a
+ * warm-up run.  The sizes of the larger tables can be set with the
+ * simpledb.* system properties named below, e.g.
+ * <code>ant benchmark -Dbenchmark=batch -Dsimpledb.batch.rows=100000</code>.
+ */
+public class Benchmarks {
+
+    private static final int ROUNDS = 3;
+
+    /** A benchmark that can be selected by name. */
+    private static abstract class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        abstract void run() throws Exception;
+    }
+
+    private static final Benchmark[] BENCHMARKS = new Benchmark[] {
+        new Benchmark("partitions") {
+            void run() throws Exception {
+                partitions();
+            }
+        },
+        new Benchmark("readahead") {
+            void run() throws Exception {
+                readAhead();
+            }
+        },
+        new Benchmark("mmap") {
+            void run() throws Exception {
+                memoryMapped();
+            }
+        },
+        new Benchmark("lazy") {
+            void run() throws Exception {
+                lazyDecoding();
+            }
+        },
+        new Benchmark("projection") {
+            void run() throws Exception {
+                projection();
+            }
+        },
+        new Benchmark("batch") {
+            void run() throws Exception {
+                batch();
+            }
+        },
+        new Benchmark("predicates") {
+            void run() throws Exception {
+                predicates();
+            }
+        },
+        new Benchmark("pipeline") {
+            void run() throws Exception {
+                pipeline();
+            }
+        },
+        new Benchmark("hashtable") {
+            void run() throws Exception {
+                hashTable();
+            }
+        },
+    };
+
+    public static void main(String[] args) throws Exception {
+        HashSet<String> selected = new HashSet<String>(Arrays.asList(args));
+        selected.remove("");
+        HashSet<String> unknown = new HashSet<String>(selected);
+        for (Benchmark b : BENCHMARKS) {
+            unknown.remove(b.name);
+            if (selected.isEmpty() || selected.contains(b.name)) {
+                Database.reset();
+                b.run();
+            }
+        }
+        if (!unknown.isEmpty()) {
+            StringBuilder names = new StringBuilder();
+            for (Benchmark b : BENCHMARKS)
+                names.append(' ').append(b.name);
+            System.err.println("unknown benchmarks " + unknown + "; choose from" + names);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static long ms(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * Drops the page cache of the OS, so that the next scan really reads
+     * from the disk.  Only possible as root on Linux.
+     *
+     * @return false if scans keep reading files the OS has cached
+     */
+    private static boolean dropOsCache() {
+        File control = new File("/proc/sys/vm/drop_caches");
+        if (!control.canWrite())
+            return false;
+        try {
+            Runtime.getRuntime().exec(new String[] { "sync" }).waitFor();
+            FileWriter w = new FileWriter(control);
+            w.write("3\n");
+            w.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Scans all of f through a fresh pool of poolPages pages.
+     *
+     * @return the nanoseconds the scan took
+     */
+    private static long scan(DbFile f, int expected, int poolPages)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(poolPages);
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, count);
+        return elapsed;
+    }
+
+    /** @return the best of ROUNDS scans of f, after a warm-up scan */
+    private static long bestScan(DbFile f, int expected, int poolPages)
+            throws DbException, TransactionAbortedException, IOException {
+        scan(f, expected, poolPages);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++)
+            best = Math.min(best, scan(f, expected, poolPages));
+        return best;
+    }
+
+    /**
+     * Threads that each read all pages of a table resident in a pool of
+     * 1 or of as many partitions as there are threads, with a shared lock of
+     * their own transaction; simpledb.benchmark.threads threads, by default
+     * as many as there are cores but at least 4.  The pool has room for
+     * twice the table, so that every partition holds all of its pages.
+     */
+    static void partitions() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        final int threads = Integer.getInteger("simpledb.benchmark.threads", Math.max(4, cores));
+        final int passes = 200;
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100000, null, null);
+        final int pages = f.numPages();
+        for (int partitions : new int[] { 1, threads }) {
+            final BufferPool bp = new BufferPool(2 * pages, TwoQueueReplacementPolicy.FACTORY, partitions);
+            TransactionId loader = new TransactionId();
+            for (int i = 0; i < pages; i++)
+                bp.getPage(loader, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            bp.transactionComplete(loader);
+
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round <= ROUNDS; round++) {
+                ArrayList<Thread> readers = new ArrayList<Thread>();
+                for (int t = 0; t < threads; t++) {
+                    final int offset = t * pages / threads;
+                    readers.add(new Thread() {
+                        public void run() {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int pass = 0; pass < passes; pass++) {
+                                    for (int i = 0; i < pages; i++) {
+                                        bp.getPage(tid, new HeapPageId(f.getId(), (i + offset) % pages),
+                                                Permissions.READ_ONLY);
+                                    }
+                                }
+                                bp.transactionComplete(tid);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread reader : readers)
+                    reader.start();
+                for (Thread reader : readers)
+                    reader.join();
+                if (round > 0)
+                    best = Math.min(best, System.nanoTime() - start);
+            }
+            long lookups = (long) threads * passes * pages;
+            System.out.println("partitions: " + threads + " threads on " + cores + " cores, "
+                    + pages + " resident pages, " + partitions + " partition(s): "
+                    + lookups * 1000000 / best + " lookups/ms");
+        }
+    }
+
+    /**
+     * Scans of heap files and B+ trees of simpledb.readahead.rows rows,
+     * 500000 by default, from an empty buffer pool, with and without
+     * read-ahead.
+     */
+    static void readAhead() throws Exception {
+        int rows = Integer.getInteger("simpledb.readahead.rows", 500000);
+        int poolPages = 400;
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        DbFile[] files = new DbFile[] { heap, tree };
+        int[] pages = new int[] { heap.numPages(), tree.numPages() };
+        String[] kinds = new String[] { "heap", "B+ tree" };
+        for (int i = 0; i < files.length; i++) {
+            long[] best = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+            boolean cold = true;
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (int on = 0; on < 2; on++) {
+                    ReadAhead.setEnabled(on == 1);
+                    cold &= dropOsCache();
+                    long nanos = scan(files[i], rows, poolPages);
+                    if (round > 0)
+                        best[on] = Math.min(best[on], nanos);
+                }
+            }
+            ReadAhead.setEnabled(true);
+            System.out.println("readahead: " + kinds[i] + " scan of " + pages[i]
+                    + " pages, " + (cold ? "OS cache dropped" : "OS cache warm") + ": "
+                    + ms(best[1]) + " ms with read-ahead, " + ms(best[0]) + " ms without");
+        }
+    }
+
+    /**
+     * Scans of tables larger than the buffer pool through the FileChannel
+     * and memory mapped.
+     */
+    static void memoryMapped() throws Exception {
+        int rows = 100000;
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        long channel = bestScan(heap, rows, BufferPool.DEFAULT_PAGES);
+        heap.setMemoryMapped(true);
+        long mapped = bestScan(heap, rows, BufferPool.DEFAULT_PAGES);
+        System.out.println("mmap: heap scan of " + heap.numPages() + " pages: "
+                + ms(mapped) + " ms memory mapped, " + ms(channel) + " ms through the FileChannel");
+        channel = bestScan(tree, rows, BufferPool.DEFAULT_PAGES);
+        tree.setMemoryMapped(true);
+        mapped = bestScan(tree, rows, BufferPool.DEFAULT_PAGES);
+        System.out.println("mmap: B+ tree scan of " + tree.numPages() + " pages: "
+                + ms(mapped) + " ms memory mapped, " + ms(channel) + " ms through the FileChannel");
+    }
+
+    /**
+     * Loading the pages of a table, and scanning it through a filter that
+     * rejects every tuple, above the scan or pushed down into it.
+     */
+    static void lazyDecoding() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, null, null);
+        int pages = f.numPages();
+        long[] nanos = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] bytes = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round <= ROUNDS; round++) {
+            for (int i = 0; i < 3; i++) {
+                long allocated = LazyDecodingTest.allocatedBytes();
+                long start = System.nanoTime();
+                if (i == 0)
+                    LazyDecodingTest.load(f);
+                else if (i == 1)
+                    LazyDecodingTest.filter(f);
+                else
+                    LazyDecodingTest.pushdown(f);
+                nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+                bytes[i] = Math.min(bytes[i], LazyDecodingTest.allocatedBytes() - allocated);
+            }
+        }
+        System.out.println("lazy: " + pages + " pages: load " + ms(nanos[0]) + " ms, "
+                + bytes[0] / pages + " bytes/page; filtered scan " + ms(nanos[1]) + " ms, "
+                + bytes[1] / pages + " bytes/page; pushed down " + ms(nanos[2]) + " ms, "
+                + bytes[2] / pages + " bytes/page");
+    }
+
+    /** Scans of all columns and of one int column of a table with a wide string column. */
+    static void projection() throws Exception {
+        HeapFile f = new HeapFile(ProjectionPushdownTest.createWideFile(), ProjectionPushdownTest.WIDE);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        int rows = ProjectionPushdownTest.ROWS;
+        int[][] columns = new int[][] { null, new int[] { 0 } };
+        long[] nanos = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] bytes = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round <= ROUNDS; round++) {
+            for (int i = 0; i < 2; i++) {
+                long allocated = LazyDecodingTest.allocatedBytes();
+                long start = System.nanoTime();
+                ProjectionPushdownTest.scanColumns(f, columns[i]);
+                nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+                bytes[i] = Math.min(bytes[i], LazyDecodingTest.allocatedBytes() - allocated);
+            }
+        }
+        System.out.println("projection: " + rows + " tuples: all columns " + ms(nanos[0]) + " ms, "
+                + bytes[0] / rows + " bytes/tuple; one int column " + ms(nanos[1]) + " ms, "
+                + bytes[1] / rows + " bytes/tuple");
+    }
+
+    /**
+     * A scan-filter-aggregate query over simpledb.batch.rows rows, one
+     * million by default, a tuple and a batch at a time.
+     */
+    static void batch() throws Exception {
+        int rows = Integer.getInteger("simpledb.batch.rows", 1000000);
+        HeapFile f = BatchExecutionTest.createQueryTable(rows);
+        long tupleNanos = Long.MAX_VALUE, batchNanos = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            HashMap<Integer, Integer> expected = BatchExecutionTest.tupleQuery(f);
+            long tuple = System.nanoTime() - start;
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            start = System.nanoTime();
+            HashMap<Integer, Integer> actual = BatchExecutionTest.batchQuery(f);
+            long batch = System.nanoTime() - start;
+            assertEquals(expected, actual);
+            if (round > 0) {
+                tupleNanos = Math.min(tupleNanos, tuple);
+                batchNanos = Math.min(batchNanos, batch);
+            }
+        }
+        System.out.println("batch: " + rows + " rows, " + f.numPages() + " pages: tuple at a time "
+                + ms(tupleNanos) + " ms, batch at a time " + ms(batchNanos) + " ms");
+    }
+
+    /** Filters, scans with pushed down predicates and joins, interpreted and compiled. */
+    static void predicates() throws Exception {
+        int rows = 5 * PredicateCompiler.THRESHOLD;
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(3, rows, 1000, null, null);
+        final HeapFile f1 = SystemTestUtil.createRandomHeapFile(3, 500, 1000, null, null);
+        final HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 500, 1000, null, null);
+        String[] names = new String[] { "filter", "scan", "equi-join", "theta-join" };
+        CompiledPredicateTest.Plan[] plans = new CompiledPredicateTest.Plan[] {
+            new CompiledPredicateTest.Plan() {
+                public OpIterator create(TransactionId tid) {
+                    return CompiledPredicateTest.filters(tid, f);
+                }
+            },
+            new CompiledPredicateTest.Plan() {
+                public OpIterator create(TransactionId tid) {
+                    return new SeqScan(tid, f.getId(), "t", CompiledPredicateTest.PREDICATES);
+                }
+            },
+            new CompiledPredicateTest.Plan() {
+                public OpIterator create(TransactionId tid) {
+                    return new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                            new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+                }
+            },
+            new CompiledPredicateTest.Plan() {
+                public OpIterator create(TransactionId tid) {
+                    return new Join(new JoinPredicate(2, Predicate.Op.LESS_THAN, 2),
+                            new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+                }
+            },
+        };
+        boolean enabled = PredicateCompiler.isEnabled();
+        for (int i = 0; i < plans.length; i++) {
+            long[] best = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+            int expected = -1;
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (int compile = 0; compile < 2; compile++) {
+                    PredicateCompiler.setEnabled(compile == 1);
+                    TransactionId tid = new TransactionId();
+                    long start = System.nanoTime();
+                    int count = CompiledPredicateTest.count(plans[i].create(tid));
+                    long nanos = System.nanoTime() - start;
+                    Database.getBufferPool().transactionComplete(tid);
+                    if (expected < 0)
+                        expected = count;
+                    assertEquals(names[i], expected, count);
+                    if (round > 0)
+                        best[compile] = Math.min(best[compile], nanos);
+                }
+            }
+            System.out.println("predicates: " + names[i] + ": interpreted " + ms(best[0])
+                    + " ms, compiled " + ms(best[1]) + " ms");
+        }
+        PredicateCompiler.setEnabled(enabled);
+    }
+
+    /**
+     * TPC-H-style queries over a lineitem table of simpledb.pipeline.rows
+     * rows, 200000 by default, with the iterator engine and compiled.
+     */
+    static void pipeline() throws Exception {
+        CompiledPipelineTest.createTpchTables(Integer.getInteger("simpledb.pipeline.rows", 200000));
+        for (String sql : CompiledPipelineTest.TPCH_QUERIES) {
+            long[] best = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+            ArrayList<String> expected = null;
+            for (int round = 0; round <= ROUNDS; round++) {
+                for (int compile = 0; compile < 2; compile++) {
+                    long start = System.nanoTime();
+                    ArrayList<String> result = CompiledPipelineTest.query(sql, compile == 1);
+                    long nanos = System.nanoTime() - start;
+                    if (expected == null)
+                        expected = result;
+                    assertEquals(sql, expected, result);
+                    if (round > 0)
+                        best[compile] = Math.min(best[compile], nanos);
+                }
+            }
+            System.out.println("pipeline: " + sql);
+            System.out.println("pipeline:   iterators " + ms(best[0]) + " ms, compiled "
+                    + ms(best[1]) + " ms");
+        }
+    }
+
+    /**
+     * Building and probing an IntHashTable and a HashMap keyed by IntFields
+     * with simpledb.hashtable.keys keys, one million by default, and a
+     * grouped aggregate and a hash join over 200000 tuples.
+     */
+    static void hashTable() throws Exception {
+        int keys = Integer.getInteger("simpledb.hashtable.keys", 1000000);
+        int[] build = HashOperatorTest.randomKeys(keys, 1);
+        int[] probe = HashOperatorTest.randomKeys(keys, 2);
+        IntField[] buildFields = new IntField[keys];
+        IntField[] probeFields = new IntField[keys];
+        for (int i = 0; i < keys; i++) {
+            buildFields[i] = new IntField(build[i]);
+            probeFields[i] = new IntField(probe[i]);
+        }
+
+        long intBuild = Long.MAX_VALUE, intProbe = Long.MAX_VALUE;
+        long mapBuild = Long.MAX_VALUE, mapProbe = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            IntHashTable table = new IntHashTable();
+            for (int i = 0; i < keys; i++)
+                table.add(build[i]);
+            long built = System.nanoTime();
+            int intHits = 0;
+            for (int i = 0; i < keys; i++) {
+                if (table.find(probe[i]) >= 0)
+                    intHits++;
+            }
+            long probed = System.nanoTime();
+            if (round > 0) {
+                intBuild = Math.min(intBuild, built - start);
+                intProbe = Math.min(intProbe, probed - built);
+            }
+
+            start = System.nanoTime();
+            HashMap<Field, Integer> map = new HashMap<Field, Integer>();
+            for (int i = 0; i < keys; i++) {
+                if (!map.containsKey(buildFields[i]))
+                    map.put(buildFields[i], i);
+            }
+            built = System.nanoTime();
+            int mapHits = 0;
+            for (int i = 0; i < keys; i++) {
+                if (map.get(probeFields[i]) != null)
+                    mapHits++;
+            }
+            probed = System.nanoTime();
+            if (round > 0) {
+                mapBuild = Math.min(mapBuild, built - start);
+                mapProbe = Math.min(mapProbe, probed - built);
+            }
+            assertEquals(mapHits, intHits);
+        }
+        System.out.println("hashtable: " + keys + " keys, build: IntHashTable " + ms(intBuild)
+                + " ms, HashMap " + ms(mapBuild) + " ms; probe: IntHashTable " + ms(intProbe)
+                + " ms, HashMap " + ms(mapProbe) + " ms");
+
+        int n = 200000;
+        int[] values = HashOperatorTest.randomKeys(n, 3);
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(values[i] % 1000));
+            t.setField(1, new IntField(i));
+            left.add(t);
+            Tuple u = new Tuple(td);
+            u.setField(0, new IntField(values[i]));
+            u.setField(1, new IntField(i % 7));
+            right.add(u);
+        }
+        long aggregate = Long.MAX_VALUE, join = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            HashOperatorTest.run(new Aggregate(new TupleIterator(td, left), 1, 0, Aggregator.Op.SUM));
+            long aggregated = System.nanoTime();
+            HashOperatorTest.run(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new TupleIterator(td, right), new TupleIterator(td, left)));
+            long joined = System.nanoTime();
+            if (round > 0) {
+                aggregate = Math.min(aggregate, aggregated - start);
+                join = Math.min(join, joined - aggregated);
+            }
+        }
+        System.out.println("hashtable: " + n + " tuples, grouped SUM " + ms(aggregate)
+                + " ms, hash join " + ms(join) + " ms");
+    }
+}
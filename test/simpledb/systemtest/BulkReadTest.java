@@ -0,0 +1,122 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that scans of tables larger than most of the buffer pool read
+ * through a private ring, so that the pages other tables keep in the pool
+ * survive the scan, and that resident pages are still shared with the scan.
+ */
+public class BulkReadTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    @After public void enable() {
+        ReadAhead.setEnabled(true);
+    }
+
+    private InstrumentedHeapFile createTable(int tuples, ArrayList<ArrayList<Integer>> contents)
+            throws IOException {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, tuples, 10000, null, contents);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static int scan(TransactionId tid, HeapFile table)
+            throws DbException, TransactionAbortedException {
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    private void checkWorkingSetSurvives() throws IOException, DbException, TransactionAbortedException {
+        InstrumentedHeapFile small = createTable(2000, null);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        InstrumentedHeapFile large = createTable(100000, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertNull(Database.getBufferPool().newBulkReadRing(small.numPages()));
+        assertNotNull(Database.getBufferPool().newBulkReadRing(large.numPages()));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2000, scan(tid, small));
+        assertEquals(small.numPages(), small.readCount);
+        assertEquals(100000, scan(tid, large));
+
+        // the small table is still cached
+        small.readCount = 0;
+        assertEquals(2000, scan(tid, small));
+        assertEquals(0, small.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(large, tuples);
+    }
+
+    @Test public void testWorkingSetSurvivesLargeScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ReadAhead.setEnabled(false);
+        checkWorkingSetSurvives();
+    }
+
+    @Test public void testWorkingSetSurvivesLargeScanWithReadAhead()
+            throws IOException, DbException, TransactionAbortedException {
+        checkWorkingSetSurvives();
+    }
+
+    @Test public void testResidentPagesShared()
+            throws IOException, DbException, TransactionAbortedException {
+        ReadAhead.setEnabled(false);
+        InstrumentedHeapFile large = createTable(100000, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // dirty the first page; the scan has to see the resident version
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(large.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, first, Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        Database.getBufferPool().deleteTuple(tid, t);
+        large.readCount = 0;
+
+        assertEquals(99999, scan(tid, large));
+        assertEquals(large.numPages() - 1, large.readCount);
+
+        // pages read by the scan did not enter the pool
+        large.readCount = 0;
+        Database.getBufferPool().getPage(tid, new HeapPageId(large.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(1, large.readCount);
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkReadTest.class);
+    }
+}
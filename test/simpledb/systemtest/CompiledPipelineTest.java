@@ -0,0 +1,284 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that queries whose pipelines are compiled return what the
+ * iterator engine returns, for scans, filters, projections, joins and
+ * aggregates, tuples inserted since their page was read and slotted pages,
+ * and for the TPC-H-style queries that {@link Benchmarks} times.
+ */
+public class CompiledPipelineTest extends SimpleDbTestBase {
+
+    private static final int MAX_VALUE = 500;
+
+    /** TPC-H-style queries over the tables of createTpchTables. */
+    static final String[] TPCH_QUERIES = {
+        // Q1: pricing summary
+        "SELECT l.returnflag, SUM(l.price) FROM lineitem l"
+                + " WHERE l.shipdate <= 2400 GROUP BY l.returnflag;",
+        // Q6: forecasting revenue change
+        "SELECT l.returnflag, SUM(l.price) FROM lineitem l"
+                + " WHERE l.shipdate >= 1000 AND l.shipdate < 1365 AND l.discount >= 5"
+                + " AND l.discount <= 7 AND l.quantity < 24 GROUP BY l.returnflag;",
+        // Q3: shipping priority
+        "SELECT o.priority, SUM(l.price) FROM orders o, lineitem l"
+                + " WHERE o.orderkey = l.orderkey AND o.orderdate < 1200"
+                + " AND l.shipdate > 1300 GROUP BY o.priority;",
+    };
+
+    private ArrayList<ArrayList<Integer>> a, b;
+
+    @Before public void createTables()
+            throws IOException, DbException, TransactionAbortedException {
+        a = new ArrayList<ArrayList<Integer>>();
+        HeapFile fa = SystemTestUtil.createRandomHeapFile(4, 5000, MAX_VALUE, null, a, "c");
+        Database.getCatalog().addTable(fa, "cpa");
+        b = new ArrayList<ArrayList<Integer>>();
+        HeapFile fb = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, b, "c");
+        Database.getCatalog().addTable(fb, "cpb");
+        ArrayList<ArrayList<Integer>> c = new ArrayList<ArrayList<Integer>>();
+        HeapFile fc = SystemTestUtil.createRandomHeapFile(2, 300, MAX_VALUE, null, c, "c");
+        Database.getCatalog().addTable(fc, "cpc");
+        TableStats.setTableStats("cpa", new TableStats(fa.getId(), 1000));
+        TableStats.setTableStats("cpb", new TableStats(fb.getId(), 1000));
+        TableStats.setTableStats("cpc", new TableStats(fc.getId(), 1000));
+    }
+
+    /** @return true if a plan has a compiled pipeline */
+    private static boolean isCompiled(OpIterator plan) {
+        if (plan instanceof CompiledPipeline)
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (isCompiled(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the tuples of an iterator, as sorted strings */
+    private static ArrayList<String> run(OpIterator plan)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> result = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(plan.next().toString().trim());
+        plan.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Runs a query, with or without compiling its pipelines. */
+    static ArrayList<String> query(String sql, boolean compile)
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        Transaction t = new Transaction();
+        t.start();
+        Parser p = new Parser();
+        p.setTransaction(t);
+        LogicalPlan lp = p.generateLogicalPlan(t.getId(), sql);
+        lp.setCompilePipelines(compile);
+        OpIterator plan = lp.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+        if (compile)
+            assertTrue("no compiled pipeline in the plan of " + sql, isCompiled(plan));
+        ArrayList<String> result = run(plan);
+        t.commit();
+        return result;
+    }
+
+    /** Checks that a query returns the same tuples compiled or not. */
+    private static void validate(String sql)
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        ArrayList<String> expected = query(sql, false);
+        assertEquals(sql, expected, query(sql, true));
+    }
+
+    @Test public void testScanFilterProject()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        validate("SELECT cpa.c0, cpa.c3 FROM cpa WHERE cpa.c1 < 100 AND cpa.c2 > 200;");
+        validate("SELECT * FROM cpb;");
+        validate("SELECT cpb.c2 FROM cpb WHERE cpb.c0 = 1000;");
+    }
+
+    @Test public void testJoins()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        validate("SELECT cpa.c3, cpb.c2 FROM cpa, cpb WHERE cpa.c1 = cpb.c0 AND cpa.c0 < 300;");
+        validate("SELECT * FROM cpa, cpb, cpc WHERE cpa.c1 = cpb.c0 AND cpb.c1 = cpc.c0;");
+    }
+
+    @Test public void testGroupedAggregates()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        validate("SELECT cpa.c2, SUM(cpa.c0) FROM cpa WHERE cpa.c1 > 100 GROUP BY cpa.c2;");
+        validate("SELECT cpa.c2, MIN(cpa.c0) FROM cpa GROUP BY cpa.c2;");
+        validate("SELECT cpa.c2, AVG(cpa.c3) FROM cpa GROUP BY cpa.c2;");
+
+        // Aggregate can't group by this field of the join, so the result is
+        // checked against the tuples of the tables
+        HashMap<Integer, Integer> max = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> ta : a) {
+            for (ArrayList<Integer> tb : b) {
+                if (ta.get(1).equals(tb.get(0))) {
+                    Integer m = max.get(tb.get(2));
+                    max.put(tb.get(2), m == null ? ta.get(3) : Math.max(m, ta.get(3)));
+                }
+            }
+        }
+        ArrayList<String> expected = new ArrayList<String>();
+        for (Map.Entry<Integer, Integer> e : max.entrySet())
+            expected.add(e.getKey() + "\t" + e.getValue());
+        Collections.sort(expected);
+        assertEquals(expected, query("SELECT cpb.c2, MAX(cpa.c3) FROM cpa, cpb"
+                + " WHERE cpa.c1 = cpb.c0 GROUP BY cpb.c2;", true));
+    }
+
+    /**
+     * Aggregates without grouping, whose result is checked against the
+     * tuples of the table.
+     */
+    @Test public void testAggregates()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        int count = 0, sum = 0, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (ArrayList<Integer> t : a) {
+            if (t.get(1) < 250) {
+                int v = t.get(3);
+                count++;
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        String where = " FROM cpa WHERE cpa.c1 < 250;";
+        assertEquals("" + count, query("SELECT COUNT(cpa.c3)" + where, true).get(0));
+        assertEquals("" + sum, query("SELECT SUM(cpa.c3)" + where, true).get(0));
+        assertEquals("" + sum / count, query("SELECT AVG(cpa.c3)" + where, true).get(0));
+        assertEquals("" + min, query("SELECT MIN(cpa.c3)" + where, true).get(0));
+        assertEquals("" + max, query("SELECT MAX(cpa.c3)" + where, true).get(0));
+    }
+
+    /** Tuples inserted since their page was read are not in its bytes. */
+    @Test public void testInsertedTuples()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        TransactionId tid = new TransactionId();
+        int table = Database.getCatalog().getTableId("cpb");
+        for (int i = 0; i < 50; i++) {
+            Tuple t = new Tuple(Database.getCatalog().getTupleDesc(table));
+            t.setField(0, new IntField(1000 + i));
+            t.setField(1, new IntField(i));
+            t.setField(2, new IntField(i % 3));
+            Database.getBufferPool().insertTuple(tid, table, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        validate("SELECT cpb.c0, cpb.c1 FROM cpb WHERE cpb.c0 >= 1000 AND cpb.c2 = 1;");
+        validate("SELECT cpb.c2, SUM(cpb.c1) FROM cpb WHERE cpb.c0 >= 990 GROUP BY cpb.c2;");
+    }
+
+    /** Filters on strings, over heap and slotted pages. */
+    @Test public void testStrings()
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        File text = File.createTempFile("names", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 2000; i++)
+            w.write(i + ",name" + (i % 37) + "\n");
+        w.close();
+        File heap = File.createTempFile("names", ".dat");
+        heap.deleteOnExit();
+        ZoneMap.sidecarFor(heap).deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File slotted = File.createTempFile("names", ".slotted");
+        slotted.deleteOnExit();
+        ZoneMap.sidecarFor(slotted).deleteOnExit();
+        HeapFileEncoder.convertToSlotted(heap, slotted, td);
+
+        for (HeapFile f : new HeapFile[] { new HeapFile(heap, td),
+                new HeapFile(slotted, td, HeapFile.PageFormat.SLOTTED) }) {
+            Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                    Predicate.Op.LESS_THAN, Predicate.Op.LIKE }) {
+                TransactionId tid = new TransactionId();
+                Predicate name = new Predicate(1, op, new StringField("name1", Type.STRING_LEN));
+                Predicate id = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(500));
+                OpIterator plan = new Filter(name, new SeqScan(tid, f.getId(), "n",
+                        new Predicate[] { id }, null));
+                ArrayList<String> expected = run(plan);
+                OpIterator compiled = CompiledPipeline.compile(plan);
+                assertTrue(compiled instanceof CompiledPipeline);
+                assertTrue(((CompiledPipeline) compiled).isCompiled());
+                assertEquals(expected, run(compiled));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    /**
+     * Creates a table of random tuples with the given column names, where
+     * column i has values from 0 to bounds[i] - 1.
+     */
+    private static HeapFile createTable(String name, String[] columns, int[] bounds, int rows)
+            throws IOException {
+        Random random = new Random(rows);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            for (int bound : bounds)
+                t.add(random.nextInt(bound));
+            tuples.add(t);
+        }
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecarFor(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns.length);
+        Type[] types = new Type[columns.length];
+        for (int i = 0; i < types.length; i++)
+            types[i] = Type.INT_TYPE;
+        HeapFile file = new HeapFile(f, new TupleDesc(types, columns));
+        Database.getCatalog().addTable(file, name);
+        TableStats.setTableStats(name, new TableStats(file.getId(), 1000));
+        return file;
+    }
+
+    /**
+     * Creates the lineitem and orders tables of TPCH_QUERIES, with a
+     * thousandth as many orders as line items, so the nested loops join of
+     * the iterator engine stays feasible.
+     */
+    static void createTpchTables(int rows) throws IOException {
+        int orders = Math.max(rows / 1000, 1);
+        createTable("lineitem",
+                new String[] { "orderkey", "quantity", "price", "discount", "shipdate", "returnflag" },
+                new int[] { orders, 50, 10000, 11, 2500, 3 }, rows);
+        createTable("orders",
+                new String[] { "orderkey", "custkey", "orderdate", "priority" },
+                new int[] { orders, 1000, 2500, 5 }, orders);
+    }
+
+    @Test public void testTpchQueries()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        createTpchTables(20000);
+        for (String sql : TPCH_QUERIES)
+            validate(sql);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompiledPipelineTest.class);
+    }
+}
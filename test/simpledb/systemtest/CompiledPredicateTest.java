@@ -0,0 +1,132 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that Filter, Join and scans with predicates pushed down into them
+ * return the same tuples whether their predicates are compiled or not, over
+ * enough tuples that the evaluators compile them.
+ */
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5 * PredicateCompiler.THRESHOLD;
+    private static final int MAX_VALUE = 1000;
+
+    static final Predicate[] PREDICATES = new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(200)),
+        new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(700)),
+        new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7)),
+    };
+
+    private boolean enabled;
+
+    @Before public void saveEnabled() {
+        enabled = PredicateCompiler.isEnabled();
+    }
+
+    @After public void restoreEnabled() {
+        PredicateCompiler.setEnabled(enabled);
+    }
+
+    static int count(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    static OpIterator filters(TransactionId tid, HeapFile f) {
+        OpIterator it = new SeqScan(tid, f.getId(), "t");
+        for (Predicate p : PREDICATES)
+            it = new Filter(p, it);
+        return it;
+    }
+
+    /** Creates a plan to run in a transaction. */
+    interface Plan {
+        OpIterator create(TransactionId tid);
+    }
+
+    /** Runs a plan with compilation off, then on, and checks the counts. */
+    private static void check(String name, int expected, Plan plan)
+            throws DbException, TransactionAbortedException, IOException {
+        for (boolean compile : new boolean[] { false, true }) {
+            PredicateCompiler.setEnabled(compile);
+            TransactionId tid = new TransactionId();
+            assertEquals(name, expected, count(plan.create(tid)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void testFilterAndScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        int expected = 0;
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) > 200 && tuple.get(1) <= 700 && tuple.get(2) != 7)
+                expected++;
+        }
+
+        check("filter", expected, new Plan() {
+            public OpIterator create(TransactionId tid) {
+                return filters(tid, f);
+            }
+        });
+        check("scan", expected, new Plan() {
+            public OpIterator create(TransactionId tid) {
+                return new SeqScan(tid, f.getId(), "t", PREDICATES);
+            }
+        });
+    }
+
+    @Test public void testJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+        final HeapFile f1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, MAX_VALUE, null, left);
+        final HeapFile f2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, MAX_VALUE, null, right);
+        int equal = 0, less = 0;
+        for (ArrayList<Integer> t1 : left) {
+            for (ArrayList<Integer> t2 : right) {
+                if (t1.get(1).equals(t2.get(0)))
+                    equal++;
+                if (t1.get(2) < t2.get(2))
+                    less++;
+            }
+        }
+
+        check("equi-join", equal, new Plan() {
+            public OpIterator create(TransactionId tid) {
+                return new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+            }
+        });
+        check("theta-join", less, new Plan() {
+            public OpIterator create(TransactionId tid) {
+                return new Join(new JoinPredicate(2, Predicate.Op.LESS_THAN, 2),
+                        new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+            }
+        });
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompiledPredicateTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that an IntHashTable hands out the same ids as a HashMap keyed by
+ * IntFields, which the joins and aggregates used before, and that the
+ * operators that use it return the same results as HashMaps would.
+ * {@link Benchmarks} times both.
+ */
+public class HashOperatorTest extends SimpleDbTestBase {
+
+    private static final int KEYS = 200000;
+
+    static int[] randomKeys(int n, long seed) {
+        Random random = new Random(seed);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = random.nextInt(4 * n);
+        return keys;
+    }
+
+    @Test public void testBuildAndProbe() {
+        int[] build = randomKeys(KEYS, 1);
+        int[] probe = randomKeys(KEYS, 2);
+        IntHashTable table = new IntHashTable();
+        HashMap<Field, Integer> map = new HashMap<Field, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            int id = table.add(build[i]);
+            IntField key = new IntField(build[i]);
+            if (!map.containsKey(key)) {
+                assertEquals(map.size(), id);
+                map.put(key, id);
+            }
+        }
+        assertEquals(map.size(), table.size());
+        for (int i = 0; i < KEYS; i++) {
+            Integer id = map.get(new IntField(probe[i]));
+            assertEquals(id == null ? -1 : id.intValue(), table.find(probe[i]));
+        }
+    }
+
+    /** @return the tuples of an operator */
+    static ArrayList<Tuple> run(OpIterator op)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        op.open();
+        while (op.hasNext())
+            tuples.add(op.next());
+        op.close();
+        return tuples;
+    }
+
+    @Test public void testOperators() throws DbException, TransactionAbortedException {
+        int n = KEYS;
+        int[] keys = randomKeys(n, 3);
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        TupleDesc td = Utility.getTupleDesc(2);
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(keys[i] % 1000));
+            t.setField(1, new IntField(i));
+            left.add(t);
+            Tuple u = new Tuple(td);
+            u.setField(0, new IntField(keys[i]));
+            u.setField(1, new IntField(i % 7));
+            right.add(u);
+        }
+
+        // SUM grouped by the int key, against a HashMap
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (Tuple t : left) {
+            int k = ((IntField) t.getField(0)).getValue();
+            Integer s = sums.get(k);
+            sums.put(k, (s == null ? 0 : s) + ((IntField) t.getField(1)).getValue());
+        }
+        ArrayList<Tuple> groups = run(new Aggregate(new TupleIterator(td, left), 1, 0,
+                Aggregator.Op.SUM));
+        assertEquals(sums.size(), groups.size());
+        for (Tuple t : groups) {
+            assertEquals(sums.get(((IntField) t.getField(0)).getValue()).intValue(),
+                    ((IntField) t.getField(1)).getValue());
+        }
+
+        // equality join on the int key, against a HashMap of counts
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (Tuple t : right) {
+            int k = ((IntField) t.getField(0)).getValue();
+            Integer c = counts.get(k);
+            counts.put(k, (c == null ? 0 : c) + 1);
+        }
+        long expected = 0;
+        for (Tuple t : left) {
+            Integer c = counts.get(((IntField) t.getField(0)).getValue());
+            expected += c == null ? 0 : c;
+        }
+        ArrayList<Tuple> joined = run(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, right), new TupleIterator(td, left)));
+        assertEquals(expected, joined.size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashOperatorTest.class);
+    }
+}
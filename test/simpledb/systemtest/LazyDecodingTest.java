@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Measures how many bytes are allocated to load the pages of a heap file
+ * into the buffer pool and to scan it through a filter that rejects every
+ * tuple, above the scan or pushed down into it.  Pages that are loaded but
+ * not iterated over should cost little more than their bytes, and so should
+ * tuples that a pushed down predicate rejects.
+ */
+public class LazyDecodingTest extends SimpleDbTestBase {
+
+    private static final int ROUNDS = 3;
+
+    /**
+     * @return the bytes allocated so far by all live threads, including the
+     *         read-ahead threads that load pages, or -1 if unknown
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+            return -1;
+        long total = 0;
+        for (long bytes : sunBean.getThreadAllocatedBytes(bean.getAllThreadIds()))
+            total += Math.max(bytes, 0);
+        return total;
+    }
+
+    /** Reads every page of f into a fresh buffer pool. */
+    static void load(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(f.numPages() + 1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Scans f through a filter that matches nothing. */
+    static void filter(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(f.numPages() + 1);
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)),
+                new SeqScan(tid, f.getId()));
+        filter.open();
+        assertFalse(filter.hasNext());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Scans f with predicates that match nothing pushed into the scan; each
+     * of them matches on every page, so the zone map can't skip any.
+     */
+    static void pushdown(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(f.numPages() + 1);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", new Predicate[] {
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5000)),
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(60000)) });
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAllocations()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, null, tuples);
+        int pages = f.numPages();
+
+        // the least of a few rounds, to leave out one-time allocations
+        long loadBytes = Long.MAX_VALUE, filterBytes = Long.MAX_VALUE, pushdownBytes = Long.MAX_VALUE;
+        for (int i = 0; i <= ROUNDS; i++) {
+            long bytes = allocatedBytes();
+            load(f);
+            loadBytes = Math.min(loadBytes, allocatedBytes() - bytes);
+
+            bytes = allocatedBytes();
+            filter(f);
+            filterBytes = Math.min(filterBytes, allocatedBytes() - bytes);
+
+            bytes = allocatedBytes();
+            pushdown(f);
+            pushdownBytes = Math.min(pushdownBytes, allocatedBytes() - bytes);
+        }
+        SystemTestUtil.matchTuples(f, tuples);
+
+        if (loadBytes >= 0) {
+            // the page, its header and some bookkeeping; the before-image
+            // is only copied when the page is modified
+            assertTrue(loadBytes / pages < 4 * BufferPool.getPageSize());
+            // the predicate is tested on the page bytes, without a Tuple
+            // or Field per rejected tuple
+            assertTrue(pushdownBytes < filterBytes);
+            assertTrue(pushdownBytes / pages < 4 * BufferPool.getPageSize());
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LazyDecodingTest.class);
+    }
+}
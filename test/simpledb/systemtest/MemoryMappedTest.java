@@ -0,0 +1,90 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans heap files and B+ trees through the memory mapped read path and
+ * checks that they return the same tuples as through the FileChannel path,
+ * also after the file grew, for tables larger than the buffer pool.
+ */
+public class MemoryMappedTest extends SimpleDbTestBase {
+
+    private static void scan(DbFile f, int expected)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, count);
+    }
+
+    @Test public void testHeapFileScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100000, null, tuples);
+        assertTrue(f.numPages() > BufferPool.DEFAULT_PAGES);
+
+        scan(f, tuples.size());
+        f.setMemoryMapped(true);
+        scan(f, tuples.size());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testHeapFileGrows()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        f.setMemoryMapped(true);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // append pages after the file was mapped
+        int pages = f.numPages();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; f.numPages() < pages + 2; i++) {
+            Tuple tup = new Tuple(Utility.getTupleDesc(2));
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        t.commit();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testBTreeScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 100000, null, tuples, 0);
+        assertTrue(f.numPages() > BufferPool.DEFAULT_PAGES);
+
+        scan(f, tuples.size());
+        f.setMemoryMapped(true);
+        scan(f, tuples.size());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MemoryMappedTest.class);
+    }
+}
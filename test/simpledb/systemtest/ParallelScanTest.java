@@ -0,0 +1,134 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that scans split into ranges of pages read by several threads
+ * under an Exchange return every tuple of the table once, and that queries
+ * planned with parallel scans return the same tuples as serial ones.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile file;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(file, "ps");
+        TableStats.setTableStats("ps", new TableStats(file.getId(), 1000));
+    }
+
+    private Exchange split(TransactionId tid, Predicate[] predicates, int scans, int pages) {
+        SeqScan scan = new SeqScan(tid, file.getId(), "ps", predicates, null);
+        return new Exchange(scan.split(scans, pages));
+    }
+
+    @Test public void testSplitScan()
+            throws IOException, DbException, TransactionAbortedException {
+        assertTrue(file.numPages() > 8);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(split(tid, null, 4, 2), tuples);
+        // more scans than ranges of pages
+        SystemTestUtil.matchTuples(split(tid, null, 4, file.numPages()), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSplitScanWithPredicates()
+            throws IOException, DbException, TransactionAbortedException {
+        Predicate[] predicates = new Predicate[] {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300)),
+            new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)) };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 300 && t.get(2) >= 100)
+                expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(split(tid, predicates, 3, 4), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        Exchange exchange = split(tid, null, 4, 2);
+        exchange.open();
+        for (int i = 0; i < 1000; i++)
+            exchange.next();
+        exchange.rewind();
+        int count = 0;
+        while (exchange.hasNext()) {
+            exchange.next();
+            count++;
+        }
+        exchange.close();
+        assertEquals(ROWS, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return true if a plan has an Exchange */
+    private static boolean hasExchange(OpIterator plan) {
+        if (plan instanceof Exchange)
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (hasExchange(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Runs a query with the given degree of parallelism. */
+    private static ArrayList<String> query(String sql, int parallelism)
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        Transaction t = new Transaction();
+        t.start();
+        Parser p = new Parser();
+        p.setTransaction(t);
+        LogicalPlan lp = p.generateLogicalPlan(t.getId(), sql);
+        lp.setParallelism(parallelism);
+        OpIterator plan = lp.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+        // Aggregate doesn't return its child from getChildren
+        if (!sql.contains("GROUP BY"))
+            assertEquals(sql, parallelism > 1, hasExchange(plan));
+        ArrayList<String> result = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(plan.next().toString().trim());
+        plan.close();
+        t.commit();
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test public void testParallelQueries()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        String[] queries = new String[] {
+            "SELECT * FROM ps;",
+            "SELECT ps.c0, ps.c2 FROM ps WHERE ps.c1 < 200;",
+            "SELECT ps.c1, SUM(ps.c0) FROM ps WHERE ps.c2 > 500 GROUP BY ps.c1;",
+        };
+        for (String sql : queries)
+            assertEquals(sql, query(sql, 1), query(sql, 4));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
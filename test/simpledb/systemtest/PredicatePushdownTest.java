@@ -0,0 +1,118 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that scans with predicates pushed down into them return the tuples
+ * that satisfy all of the predicates, for heap and B+ tree files, and that
+ * the planner pushes the filters of a query into its scans.
+ */
+public class PredicatePushdownTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 10000;
+    private static final int MAX_VALUE = 1000;
+
+    private static final Predicate[][] CONJUNCTIONS = new Predicate[][] {
+        { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)) },
+        { new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)),
+          new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7)) },
+        { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(200)),
+          new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(300)),
+          new Predicate(2, Predicate.Op.LESS_THAN, new IntField(900)) },
+        { new Predicate(1, Predicate.Op.EQUALS, new IntField(42)) },
+        { new Predicate(2, Predicate.Op.LESS_THAN, new IntField(0)) },
+    };
+
+    private static boolean matches(ArrayList<Integer> tuple, Predicate[] preds) {
+        for (Predicate p : preds) {
+            IntField f = new IntField(tuple.get(p.getField()));
+            if (!f.compare(p.getOp(), p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    private static void validate(DbFile f, ArrayList<ArrayList<Integer>> tuples)
+            throws DbException, TransactionAbortedException, IOException {
+        for (Predicate[] preds : CONJUNCTIONS) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> tuple : tuples) {
+                if (matches(tuple, preds))
+                    expected.add(tuple);
+            }
+            TransactionId tid = new TransactionId();
+            SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "t", preds), expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void testHeapFile()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        validate(f, tuples);
+        // again, with the zones the first round computed
+        validate(f, tuples);
+    }
+
+    @Test public void testBTreeFile()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, 0);
+        validate(f, tuples);
+    }
+
+    /** Adds the scans of a plan to scans. */
+    private static void findScans(OpIterator plan, ArrayList<SeqScan> scans) {
+        if (plan instanceof SeqScan) {
+            scans.add((SeqScan) plan);
+        } else {
+            assertFalse("filter left above a scan", plan instanceof Filter);
+            for (OpIterator child : ((Operator) plan).getChildren())
+                findScans(child, scans);
+        }
+    }
+
+    @Test public void testPlan()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null, "c");
+        Database.getCatalog().addTable(f, "pushdown");
+        HeapFile g = SystemTestUtil.createRandomHeapFile(COLUMNS, 100, MAX_VALUE, null, null, "c");
+        Database.getCatalog().addTable(g, "other");
+        TableStats.setTableStats("pushdown", new TableStats(f.getId(), 1000));
+        TableStats.setTableStats("other", new TableStats(g.getId(), 1000));
+
+        Transaction t = new Transaction();
+        t.start();
+        Parser p = new Parser();
+        p.setTransaction(t);
+        LogicalPlan lp = p.generateLogicalPlan(t.getId(),
+                "SELECT pushdown.c0, other.c1 FROM pushdown, other"
+                + " WHERE pushdown.c1 = other.c1 AND pushdown.c0 < 100 AND pushdown.c2 > 10;");
+        OpIterator plan = lp.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+
+        ArrayList<SeqScan> scans = new ArrayList<SeqScan>();
+        findScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan scan : scans) {
+            if (scan.getTableName().equals("pushdown"))
+                assertEquals(2, scan.getPredicates().length);
+            else
+                assertEquals(0, scan.getPredicates().length);
+        }
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PredicatePushdownTest.class);
+    }
+}
@@ -0,0 +1,255 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that scans of some of the columns of a table return the right
+ * fields of the right tuples, for every kind of DbFile, that the planner
+ * only scans the columns a query refers to without changing its result,
+ * and that a scan of a narrow column of a table with wide string columns
+ * allocates fewer bytes than a scan of all columns.
+ */
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+
+    static final int ROWS = 5000;
+    private static final int MAX_VALUE = 500;
+
+    static final TupleDesc WIDE = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "id", "name", "value" });
+
+    /** Creates a table of WIDE tuples "i, name(i % 97)...., i % 13". */
+    static File createWideFile() throws IOException {
+        File text = File.createTempFile("wide", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++)
+            w.write(i + "," + name(i) + "," + (i % 13) + "\n");
+        w.close();
+        File f = File.createTempFile("wide", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecarFor(f).deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 3,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        return f;
+    }
+
+    /** @return the name of tuple i, long enough to make decoding it count */
+    private static String name(int i) {
+        String name = "name" + (i % 97);
+        while (name.length() < 100)
+            name += ".";
+        return name;
+    }
+
+    /** @return the fields of the tuples of a scan, as strings */
+    private static ArrayList<String> scan(SeqScan scan)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> result = new ArrayList<String>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(scan.getTupleDesc().numFields(), t.getTupleDesc().numFields());
+            result.add(t.toString().trim());
+        }
+        scan.close();
+        return result;
+    }
+
+    private static void validateWide(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Predicate[] preds = new Predicate[] {
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(5)) };
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 13 == 5)
+                expected.add(name(i) + "\t" + i);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, f.getId(), "w", preds, new int[] { 1, 0 });
+        assertEquals(2, ss.getTupleDesc().numFields());
+        assertEquals(0, ss.getTupleDesc().fieldNameToIndex("w.name"));
+        assertEquals(1, ss.getTupleDesc().fieldNameToIndex("w.id"));
+        ArrayList<String> actual = scan(ss);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testHeapFile()
+            throws IOException, DbException, TransactionAbortedException {
+        File f = createWideFile();
+        validateWide(new HeapFile(f, WIDE));
+
+        File slotted = File.createTempFile("wide", ".slotted");
+        slotted.deleteOnExit();
+        ZoneMap.sidecarFor(slotted).deleteOnExit();
+        HeapFileEncoder.convertToSlotted(f, slotted, WIDE);
+        validateWide(new HeapFile(slotted, WIDE, HeapFile.PageFormat.SLOTTED));
+    }
+
+    @Test public void testBTreeFile()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(3, ROWS, MAX_VALUE, null, tuples, 0);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) < 100) {
+                ArrayList<Integer> projected = new ArrayList<Integer>();
+                projected.add(tuple.get(2));
+                expected.add(projected);
+            }
+        }
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "t",
+                new Predicate[] { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)) },
+                new int[] { 2 }), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Runs a query and returns its result, as strings.
+     *
+     * @param expectedColumns the columns the scans of pa and pb should
+     *        return, or null to not check them
+     */
+    private static ArrayList<String> query(String sql, int[][] expectedColumns)
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        Transaction t = new Transaction();
+        t.start();
+        Parser p = new Parser();
+        p.setTransaction(t);
+        LogicalPlan lp = p.generateLogicalPlan(t.getId(), sql);
+        OpIterator plan = lp.physicalPlan(t.getId(), TableStats.getStatsMap(), false);
+
+        if (expectedColumns != null) {
+            ArrayList<SeqScan> scans = new ArrayList<SeqScan>();
+            findScans(plan, scans);
+            assertEquals(expectedColumns.length, scans.size());
+            for (SeqScan scan : scans) {
+                int[] expected = expectedColumns[scan.getTableName().equals("pa") ? 0 : 1];
+                assertArrayEquals(expected, scan.getColumns());
+            }
+        }
+
+        ArrayList<String> result = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(plan.next().toString().trim());
+        plan.close();
+        t.commit();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Adds the scans of a plan to scans. */
+    private static void findScans(OpIterator plan, ArrayList<SeqScan> scans) {
+        if (plan instanceof SeqScan) {
+            scans.add((SeqScan) plan);
+        } else if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren())
+                findScans(child, scans);
+        }
+    }
+
+    @Test public void testQueries()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+        HeapFile fa = SystemTestUtil.createRandomHeapFile(4, 2000, MAX_VALUE, null, a, "c");
+        Database.getCatalog().addTable(fa, "pa");
+        ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+        HeapFile fb = SystemTestUtil.createRandomHeapFile(3, 500, MAX_VALUE, null, b, "c");
+        Database.getCatalog().addTable(fb, "pb");
+        TableStats.setTableStats("pa", new TableStats(fa.getId(), 1000));
+        TableStats.setTableStats("pb", new TableStats(fb.getId(), 1000));
+
+        // a join, with a filter on a column that is not returned
+        ArrayList<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> ta : a) {
+            for (ArrayList<Integer> tb : b) {
+                if (ta.get(1).equals(tb.get(0)) && ta.get(0) < 300)
+                    expected.add(ta.get(3) + "\t" + tb.get(2));
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected, query("SELECT pa.c3, pb.c2 FROM pa, pb"
+                + " WHERE pa.c1 = pb.c0 AND pa.c0 < 300;",
+                new int[][] { { 1, 3 }, { 0, 2 } }));
+
+        // an aggregate, which reads its child when it is created, so its
+        // scan is not part of the plan
+        Map<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> ta : a) {
+            if (ta.get(1) > 100) {
+                Integer sum = sums.get(ta.get(2));
+                sums.put(ta.get(2), (sum == null ? 0 : sum) + ta.get(0));
+            }
+        }
+        expected.clear();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet())
+            expected.add(e.getKey() + "\t" + e.getValue());
+        Collections.sort(expected);
+        assertEquals(expected, query("SELECT pa.c2, SUM(pa.c0) FROM pa"
+                + " WHERE pa.c1 > 100 GROUP BY pa.c2;", null));
+
+        // every column
+        assertEquals(2000, query("SELECT * FROM pa;", new int[][] { null }).size());
+    }
+
+    /** Scans f, with all or only some of its columns, through a cold pool. */
+    static void scanColumns(HeapFile f, int[] columns)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(f.numPages() + 1);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "w", null, columns);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAllocations()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = new HeapFile(createWideFile(), WIDE);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        int[] narrow = new int[] { 0 };
+
+        long allBytes = Long.MAX_VALUE, narrowBytes = Long.MAX_VALUE;
+        for (int i = 0; i <= 3; i++) {
+            long bytes = LazyDecodingTest.allocatedBytes();
+            scanColumns(f, null);
+            allBytes = Math.min(allBytes, LazyDecodingTest.allocatedBytes() - bytes);
+
+            bytes = LazyDecodingTest.allocatedBytes();
+            scanColumns(f, narrow);
+            narrowBytes = Math.min(narrowBytes, LazyDecodingTest.allocatedBytes() - bytes);
+        }
+        if (allBytes >= 0)
+            assertTrue(narrowBytes < allBytes * 3 / 4);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
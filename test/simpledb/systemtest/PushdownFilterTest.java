@@ -0,0 +1,31 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import static org.junit.Assert.*;
+import simpledb.*;
+
+/**
+ * Runs the filter tests with the predicate pushed down into the scan.
+ */
+public class PushdownFilterTest extends FilterBase {
+    @Override
+    protected int applyPredicate(HeapFile table, TransactionId tid, Predicate predicate)
+            throws DbException, TransactionAbortedException, IOException {
+        SeqScan ss = new SeqScan(tid, table.getId(), "", new Predicate[] { predicate });
+        ss.open();
+
+        int resultCount = 0;
+        while (ss.hasNext()) {
+            assertNotNull(ss.next());
+            resultCount += 1;
+        }
+
+        ss.close();
+        return resultCount;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PushdownFilterTest.class);
+    }
+}
@@ -15,6 +15,7 @@ import simpledb.TableStats;
 import simpledb.Transaction;
 import simpledb.TransactionAbortedException;
 import simpledb.Utility;
+import simpledb.ZoneMap;
 
 public class QueryTest {
 	
@@ -29,6 +30,7 @@ public class QueryTest {
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        ZoneMap.sidecarFor(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -0,0 +1,76 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans heap files and B+ trees with read-ahead, checking that pages are
+ * prefetched and that the scans still return every tuple once.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 400;
+
+    @After public void enable() {
+        ReadAhead.setEnabled(true);
+    }
+
+    private static void scan(DbFile f, int expected)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, count);
+    }
+
+    @Test public void testHeapFileScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, null, tuples);
+        assertTrue(f.numPages() > 50);
+
+        ReadAhead.setEnabled(false);
+        long before = ReadAhead.getTotalPrefetched();
+        scan(f, tuples.size());
+        assertEquals(before, ReadAhead.getTotalPrefetched());
+
+        ReadAhead.setEnabled(true);
+        scan(f, tuples.size());
+        assertTrue(ReadAhead.getTotalPrefetched() > before);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testBTreeScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 50000, null, tuples, 0);
+
+        ReadAhead.setEnabled(false);
+        scan(f, tuples.size());
+
+        ReadAhead.setEnabled(true);
+        long before = ReadAhead.getTotalPrefetched();
+        scan(f, tuples.size());
+        assertTrue(ReadAhead.getTotalPrefetched() > before);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that the buffer pool's default replacement policy is scan
+ * resistant: the index pages of a B+ tree that is in use stay resident
+ * while other files are scanned through the pool, with read-ahead on.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    class InstrumentedBTreeFile extends BTreeFile {
+        public InstrumentedBTreeFile(File f, int keyField, TupleDesc td) {
+            super(f, keyField, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    private static BTreePageId touchIndexPages(TransactionId tid, BTreeFile f)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid,
+                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        bp.getPage(tid, rootId, Permissions.READ_ONLY);
+        return rootId;
+    }
+
+    @Test public void testIndexPagesSurviveIndexScan()
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        InstrumentedBTreeFile index = new InstrumentedBTreeFile(bf.getFile(), 0, bf.getTupleDesc());
+        Database.getCatalog().addTable(index, SystemTestUtil.getUUID());
+
+        // B+ tree scans never read through a ring, so every leaf goes through the policy
+        BTreeFile table = BTreeUtility.createRandomBTreeFile(2, 100000, null, null, 0);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(true, table.numPages() > 3 * BufferPool.DEFAULT_PAGES);
+        ReadAhead.setEnabled(true);
+
+        // the index is used by a couple of lookups, which makes its pages hot
+        TransactionId tid = new TransactionId();
+        BTreePageId rootId = touchIndexPages(tid, index);
+        assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+        touchIndexPages(tid, index);
+        assertEquals(2, index.readCount);
+
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(100000, count);
+
+        // the root pointer and root page are still cached
+        touchIndexPages(tid, index);
+        assertEquals(2, index.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexPagesSurviveReadAhead()
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        InstrumentedBTreeFile index = new InstrumentedBTreeFile(bf.getFile(), 0, bf.getTupleDesc());
+        Database.getCatalog().addTable(index, SystemTestUtil.getUUID());
+
+        // tables small enough to be scanned through the pool rather than a ring
+        HeapFile[] tables = new HeapFile[4];
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = SystemTestUtil.createRandomHeapFile(2, 15000, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(null, Database.getBufferPool().newBulkReadRing(tables[0].numPages()));
+        ReadAhead.setEnabled(true);
+
+        TransactionId tid = new TransactionId();
+        touchIndexPages(tid, index);
+        touchIndexPages(tid, index);
+        assertEquals(2, index.readCount);
+
+        // prefetched pages are only read once, so they must not become hot
+        long prefetched = ReadAhead.getTotalPrefetched();
+        for (HeapFile table : tables) {
+            SeqScan scan = new SeqScan(tid, table.getId(), "");
+            scan.open();
+            while (scan.hasNext())
+                scan.next();
+            scan.close();
+        }
+        assertEquals(true, ReadAhead.getTotalPrefetched() > prefetched);
+
+        touchIndexPages(tid, index);
+        assertEquals(2, index.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}
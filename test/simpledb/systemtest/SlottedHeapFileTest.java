@@ -0,0 +1,147 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Converts a heap file with string columns to slotted pages, and checks that
+ * it takes fewer pages and returns the same tuples, also after inserts and
+ * deletes.
+ */
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private TupleDesc td;
+    private File fixedFile;
+    private ArrayList<String> rows;
+
+    @Before public void createFile() throws IOException {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        rows = new ArrayList<String>();
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            String row = i + ",name" + (i % 97);
+            rows.add(row);
+            w.write(row + "\n");
+        }
+        w.close();
+        fixedFile = File.createTempFile("fixed", ".dat");
+        fixedFile.deleteOnExit();
+        ZoneMap.sidecarFor(fixedFile).deleteOnExit();
+        HeapFileEncoder.convert(text, fixedFile, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    }
+
+    private HeapFile convert(File dir) throws IOException {
+        File slottedFile = File.createTempFile("slotted", ".dat", dir);
+        slottedFile.deleteOnExit();
+        ZoneMap.sidecarFor(slottedFile).deleteOnExit();
+        HeapFileEncoder.convertToSlotted(fixedFile, slottedFile, td);
+        HeapFile f = new HeapFile(slottedFile, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static ArrayList<String> scan(DbFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        ArrayList<String> result = new ArrayList<String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            result.add(((IntField) t.getField(0)).getValue() + ","
+                    + ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    @Test public void testConvert()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile fixed = new HeapFile(fixedFile, td);
+        Database.getCatalog().addTable(fixed, SystemTestUtil.getUUID());
+        HeapFile slotted = convert(null);
+
+        assertEquals(rows, scan(fixed));
+        assertEquals(rows, scan(slotted));
+        assertTrue(slotted.numPages() * 4 < fixed.numPages());
+    }
+
+    @Test public void testInsertDelete()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = convert(null);
+        int pages = f.numPages();
+
+        // delete every other tuple, then insert as many again
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple tup = it.next();
+            if (i % 2 == 0)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+            rows.remove(((IntField) tup.getField(0)).getValue() + ","
+                    + ((StringField) tup.getField(1)).getValue());
+        }
+        for (int i = 0; i < victims.size(); i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, new IntField(ROWS + i));
+            tup.setField(1, new StringField("new" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            rows.add((ROWS + i) + ",new" + i);
+        }
+        t.commit();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ArrayList<String> result = scan(f);
+        Collections.sort(result);
+        Collections.sort(rows);
+        assertEquals(rows, result);
+        // the new tuples went into the room the deletes made, except for
+        // the tail of each page that a tuple of the largest size won't fit in
+        assertTrue(f.numPages() <= pages + 1);
+    }
+
+    @Test public void testCatalog() throws IOException {
+        File dir = fixedFile.getParentFile();
+        HeapFile converted = convert(dir);
+        String name = converted.getFile().getName().replace(".dat", "");
+        File catalog = File.createTempFile("catalog", ".txt", dir);
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write(name + " (id int, name string) slotted\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(name));
+        assertEquals(HeapFile.PageFormat.SLOTTED, f.getPageFormat());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
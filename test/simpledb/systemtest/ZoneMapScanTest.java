@@ -0,0 +1,158 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans a table whose first column grows with the page number with range
+ * predicates, and checks that the zone map lets the scans skip the pages
+ * that can't match without reading them, also after inserts and deletes
+ * and after the table is opened again.
+ */
+public class ZoneMapScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 504 * 20;
+
+    /** Counts the number of readPage operations. */
+    static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    private File file;
+
+    @Before public void createFile() throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        file = File.createTempFile("zones", ".dat");
+        file.deleteOnExit();
+        ZoneMap.sidecarFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    }
+
+    private InstrumentedHeapFile open() {
+        InstrumentedHeapFile f = new InstrumentedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    /** @return the number of tuples of f that satisfy p, read through a cold pool */
+    private static int count(HeapFile f, Predicate p)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid, new Predicate[] { p });
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(p.filter(it.next()));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    @Test public void testSkipPages()
+            throws IOException, DbException, TransactionAbortedException {
+        InstrumentedHeapFile f = open();
+        assertEquals(20, f.numPages());
+        Predicate below = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+
+        // without a sidecar, the first scan reads every page and computes the zones
+        assertEquals(100, count(f, below));
+        assertEquals(20, f.readCount);
+        assertEquals(0, f.getZoneMap().getPagesSkipped());
+
+        f.readCount = 0;
+        assertEquals(100, count(f, below));
+        assertEquals(1, f.readCount);
+        assertEquals(19, f.getZoneMap().getPagesSkipped());
+
+        f.readCount = 0;
+        Predicate last = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 504));
+        assertEquals(504, count(f, last));
+        assertEquals(1, f.readCount);
+
+        // nothing matches
+        f.readCount = 0;
+        assertEquals(0, count(f, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0))));
+        assertEquals(0, f.readCount);
+
+        // a new table object reads the zones from the sidecar
+        f = open();
+        assertEquals(100, count(f, below));
+        assertEquals(1, f.readCount);
+    }
+
+    @Test public void testInsertDelete()
+            throws IOException, DbException, TransactionAbortedException {
+        InstrumentedHeapFile f = open();
+        Predicate negative = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        assertEquals(0, count(f, negative));
+
+        // an insert widens the zone of its page, which is saved with the page
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(new int[] { -1, 1 }));
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, count(f, negative));
+        f = open();
+        assertEquals(1, count(f, negative));
+
+        // an aborted delete leaves the tuple where the zone still finds it
+        Predicate zero = new Predicate(0, Predicate.Op.EQUALS, new IntField(0));
+        t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId(), new Predicate[] { zero });
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t.getId(), victim);
+        t.transactionComplete(true);
+        assertEquals(1, count(f, zero));
+
+        // a committed one is gone
+        t = new Transaction();
+        t.start();
+        it = f.iterator(t.getId(), new Predicate[] { zero });
+        it.open();
+        while (it.hasNext())
+            Database.getBufferPool().deleteTuple(t.getId(), it.next());
+        it.close();
+        t.commit();
+        assertEquals(0, count(f, zero));
+        f.readCount = 0;
+        assertEquals(1, count(f, new Predicate(0, Predicate.Op.EQUALS, new IntField(1))));
+        assertEquals(1, f.readCount);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapScanTest.class);
+    }
+}